@@ -0,0 +1,55 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.exception.GlobalExceptionHandler;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.concurrent.TimeUnit;
+
+// Percorso d'errore completo: creazione dell'eccezione (con stack trace), GlobalExceptionHandler e serializzazione di ApiError
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErroreBenchmark {
+
+	private GlobalExceptionHandler handler;
+	private ObjectMapper objectMapper;
+	private WebRequest request;
+
+	@Setup
+	public void prepara() {
+		handler = new GlobalExceptionHandler();
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		request = new ServletWebRequest(new MockHttpServletRequest("GET", "/viaggi/42"));
+	}
+
+	@Benchmark
+	public byte[] notFound() throws Exception {
+		NotFoundException eccezione = new NotFoundException("Piano di viaggio con ID 42 non trovato");
+		return objectMapper.writeValueAsBytes(handler.handleNotFoundException(eccezione, request).getBody());
+	}
+
+	@Benchmark
+	public byte[] validation() throws Exception {
+		ValidationException eccezione = new ValidationException("La data del viaggio non può essere nel passato.");
+		return objectMapper.writeValueAsBytes(handler.handleValidationException(eccezione, request).getBody());
+	}
+}
@@ -0,0 +1,93 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PrenotazioneService#save} con il contesto Spring completo, sul database configurato in application.properties
+ * (lo stesso usato dai test). Ogni invocazione prenota un giorno diverso per lo stesso dipendente,
+ * così il vincolo (dipendente, data) non viene mai violato; i dati creati sono rimossi a fine esecuzione.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrenotazioneSaveBenchmark {
+
+	private ConfigurableApplicationContext context;
+	private PrenotazioneService prenotazioneService;
+	private JdbcTemplate jdbcTemplate;
+
+	private Long dipendenteId;
+	private Long viaggioId;
+	private long giorni;
+
+	@Setup(Level.Trial)
+	public void avvia() {
+		context = new SpringApplicationBuilder(GestioneviaggiApplication.class)
+				.web(WebApplicationType.NONE)
+				// Argomenti da riga di comando: prevalgono su application.properties, a differenza di properties()
+				.run("--gestioneviaggi.mail.outbox.enabled=false",
+						"--logging.level.root=WARN");
+		prenotazioneService = context.getBean(PrenotazioneService.class);
+		jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+		Dipendente dipendente = new Dipendente();
+		dipendente.setUsername("jmh-" + System.nanoTime());
+		dipendente.setNome("Benchmark");
+		dipendente.setCognome("Jmh");
+		dipendente.setEmail(dipendente.getUsername() + "@example.com");
+		dipendenteId = context.getBean(DipendenteRepository.class).save(dipendente).getId();
+
+		Viaggio viaggio = new Viaggio();
+		viaggio.setDestinazione("Benchmark JMH");
+		viaggio.setData(LocalDate.now().plusDays(30));
+		viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		viaggio.setPostiDisponibili(Integer.MAX_VALUE);
+		viaggioId = context.getBean(ViaggioRepository.class).save(viaggio).getId();
+	}
+
+	@TearDown(Level.Trial)
+	public void chiudi() {
+		jdbcTemplate.update("delete from prenotazioni where viaggio_id = ?", viaggioId);
+		jdbcTemplate.update("delete from viaggio where id = ?", viaggioId);
+		jdbcTemplate.update("delete from dipendente where id = ?", dipendenteId);
+		context.close();
+	}
+
+	@Benchmark
+	public PrenotazioneDto save() throws Exception {
+		PrenotazioneDto dto = new PrenotazioneDto();
+		dto.setDipendenteId(dipendenteId);
+		dto.setIdViaggio(viaggioId);
+		dto.setNumeroPosti(1);
+		dto.setDataPrenotazione(LocalDate.now().minusDays(giorni++));
+		return prenotazioneService.save(dto);
+	}
+}
@@ -0,0 +1,102 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Serializzazione JSON dei DTO e delle pagine restituite dai controller, con un ObjectMapper configurato come quello di Spring Boot
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializzazioneBenchmark {
+
+	private static final int DIMENSIONE_PAGINA = 20;
+
+	private ObjectMapper objectMapper;
+	private ViaggioDto viaggio;
+	private DipendenteDto dipendente;
+	private PrenotazioneDto prenotazione;
+	private Page<PrenotazioneDto> pagina;
+	private PaginaCursoreDto<PrenotazioneDto> paginaCursore;
+
+	@Setup
+	public void prepara() {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+		viaggio = new ViaggioDto();
+		viaggio.setId(42L);
+		viaggio.setDestinazione("Roma");
+		viaggio.setData(LocalDate.of(2030, 6, 1));
+		viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		viaggio.setPostiDisponibili(30);
+
+		dipendente = new DipendenteDto();
+		dipendente.setId(7L);
+		dipendente.setUsername("mrossi");
+		dipendente.setNome("Mario");
+		dipendente.setCognome("Rossi");
+		dipendente.setEmail("mario.rossi@example.com");
+		dipendente.setImmagineProfiloUrl("https://ui-avatars.com/api/?name=Mario+Rossi");
+
+		List<PrenotazioneDto> prenotazioni = new ArrayList<>();
+		for (int i = 0; i < DIMENSIONE_PAGINA; i++) {
+			prenotazioni.add(new PrenotazioneDto(1000L + i, 7L, 2, 42L, LocalDate.of(2030, 5, 1).minusDays(i), "Finestrino"));
+		}
+		prenotazione = prenotazioni.get(0);
+		pagina = new PageImpl<>(prenotazioni, PageRequest.of(3, DIMENSIONE_PAGINA), 10_000);
+		paginaCursore = new PaginaCursoreDto<>();
+		paginaCursore.setContenuto(prenotazioni);
+		paginaCursore.setSize(DIMENSIONE_PAGINA);
+		paginaCursore.setNextCursor("MjAzMC0wNC0xMnwxMDE5");
+	}
+
+	@Benchmark
+	public byte[] viaggioDto() throws Exception {
+		return objectMapper.writeValueAsBytes(viaggio);
+	}
+
+	@Benchmark
+	public byte[] dipendenteDto() throws Exception {
+		return objectMapper.writeValueAsBytes(dipendente);
+	}
+
+	@Benchmark
+	public byte[] prenotazioneDto() throws Exception {
+		return objectMapper.writeValueAsBytes(prenotazione);
+	}
+
+	@Benchmark
+	public byte[] paginaPrenotazioni() throws Exception {
+		return objectMapper.writeValueAsBytes(pagina);
+	}
+
+	@Benchmark
+	public byte[] paginaCursorePrenotazioni() throws Exception {
+		return objectMapper.writeValueAsBytes(paginaCursore);
+	}
+}
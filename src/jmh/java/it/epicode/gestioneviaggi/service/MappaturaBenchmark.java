@@ -0,0 +1,89 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Prenotazione;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+// Mappatura entità -> DTO dei service, senza contesto Spring: nel package dei service per accedere ai metodi package-private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappaturaBenchmark {
+
+	private PrenotazioneService prenotazioneService;
+	private ViaggioService viaggioService;
+	private DipendenteService dipendenteService;
+
+	private Prenotazione prenotazione;
+	private Viaggio viaggio;
+	private Dipendente dipendente;
+
+	@Setup
+	public void prepara() {
+		prenotazioneService = new PrenotazioneService();
+		dipendenteService = new DipendenteService();
+		viaggioService = new ViaggioService();
+		// Ledger spento, come nella configurazione predefinita: i posti vengono dall'entità
+		ReflectionTestUtils.setField(viaggioService, "postiLedger", new PostiLedger());
+
+		dipendente = new Dipendente();
+		dipendente.setId(7L);
+		dipendente.setUsername("mrossi");
+		dipendente.setNome("Mario");
+		dipendente.setCognome("Rossi");
+		dipendente.setEmail("mario.rossi@example.com");
+		dipendente.setImmagineProfiloUrl("https://ui-avatars.com/api/?name=Mario+Rossi");
+
+		viaggio = new Viaggio();
+		viaggio.setId(42L);
+		viaggio.setDestinazione("Roma");
+		viaggio.setData(LocalDate.of(2030, 6, 1));
+		viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		viaggio.setPostiDisponibili(30);
+
+		prenotazione = new Prenotazione();
+		prenotazione.setId(1001L);
+		prenotazione.setDipendente(dipendente);
+		prenotazione.setViaggio(viaggio);
+		prenotazione.setNumeroPosti(2);
+		prenotazione.setDataPrenotazione(LocalDate.of(2030, 5, 1));
+		prenotazione.setDataRichiesta(LocalDate.of(2030, 5, 1));
+		prenotazione.setNotePreferenze("Finestrino");
+	}
+
+	@Benchmark
+	public PrenotazioneDto mapToPrenotazioneDto() {
+		return prenotazioneService.mapToPrenotazioneDto(prenotazione);
+	}
+
+	@Benchmark
+	public ViaggioDto mapToViaggioDto() {
+		return viaggioService.mapToViaggioDto(viaggio);
+	}
+
+	@Benchmark
+	public DipendenteDto mapToDipendenteDto() {
+		return dipendenteService.mapToDipendenteDto(dipendente);
+	}
+}
@@ -0,0 +1,96 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.GestioneviaggiApplication;
+import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prima pagina e pagina 10.000 dei dipendenti, con OFFSET ({@link DipendenteService#get(Pageable)}) e con il cursore
+ * ({@link DipendenteService#get(String, int)}), su 250.000 dipendenti aggiunti al database dei test e rimossi alla fine.
+ * Nel package dei service per costruire il cursore della pagina richiesta.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginazioneDipendentiBenchmark {
+
+	private static final int DIPENDENTI = 250_000;
+	private static final int SIZE = 20;
+	private static final String PREFISSO = "jmh-pagina-";
+
+	@Param({"1", "10000"})
+	public int pagina;
+
+	private ConfigurableApplicationContext context;
+	private DipendenteService dipendenteService;
+	private JdbcTemplate jdbcTemplate;
+
+	private Pageable pageable;
+	private String cursore;
+
+	@Setup(Level.Trial)
+	public void avvia() {
+		context = new SpringApplicationBuilder(GestioneviaggiApplication.class)
+				.web(WebApplicationType.NONE)
+				.run("--gestioneviaggi.mail.outbox.enabled=false",
+						"--logging.level.root=WARN");
+		dipendenteService = context.getBean(DipendenteService.class);
+		jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+		jdbcTemplate.update("insert into dipendente (id, username, nome, cognome, email) "
+				+ "select nextval('dipendente_seq'), ? || g, 'Nome', 'Cognome' || lpad(g::text, 6, '0'), ? || g || '@example.com' "
+				+ "from generate_series(1, ?) g", PREFISSO, PREFISSO, DIPENDENTI);
+		jdbcTemplate.execute("analyze dipendente");
+
+		pageable = PageRequest.of(pagina - 1, SIZE, Sort.by("cognome", "id"));
+		// Il cursore restituito dalla pagina precedente: l'ultimo dipendente prima della pagina richiesta
+		if (pagina > 1) {
+			Map<String, Object> ultimo = jdbcTemplate.queryForMap("select cognome, id from dipendente order by cognome, id offset ? limit 1",
+					(pagina - 1) * SIZE - 1);
+			cursore = new Cursore((String) ultimo.get("cognome"), ((Number) ultimo.get("id")).longValue()).codifica();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void chiudi() {
+		jdbcTemplate.update("delete from dipendente where username like ?", PREFISSO + "%");
+		context.close();
+	}
+
+	@Benchmark
+	public Page<DipendenteDto> offset() {
+		return dipendenteService.get(pageable);
+	}
+
+	@Benchmark
+	public PaginaCursoreDto<DipendenteDto> cursore() throws Exception {
+		return dipendenteService.get(cursore, SIZE);
+	}
+}
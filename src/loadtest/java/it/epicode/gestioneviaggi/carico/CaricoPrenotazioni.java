@@ -0,0 +1,399 @@
+package it.epicode.gestioneviaggi.carico;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.epicode.gestioneviaggi.GestioneviaggiApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generatore di carico per l'API delle prenotazioni: riproduce la corsa alle prenotazioni del lunedì mattina.
+ * Crea {@code carico.viaggi} viaggi e {@code carico.dipendenti} dipendenti, poi {@code carico.utenti} utenti concorrenti
+ * eseguono per {@code carico.durata} secondi un mix di POST, PUT e DELETE su /prenotazioni e di GET /prenotazioni/page.
+ * Alla fine stampa throughput, percentili di latenza ed esiti per operazione, e verifica che per ogni viaggio
+ * i posti disponibili più quelli prenotati diano ancora i posti iniziali.
+ * <p>
+ * Con {@code carico.url} vuoto avvia l'applicazione nello stesso processo su una porta libera, con il database
+ * di application.properties; altrimenti usa l'applicazione già avviata a quell'indirizzo.
+ * Esecuzione: {@code mvn -Ploadtest verify -Dcarico.utenti=64 -Dcarico.mix=crea:60,modifica:10,elimina:10,pagina:20}
+ */
+public class CaricoPrenotazioni {
+
+	private static final List<String> OPERAZIONI = List.of("crea", "modifica", "elimina", "pagina");
+
+	private final String url;
+	private final int viaggi;
+	private final int postiPerViaggio;
+	private final int dipendenti;
+	private final int utenti;
+	private final int durataSecondi;
+	private final int[] pesi;
+	private final boolean pulizia;
+
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(5))
+			.build();
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private final List<Long> viaggiCreati = new ArrayList<>();
+	private final List<Long> dipendentiCreati = new ArrayList<>();
+	// Prenotazioni create durante la prova e ancora da modificare o eliminare
+	private final Map<Long, ObjectNode> prenotazioni = new ConcurrentHashMap<>();
+
+	CaricoPrenotazioni(String url) {
+		this.url = url;
+		this.viaggi = Integer.getInteger("carico.viaggi", 50);
+		this.postiPerViaggio = Integer.getInteger("carico.posti", 500);
+		this.dipendenti = Integer.getInteger("carico.dipendenti", 200);
+		this.utenti = Integer.getInteger("carico.utenti", 32);
+		this.durataSecondi = Integer.getInteger("carico.durata", 30);
+		this.pesi = pesi(System.getProperty("carico.mix", "crea:50,modifica:15,elimina:10,pagina:25"));
+		this.pulizia = Boolean.parseBoolean(System.getProperty("carico.pulizia", "true"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		String url = System.getProperty("carico.url", "");
+		ConfigurableApplicationContext context = null;
+		if (url.isBlank()) {
+			// Argomenti da riga di comando: prevalgono su application.properties
+			context = new SpringApplicationBuilder(GestioneviaggiApplication.class)
+					.run("--server.port=0",
+							"--gestioneviaggi.mail.outbox.enabled=false",
+							"--logging.level.root=WARN");
+			url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+		}
+		boolean coerente;
+		try {
+			coerente = new CaricoPrenotazioni(url).esegui();
+		} finally {
+			if (context != null) {
+				context.close();
+			}
+		}
+		System.exit(coerente ? 0 : 1);
+	}
+
+	boolean esegui() throws Exception {
+		System.out.printf("Prova di carico su %s: %d viaggi da %d posti, %d dipendenti, %d utenti per %d s, mix %s%n",
+				url, viaggi, postiPerViaggio, dipendenti, utenti, durataSecondi, mix());
+		prepara();
+
+		List<Misure> misure = new ArrayList<>();
+		long fine = System.nanoTime() + durataSecondi * 1_000_000_000L;
+		long inizio = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<Misure>> esiti = new ArrayList<>();
+			for (int i = 0; i < utenti; i++) {
+				esiti.add(executor.submit(() -> utente(fine)));
+			}
+			for (Future<Misure> esito : esiti) {
+				misure.add(esito.get());
+			}
+		}
+		double secondi = (System.nanoTime() - inizio) / 1_000_000_000.0;
+		stampa(Misure.unisci(misure), secondi);
+
+		boolean coerente = verificaPosti();
+		if (pulizia) {
+			pulisci();
+		}
+		return coerente;
+	}
+
+	// --- Preparazione dei dati ---
+
+	private void prepara() throws Exception {
+		String prova = Long.toString(System.currentTimeMillis(), 36);
+		for (int i = 0; i < viaggi; i++) {
+			ObjectNode viaggio = objectMapper.createObjectNode()
+					.put("destinazione", "Carico " + prova + " " + i)
+					.put("data", LocalDate.now().plusDays(7 + i % 60).toString())
+					.put("statoViaggio", "IN_PROGRAMMA")
+					.put("postiDisponibili", postiPerViaggio);
+			viaggiCreati.add(crea("/viaggi", viaggio));
+		}
+		for (int i = 0; i < dipendenti; i++) {
+			ObjectNode dipendente = objectMapper.createObjectNode()
+					.put("username", "carico-" + prova + "-" + i)
+					.put("nome", "Carico")
+					.put("cognome", "Utente" + i)
+					.put("email", "carico-" + prova + "-" + i + "@example.invalid");
+			dipendentiCreati.add(crea("/dipendenti", dipendente));
+		}
+		System.out.printf("Creati %d viaggi e %d dipendenti.%n", viaggiCreati.size(), dipendentiCreati.size());
+	}
+
+	private Long crea(String percorso, ObjectNode corpo) throws Exception {
+		HttpResponse<String> risposta = invia(HttpRequest.newBuilder(URI.create(url + percorso))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(corpo))));
+		if (risposta.statusCode() != 201) {
+			throw new IllegalStateException("POST " + percorso + " fallita con " + risposta.statusCode() + ": " + risposta.body());
+		}
+		return objectMapper.readTree(risposta.body()).get("id").asLong();
+	}
+
+	// --- Scenario ---
+
+	private Misure utente(long fine) {
+		Misure misure = new Misure();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (System.nanoTime() < fine) {
+			String operazione = scegli(random);
+			long inizio = System.nanoTime();
+			int status;
+			try {
+				status = switch (operazione) {
+					case "crea" -> crea(random);
+					case "modifica" -> modifica(random);
+					case "elimina" -> elimina(random);
+					default -> pagina(random);
+				};
+			} catch (Exception e) {
+				status = -1; // errore di rete o timeout
+			}
+			if (status != 0) {
+				misure.registra(operazione, status, System.nanoTime() - inizio);
+			}
+		}
+		return misure;
+	}
+
+	private int crea(ThreadLocalRandom random) throws Exception {
+		ObjectNode prenotazione = objectMapper.createObjectNode()
+				.put("dipendenteId", dipendentiCreati.get(random.nextInt(dipendentiCreati.size())))
+				.put("idViaggio", viaggiCreati.get(random.nextInt(viaggiCreati.size())))
+				.put("numeroPosti", 1 + random.nextInt(3))
+				// Date nel passato scelte a caso: le coppie (dipendente, data) ripetute producono i 409 attesi
+				.put("dataPrenotazione", LocalDate.now().minusDays(random.nextInt(3650)).toString());
+		HttpResponse<String> risposta = invia(HttpRequest.newBuilder(URI.create(url + "/prenotazioni"))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(prenotazione))));
+		if (risposta.statusCode() == 201) {
+			ObjectNode creata = (ObjectNode) objectMapper.readTree(risposta.body());
+			prenotazioni.put(creata.get("id").asLong(), creata);
+		}
+		return risposta.statusCode();
+	}
+
+	private int modifica(ThreadLocalRandom random) throws Exception {
+		Long id = qualunque(random);
+		if (id == null) {
+			return 0; // nessuna prenotazione da modificare: l'operazione non viene contata
+		}
+		ObjectNode prenotazione = prenotazioni.get(id);
+		if (prenotazione == null) {
+			return 0;
+		}
+		ObjectNode modificata = prenotazione.deepCopy()
+				.put("numeroPosti", 1 + random.nextInt(3));
+		if (random.nextInt(4) == 0) {
+			modificata.put("idViaggio", viaggiCreati.get(random.nextInt(viaggiCreati.size())));
+		}
+		HttpResponse<String> risposta = invia(HttpRequest.newBuilder(URI.create(url + "/prenotazioni/" + id))
+				.header("Content-Type", "application/json")
+				.PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(modificata))));
+		if (risposta.statusCode() == 200) {
+			prenotazioni.replace(id, (ObjectNode) objectMapper.readTree(risposta.body()));
+		}
+		return risposta.statusCode();
+	}
+
+	private int elimina(ThreadLocalRandom random) throws Exception {
+		Long id = qualunque(random);
+		if (id == null || prenotazioni.remove(id) == null) {
+			return 0;
+		}
+		return invia(HttpRequest.newBuilder(URI.create(url + "/prenotazioni/" + id)).DELETE()).statusCode();
+	}
+
+	private int pagina(ThreadLocalRandom random) throws Exception {
+		return invia(HttpRequest.newBuilder(URI.create(url + "/prenotazioni/page?size=20&page=" + random.nextInt(10))).GET())
+				.statusCode();
+	}
+
+	private Long qualunque(ThreadLocalRandom random) {
+		// Le chiavi della mappa concorrente non hanno accesso casuale: basta un elemento a caso tra i primi
+		int salto = random.nextInt(Math.max(1, Math.min(prenotazioni.size(), 64)));
+		for (Long id : prenotazioni.keySet()) {
+			if (salto-- == 0) {
+				return id;
+			}
+		}
+		return null;
+	}
+
+	private String scegli(ThreadLocalRandom random) {
+		int estratto = random.nextInt(Arrays.stream(pesi).sum());
+		for (int i = 0; i < pesi.length; i++) {
+			estratto -= pesi[i];
+			if (estratto < 0) {
+				return OPERAZIONI.get(i);
+			}
+		}
+		return OPERAZIONI.get(OPERAZIONI.size() - 1);
+	}
+
+	// --- Verifica e pulizia ---
+
+	private boolean verificaPosti() throws Exception {
+		Map<Long, Integer> prenotati = new HashMap<>();
+		HttpResponse<InputStream> export = client.send(HttpRequest.newBuilder(URI.create(url + "/prenotazioni/export")).GET().build(),
+				HttpResponse.BodyHandlers.ofInputStream());
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(export.body(), StandardCharsets.UTF_8))) {
+			String riga;
+			while ((riga = reader.readLine()) != null) {
+				JsonNode prenotazione = objectMapper.readTree(riga);
+				prenotati.merge(prenotazione.get("idViaggio").asLong(), prenotazione.get("numeroPosti").asInt(), Integer::sum);
+			}
+		}
+		int incoerenti = 0;
+		for (Long viaggioId : viaggiCreati) {
+			HttpResponse<String> risposta = invia(HttpRequest.newBuilder(URI.create(url + "/viaggi/" + viaggioId)).GET());
+			int disponibili = objectMapper.readTree(risposta.body()).get("postiDisponibili").asInt();
+			int occupati = prenotati.getOrDefault(viaggioId, 0);
+			if (disponibili + occupati != postiPerViaggio || disponibili < 0) {
+				incoerenti++;
+				System.out.printf("Viaggio %d incoerente: %d disponibili + %d prenotati != %d%n",
+						viaggioId, disponibili, occupati, postiPerViaggio);
+			}
+		}
+		System.out.printf("Posti: %s (%d viaggi verificati, %d incoerenti).%n",
+				incoerenti == 0 ? "coerenti" : "INCOERENTI", viaggiCreati.size(), incoerenti);
+		return incoerenti == 0;
+	}
+
+	private void pulisci() throws Exception {
+		// Le prenotazioni non più tracciate (es. PUT andate in timeout) sono comunque sui viaggi della prova
+		HttpResponse<InputStream> export = client.send(HttpRequest.newBuilder(URI.create(url + "/prenotazioni/export")).GET().build(),
+				HttpResponse.BodyHandlers.ofInputStream());
+		List<Long> daEliminare = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(export.body(), StandardCharsets.UTF_8))) {
+			String riga;
+			while ((riga = reader.readLine()) != null) {
+				JsonNode prenotazione = objectMapper.readTree(riga);
+				if (viaggiCreati.contains(prenotazione.get("idViaggio").asLong())) {
+					daEliminare.add(prenotazione.get("id").asLong());
+				}
+			}
+		}
+		for (Long id : daEliminare) {
+			invia(HttpRequest.newBuilder(URI.create(url + "/prenotazioni/" + id)).DELETE());
+		}
+		for (Long id : viaggiCreati) {
+			invia(HttpRequest.newBuilder(URI.create(url + "/viaggi/" + id)).DELETE());
+		}
+		for (Long id : dipendentiCreati) {
+			invia(HttpRequest.newBuilder(URI.create(url + "/dipendenti/" + id)).DELETE());
+		}
+		System.out.printf("Pulizia: eliminate %d prenotazioni, %d viaggi e %d dipendenti.%n",
+				daEliminare.size(), viaggiCreati.size(), dipendentiCreati.size());
+	}
+
+	// --- Report ---
+
+	private void stampa(Map<String, Misure.Operazione> operazioni, double secondi) {
+		long totale = operazioni.values().stream().mapToLong(o -> o.latenze.size()).sum();
+		System.out.printf("%nRichieste: %d in %.1f s (%.0f richieste/s)%n", totale, secondi, totale / secondi);
+		System.out.printf("%-10s %8s %9s %9s %9s %9s %9s  %s%n", "operazione", "richieste", "rich./s", "p50 ms", "p95 ms", "p99 ms", "max ms", "esiti");
+		for (String nome : OPERAZIONI) {
+			Misure.Operazione operazione = operazioni.get(nome);
+			if (operazione == null) {
+				continue;
+			}
+			long[] latenze = operazione.latenze.stream().mapToLong(Long::longValue).sorted().toArray();
+			System.out.printf("%-10s %8d %9.0f %9.2f %9.2f %9.2f %9.2f  %s%n", nome, latenze.length, latenze.length / secondi,
+					percentile(latenze, 0.50), percentile(latenze, 0.95), percentile(latenze, 0.99),
+					latenze[latenze.length - 1] / 1_000_000.0, operazione.esiti);
+		}
+		System.out.println("Esiti: status HTTP -> numero di richieste; -1 indica un errore di rete o un timeout.");
+	}
+
+	private static double percentile(long[] ordinate, double quantile) {
+		int indice = (int) Math.ceil(quantile * ordinate.length) - 1;
+		return ordinate[Math.max(0, indice)] / 1_000_000.0;
+	}
+
+	private HttpResponse<String> invia(HttpRequest.Builder richiesta) throws Exception {
+		return client.send(richiesta.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private static int[] pesi(String mix) {
+		int[] pesi = new int[OPERAZIONI.size()];
+		for (String voce : mix.split(",")) {
+			String[] parti = voce.trim().split(":");
+			int indice = OPERAZIONI.indexOf(parti[0].trim());
+			if (indice < 0 || parti.length != 2) {
+				throw new IllegalArgumentException("Voce del mix non valida: " + voce + " (operazioni: " + OPERAZIONI + ")");
+			}
+			pesi[indice] = Integer.parseInt(parti[1].trim());
+		}
+		if (Arrays.stream(pesi).sum() <= 0) {
+			throw new IllegalArgumentException("Il mix deve avere almeno un peso positivo: " + mix);
+		}
+		return pesi;
+	}
+
+	private String mix() {
+		Map<String, Integer> mix = new LinkedHashMap<>();
+		for (int i = 0; i < pesi.length; i++) {
+			mix.put(OPERAZIONI.get(i), pesi[i]);
+		}
+		return mix.toString();
+	}
+
+	// Latenze ed esiti raccolti da un utente, senza sincronizzazione; uniti alla fine della prova
+	static class Misure {
+
+		static class Operazione {
+			final List<Long> latenze = new ArrayList<>();
+			final Map<Integer, Integer> esiti = new TreeMap<>();
+		}
+
+		private final Map<String, Operazione> operazioni = new HashMap<>();
+
+		void registra(String nome, int status, long nanosecondi) {
+			Operazione operazione = operazioni.computeIfAbsent(nome, n -> new Operazione());
+			operazione.latenze.add(nanosecondi);
+			operazione.esiti.merge(status, 1, Integer::sum);
+		}
+
+		static Map<String, Operazione> unisci(List<Misure> misure) {
+			Map<String, Operazione> unite = new HashMap<>();
+			for (Misure m : misure) {
+				m.operazioni.forEach((nome, operazione) -> {
+					Operazione unita = unite.computeIfAbsent(nome, n -> new Operazione());
+					unita.latenze.addAll(operazione.latenze);
+					operazione.esiti.forEach((status, numero) -> unita.esiti.merge(status, numero, Integer::sum));
+				});
+			}
+			return unite;
+		}
+	}
+}
@@ -2,18 +2,35 @@ package it.epicode.gestioneviaggi;
 
 
 import com.cloudinary.Cloudinary;
+import com.zaxxer.hikari.HikariDataSource;
+import it.epicode.gestioneviaggi.repository.DataSourceInstradato;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 
+import javax.sql.DataSource;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
 @Configuration
-@PropertySource("application.properties")
+@PropertySource("classpath:application.properties")
+@EnableScheduling
+@EnableCaching
 
 public class AppConfig {
 
@@ -31,6 +48,56 @@ public class AppConfig {
 
     }
 
+    // Cache locale di viaggi e dipendenti letti per ID, con dimensione massima e scadenza (vedi gestioneviaggi.cache.spec).
+    // Inserimenti e rimozioni fatti dentro una transazione vengono applicati solo dopo il commit.
+    @Bean
+    public CacheManager cacheManager(@Value("${gestioneviaggi.cache.spec}") String spec) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager("viaggi", "dipendenti");
+        cacheManager.setCacheSpecification(spec);
+        cacheManager.setAllowNullValues(false);
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+
+    // Pool del database primario, configurato da spring.datasource.*: scritture e letture non readOnly
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSourcePrimario(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primario");
+        return dataSource;
+    }
+
+    // Pool della replica in sola lettura, creato solo se gestioneviaggi.replica.url è valorizzato
+    @Bean
+    @ConditionalOnExpression("!'${gestioneviaggi.replica.url:}'.isBlank()")
+    public HikariDataSource dataSourceReplica(DataSourceProperties primario,
+                                              @Value("${gestioneviaggi.replica.url}") String url,
+                                              @Value("${gestioneviaggi.replica.username:}") String username,
+                                              @Value("${gestioneviaggi.replica.password:}") String password,
+                                              @Value("${gestioneviaggi.replica.pool-massimo:10}") int poolMassimo) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("replica");
+        dataSource.setJdbcUrl(url);
+        // Senza credenziali proprie usa quelle del primario
+        dataSource.setUsername(username.isBlank() ? primario.determineUsername() : username);
+        dataSource.setPassword(password.isBlank() ? primario.determinePassword() : password);
+        dataSource.setMaximumPoolSize(poolMassimo);
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    // DataSource di JPA e JdbcTemplate: con la replica configurata instrada le transazioni readOnly (vedi DataSourceInstradato)
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("dataSourcePrimario") DataSource primario,
+                                 @Qualifier("dataSourceReplica") ObjectProvider<DataSource> replica) {
+        DataSource dataSourceReplica = replica.getIfAvailable();
+        if (dataSourceReplica == null) {
+            return new LazyConnectionDataSourceProxy(primario);
+        }
+        return new LazyConnectionDataSourceProxy(new DataSourceInstradato(primario, dataSourceReplica));
+    }
+
     @Bean
     public JavaMailSenderImpl getJavaMailSender(@Value("${gmail.mail.transport.protocol}" )String protocol,
                                                 @Value("${gmail.mail.smtp.auth}" ) String auth,
@@ -0,0 +1,116 @@
+package it.epicode.gestioneviaggi.controller;
+
+import it.epicode.gestioneviaggi.dto.BloccoPostiDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.service.BlocchiPostiService;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/blocchi")
+public class BloccoPostiController {
+
+    @Autowired
+    private BlocchiPostiService blocchiPostiService;
+
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+
+    /**
+     * Endpoint per bloccare dei posti su un viaggio durante il checkout.
+     * I posti non risultano più disponibili fino alla conferma, al rilascio o alla scadenza del blocco.
+     * POST /api/blocchi
+     * @param bloccoDto DTO con viaggio, numero di posti e durata facoltativa in secondi.
+     * @return ResponseEntity con il blocco creato e status 201 (Created).
+     */
+    @PostMapping
+
+    public ResponseEntity<Object> blocca(@RequestBody BloccoPostiDto bloccoDto) {
+        try {
+            return new ResponseEntity<>(blocchiPostiService.blocca(bloccoDto), HttpStatus.CREATED); // 201 Created
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ConflictException e) {
+            // Se il viaggio non ha abbastanza posti disponibili
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
+        }
+    }
+
+    /**
+     * Endpoint per lo stato di un blocco ancora attivo.
+     * GET /api/blocchi/{id}
+     * @param id ID del blocco.
+     * @return ResponseEntity con il DTO del blocco e status 200 (OK).
+     */
+    @GetMapping("/{id}")
+
+    public ResponseEntity<Object> getBlocco(@PathVariable String id) {
+        try {
+            return new ResponseEntity<>(blocchiPostiService.get(id), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+    /**
+     * Endpoint per confermare un blocco in una prenotazione.
+     * Viaggio e numero di posti sono quelli del blocco.
+     * POST /api/blocchi/{id}/conferma
+     * @param id ID del blocco.
+     * @param prenotazioneDto DTO con dipendente, data della prenotazione e note.
+     * @return ResponseEntity con la prenotazione creata e status 201 (Created).
+     */
+    @PostMapping("/{id}/conferma")
+
+    public ResponseEntity<Object> conferma(@PathVariable String id, @RequestBody PrenotazioneDto prenotazioneDto) {
+        try {
+            return new ResponseEntity<>(prenotazioneService.confermaBlocco(id, prenotazioneDto), HttpStatus.CREATED); // 201 Created
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (NotFoundException e) {
+            // Se il blocco è scaduto o il dipendente non esiste
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ConflictException e) {
+            // Se il dipendente ha già una prenotazione in quella data: il blocco resta attivo
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
+        }
+    }
+
+    /**
+     * Endpoint per rilasciare un blocco, restituendo subito i posti al viaggio.
+     * DELETE /api/blocchi/{id}
+     * @param id ID del blocco.
+     * @return ResponseEntity con status 204 (No Content).
+     */
+    @DeleteMapping("/{id}")
+
+    public ResponseEntity<Object> rilascia(@PathVariable String id) {
+        try {
+            blocchiPostiService.rilascia(id);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT); // 204 No Content
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+    /**
+     * Endpoint di riparazione: restituisce i posti dei blocchi scaduti rimasti nel database,
+     * per esempio dopo una restituzione fallita o l'arresto di un'altra istanza.
+     * POST /api/blocchi/riconciliazione
+     * @return ResponseEntity con il numero di blocchi restituiti e status 200 (OK).
+     */
+    @PostMapping("/riconciliazione")
+
+    public ResponseEntity<Integer> riconcilia() {
+        return new ResponseEntity<>(blocchiPostiService.riconcilia(), HttpStatus.OK);
+    }
+}
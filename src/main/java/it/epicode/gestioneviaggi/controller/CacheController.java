@@ -0,0 +1,33 @@
+package it.epicode.gestioneviaggi.controller;
+
+import it.epicode.gestioneviaggi.dto.StatisticheCacheDto;
+import it.epicode.gestioneviaggi.service.CacheService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Autowired
+    private CacheService cacheService;
+
+    /**
+     * Endpoint per le statistiche delle cache locali di viaggi e dipendenti.
+     * Accessibile solo agli ADMIN.
+     * GET /api/cache/statistiche
+     * @return ResponseEntity con le statistiche di ogni cache e status 200 (OK).
+     */
+    @GetMapping("/statistiche")
+
+    public ResponseEntity<List<StatisticheCacheDto>> getStatistiche() {
+        return new ResponseEntity<>(cacheService.statistiche(), HttpStatus.OK);
+    }
+}
@@ -3,20 +3,38 @@
 package it.epicode.gestioneviaggi.controller;
 
 import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.dto.ImportDipendentiDto;
+import it.epicode.gestioneviaggi.dto.ItinerarioDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
+import it.epicode.gestioneviaggi.dto.UploadImmagineDto;
+import it.epicode.gestioneviaggi.service.DipendenteImportService;
 import it.epicode.gestioneviaggi.service.DipendenteService;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import it.epicode.gestioneviaggi.service.UploadImmagineService;
+import it.epicode.gestioneviaggi.service.VersioniRisorse;
+import it.epicode.gestioneviaggi.exception.ConflictException;
 import it.epicode.gestioneviaggi.exception.NotFoundException;
 import it.epicode.gestioneviaggi.exception.ValidationException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/dipendenti") //
@@ -25,6 +43,18 @@ public class DipendenteController {
     @Autowired
     private DipendenteService dipendenteService;
 
+    @Autowired
+    private UploadImmagineService uploadImmagineService;
+
+    @Autowired
+    private DipendenteImportService dipendenteImportService;
+
+    @Autowired
+    private PrenotazioneService prenotazioneService;
+
+    @Autowired
+    private VersioniRisorse versioniRisorse;
+
 
     @PostMapping
     public ResponseEntity<DipendenteDto> Dipendente(@RequestBody DipendenteDto dipendenteDto) {
@@ -32,24 +62,55 @@ public class DipendenteController {
 
             DipendenteDto createdDipendente = dipendenteService.save(dipendenteDto);
             return new ResponseEntity<>(createdDipendente, HttpStatus.CREATED);
-        } catch (ValidationException e) {
+        } catch (ConflictException e) {
+            // Username o email già in uso
+            return new ResponseEntity(e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
 
-            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE})
+    public ResponseEntity<Object> importDipendenti(InputStream csv,
+                                                   @RequestParam(defaultValue = "false") boolean inviaMail) {
+        // Il corpo della richiesta è il file CSV, letto in streaming senza caricarlo in memoria
+        try {
+            ImportDipendentiDto report = dipendenteImportService.importa(csv, inviaMail);
+            return new ResponseEntity<>(report, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<>("Errore nella lettura del file: " + e.getMessage(), HttpStatus.BAD_REQUEST);
         }
     }
 
 
     @GetMapping
 
-    public ResponseEntity<List<DipendenteDto>> getAllDipendenti() {
+    public ResponseEntity<List<DipendenteDto>> getAllDipendenti(WebRequest request) {
+        // ETag letto prima dei dati: con If-None-Match corrispondente risponde 304 senza leggere la tabella
+        if (request.checkNotModified(versioniRisorse.etagCollezione(VersioniRisorse.DIPENDENTI))) {
+            return null; // 304 Not Modified
+        }
         List<DipendenteDto> dipendenti = dipendenteService.get();
         return new ResponseEntity<>(dipendenti, HttpStatus.OK);
     }
 
 
+    @GetMapping("/export")
+
+    public ResponseEntity<StreamingResponseBody> exportDipendenti() {
+        // NDJSON scritto riga per riga mentre i dati arrivano dal database
+        StreamingResponseBody body = out -> dipendenteService.esporta(out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+
     @GetMapping("/{id}")
 
-    public ResponseEntity<DipendenteDto> getDipendenteById(@PathVariable Long id) {
+    public ResponseEntity<DipendenteDto> getDipendenteById(@PathVariable Long id, WebRequest request) {
+        if (request.checkNotModified(versioniRisorse.etag(VersioniRisorse.DIPENDENTI, id))) {
+            return null; // 304 Not Modified
+        }
         try {
 
             DipendenteDto dipendente = dipendenteService.get(id);
@@ -62,12 +123,48 @@ public class DipendenteController {
 
     @GetMapping("/page")
 
-    public ResponseEntity<Page<DipendenteDto>> getAllDipendentiPaged(Pageable pageable) {
+    public ResponseEntity<Page<DipendenteDto>> getAllDipendentiPaged(Pageable pageable, WebRequest request) {
+        if (request.checkNotModified(versioniRisorse.etagCollezione(VersioniRisorse.DIPENDENTI))) {
+            return null; // 304 Not Modified
+        }
         Page<DipendenteDto> dipendentiPage = dipendenteService.get(pageable);
         return new ResponseEntity<>(dipendentiPage, HttpStatus.OK);
     }
 
 
+    @GetMapping("/cursor")
+
+    public ResponseEntity<PaginaCursoreDto<DipendenteDto>> getDipendentiCursor(@RequestParam(required = false) String cursor,
+                                                                              @RequestParam(defaultValue = "20") int size) {
+        try {
+            // Paginazione keyset su (cognome, id): niente OFFSET e niente COUNT
+            PaginaCursoreDto<DipendenteDto> pagina = dipendenteService.get(cursor, size);
+            return new ResponseEntity<>(pagina, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+
+    @GetMapping("/{id}/prenotazioni")
+
+    public ResponseEntity<PaginaCursoreDto<ItinerarioDto>> getPrenotazioniDipendente(@PathVariable Long id,
+                                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dal,
+                                                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate al,
+                                                                                    @RequestParam(required = false) String cursor,
+                                                                                    @RequestParam(defaultValue = "20") int size) {
+        try {
+            // Itinerario del dipendente: keyset su (dataPrenotazione, id) dentro l'intervallo, una query per pagina
+            PaginaCursoreDto<ItinerarioDto> pagina = prenotazioneService.getItinerario(id, dal, al, cursor, size);
+            return new ResponseEntity<>(pagina, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (NotFoundException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+
     @PutMapping("/{id}")
 
     public ResponseEntity<DipendenteDto> updateDipendente(@PathVariable Long id, @RequestBody DipendenteDto dipendenteDto) {
@@ -77,29 +174,48 @@ public class DipendenteController {
             return new ResponseEntity<>(updatedDipendente, HttpStatus.OK);
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
-        } catch (ValidationException e) {
-            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (ConflictException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
         }
     }
 
 
     @PatchMapping("/{id}/immagine")
 
-    public ResponseEntity<DipendenteDto> uploadImmagineProfilo(
+    public ResponseEntity<UploadImmagineDto> uploadImmagineProfilo(
             @PathVariable Long id,
             @RequestParam("file") MultipartFile file) { // Accepts the image file
         try {
             // Anche in questo caso, la logica di autorizzazione è fondamentale.
-            DipendenteDto updatedDipendente = dipendenteService.updateImmagineProfilo(id, file);
-            return new ResponseEntity<>(updatedDipendente, HttpStatus.OK);
+            // Il file viene salvato su disco e caricato in background: si risponde subito con il job.
+            UploadImmagineDto job = uploadImmagineService.avvia(id, file);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/dipendenti/" + id + "/immagine/" + job.getJobId()))
+                    .body(job); // 202 Accepted
         } catch (NotFoundException e) {
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
-        } catch (Exception e) { // Catches IOException or other upload exceptions
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (RejectedExecutionException e) {
+            return new ResponseEntity("Troppi caricamenti in corso, riprovare più tardi", HttpStatus.SERVICE_UNAVAILABLE); // 503 Service Unavailable
+        } catch (Exception e) { // Catches IOException while saving the temporary file
             return new ResponseEntity("Error uploading image: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR); // 500 Internal Server Error
         }
     }
 
 
+    @GetMapping("/{id}/immagine/{jobId}")
+
+    public ResponseEntity<UploadImmagineDto> getStatoUploadImmagine(@PathVariable Long id, @PathVariable String jobId) {
+        try {
+            UploadImmagineDto job = uploadImmagineService.get(id, jobId);
+            return new ResponseEntity<>(job, HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+
 
     @DeleteMapping("/{id}")
 
@@ -0,0 +1,342 @@
+package it.epicode.gestioneviaggi.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Controllo di ammissione sulle scritture delle prenotazioni (POST, PUT, DELETE su /prenotazioni).
+ * Al massimo {@code max-concorrenti} richieste sono in esecuzione, altre {@code coda-max} possono attendere
+ * un posto per {@code attesa-max-ms}; ogni dipendente ha un token bucket ({@code token-al-secondo}, {@code burst}).
+ * Oltre questi limiti la richiesta riceve subito 429 con Retry-After, stimato dalla coda e dalla latenza osservata,
+ * invece di occupare un thread di Tomcat in attesa di una connessione del pool.
+ * Il corpo viene letto per intero solo fino a {@code batch-max} prenotazioni da {@code byte-per-prenotazione} byte:
+ * oltre, la richiesta riceve 413 senza che il corpo resti in memoria.
+ * Limiti, richieste in corso e in coda e rifiuti sono esposti come metriche gestioneviaggi.ammissione.*.
+ */
+@Component
+public class FiltroAmmissionePrenotazioni extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FiltroAmmissionePrenotazioni.class);
+
+    private static final String PERCORSO = "/prenotazioni";
+
+    @Value("${gestioneviaggi.ammissione.enabled:true}")
+    private boolean attivo;
+
+    @Value("${gestioneviaggi.ammissione.max-concorrenti:8}")
+    private int maxConcorrenti;
+
+    @Value("${gestioneviaggi.ammissione.coda-max:100}")
+    private int codaMassima;
+
+    @Value("${gestioneviaggi.ammissione.attesa-max-ms:1000}")
+    private long attesaMassima;
+
+    @Value("${gestioneviaggi.ammissione.token-al-secondo:5}")
+    private double tokenAlSecondo;
+
+    @Value("${gestioneviaggi.ammissione.burst:10}")
+    private int burst;
+
+    @Value("${gestioneviaggi.prenotazioni.batch-max:1000}")
+    private int batchMassimo;
+
+    @Value("${gestioneviaggi.ammissione.byte-per-prenotazione:4096}")
+    private int bytePerPrenotazione;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Semaphore permessi;
+    private int corpoMassimo;
+    private final AtomicInteger inCoda = new AtomicInteger();
+
+    // Bucket dei dipendenti attivi: quelli fermi da un po' sono di nuovo pieni e possono essere scartati
+    private final Cache<Long, TokenBucket> bucket = Caffeine.newBuilder()
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .build();
+
+    // Media mobile esponenziale della durata delle scritture ammesse, in nanosecondi
+    private double latenzaMedia = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private Timer attesaInCoda;
+
+    @PostConstruct
+    void inizializza() {
+        permessi = new Semaphore(maxConcorrenti, true);
+        // Un byte in più del massimo dice se il corpo è troppo grande
+        corpoMassimo = (int) Math.min((long) batchMassimo * bytePerPrenotazione, Integer.MAX_VALUE - 1);
+        Gauge.builder("gestioneviaggi.ammissione.limite", () -> maxConcorrenti)
+                .description("Scritture di prenotazioni in esecuzione al massimo").register(meterRegistry);
+        Gauge.builder("gestioneviaggi.ammissione.coda.limite", () -> codaMassima)
+                .description("Scritture di prenotazioni in attesa al massimo").register(meterRegistry);
+        Gauge.builder("gestioneviaggi.ammissione.in_corso", () -> maxConcorrenti - permessi.availablePermits())
+                .description("Scritture di prenotazioni in esecuzione").register(meterRegistry);
+        Gauge.builder("gestioneviaggi.ammissione.in_coda", inCoda, AtomicInteger::get)
+                .description("Scritture di prenotazioni in attesa di un posto").register(meterRegistry);
+        Gauge.builder("gestioneviaggi.ammissione.token_al_secondo", () -> tokenAlSecondo)
+                .description("Scritture al secondo consentite a ogni dipendente").register(meterRegistry);
+        attesaInCoda = Timer.builder("gestioneviaggi.ammissione.attesa")
+                .description("Attesa in coda prima dell'esecuzione")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String metodo = request.getMethod();
+        boolean scrittura = HttpMethod.POST.matches(metodo) || HttpMethod.PUT.matches(metodo) || HttpMethod.DELETE.matches(metodo);
+        String percorso = request.getRequestURI().substring(request.getContextPath().length());
+        return !attivo || !scrittura || !(percorso.equals(PERCORSO) || percorso.startsWith(PERCORSO + "/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        // Il corpo va letto qui per conoscere i dipendenti: il controller lo rilegge dal wrapper.
+        // Senza Content-Length (chunked) se ne leggono al massimo corpoMassimo + 1 byte
+        if (request.getContentLengthLong() > corpoMassimo) {
+            troppoGrande(response);
+            return;
+        }
+        byte[] corpo = request.getInputStream().readNBytes(corpoMassimo + 1);
+        if (corpo.length > corpoMassimo) {
+            troppoGrande(response);
+            return;
+        }
+        RichiestaConCorpo richiesta = new RichiestaConCorpo(request, corpo);
+
+        // Token bucket: un token per ogni dipendente della richiesta, restituiti se la richiesta viene rifiutata
+        List<TokenBucket> presi = new ArrayList<>();
+        for (Long dipendenteId : dipendenti(richiesta.corpo)) {
+            TokenBucket bucketDipendente = bucket.get(dipendenteId, id -> new TokenBucket(burst, tokenAlSecondo));
+            if (!bucketDipendente.prendi()) {
+                presi.forEach(TokenBucket::restituisci);
+                rifiuta(response, "dipendente", bucketDipendente.secondiAlProssimoToken(),
+                        "Troppe richieste per il dipendente " + dipendenteId + ".");
+                return;
+            }
+            presi.add(bucketDipendente);
+        }
+
+        // Concorrenza: un posto libero subito, oppure un'attesa limitata in una coda limitata
+        if (!permessi.tryAcquire()) {
+            if (inCoda.incrementAndGet() > codaMassima) {
+                inCoda.decrementAndGet();
+                presi.forEach(TokenBucket::restituisci);
+                rifiuta(response, "coda", secondiStimati(), "Troppe prenotazioni in corso, riprovare più tardi.");
+                return;
+            }
+            boolean ammessa;
+            long inizioAttesa = System.nanoTime();
+            try {
+                ammessa = permessi.tryAcquire(attesaMassima, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ammessa = false;
+            } finally {
+                inCoda.decrementAndGet();
+            }
+            attesaInCoda.record(System.nanoTime() - inizioAttesa, TimeUnit.NANOSECONDS);
+            if (!ammessa) {
+                presi.forEach(TokenBucket::restituisci);
+                rifiuta(response, "attesa", secondiStimati(), "Troppe prenotazioni in corso, riprovare più tardi.");
+                return;
+            }
+        }
+        long inizio = System.nanoTime();
+        try {
+            filterChain.doFilter(richiesta, response);
+        } finally {
+            permessi.release();
+            registraLatenza(System.nanoTime() - inizio);
+        }
+    }
+
+    // Tempo per smaltire le richieste davanti a questa, con la latenza osservata
+    private long secondiStimati() {
+        double davanti = inCoda.get() + (maxConcorrenti - permessi.availablePermits()) + 1;
+        double nanosecondi;
+        synchronized (this) {
+            nanosecondi = latenzaMedia;
+        }
+        return Math.max(1, (long) Math.ceil(davanti / maxConcorrenti * nanosecondi / 1_000_000_000.0));
+    }
+
+    private synchronized void registraLatenza(long nanosecondi) {
+        latenzaMedia = 0.8 * latenzaMedia + 0.2 * nanosecondi;
+    }
+
+    private void rifiuta(HttpServletResponse response, String motivo, long secondi, String messaggio) throws IOException {
+        meterRegistry.counter("gestioneviaggi.ammissione.rifiutate", "motivo", motivo).increment();
+        logger.debug("Scrittura rifiutata ({}): Retry-After {} s", motivo, secondi);
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(secondi));
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(messaggio);
+    }
+
+    private void troppoGrande(HttpServletResponse response) throws IOException {
+        meterRegistry.counter("gestioneviaggi.ammissione.rifiutate", "motivo", "corpo").increment();
+        logger.debug("Scrittura rifiutata: corpo oltre {} byte", corpoMassimo);
+        response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write("Richiesta troppo grande: al massimo " + batchMassimo + " prenotazioni, " + corpoMassimo + " byte.");
+    }
+
+    // dipendenteId della prenotazione, o di ciascuna prenotazione di un batch; nessuno se il corpo non è leggibile
+    private Set<Long> dipendenti(byte[] corpo) {
+        Set<Long> ids = new LinkedHashSet<>();
+        if (corpo.length == 0) {
+            return ids;
+        }
+        try {
+            JsonNode json = objectMapper.readTree(corpo);
+            if (json != null && json.isArray()) {
+                json.forEach(elemento -> aggiungiDipendente(elemento, ids));
+            } else if (json != null) {
+                aggiungiDipendente(json, ids);
+            }
+        } catch (IOException e) {
+            // JSON non valido: la risposta 400 arriva dal controller
+        }
+        return ids;
+    }
+
+    private static void aggiungiDipendente(JsonNode prenotazione, Set<Long> ids) {
+        JsonNode id = prenotazione.get("dipendenteId");
+        if (id != null && id.canConvertToLong()) {
+            ids.add(id.asLong());
+        }
+    }
+
+    // Token bucket con ricarica continua: capacità burst, tokenAlSecondo token al secondo
+    private static class TokenBucket {
+
+        private final int capacita;
+        private final double tokenAlSecondo;
+        private double token;
+        private long ultimaRicarica = System.nanoTime();
+
+        TokenBucket(int capacita, double tokenAlSecondo) {
+            this.capacita = capacita;
+            this.tokenAlSecondo = tokenAlSecondo;
+            this.token = capacita;
+        }
+
+        synchronized boolean prendi() {
+            ricarica();
+            if (token < 1) {
+                return false;
+            }
+            token--;
+            return true;
+        }
+
+        synchronized void restituisci() {
+            token = Math.min(capacita, token + 1);
+        }
+
+        synchronized long secondiAlProssimoToken() {
+            ricarica();
+            return Math.max(1, (long) Math.ceil((1 - token) / tokenAlSecondo));
+        }
+
+        private void ricarica() {
+            long adesso = System.nanoTime();
+            token = Math.min(capacita, token + (adesso - ultimaRicarica) / 1_000_000_000.0 * tokenAlSecondo);
+            ultimaRicarica = adesso;
+        }
+    }
+
+    // Richiesta con il corpo già letto, che il resto della catena può leggere di nuovo
+    private static class RichiestaConCorpo extends HttpServletRequestWrapper {
+
+        private final byte[] corpo;
+
+        RichiestaConCorpo(HttpServletRequest request, byte[] corpo) {
+            super(request);
+            this.corpo = corpo;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream stream = new ByteArrayInputStream(corpo);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return stream.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return stream.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return stream.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package it.epicode.gestioneviaggi.controller;
+
+import it.epicode.gestioneviaggi.repository.DataSourceInstradato;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Garantisce a ogni client di rileggere le proprie scritture quando le letture vanno sulla replica.
+ * Una richiesta di scrittura (POST, PUT, PATCH, DELETE) lascia al client un cookie con l'istante della scrittura;
+ * finché non è passato {@code gestioneviaggi.replica.ritardo-massimo-ms} le sue richieste leggono dal primario.
+ * Attivo solo se {@code gestioneviaggi.replica.url} è configurato.
+ */
+@Component
+public class FiltroLetturaDopoScrittura extends OncePerRequestFilter {
+
+    public static final String COOKIE = "gestioneviaggi-scrittura";
+
+    @Value("${gestioneviaggi.replica.url:}")
+    private String urlReplica;
+
+    @Value("${gestioneviaggi.replica.ritardo-massimo-ms:5000}")
+    private long ritardoMassimo;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return urlReplica.isBlank();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long adesso = System.currentTimeMillis();
+        boolean scrittura = !HttpMethod.GET.matches(request.getMethod())
+                && !HttpMethod.HEAD.matches(request.getMethod())
+                && !HttpMethod.OPTIONS.matches(request.getMethod());
+        if (scrittura) {
+            // Impostato prima della catena: dopo, la risposta potrebbe essere già stata scritta.
+            // Anche una scrittura fallita lo imposta: al peggio il client legge dal primario per qualche secondo
+            Cookie cookie = new Cookie(COOKIE, Long.toString(adesso));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.ceil(ritardoMassimo / 1000.0));
+            response.addCookie(cookie);
+        }
+        boolean primario = scrittura || scritturaRecente(request, adesso);
+        if (primario) {
+            DataSourceInstradato.forzaPrimario();
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (primario) {
+                DataSourceInstradato.annullaForzatura();
+            }
+        }
+    }
+
+    private boolean scritturaRecente(HttpServletRequest request, long adesso) {
+        if (request.getCookies() == null) {
+            return false;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    return adesso - Long.parseLong(cookie.getValue()) < ritardoMassimo;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+}
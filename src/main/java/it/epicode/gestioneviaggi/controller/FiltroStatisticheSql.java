@@ -0,0 +1,137 @@
+package it.epicode.gestioneviaggi.controller;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.epicode.gestioneviaggi.repository.StatisticheSql;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conta gli statement SQL e il tempo sul database di ogni richiesta HTTP (vedi {@link StatisticheSql}).
+ * La misura finisce nel log (DEBUG, oppure WARN oltre il budget o con uno statement ripetuto come in un N+1),
+ * nelle metriche gestioneviaggi.sql.* per URI e, se attivi, negli header X-Sql-Query e X-Sql-Tempo-Ms.
+ * Resta anche nell'attributo {@link #ATTRIBUTO_MISURA} della richiesta, usato dai test per verificare il budget.
+ */
+@Component
+public class FiltroStatisticheSql extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FiltroStatisticheSql.class);
+
+    public static final String ATTRIBUTO_MISURA = FiltroStatisticheSql.class.getName() + ".misura";
+    public static final String HEADER_QUERY = "X-Sql-Query";
+    public static final String HEADER_TEMPO = "X-Sql-Tempo-Ms";
+
+    @Value("${gestioneviaggi.sql.header:false}")
+    private boolean header;
+
+    @Value("${gestioneviaggi.sql.budget:20}")
+    private int budget;
+
+    @Value("${gestioneviaggi.sql.ripetizioni-sospette:10}")
+    private int ripetizioniSospette;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        StatisticheSql.Misura misura = StatisticheSql.inizia();
+        request.setAttribute(ATTRIBUTO_MISURA, misura);
+        // Gli header vanno scritti prima del corpo: il wrapper li aggiunge alla prima scrittura
+        HttpServletResponse risposta = header ? new RispostaConStatistiche(response, misura) : response;
+        try {
+            filterChain.doFilter(request, risposta);
+        } finally {
+            StatisticheSql.termina();
+            if (risposta instanceof RispostaConStatistiche conStatistiche) {
+                conStatistiche.aggiungiHeader(); // risposte senza corpo (204, 304)
+            }
+            registra(request, misura);
+        }
+    }
+
+    private void registra(HttpServletRequest request, StatisticheSql.Misura misura) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "ALTRO";
+        DistributionSummary.builder("gestioneviaggi.sql.query")
+                .description("Statement SQL per richiesta")
+                .tag("metodo", request.getMethod())
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(misura.getQuery());
+        Timer.builder("gestioneviaggi.sql.tempo")
+                .description("Tempo sul database per richiesta")
+                .tag("metodo", request.getMethod())
+                .tag("uri", uri)
+                .register(meterRegistry)
+                .record(Math.round(misura.getMillisecondiDatabase() * 1_000_000), TimeUnit.NANOSECONDS);
+
+        String richiesta = request.getMethod() + " " + request.getRequestURI();
+        if (misura.getQuery() > budget) {
+            logger.warn("{}: {}, oltre il budget di {} query. Statement più ripetuto ({} volte): {}",
+                    richiesta, misura, budget, misura.getRipetizioniMassime(), misura.getStatementPiuRipetuto());
+        } else if (misura.getRipetizioniMassime() >= ripetizioniSospette) {
+            logger.warn("{}: {}, possibile N+1. Statement ripetuto {} volte: {}",
+                    richiesta, misura, misura.getRipetizioniMassime(), misura.getStatementPiuRipetuto());
+        } else {
+            logger.debug("{}: {}", richiesta, misura);
+        }
+    }
+
+    // Aggiunge gli header della misura appena prima che la risposta venga scritta
+    private static class RispostaConStatistiche extends HttpServletResponseWrapper {
+
+        private final StatisticheSql.Misura misura;
+        private boolean headerScritti;
+
+        RispostaConStatistiche(HttpServletResponse response, StatisticheSql.Misura misura) {
+            super(response);
+            this.misura = misura;
+        }
+
+        void aggiungiHeader() {
+            if (headerScritti || isCommitted()) {
+                return;
+            }
+            headerScritti = true;
+            setHeader(HEADER_QUERY, Integer.toString(misura.getQuery()));
+            setHeader(HEADER_TEMPO, String.format(Locale.ROOT, "%.1f", misura.getMillisecondiDatabase()));
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            aggiungiHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            aggiungiHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            aggiungiHeader();
+            super.flushBuffer();
+        }
+    }
+}
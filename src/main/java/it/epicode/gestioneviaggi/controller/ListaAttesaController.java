@@ -0,0 +1,71 @@
+package it.epicode.gestioneviaggi.controller;
+
+import it.epicode.gestioneviaggi.dto.PrenotazioneInAttesaDto;
+import it.epicode.gestioneviaggi.service.ListaAttesaService;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/attesa")
+public class ListaAttesaController {
+
+    @Autowired
+    private ListaAttesaService listaAttesaService;
+
+    /**
+     * Endpoint per la coda di un viaggio: le richieste in attesa in ordine di posizione.
+     * Accessibile solo agli ADMIN.
+     * GET /api/attesa?viaggio={id}
+     * @param viaggio ID del viaggio.
+     * @return ResponseEntity con la lista delle richieste in attesa e status 200 (OK).
+     */
+    @GetMapping
+
+    public ResponseEntity<List<PrenotazioneInAttesaDto>> getCoda(@RequestParam Long viaggio) {
+        return new ResponseEntity<>(listaAttesaService.getCoda(viaggio), HttpStatus.OK);
+    }
+
+    /**
+     * Endpoint per lo stato di una richiesta in lista d'attesa e la sua posizione nella coda.
+     * Una richiesta promossa riporta l'ID della prenotazione creata.
+     * GET /api/attesa/{id}
+     * @param id ID della richiesta.
+     * @return ResponseEntity con il DTO della richiesta e status 200 (OK).
+     */
+    @GetMapping("/{id}")
+
+    public ResponseEntity<Object> getAttesa(@PathVariable Long id) {
+        try {
+            return new ResponseEntity<>(listaAttesaService.get(id), HttpStatus.OK);
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        }
+    }
+
+    /**
+     * Endpoint per togliere una richiesta dalla lista d'attesa.
+     * DELETE /api/attesa/{id}
+     * @param id ID della richiesta.
+     * @return ResponseEntity con status 204 (No Content).
+     */
+    @DeleteMapping("/{id}")
+
+    public ResponseEntity<Object> annullaAttesa(@PathVariable Long id) {
+        try {
+            listaAttesaService.annulla(id);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT); // 204 No Content
+        } catch (NotFoundException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
+        } catch (ConflictException e) {
+            // Se la richiesta è già stata promossa o annullata
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package it.epicode.gestioneviaggi.controller;
 
+import it.epicode.gestioneviaggi.dto.EsitoPrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
 import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.service.IdempotenzaService;
 import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import it.epicode.gestioneviaggi.exception.ConflictException;
 import it.epicode.gestioneviaggi.exception.NotFoundException;
 import it.epicode.gestioneviaggi.exception.ValidationException;
 
@@ -9,9 +13,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -22,24 +28,96 @@ public class PrenotazioneController {
     @Autowired
     private PrenotazioneService prenotazioneService;
 
+    @Autowired
+    private IdempotenzaService idempotenzaService;
+
     /**
      * Endpoint per la creazione di una nuova prenotazione.
      * Accessibile a tutti gli utenti autenticati (ADMIN o USER).
-     * POST /api/prenotazioni
+     * Con attesa=true, se i posti sono esauriti la prenotazione va in lista d'attesa invece di essere rifiutata:
+     * il client riceve 202 con la posizione in coda e non deve riprovare (vedi GET /attesa/{id}).
+     * Con l'header Idempotency-Key i tentativi ripetuti dal client ricevono la risposta del primo,
+     * senza creare un'altra prenotazione.
+     * POST /api/prenotazioni?attesa=true
      * @param prenotazioneDto DTO contenente i dati della prenotazione da creare.
-     * @return ResponseEntity con il DTO della prenotazione creata e status 201 (Created).
+     * @param attesa Se true, accoda la prenotazione quando i posti non bastano.
+     * @param chiave Valore facoltativo dell'header Idempotency-Key.
+     * @return ResponseEntity con il DTO della prenotazione creata e status 201 (Created),
+     * oppure con la richiesta in lista d'attesa e status 202 (Accepted).
      */
     @PostMapping
 
-    public ResponseEntity<Object> createPrenotazione(@RequestBody PrenotazioneDto prenotazioneDto) {
+    public ResponseEntity<Object> createPrenotazione(@RequestBody PrenotazioneDto prenotazioneDto,
+                                                     @RequestParam(defaultValue = "false") boolean attesa,
+                                                     @RequestHeader(value = IdempotenzaService.HEADER, required = false) String chiave) {
+        if (chiave == null) {
+            return creaPrenotazione(prenotazioneDto, attesa);
+        }
         try {
+            return idempotenzaService.esegui(chiave, "POST /prenotazioni?attesa=" + attesa, prenotazioneDto,
+                    () -> creaPrenotazione(prenotazioneDto, attesa));
+        } catch (ValidationException e) {
+            // Se la chiave non è valida o è già stata usata per una richiesta diversa
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (ConflictException e) {
+            // Se una richiesta con la stessa chiave è ancora in corso
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
+        }
+    }
+
+    private ResponseEntity<Object> creaPrenotazione(PrenotazioneDto prenotazioneDto, boolean attesa) {
+        try {
+            if (attesa) {
+                EsitoPrenotazioneDto esito = prenotazioneService.saveOppureAccoda(prenotazioneDto);
+                Object corpo = esito.getPrenotazione() != null ? esito.getPrenotazione() : esito.getAttesa();
+                return new ResponseEntity<>(corpo, HttpStatus.valueOf(esito.getStatus()));
+            }
             PrenotazioneDto createdPrenotazione = prenotazioneService.save(prenotazioneDto);
             return new ResponseEntity<>(createdPrenotazione, HttpStatus.CREATED);
         } catch (NotFoundException e) {
             // Se il dipendente o il viaggio non sono stati trovati
             return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
         } catch (ValidationException e) {
-            // Se i dati della prenotazione non sono validi (es. posti insufficienti, data non valida)
+            // Se i dati della prenotazione non sono validi (es. data non valida)
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (ConflictException e) {
+            // Se i posti del viaggio sono esauriti (o il dipendente è già prenotato o in attesa in quella data)
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
+        }
+    }
+
+    /**
+     * Endpoint per la creazione di più prenotazioni in un'unica richiesta (es. un intero team).
+     * Ogni prenotazione ha il proprio esito: quelle rifiutate non bloccano le altre.
+     * POST /api/prenotazioni/batch
+     * Supporta l'header Idempotency-Key come la POST singola.
+     * @param prenotazioniDto Lista dei DTO delle prenotazioni da creare.
+     * @param chiave Valore facoltativo dell'header Idempotency-Key.
+     * @return ResponseEntity con la lista degli esiti e status 200 (OK).
+     */
+    @PostMapping("/batch")
+
+    public ResponseEntity<Object> createPrenotazioni(@RequestBody List<PrenotazioneDto> prenotazioniDto,
+                                                     @RequestHeader(value = IdempotenzaService.HEADER, required = false) String chiave) {
+        if (chiave == null) {
+            return creaPrenotazioni(prenotazioniDto);
+        }
+        try {
+            return idempotenzaService.esegui(chiave, "POST /prenotazioni/batch", prenotazioniDto,
+                    () -> creaPrenotazioni(prenotazioniDto));
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (ConflictException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
+        }
+    }
+
+    private ResponseEntity<Object> creaPrenotazioni(List<PrenotazioneDto> prenotazioniDto) {
+        try {
+            List<EsitoPrenotazioneDto> esiti = prenotazioneService.saveBatch(prenotazioniDto);
+            return new ResponseEntity<>(esiti, HttpStatus.OK);
+        } catch (ValidationException e) {
+            // Se la lista è vuota o troppo lunga
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
         }
     }
@@ -57,6 +135,19 @@ public class PrenotazioneController {
         return new ResponseEntity<>(prenotazioni, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per l'export in streaming di tutte le prenotazioni, un oggetto JSON per riga (NDJSON).
+     * Accessibile solo agli ADMIN.
+     * GET /api/prenotazioni/export
+     * @return ResponseEntity con il corpo scritto in streaming e status 200 (OK).
+     */
+    @GetMapping("/export")
+
+    public ResponseEntity<StreamingResponseBody> exportPrenotazioni() {
+        StreamingResponseBody body = out -> prenotazioneService.esporta(out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     /**
      * Endpoint per il recupero di una prenotazione tramite ID.
      * Accessibile agli ADMIN o all'utente proprietario della prenotazione.
@@ -92,6 +183,27 @@ public class PrenotazioneController {
         return new ResponseEntity<>(prenotazioniPage, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per il recupero delle prenotazioni con paginazione a cursore (keyset), ordinate per data.
+     * Non esegue OFFSET né COUNT: la latenza resta costante anche sulle pagine profonde.
+     * Accessibile solo agli ADMIN.
+     * GET /api/prenotazioni/cursor?size=20&cursor=...
+     * @param cursor Cursore restituito dalla pagina precedente (assente per la prima pagina).
+     * @param size Numero massimo di elementi nella pagina.
+     * @return ResponseEntity con la pagina di DTO di prenotazioni e il cursore successivo, status 200 (OK).
+     */
+    @GetMapping("/cursor")
+
+    public ResponseEntity<Object> getPrenotazioniCursor(@RequestParam(required = false) String cursor,
+                                                        @RequestParam(defaultValue = "20") int size) {
+        try {
+            PaginaCursoreDto<PrenotazioneDto> pagina = prenotazioneService.get(cursor, size);
+            return new ResponseEntity<>(pagina, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
     /**
      * Endpoint per l'aggiornamento di una prenotazione esistente.
      * Accessibile agli ADMIN o all'utente proprietario della prenotazione.
@@ -111,6 +223,8 @@ public class PrenotazioneController {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND); // 404 Not Found
         } catch (ValidationException e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        } catch (ConflictException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.CONFLICT); // 409 Conflict
         }
     }
 
@@ -0,0 +1,78 @@
+package it.epicode.gestioneviaggi.controller;
+
+import it.epicode.gestioneviaggi.dto.VerificaStatisticheDto;
+import it.epicode.gestioneviaggi.service.StatisticheService;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+@RestController
+@RequestMapping("/statistiche")
+public class StatisticheController {
+
+    @Autowired
+    private StatisticheService statisticheService;
+
+    /**
+     * Endpoint per prenotazioni e riempimento per destinazione e mese del viaggio, letti dai contatori in memoria.
+     * Accessibile solo agli ADMIN.
+     * GET /api/statistiche/destinazioni?dal=2025-01&al=2025-12
+     * @param dal Primo mese incluso (facoltativo).
+     * @param al Ultimo mese incluso (facoltativo).
+     * @return ResponseEntity con una riga per destinazione e mese e status 200 (OK).
+     */
+    @GetMapping("/destinazioni")
+
+    public ResponseEntity<Object> getPerDestinazione(
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth dal,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth al) {
+        try {
+            return new ResponseEntity<>(statisticheService.perDestinazione(dal, al), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+    /**
+     * Endpoint per il tasso di riempimento dei viaggi con data nell'intervallo.
+     * Accessibile solo agli ADMIN.
+     * GET /api/statistiche/viaggi?dal=2025-01-01&al=2025-12-31
+     * @param dal Prima data inclusa (facoltativa).
+     * @param al Ultima data inclusa (facoltativa).
+     * @return ResponseEntity con una riga per viaggio e status 200 (OK).
+     */
+    @GetMapping("/viaggi")
+
+    public ResponseEntity<Object> getPerViaggio(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dal,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate al) {
+        try {
+            return new ResponseEntity<>(statisticheService.perViaggio(dal, al), HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST); // 400 Bad Request
+        }
+    }
+
+    /**
+     * Endpoint per confrontare le statistiche con un riconteggio completo dal database.
+     * Legge tutte le prenotazioni: da usare per controllo, non dai cruscotti.
+     * Accessibile solo agli ADMIN.
+     * GET /api/statistiche/verifica
+     * @return ResponseEntity con l'esito del confronto e status 200 (OK).
+     */
+    @GetMapping("/verifica")
+
+    public ResponseEntity<VerificaStatisticheDto> verifica() {
+        return new ResponseEntity<>(statisticheService.verifica(), HttpStatus.OK);
+    }
+}
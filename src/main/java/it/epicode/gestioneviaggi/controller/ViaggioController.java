@@ -1,6 +1,10 @@
 package it.epicode.gestioneviaggi.controller;
 
+import it.epicode.gestioneviaggi.dto.DestinazioneDto;
+import it.epicode.gestioneviaggi.dto.FiltroViaggiDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
 import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.service.VersioniRisorse;
 import it.epicode.gestioneviaggi.service.ViaggioService;
 import it.epicode.gestioneviaggi.exception.NotFoundException;
 import it.epicode.gestioneviaggi.exception.ValidationException;
@@ -9,9 +13,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -22,6 +29,9 @@ public class ViaggioController {
     @Autowired
     private ViaggioService viaggioService;
 
+    @Autowired
+    private VersioniRisorse versioniRisorse;
+
     /**
      * Endpoint per la creazione di un nuovo viaggio.
      * Accessibile agli ADMIN.
@@ -48,21 +58,42 @@ public class ViaggioController {
      */
     @GetMapping
 
-    public ResponseEntity<List<ViaggioDto>> getAllViaggi() {
+    public ResponseEntity<List<ViaggioDto>> getAllViaggi(WebRequest request) {
+        // ETag letto prima dei dati: con If-None-Match corrispondente risponde 304 senza leggere la tabella
+        if (request.checkNotModified(versioniRisorse.etagCollezione(VersioniRisorse.VIAGGI))) {
+            return null; // 304 Not Modified
+        }
         List<ViaggioDto> viaggi = viaggioService.get();
         return new ResponseEntity<>(viaggi, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per l'export in streaming di tutti i viaggi, un oggetto JSON per riga (NDJSON).
+     * Accessibile agli ADMIN.
+     * GET /api/viaggi/export
+     * @return ResponseEntity con il corpo scritto in streaming e status 200.
+     */
+    @GetMapping("/export")
+
+    public ResponseEntity<StreamingResponseBody> exportViaggi() {
+        StreamingResponseBody body = out -> viaggioService.esporta(out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     /**
      * Endpoint per il recupero di un viaggio tramite ID.
      * Accessibile a tutti gli utenti autenticati.
      * GET /api/viaggi/{id}
+     * Risponde 304 (Not Modified) se l'header If-None-Match contiene l'ETag corrente del viaggio.
      * @param id ID del viaggio.
      * @return ResponseEntity con il DTO del viaggio e status 200.
      */
     @GetMapping("/{id}")
 
-    public ResponseEntity<ViaggioDto> getViaggioById(@PathVariable Long id) {
+    public ResponseEntity<ViaggioDto> getViaggioById(@PathVariable Long id, WebRequest request) {
+        if (request.checkNotModified(versioniRisorse.etag(VersioniRisorse.VIAGGI, id))) {
+            return null; // 304 Not Modified
+        }
         try {
             ViaggioDto viaggio = viaggioService.get(id);
             return new ResponseEntity<>(viaggio, HttpStatus.OK);
@@ -80,11 +111,78 @@ public class ViaggioController {
      */
     @GetMapping("/page")
 
-    public ResponseEntity<Page<ViaggioDto>> getAllViaggiPaged(Pageable pageable) {
+    public ResponseEntity<Page<ViaggioDto>> getAllViaggiPaged(Pageable pageable, WebRequest request) {
+        if (request.checkNotModified(versioniRisorse.etagCollezione(VersioniRisorse.VIAGGI))) {
+            return null; // 304 Not Modified
+        }
         Page<ViaggioDto> viaggiPage = viaggioService.get(pageable);
         return new ResponseEntity<>(viaggiPage, HttpStatus.OK);
     }
 
+    /**
+     * Endpoint per la ricerca dei viaggi con filtri facoltativi.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/search?destinazione=rom&dal=2025-07-01&al=2025-08-31&stato=IN_PROGRAMMA&postiMinimi=2&page=0&size=20
+     * @param filtro Prefisso della destinazione, intervallo di date, stato e posti minimi.
+     * @param pageable Oggetto Pageable per la paginazione e l'ordinamento (predefinito: data, id).
+     * @return ResponseEntity con una pagina di DTO di viaggi e status 200.
+     */
+    @GetMapping("/search")
+
+    public ResponseEntity<Page<ViaggioDto>> searchViaggi(FiltroViaggiDto filtro, Pageable pageable, WebRequest request) {
+        if (request.checkNotModified(versioniRisorse.etagCollezione(VersioniRisorse.VIAGGI))) {
+            return null; // 304 Not Modified
+        }
+        try {
+            Page<ViaggioDto> risultati = viaggioService.cerca(filtro, pageable);
+            return new ResponseEntity<>(risultati, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Endpoint per i suggerimenti delle destinazioni durante la digitazione.
+     * Risponde dall'indice in memoria, senza accedere al database.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/destinazioni?prefix=ro&limit=10
+     * @param prefix Testo digitato, senza distinzione tra maiuscole e minuscole né accenti.
+     * @param limit Numero massimo di suggerimenti.
+     * @return ResponseEntity con le destinazioni e i loro viaggi in programma, status 200.
+     */
+    @GetMapping("/destinazioni")
+
+    public ResponseEntity<List<DestinazioneDto>> getDestinazioni(@RequestParam(defaultValue = "") String prefix,
+                                                                 @RequestParam(defaultValue = "10") int limit) {
+        try {
+            List<DestinazioneDto> destinazioni = viaggioService.suggerisciDestinazioni(prefix, limit);
+            return new ResponseEntity<>(destinazioni, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Endpoint per il recupero dei viaggi con paginazione a cursore (keyset), ordinati per data.
+     * Non esegue OFFSET né COUNT: la latenza resta costante anche sulle pagine profonde.
+     * Accessibile a tutti gli utenti autenticati.
+     * GET /api/viaggi/cursor?size=20&cursor=...
+     * @param cursor Cursore restituito dalla pagina precedente (assente per la prima pagina).
+     * @param size Numero massimo di elementi nella pagina.
+     * @return ResponseEntity con la pagina di DTO di viaggi e il cursore successivo, status 200.
+     */
+    @GetMapping("/cursor")
+
+    public ResponseEntity<PaginaCursoreDto<ViaggioDto>> getViaggiCursor(@RequestParam(required = false) String cursor,
+                                                                        @RequestParam(defaultValue = "20") int size) {
+        try {
+            PaginaCursoreDto<ViaggioDto> pagina = viaggioService.get(cursor, size);
+            return new ResponseEntity<>(pagina, HttpStatus.OK);
+        } catch (ValidationException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     /**
      * Endpoint per l'aggiornamento di un viaggio esistente.
      * Accessibile agli ADMIN.
@@ -0,0 +1,16 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Posti trattenuti su un viaggio in attesa della conferma (o del rilascio) della prenotazione
+@Data
+public class BloccoPostiDto {
+
+    private String id;              // generato dal backend, da usare per confermare o rilasciare
+    private Long idViaggio;
+    private int posti;
+    private Integer durataSecondi;  // in richiesta: durata del blocco, se assente quella predefinita
+    private LocalDateTime scadenza; // in risposta: dopo questo istante i posti tornano disponibili
+}
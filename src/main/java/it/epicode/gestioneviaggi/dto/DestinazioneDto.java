@@ -0,0 +1,15 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Suggerimento di GET /viaggi/destinazioni: la destinazione e quanti viaggi vi sono in programma da oggi in poi
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DestinazioneDto {
+
+    private String destinazione;
+    private int viaggi;
+}
@@ -0,0 +1,14 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+// Esito di una singola prenotazione: all'interno di una richiesta batch o con la lista d'attesa
+@Data
+public class EsitoPrenotazioneDto {
+
+    private int indice;                    // posizione della prenotazione nella lista ricevuta
+    private int status;                    // status HTTP che avrebbe avuto la singola POST (201, 202, 400, 404, 409)
+    private PrenotazioneDto prenotazione;  // valorizzata se la prenotazione è stata creata
+    private PrenotazioneInAttesaDto attesa; // valorizzata se la prenotazione è finita in lista d'attesa
+    private String errore;                 // valorizzato se la prenotazione è stata rifiutata
+}
@@ -0,0 +1,24 @@
+package it.epicode.gestioneviaggi.dto;
+
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+// Parametri di GET /viaggi/search: tutti facoltativi, quelli assenti non filtrano
+@Data
+public class FiltroViaggiDto {
+
+    private String destinazione; // prefisso, senza distinzione tra maiuscole e minuscole né accenti
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate dal;
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate al;
+
+    private StatoViaggio stato;
+
+    private Integer postiMinimi;
+}
@@ -0,0 +1,16 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Resoconto di un import CSV di dipendenti: gli scarti sono riportati riga per riga, fino a un massimo configurato
+@Data
+public class ImportDipendentiDto {
+
+    private int righe;       // righe di dati lette, esclusa l'intestazione
+    private int importati;
+    private int scartati;
+    private List<RigaScartataDto> scarti = new ArrayList<>();
+}
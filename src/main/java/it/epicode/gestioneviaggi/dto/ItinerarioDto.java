@@ -0,0 +1,23 @@
+package it.epicode.gestioneviaggi.dto;
+
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// Riga dell'itinerario di un dipendente (GET /dipendenti/{id}/prenotazioni): la prenotazione con il riepilogo del viaggio
+@Data
+@NoArgsConstructor
+@AllArgsConstructor // usato dalla query di proiezione in PrenotazioneRepository
+public class ItinerarioDto {
+
+    private Long idPrenotazione;
+    private LocalDate dataPrenotazione;
+    private int numeroPosti;
+    private Long idViaggio;
+    private String destinazione;
+    private LocalDate dataViaggio;
+    private StatoViaggio statoViaggio;
+}
@@ -0,0 +1,14 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+// Pagina di una paginazione a cursore: nextCursor è nullo quando non ci sono altre pagine
+@Data
+public class PaginaCursoreDto<T> {
+
+    private List<T> contenuto;
+    private int size;
+    private String nextCursor;
+}
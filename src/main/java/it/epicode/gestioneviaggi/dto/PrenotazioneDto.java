@@ -2,11 +2,15 @@ package it.epicode.gestioneviaggi.dto;
 
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.LocalDate;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor // usato dalle query di proiezione in PrenotazioneRepository
 public class PrenotazioneDto {
 
     private Long id; //sarà nullo in Post, valorizzato in GET
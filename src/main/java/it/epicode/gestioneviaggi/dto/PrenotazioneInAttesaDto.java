@@ -0,0 +1,22 @@
+package it.epicode.gestioneviaggi.dto;
+
+import it.epicode.gestioneviaggi.enumeration.StatoAttesa;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Data
+public class PrenotazioneInAttesaDto {
+
+    private Long id;
+    private Long dipendenteId;
+    private Long idViaggio;
+    private int numeroPosti;
+    private LocalDate dataPrenotazione;
+    private String notePreferenze;
+    private StatoAttesa stato;
+    private Integer posizione;      // posizione nella coda del viaggio (1 = la prossima servita), solo se IN_ATTESA
+    private Long prenotazioneId;    // valorizzato quando la richiesta viene promossa
+    private LocalDateTime creataIl;
+}
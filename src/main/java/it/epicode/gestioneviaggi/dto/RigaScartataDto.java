@@ -0,0 +1,15 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Riga di un file importato che non è stata salvata, con il motivo
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RigaScartataDto {
+
+    private int riga;        // numero di riga nel file, intestazione compresa
+    private String errore;
+}
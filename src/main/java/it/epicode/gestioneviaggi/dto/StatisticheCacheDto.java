@@ -0,0 +1,15 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+// Statistiche di una cache locale dall'avvio dell'applicazione
+@Data
+public class StatisticheCacheDto {
+
+    private String nome;
+    private long dimensione;     // numero stimato di elementi presenti
+    private long hit;
+    private long miss;
+    private double hitRate;      // tra 0 e 1; 1 se non ci sono ancora state richieste
+    private long evizioni;       // elementi rimossi per dimensione massima o scadenza
+}
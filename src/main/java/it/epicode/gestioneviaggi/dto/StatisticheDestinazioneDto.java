@@ -0,0 +1,18 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+import java.time.YearMonth;
+
+// Prenotazioni e riempimento dei viaggi di una destinazione in un mese (mese della data del viaggio)
+@Data
+public class StatisticheDestinazioneDto {
+
+    private String destinazione;
+    private YearMonth mese;
+    private int viaggi;
+    private int capienza;            // posti totali dei viaggi: disponibili, prenotati e bloccati
+    private int prenotazioni;
+    private int postiPrenotati;
+    private double tassoRiempimento; // postiPrenotati / capienza, tra 0 e 1
+}
@@ -0,0 +1,18 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+// Riempimento di un viaggio
+@Data
+public class StatisticheViaggioDto {
+
+    private Long idViaggio;
+    private String destinazione;
+    private LocalDate data;
+    private int capienza;            // posti disponibili, prenotati e bloccati
+    private int prenotazioni;
+    private int postiPrenotati;
+    private double tassoRiempimento; // postiPrenotati / capienza, tra 0 e 1
+}
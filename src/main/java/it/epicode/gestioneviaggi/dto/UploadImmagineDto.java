@@ -0,0 +1,19 @@
+package it.epicode.gestioneviaggi.dto;
+
+import it.epicode.gestioneviaggi.enumeration.StatoUpload;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Stato di un caricamento dell'immagine profilo eseguito in background
+@Data
+public class UploadImmagineDto {
+
+    private String jobId;
+    private Long dipendenteId;
+    private StatoUpload stato;
+    private String immagineProfiloUrl; // valorizzato quando il caricamento è completato
+    private String errore;             // valorizzato quando il caricamento è fallito
+    private LocalDateTime creatoIl;
+    private LocalDateTime completatoIl;
+}
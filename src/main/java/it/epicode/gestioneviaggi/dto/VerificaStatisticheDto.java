@@ -0,0 +1,15 @@
+package it.epicode.gestioneviaggi.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+// Esito del confronto tra le statistiche in memoria e un riconteggio completo dal database
+@Data
+public class VerificaStatisticheDto {
+
+    private boolean coerente;
+    private int viaggiControllati;
+    private int differenzeTotali;
+    private List<String> differenze; // le prime, fino al massimo configurato
+}
@@ -1,6 +1,7 @@
 package it.epicode.gestioneviaggi.dto;
 
 import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
@@ -18,4 +19,7 @@ public class ViaggioDto {
     private LocalDate data;
 @NotNull(message = "lo stato non può essere nullo")
     private StatoViaggio statoViaggio;
+// Posti iniziali alla creazione; in aggiornamento è ignorato, i posti cambiano solo con le prenotazioni
+@Min(value = 0, message = "i posti disponibili non possono essere negativi")
+    private int postiDisponibili;
 }
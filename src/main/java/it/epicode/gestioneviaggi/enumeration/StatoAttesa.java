@@ -0,0 +1,5 @@
+package it.epicode.gestioneviaggi.enumeration;
+
+public enum StatoAttesa {
+    IN_ATTESA, PROMOSSA, ANNULLATA
+}
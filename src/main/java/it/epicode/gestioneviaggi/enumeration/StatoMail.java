@@ -0,0 +1,5 @@
+package it.epicode.gestioneviaggi.enumeration;
+
+public enum StatoMail {
+    IN_ATTESA, IN_INVIO, INVIATA, FALLITA
+}
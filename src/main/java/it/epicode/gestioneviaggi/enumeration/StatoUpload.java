@@ -0,0 +1,5 @@
+package it.epicode.gestioneviaggi.enumeration;
+
+public enum StatoUpload {
+    IN_CODA, IN_CORSO, COMPLETATO, FALLITO
+}
@@ -2,6 +2,9 @@ package it.epicode.gestioneviaggi.exception;
 
 
 import it.epicode.gestioneviaggi.model.ApiError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -10,11 +13,14 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.context.request.WebRequest;
 
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 
 @RestControllerAdvice
 public class GlobalExceptionHandler {
 
+    private static final Logger logger = LoggerFactory.getLogger(GlobalExceptionHandler.class);
+
     @ExceptionHandler(NotFoundException.class)
 
     public ResponseEntity<ApiError> handleNotFoundException(NotFoundException ex, WebRequest request){
@@ -49,6 +55,33 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(apiError, HttpStatus.CONFLICT);
     }
 
+    // Violazioni di vincoli del database non tradotte dai service. Le unicità attese sono già ConflictException
+    // (es. DipendenteService): qui lo stato dipende dal tipo di vincolo e il dettaglio del database resta nel log.
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<ApiError> handleDataIntegrityViolationException(DataIntegrityViolationException ex, WebRequest request) {
+        String sqlState = ex.getMostSpecificCause() instanceof SQLException sql ? sql.getSQLState() : null;
+        HttpStatus status;
+        String message;
+        if ("23505".equals(sqlState)) { // unique_violation
+            status = HttpStatus.CONFLICT;
+            message = "Il dato è in conflitto con uno già esistente";
+        } else if ("23502".equals(sqlState) || "23503".equals(sqlState) || "23514".equals(sqlState)) { // not_null, foreign_key, check
+            status = HttpStatus.BAD_REQUEST;
+            message = "Il dato non rispetta i vincoli richiesti";
+        } else {
+            status = HttpStatus.INTERNAL_SERVER_ERROR;
+            message = "Errore nel salvataggio dei dati";
+        }
+        logger.warn("Violazione di un vincolo del database su {} (SQLState {}).", request.getDescription(false), sqlState, ex);
+        ApiError apiError = new ApiError();
+        apiError.setMessage(message);
+        apiError.setDataErrore(LocalDateTime.now());
+        apiError.setStatus(status.value());
+        apiError.setError(status.getReasonPhrase());
+        apiError.setPath(request.getDescription(false).replace("uri=", ""));
+        return new ResponseEntity<>(apiError, status);
+    }
+
     // Gestisce tutte le altre eccezioni non catturate
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ApiError> handleGlobalException(Exception ex, WebRequest request) {
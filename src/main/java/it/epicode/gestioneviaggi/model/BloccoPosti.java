@@ -0,0 +1,32 @@
+package it.epicode.gestioneviaggi.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Blocco di posti attivo (vedi BlocchiPostiService): scritto insieme alla riserva dei posti ed eliminato insieme alla
+// conferma o alla restituzione, così i posti di un blocco non si perdono se l'applicazione si ferma senza chiudersi
+@Entity
+@Data
+@Table(
+        name = "blocchi_posti",
+        indexes = {
+                @Index(name = "idx_blocchi_posti_scadenza", columnList = "scadenza")
+        }
+)
+public class BloccoPosti {
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(name = "viaggio_id", nullable = false)
+    private Long viaggioId;
+
+    @Column(nullable = false)
+    private int posti;
+
+    @Column(nullable = false)
+    private LocalDateTime scadenza;
+}
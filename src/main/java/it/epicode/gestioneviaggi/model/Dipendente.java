@@ -1,21 +1,38 @@
 package it.epicode.gestioneviaggi.model;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 import lombok.Data;
 
 @Entity
 @Data
-
+@Table(
+        // L'unicità è garantita dal database: i nomi dei vincoli sono usati da DipendenteService per il messaggio d'errore
+        uniqueConstraints = {
+                @UniqueConstraint(name = Dipendente.UK_USERNAME, columnNames = "username"),
+                @UniqueConstraint(name = Dipendente.UK_EMAIL, columnNames = "email")
+        },
+        indexes = {
+                @Index(name = "idx_dipendente_cognome_id", columnList = "cognome, id") // paginazione a cursore
+        }
+)
 public class Dipendente {
 
+    public static final String UK_USERNAME = "uk_dipendente_username";
+    public static final String UK_EMAIL = "uk_dipendente_email";
+
     @Id
     @GeneratedValue
     private Long id;
     private String username;
     private String nome;
+    // Chiave della paginazione a cursore: un NULL non soddisferebbe mai il confronto (cognome, id) > (...)
+    @Column(nullable = false)
     private String cognome;
     private String email;
 
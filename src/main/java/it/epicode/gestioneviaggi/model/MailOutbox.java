@@ -0,0 +1,49 @@
+package it.epicode.gestioneviaggi.model;
+
+import it.epicode.gestioneviaggi.enumeration.StatoMail;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Mail da inviare, scritta nella stessa transazione dell'operazione che la genera
+@Entity
+@Data
+@Table(
+        name = "mail_outbox",
+        indexes = {
+                @Index(name = "idx_mail_outbox_stato_tentativo", columnList = "stato, prossimo_tentativo")
+        }
+)
+public class MailOutbox {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(nullable = false)
+    private String destinatario;
+
+    @Column(nullable = false)
+    private String oggetto;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String testo;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StatoMail stato;
+
+    private int tentativi;
+
+    @Column(name = "prossimo_tentativo", nullable = false)
+    private LocalDateTime prossimoTentativo;
+
+    @Column(nullable = false)
+    private LocalDateTime creataIl;
+
+    private LocalDateTime inviataIl;
+
+    @Column(columnDefinition = "TEXT")
+    private String ultimoErrore;
+}
@@ -2,6 +2,8 @@ package it.epicode.gestioneviaggi.model;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
 import java.time.LocalDate;
 
@@ -11,20 +13,32 @@ import java.time.LocalDate;
         name = "prenotazioni",
         uniqueConstraints = {
                 @UniqueConstraint(columnNames = {"dipendente_id", "data_prenotazione"})
+        },
+        indexes = {
+                @Index(name = "idx_prenotazioni_data_id", columnList = "data_prenotazione, id"), // paginazione a cursore
+                // Itinerario del dipendente: contiene tutte le colonne lette, la pagina è un index only scan
+                @Index(name = "idx_prenotazioni_dipendente_data", columnList = "dipendente_id, data_prenotazione, id, viaggio_id, numero_posti")
         }
 )
 public class Prenotazione {
 
+    // Sequenza con optimizer pooled: un nextval ogni 50 id, così gli insert possono andare in batch JDBC
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "prenotazioni_seq")
+    @SequenceGenerator(name = "prenotazioni_seq", sequenceName = "prenotazioni_seq", allocationSize = 50)
     private Long id;
 
-    @ManyToOne
+    // LAZY: le letture usano le proiezioni di PrenotazioneRepository, che leggono solo le foreign key
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "viaggio_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private Viaggio viaggio;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "dipendente_id")
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     private Dipendente dipendente;
 
     @Column(name = "data_richiesta", nullable = false)
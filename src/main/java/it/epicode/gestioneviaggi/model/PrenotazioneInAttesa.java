@@ -0,0 +1,66 @@
+package it.epicode.gestioneviaggi.model;
+
+import it.epicode.gestioneviaggi.enumeration.StatoAttesa;
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Richiesta di prenotazione in lista d'attesa per un viaggio senza posti sufficienti
+@Entity
+@Data
+@Table(
+        name = "prenotazioni_in_attesa",
+        indexes = {
+                // Coda FIFO di un viaggio e calcolo della posizione, letti solo dall'indice
+                @Index(name = "idx_attesa_viaggio_stato_id", columnList = "viaggio_id, stato, id"),
+                @Index(name = "idx_attesa_dipendente_data", columnList = "dipendente_id, data_prenotazione")
+        }
+)
+public class PrenotazioneInAttesa {
+
+    // allocationSize 1: l'ordine degli id è l'ordine di arrivo anche con più istanze dell'applicazione
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "prenotazioni_in_attesa_seq")
+    @SequenceGenerator(name = "prenotazioni_in_attesa_seq", sequenceName = "prenotazioni_in_attesa_seq", allocationSize = 1)
+    private Long id;
+
+    // Eliminando il viaggio o il dipendente si elimina anche la sua lista d'attesa
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "viaggio_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Viaggio viaggio;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "dipendente_id", nullable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private Dipendente dipendente;
+
+    private int numeroPosti;
+
+    @Column(name = "data_prenotazione", nullable = false)
+    private LocalDate dataPrenotazione;
+
+    @Column(columnDefinition = "TEXT")
+    private String notePreferenze;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StatoAttesa stato;
+
+    @Column(name = "creata_il", nullable = false)
+    private LocalDateTime creataIl;
+
+    // Prenotazione creata alla promozione
+    @Column(name = "prenotazione_id")
+    private Long prenotazioneId;
+}
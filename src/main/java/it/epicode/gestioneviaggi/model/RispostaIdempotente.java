@@ -0,0 +1,40 @@
+package it.epicode.gestioneviaggi.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Risposta registrata per un header Idempotency-Key, restituita a ogni ripetizione della stessa richiesta
+@Entity
+@Data
+@Table(
+        name = "risposte_idempotenti",
+        indexes = {
+                @Index(name = "idx_risposte_idempotenti_scadenza", columnList = "scadenza")
+        }
+)
+public class RispostaIdempotente {
+
+    @Id
+    @Column(length = 255)
+    private String chiave;
+
+    // SHA-256 di operazione e corpo: la stessa chiave con una richiesta diversa viene rifiutata
+    @Column(nullable = false, length = 64)
+    private String impronta;
+
+    // Null finché la transazione che esegue la richiesta non è conclusa
+    private Integer status;
+
+    private String tipo;
+
+    @Column(columnDefinition = "TEXT")
+    private String corpo;
+
+    @Column(name = "creata_il", nullable = false)
+    private LocalDateTime creataIl;
+
+    @Column(nullable = false)
+    private LocalDateTime scadenza;
+}
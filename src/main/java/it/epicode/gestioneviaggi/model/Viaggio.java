@@ -4,11 +4,20 @@ import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
 import jakarta.persistence.*;
 import lombok.Data;
 
+import java.text.Normalizer;
 import java.time.LocalDate;
+import java.util.Locale;
 
 @Entity
 @Data
-
+@Table(
+        indexes = {
+                @Index(name = "idx_viaggio_data_id", columnList = "data, id"), // paginazione a cursore
+                // Ricerca (ViaggioSpecifications): tutti i filtri sono valutati sull'indice, il conteggio delle pagine non legge la tabella
+                @Index(name = "idx_viaggio_ricerca_data", columnList = "destinazione_ricerca, data, stato_viaggio, posti_disponibili"),
+                @Index(name = "idx_viaggio_stato_data", columnList = "stato_viaggio, data, posti_disponibili")
+        }
+)
 public class Viaggio {
 
     @Id
@@ -18,12 +27,39 @@ public class Viaggio {
     @Column(nullable = false)
     private String destinazione;
 
+    // Destinazione senza maiuscole e accenti, per la ricerca per prefisso.
+    // Con la collation "C" un LIKE 'prefisso%' usa l'indice B-tree senza operator class dedicate.
+    @Column(columnDefinition = "varchar(255) collate \"C\"")
+    private String destinazioneRicerca;
+
     @Column(nullable = false)
     private LocalDate data;
 
     @Enumerated(EnumType.STRING)
     private StatoViaggio statoViaggio;
 
-    @Column(nullable = false) // Potresti volerlo nullable o con un default
+    // Scritto dall'entità solo all'inserimento: poi cambia soltanto con l'UPDATE condizionale di
+    // ViaggioRepository (o con il flush del ledger), così un salvataggio del viaggio non riscrive un valore letto prima
+    @Column(nullable = false, updatable = false)
     private int postiDisponibili;
+
+    @PrePersist
+    @PreUpdate
+    void aggiornaDestinazioneRicerca() {
+        destinazioneRicerca = normalizza(destinazione);
+    }
+
+    /**
+     * Forma usata per confrontare le destinazioni: minuscole, senza accenti e senza spazi ai lati.
+     * @param testo Il testo da normalizzare (può essere null).
+     * @return Il testo normalizzato, oppure null.
+     */
+    public static String normalizza(String testo) {
+        if (testo == null) {
+            return null;
+        }
+        return Normalizer.normalize(testo.trim(), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+    }
 }
@@ -0,0 +1,30 @@
+package it.epicode.gestioneviaggi.repository;
+
+import it.epicode.gestioneviaggi.model.BloccoPosti;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface BloccoPostiRepository extends JpaRepository<BloccoPosti, String> {
+
+    // Posti bloccati di un viaggio, per la capienza delle statistiche
+    interface PostiBloccati {
+        Long getViaggioId();
+        long getPosti();
+    }
+
+    // Restituisce 1 solo alla transazione che elimina il blocco: conferma, rilascio e scadenza (anche di istanze
+    // diverse) se lo contendono, ma i suoi posti vengono presi o restituiti una volta sola
+    @Modifying
+    @Query("delete from BloccoPosti b where b.id = :id")
+    int eliminaById(@Param("id") String id);
+
+    List<BloccoPosti> findByScadenzaBefore(LocalDateTime adesso);
+
+    @Query("select b.viaggioId as viaggioId, sum(b.posti) as posti from BloccoPosti b group by b.viaggioId")
+    List<PostiBloccati> sumPostiPerViaggio();
+}
@@ -0,0 +1,62 @@
+package it.epicode.gestioneviaggi.repository;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Sceglie il database per ogni connessione: le transazioni {@code @Transactional(readOnly = true)} dei service
+ * vanno sulla replica, tutto il resto sul primario. Le transazioni readOnly aperte da Spring Data per i metodi
+ * dei repository chiamati fuori da una transazione restano sul primario: sono letture fatte prima di una scrittura
+ * (es. existsById prima di deleteById) e non devono vedere dati in ritardo. Un thread può forzare il primario (es. la richiesta di un client
+ * che ha appena scritto e deve rileggere i propri dati anche se la replica è in ritardo).
+ * Va usato dietro un LazyConnectionDataSourceProxy: la scelta avviene al primo statement,
+ * quando il flag readOnly della transazione è già impostato.
+ * Le get(id) di viaggi e dipendenti restano sul primario: finiscono nella cache locale, e un dato letto
+ * dalla replica in ritardo resterebbe in cache dopo la rimozione fatta al commit.
+ */
+public class DataSourceInstradato extends AbstractRoutingDataSource {
+
+    public enum Destinazione {
+        PRIMARIO, REPLICA
+    }
+
+    // Prefisso del nome delle transazioni aperte dai metodi dell'applicazione (classe.metodo)
+    private static final String TRANSAZIONI_APPLICAZIONE = "it.epicode.gestioneviaggi.";
+
+    private static final ThreadLocal<Boolean> PRIMARIO_FORZATO = new ThreadLocal<>();
+
+    public DataSourceInstradato(DataSource primario, DataSource replica) {
+        setTargetDataSources(Map.of(Destinazione.PRIMARIO, primario, Destinazione.REPLICA, replica));
+        setDefaultTargetDataSource(primario);
+        afterPropertiesSet();
+    }
+
+    // Le letture del thread corrente vanno sul primario finché non viene chiamato annullaForzatura()
+    public static void forzaPrimario() {
+        PRIMARIO_FORZATO.set(Boolean.TRUE);
+    }
+
+    public static void annullaForzatura() {
+        PRIMARIO_FORZATO.remove();
+    }
+
+    public static boolean isPrimarioForzato() {
+        return PRIMARIO_FORZATO.get() != null;
+    }
+
+    // Destinazione della prossima connessione presa dal thread corrente
+    public static Destinazione destinazione() {
+        String transazione = TransactionSynchronizationManager.getCurrentTransactionName();
+        boolean letturaDelService = TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && transazione != null && transazione.startsWith(TRANSAZIONI_APPLICAZIONE);
+        return letturaDelService && !isPrimarioForzato() ? Destinazione.REPLICA : Destinazione.PRIMARIO;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return destinazione();
+    }
+}
@@ -1,13 +1,48 @@
 package it.epicode.gestioneviaggi.repository;
 
 import it.epicode.gestioneviaggi.model.Dipendente;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 import java.util.Optional;
 
 public interface DipendenteRepository  extends JpaRepository<Dipendente, Long>, PagingAndSortingRepository<Dipendente, Long> {
     Optional<Dipendente> findByUsername(String username); // <--- DEVE ESSERE PRESENTE
     Optional<Dipendente> findByEmail(String email);       // <--- DEVE ESSERE PRESENTE
-}
 
+    // Proiezione minima usata dall'import CSV per i controlli di unicità in memoria
+    interface UsernameEmail {
+        String getUsername();
+        String getEmail();
+    }
+
+    @Query("select d.username as username, d.email as email from Dipendente d")
+    List<UsernameEmail> findAllUsernameEmail();
+
+    @Query("select d.id from Dipendente d where d.id in :ids")
+    List<Long> findIdByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Paginazione keyset su (cognome, id): nessun OFFSET e nessun COUNT
+    @Query("select d from Dipendente d order by d.cognome, d.id")
+    List<Dipendente> findPrimaPagina(Limit limit);
+
+    @Query("select d from Dipendente d where (d.cognome, d.id) > (:cognome, :id) order by d.cognome, d.id")
+    List<Dipendente> findPaginaDopo(@Param("cognome") String cognome, @Param("id") Long id, Limit limit);
+
+    // Cursore forward-only per l'export: le righe arrivano a blocchi di fetch size, in sola lettura
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select d from Dipendente d order by d.id")
+    Stream<Dipendente> streamAll();
+}
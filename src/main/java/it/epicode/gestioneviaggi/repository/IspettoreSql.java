@@ -0,0 +1,38 @@
+package it.epicode.gestioneviaggi.repository;
+
+import org.hibernate.SessionEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Aggancio a Hibernate per {@link StatisticheSql}: come StatementInspector conta ogni statement preparato
+ * (un batch JDBC vale uno), come SessionEventListener misura il tempo di esecuzione sul database.
+ * Registrato in application.properties; Hibernate crea le istanze da solo, per questo lo stato è nel ThreadLocal.
+ */
+public class IspettoreSql implements StatementInspector, SessionEventListener {
+
+    @Override
+    public String inspect(String sql) {
+        StatisticheSql.statement(sql);
+        return sql;
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        StatisticheSql.inizioEsecuzione();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        StatisticheSql.fineEsecuzione();
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        StatisticheSql.inizioEsecuzione();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        StatisticheSql.fineEsecuzione();
+    }
+}
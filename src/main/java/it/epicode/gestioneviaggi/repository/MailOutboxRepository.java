@@ -0,0 +1,25 @@
+package it.epicode.gestioneviaggi.repository;
+
+import it.epicode.gestioneviaggi.enumeration.StatoMail;
+import it.epicode.gestioneviaggi.model.MailOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface MailOutboxRepository extends JpaRepository<MailOutbox, Long> {
+
+    // Mail pronte, bloccate fino alla fine della transazione; quelle già bloccate da un'altra istanza vengono saltate
+    @Query(value = "select * from mail_outbox where stato = 'IN_ATTESA' and prossimo_tentativo <= :adesso"
+            + " order by id limit :limite for update skip locked", nativeQuery = true)
+    List<MailOutbox> findPronteDaInviare(@Param("adesso") LocalDateTime adesso, @Param("limite") int limite);
+
+    // Mail rimaste nello stato di invio oltre la scadenza (istanza terminata durante l'invio)
+    @Modifying
+    @Query("update MailOutbox m set m.stato = :nuovoStato, m.ultimoErrore = :errore where m.stato = :stato and m.prossimoTentativo < :adesso")
+    int updateScadute(@Param("stato") StatoMail stato, @Param("adesso") LocalDateTime adesso,
+                      @Param("nuovoStato") StatoMail nuovoStato, @Param("errore") String errore);
+}
@@ -0,0 +1,74 @@
+package it.epicode.gestioneviaggi.repository;
+
+import it.epicode.gestioneviaggi.enumeration.StatoMail;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Modifiche allo schema che ddl-auto=update non sa fare sulle tabelle già esistenti.
+ * Girano una volta all'avvio, dopo l'aggiornamento dello schema di Hibernate (dipendenza da EntityManagerFactory)
+ * e prima che il server web accetti richieste; ogni passo controlla il catalogo e non fa nulla se è già applicato.
+ * I componenti che scrivono sulle tabelle interessate già all'avvio ne dipendono con {@code @DependsOn}.
+ */
+@Component
+public class MigrazioniSchema {
+
+    private static final Logger logger = LoggerFactory.getLogger(MigrazioniSchema.class);
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory; // Solo per l'ordine: lo schema di Hibernate è già aggiornato
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void applica() {
+        transactionTemplate.executeWithoutResult(stato -> vincoloStatoMail());
+        transactionTemplate.executeWithoutResult(stato -> cognomeObbligatorio());
+    }
+
+    // Hibernate genera il vincolo sui valori di StatoMail solo alla creazione della tabella: un valore aggiunto dopo
+    // (es. IN_INVIO) violerebbe il vincolo vecchio
+    private void vincoloStatoMail() {
+        List<String> vincolo = jdbcTemplate.queryForList("select pg_get_constraintdef(oid) from pg_constraint"
+                + " where conrelid = 'mail_outbox'::regclass and conname = 'mail_outbox_stato_check'", String.class);
+        if (vincolo.isEmpty() || Arrays.stream(StatoMail.values()).allMatch(s -> vincolo.get(0).contains("'" + s.name() + "'"))) {
+            return;
+        }
+        String valori = Arrays.stream(StatoMail.values()).map(s -> "'" + s.name() + "'").collect(Collectors.joining(", "));
+        jdbcTemplate.execute("alter table mail_outbox drop constraint mail_outbox_stato_check,"
+                + " add constraint mail_outbox_stato_check check (stato in (" + valori + "))");
+        logger.info("Vincolo mail_outbox_stato_check aggiornato con i valori {}.", valori);
+    }
+
+    // Il cognome è la chiave della paginazione a cursore dei dipendenti: ddl-auto=update non aggiunge NOT NULL
+    // a una colonna esistente. I cognomi mancanti diventano stringhe vuote, con gli ID nel log
+    private void cognomeObbligatorio() {
+        String nullable = jdbcTemplate.queryForObject("select is_nullable from information_schema.columns"
+                + " where table_schema = current_schema() and table_name = 'dipendente' and column_name = 'cognome'", String.class);
+        if (!"YES".equals(nullable)) {
+            return;
+        }
+        List<Long> riscritti = jdbcTemplate.queryForList("update dipendente set cognome = '' where cognome is null returning id", Long.class);
+        jdbcTemplate.execute("alter table dipendente alter column cognome set not null");
+        if (!riscritti.isEmpty()) {
+            logger.warn("Colonna dipendente.cognome resa obbligatoria: {} dipendenti senza cognome ora hanno la stringa vuota (ID {}).",
+                    riscritti.size(), riscritti);
+        } else {
+            logger.info("Colonna dipendente.cognome resa obbligatoria.");
+        }
+    }
+}
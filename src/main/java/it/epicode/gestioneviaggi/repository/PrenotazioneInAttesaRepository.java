@@ -0,0 +1,33 @@
+package it.epicode.gestioneviaggi.repository;
+
+import it.epicode.gestioneviaggi.enumeration.StatoAttesa;
+import it.epicode.gestioneviaggi.model.PrenotazioneInAttesa;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+public interface PrenotazioneInAttesaRepository extends JpaRepository<PrenotazioneInAttesa, Long> {
+
+    // Coda FIFO del viaggio: le richieste ancora in attesa in ordine di arrivo
+    @Query("select a from PrenotazioneInAttesa a where a.viaggio.id = :viaggioId and a.stato = :stato order by a.id")
+    List<PrenotazioneInAttesa> findCoda(@Param("viaggioId") Long viaggioId, @Param("stato") StatoAttesa stato, Limit limit);
+
+    // Pagina successiva della coda, dopo la richiesta con ID `dopo`
+    @Query("select a from PrenotazioneInAttesa a where a.viaggio.id = :viaggioId and a.stato = :stato and a.id > :dopo order by a.id")
+    List<PrenotazioneInAttesa> findCodaDopo(@Param("viaggioId") Long viaggioId, @Param("stato") StatoAttesa stato,
+                                            @Param("dopo") Long dopo, Limit limit);
+
+    // Richieste davanti a quella indicata: la posizione è questo numero più uno
+    @Query("select count(a) from PrenotazioneInAttesa a where a.viaggio.id = :viaggioId and a.stato = :stato and a.id < :id")
+    long countDavanti(@Param("viaggioId") Long viaggioId, @Param("stato") StatoAttesa stato, @Param("id") Long id);
+
+    @Query("select a.viaggio.id from PrenotazioneInAttesa a where a.id = :id")
+    Optional<Long> findViaggioIdById(@Param("id") Long id);
+
+    boolean existsByDipendenteIdAndDataPrenotazioneAndStato(Long dipendenteId, LocalDate dataPrenotazione, StatoAttesa stato);
+}
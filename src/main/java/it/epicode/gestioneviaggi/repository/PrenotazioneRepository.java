@@ -1,8 +1,90 @@
 package it.epicode.gestioneviaggi.repository;
 
+import it.epicode.gestioneviaggi.dto.ItinerarioDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
 import it.epicode.gestioneviaggi.model.Prenotazione;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface PrenotazioneRepository extends JpaRepository<Prenotazione, Long>{
+
+    // Proiezione sul DTO: p.viaggio.id e p.dipendente.id leggono le foreign key, senza join né select aggiuntive
+    String PROIEZIONE_DTO = "select new it.epicode.gestioneviaggi.dto.PrenotazioneDto(" +
+            "p.id, p.dipendente.id, p.numeroPosti, p.viaggio.id, p.dataPrenotazione, p.notePreferenze) " +
+            "from Prenotazione p ";
+
+    @Query(PROIEZIONE_DTO + "order by p.id")
+    List<PrenotazioneDto> findAllDto();
+
+    @Query(value = PROIEZIONE_DTO, countQuery = "select count(p) from Prenotazione p")
+    Page<PrenotazioneDto> findAllDto(Pageable pageable);
+
+    @Query(PROIEZIONE_DTO + "where p.id = :id")
+    Optional<PrenotazioneDto> findDtoById(@Param("id") Long id);
+
+    // SELECT ... FOR UPDATE: modifiche ed eliminazioni concorrenti della stessa prenotazione
+    // si serializzano, così i posti restituiti sono sempre quelli effettivamente prenotati
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Prenotazione p where p.id = :id")
+    Optional<Prenotazione> findByIdPerAggiornamento(@Param("id") Long id);
+
+    // Prenotazioni già presenti per i dipendenti e le date di un batch (superinsieme delle coppie cercate)
+    @Query(PROIEZIONE_DTO + "where p.dipendente.id in :dipendentiIds and p.dataPrenotazione in :date")
+    List<PrenotazioneDto> findDtoByDipendentiAndDate(@Param("dipendentiIds") Collection<Long> dipendentiIds,
+                                                     @Param("date") Collection<LocalDate> date);
+
+    boolean existsByDipendenteIdAndDataPrenotazione(Long dipendenteId, LocalDate dataPrenotazione);
+
+    // Paginazione keyset su (dataPrenotazione, id): nessun OFFSET e nessun COUNT
+    @Query(PROIEZIONE_DTO + "order by p.dataPrenotazione, p.id")
+    List<PrenotazioneDto> findPrimaPagina(Limit limit);
+
+    @Query(PROIEZIONE_DTO + "where (p.dataPrenotazione, p.id) > (:data, :id) order by p.dataPrenotazione, p.id")
+    List<PrenotazioneDto> findPaginaDopo(@Param("data") LocalDate data, @Param("id") Long id, Limit limit);
+
+    // Itinerario di un dipendente in un intervallo di date, keyset su (dataPrenotazione, id): prenotazioni lette
+    // da idx_prenotazioni_dipendente_data senza accedere alla tabella, riepilogo del viaggio dalla sua chiave primaria
+    @Query("select new it.epicode.gestioneviaggi.dto.ItinerarioDto(" +
+            "p.id, p.dataPrenotazione, p.numeroPosti, v.id, v.destinazione, v.data, v.statoViaggio) " +
+            "from Prenotazione p left join p.viaggio v " +
+            "where p.dipendente.id = :dipendenteId and p.dataPrenotazione between :dal and :al " +
+            "and (p.dataPrenotazione, p.id) > (:data, :id) " +
+            "order by p.dataPrenotazione, p.id")
+    List<ItinerarioDto> findItinerario(@Param("dipendenteId") Long dipendenteId, @Param("dal") LocalDate dal,
+                                       @Param("al") LocalDate al, @Param("data") LocalDate data, @Param("id") Long id,
+                                       Limit limit);
+
+    // Export: nessuna entità nel persistence context, righe lette a blocchi di fetch size
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(PROIEZIONE_DTO + "order by p.id")
+    Stream<PrenotazioneDto> streamAllDto();
+
+    // Insert del batch in un solo statement, una riga per posizione degli array.
+    // Le righe che violano il vincolo (dipendente, data) vengono saltate invece di far fallire la transazione:
+    // restituisce gli id effettivamente inseriti
+    @Query(value = "insert into prenotazioni (id, dipendente_id, viaggio_id, data_richiesta, data_prenotazione, numero_posti, note_preferenze) " +
+            "select r.id, r.dipendente_id, r.viaggio_id, :dataRichiesta, r.data_prenotazione, r.numero_posti, r.note_preferenze " +
+            "from unnest(cast(:ids as bigint[]), cast(:dipendentiIds as bigint[]), cast(:viaggiIds as bigint[]), " +
+            "cast(:date as date[]), cast(:posti as integer[]), cast(:note as text[])) " +
+            "as r(id, dipendente_id, viaggio_id, data_prenotazione, numero_posti, note_preferenze) " +
+            "on conflict (dipendente_id, data_prenotazione) do nothing returning id", nativeQuery = true)
+    List<Long> inserisciSaltandoConflitti(@Param("ids") Long[] ids, @Param("dipendentiIds") Long[] dipendentiIds,
+                                          @Param("viaggiIds") Long[] viaggiIds, @Param("date") LocalDate[] date,
+                                          @Param("posti") Integer[] posti, @Param("note") String[] note,
+                                          @Param("dataRichiesta") LocalDate dataRichiesta);
 }
@@ -0,0 +1,30 @@
+package it.epicode.gestioneviaggi.repository;
+
+import it.epicode.gestioneviaggi.model.RispostaIdempotente;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface RispostaIdempotenteRepository extends JpaRepository<RispostaIdempotente, String> {
+
+    // Prenota la chiave: restituisce 0 se esiste già e non è scaduta. Con la stessa chiave in una transazione
+    // non ancora conclusa l'insert attende il suo esito, così due istanze non eseguono la stessa richiesta
+    @Modifying
+    @Query(value = "insert into risposte_idempotenti (chiave, impronta, creata_il, scadenza) values (:chiave, :impronta, :adesso, :scadenza) " +
+            "on conflict (chiave) do update set impronta = excluded.impronta, status = null, tipo = null, corpo = null, " +
+            "creata_il = excluded.creata_il, scadenza = excluded.scadenza where risposte_idempotenti.scadenza < excluded.creata_il",
+            nativeQuery = true)
+    int prenota(@Param("chiave") String chiave, @Param("impronta") String impronta,
+                @Param("adesso") LocalDateTime adesso, @Param("scadenza") LocalDateTime scadenza);
+
+    @Modifying
+    @Query("update RispostaIdempotente r set r.status = :status, r.tipo = :tipo, r.corpo = :corpo where r.chiave = :chiave")
+    int completa(@Param("chiave") String chiave, @Param("status") int status, @Param("tipo") String tipo, @Param("corpo") String corpo);
+
+    @Modifying
+    @Query("delete from RispostaIdempotente r where r.scadenza < :adesso")
+    int deleteScadute(@Param("adesso") LocalDateTime adesso);
+}
@@ -0,0 +1,97 @@
+package it.epicode.gestioneviaggi.repository;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statement SQL eseguiti da Hibernate durante la richiesta HTTP in corso, raccolti da {@link IspettoreSql}.
+ * La misura è legata al thread della richiesta: le query dei job schedulati, dei thread asincroni
+ * e quelle fatte direttamente con JdbcTemplate non vengono contate.
+ */
+public final class StatisticheSql {
+
+    private static final ThreadLocal<Misura> CORRENTE = new ThreadLocal<>();
+
+    private StatisticheSql() {
+    }
+
+    /**
+     * Statement e tempo di esecuzione sul database di una richiesta.
+     * Ogni statement è contato con il suo testo, così un N+1 si riconosce dalle ripetizioni.
+     */
+    public static final class Misura {
+
+        private final Map<String, Integer> statement = new LinkedHashMap<>();
+        private int totale;
+        private long nanosDatabase;
+        private long inizioEsecuzione;
+
+        public int getQuery() {
+            return totale;
+        }
+
+        public double getMillisecondiDatabase() {
+            return nanosDatabase / 1_000_000.0;
+        }
+
+        // Conteggio per testo dello statement, nell'ordine della prima esecuzione
+        public Map<String, Integer> getStatement() {
+            return Collections.unmodifiableMap(statement);
+        }
+
+        // Numero massimo di esecuzioni dello stesso statement: tante ripetizioni indicano un N+1
+        public int getRipetizioniMassime() {
+            return statement.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        }
+
+        public String getStatementPiuRipetuto() {
+            return statement.entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey)
+                    .orElse(null);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d query, %.1f ms sul database", totale, getMillisecondiDatabase());
+        }
+    }
+
+    // Inizia una nuova misura sul thread corrente
+    public static Misura inizia() {
+        Misura misura = new Misura();
+        CORRENTE.set(misura);
+        return misura;
+    }
+
+    // Termina la misura del thread corrente e la restituisce (null se non era iniziata)
+    public static Misura termina() {
+        Misura misura = CORRENTE.get();
+        CORRENTE.remove();
+        return misura;
+    }
+
+    static void statement(String sql) {
+        Misura misura = CORRENTE.get();
+        if (misura != null) {
+            misura.totale++;
+            misura.statement.merge(sql, 1, Integer::sum);
+        }
+    }
+
+    static void inizioEsecuzione() {
+        Misura misura = CORRENTE.get();
+        if (misura != null) {
+            misura.inizioEsecuzione = System.nanoTime();
+        }
+    }
+
+    static void fineEsecuzione() {
+        Misura misura = CORRENTE.get();
+        if (misura != null && misura.inizioEsecuzione != 0) {
+            misura.nanosDatabase += System.nanoTime() - misura.inizioEsecuzione;
+            misura.inizioEsecuzione = 0;
+        }
+    }
+}
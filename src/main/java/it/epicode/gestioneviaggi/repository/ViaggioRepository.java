@@ -2,8 +2,101 @@ package it.epicode.gestioneviaggi.repository;
 
 import it.epicode.gestioneviaggi.model.Prenotazione;
 import it.epicode.gestioneviaggi.model.Viaggio;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 
-public interface ViaggioRepository extends JpaRepository<Viaggio, Long>{
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.Optional;
+
+// JpaSpecificationExecutor: ricerca con i filtri di ViaggioSpecifications
+public interface ViaggioRepository extends JpaRepository<Viaggio, Long>, JpaSpecificationExecutor<Viaggio> {
+
+    // Proiezione minima usata per ricostruire i contatori dei posti in memoria
+    interface PostiViaggio {
+        Long getId();
+        int getPostiDisponibili();
+    }
+
+    interface DestinazioneViaggio {
+        Long getId();
+        String getDestinazione();
+    }
+
+    // Conteggio completo delle prenotazioni di ogni viaggio, per le statistiche in memoria
+    interface PrenotazioniViaggio {
+        Long getId();
+        String getDestinazione();
+        LocalDate getData();
+        int getPostiDisponibili();
+        long getPrenotazioni();
+        long getPosti();
+    }
+
+    interface ConteggioDestinazione {
+        String getDestinazione();
+        long getViaggi();
+    }
+
+    // Controllo e decremento dei posti in un unico UPDATE condizionale: restituisce 0 se i posti non bastano
+    @Modifying
+    @Query("update Viaggio v set v.postiDisponibili = v.postiDisponibili - :posti where v.id = :id and v.postiDisponibili >= :posti")
+    int decrementaPostiDisponibili(@Param("id") Long id, @Param("posti") int posti);
+
+    @Modifying
+    @Query("update Viaggio v set v.postiDisponibili = v.postiDisponibili + :posti where v.id = :id")
+    int incrementaPostiDisponibili(@Param("id") Long id, @Param("posti") int posti);
+
+    // SELECT ... FOR UPDATE sulla riga del viaggio: serializza le operazioni sulla sua lista d'attesa
+    @Query(value = "select id from viaggio where id = :id for update", nativeQuery = true)
+    Optional<Long> bloccaById(@Param("id") Long id);
+
+    @Query("select v.postiDisponibili from Viaggio v where v.id = :id")
+    Optional<Integer> findPostiDisponibiliById(@Param("id") Long id);
+
+    @Query("select v.id as id, v.postiDisponibili as postiDisponibili from Viaggio v")
+    List<PostiViaggio> findAllPostiDisponibili();
+
+    // Viaggi salvati prima dell'introduzione della colonna di ricerca
+    @Query("select v.id as id, v.destinazione as destinazione from Viaggio v where v.destinazioneRicerca is null order by v.id")
+    List<DestinazioneViaggio> findSenzaDestinazioneRicerca(Limit limit);
+
+    // Caricamento dell'indice dei suggerimenti: una riga per grafia della destinazione
+    @Query("select v.destinazione as destinazione, count(v) as viaggi from Viaggio v where v.data >= :dal group by v.destinazione")
+    List<ConteggioDestinazione> countViaggiPerDestinazioneDal(@Param("dal") LocalDate dal);
+
+    // Ricostruzione e verifica delle statistiche: una riga per viaggio, anche senza prenotazioni
+    @Query("select v.id as id, v.destinazione as destinazione, v.data as data, v.postiDisponibili as postiDisponibili,"
+            + " count(p.id) as prenotazioni, coalesce(sum(p.numeroPosti), 0) as posti"
+            + " from Viaggio v left join Prenotazione p on p.viaggio = v"
+            + " group by v.id, v.destinazione, v.data, v.postiDisponibili")
+    List<PrenotazioniViaggio> countPrenotazioniPerViaggio();
+
+    @Query("select v.id from Viaggio v where v.id in :ids")
+    List<Long> findIdByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Paginazione keyset su (data, id): nessun OFFSET e nessun COUNT
+    @Query("select v from Viaggio v order by v.data, v.id")
+    List<Viaggio> findPrimaPagina(Limit limit);
+
+    @Query("select v from Viaggio v where (v.data, v.id) > (:data, :id) order by v.data, v.id")
+    List<Viaggio> findPaginaDopo(@Param("data") LocalDate data, @Param("id") Long id, Limit limit);
+
+    // Cursore forward-only per l'export: le righe arrivano a blocchi di fetch size, in sola lettura
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select v from Viaggio v order by v.id")
+    Stream<Viaggio> streamAll();
 }
@@ -0,0 +1,48 @@
+package it.epicode.gestioneviaggi.repository;
+
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+
+/**
+ * Filtri componibili della ricerca dei viaggi. Ogni filtro con valore null non aggiunge condizioni.
+ * I filtri usano solo colonne presenti negli indici idx_viaggio_ricerca_data e idx_viaggio_stato_data.
+ */
+public final class ViaggioSpecifications {
+
+    private ViaggioSpecifications() {
+    }
+
+    /**
+     * Viaggi la cui destinazione inizia con il prefisso, senza distinzione tra maiuscole e minuscole né accenti.
+     */
+    public static Specification<Viaggio> destinazioneIniziaCon(String prefisso) {
+        return (root, query, cb) -> {
+            String normalizzato = Viaggio.normalizza(prefisso);
+            if (normalizzato == null || normalizzato.isEmpty()) {
+                return null;
+            }
+            // % e _ digitati dall'utente sono cercati alla lettera
+            String pattern = normalizzato.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+            return cb.like(root.get("destinazioneRicerca"), pattern, '\\');
+        };
+    }
+
+    public static Specification<Viaggio> dataDal(LocalDate dal) {
+        return (root, query, cb) -> dal == null ? null : cb.greaterThanOrEqualTo(root.get("data"), dal);
+    }
+
+    public static Specification<Viaggio> dataAl(LocalDate al) {
+        return (root, query, cb) -> al == null ? null : cb.lessThanOrEqualTo(root.get("data"), al);
+    }
+
+    public static Specification<Viaggio> stato(StatoViaggio stato) {
+        return (root, query, cb) -> stato == null ? null : cb.equal(root.get("statoViaggio"), stato);
+    }
+
+    public static Specification<Viaggio> postiAlmeno(Integer posti) {
+        return (root, query, cb) -> posti == null ? null : cb.greaterThanOrEqualTo(root.get("postiDisponibili"), posti);
+    }
+}
@@ -0,0 +1,286 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.BloccoPostiDto;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import it.epicode.gestioneviaggi.model.BloccoPosti;
+import it.epicode.gestioneviaggi.repository.BloccoPostiRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Blocchi temporanei di posti per il checkout: i posti vengono riservati subito sul viaggio (e quindi
+ * non compaiono più in postiDisponibili), poi il blocco viene confermato in una prenotazione, rilasciato
+ * oppure scade e i posti tornano al viaggio, passando prima dalla sua lista d'attesa.
+ * Le scadenze sono gestite da una {@link RuotaTemporale} in memoria. Ogni blocco è anche una riga di
+ * {@link BloccoPosti}, scritta ed eliminata nella stessa transazione dei posti: all'avvio i blocchi rimasti
+ * (anche dopo un arresto improvviso) tornano nella ruota, e vengono confermati o scadono come gli altri.
+ * Se una restituzione fallisce la riga resta nel database: i posti tornano con {@link #riconcilia()}.
+ */
+@Service
+public class BlocchiPostiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlocchiPostiService.class);
+
+    @Autowired
+    private PostiService postiService;
+
+    @Autowired
+    private ListaAttesaService listaAttesaService; // Per restituire i posti dei blocchi scaduti o rilasciati
+
+    @Autowired
+    private BloccoPostiRepository bloccoPostiRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${gestioneviaggi.blocchi.durata-secondi:300}")
+    private int durataPredefinita;
+
+    @Value("${gestioneviaggi.blocchi.durata-max-secondi:900}")
+    private int durataMassima;
+
+    @Value("${gestioneviaggi.blocchi.tick-ms:1000}")
+    private long durataTick;
+
+    // Blocchi attivi in questa istanza. I posti appartengono a chi elimina la riga del blocco (vedi BloccoPostiRepository#eliminaById)
+    private final ConcurrentHashMap<String, Blocco> attivi = new ConcurrentHashMap<>();
+
+    private RuotaTemporale<Blocco> ruota;
+
+    private record Blocco(String id, Long viaggioId, int posti, long scadenzaMs) {
+    }
+
+    @PostConstruct
+    void inizializza() {
+        ruota = new RuotaTemporale<>(durataTick, 1024, System.currentTimeMillis());
+        Gauge.builder("gestioneviaggi.blocchi.attivi", attivi, ConcurrentHashMap::size)
+                .description("Blocchi di posti in attesa di conferma")
+                .register(meterRegistry);
+    }
+
+    private static BloccoPostiDto mapToDto(Blocco blocco) {
+        BloccoPostiDto dto = new BloccoPostiDto();
+        dto.setId(blocco.id());
+        dto.setIdViaggio(blocco.viaggioId());
+        dto.setPosti(blocco.posti());
+        dto.setDurataSecondi((int) Math.max(0, (blocco.scadenzaMs() - System.currentTimeMillis()) / 1000));
+        dto.setScadenza(dataOra(blocco.scadenzaMs()));
+        return dto;
+    }
+
+    private static Blocco daRiga(BloccoPosti riga) {
+        return new Blocco(riga.getId(), riga.getViaggioId(), riga.getPosti(),
+                riga.getScadenza().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    private static LocalDateTime dataOra(long ms) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(ms), ZoneId.systemDefault());
+    }
+
+    /**
+     * Blocca i posti di un viaggio per la durata richiesta.
+     * @param bloccoDto Viaggio, numero di posti e durata (facoltativa) del blocco.
+     * @return Il blocco creato, con il suo ID e la scadenza.
+     * @throws ValidationException se il numero di posti o la durata non sono validi.
+     * @throws NotFoundException se il viaggio non esiste.
+     * @throws ConflictException se non ci sono abbastanza posti disponibili.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BloccoPostiDto blocca(BloccoPostiDto bloccoDto) throws ValidationException, NotFoundException, ConflictException {
+        if (bloccoDto.getIdViaggio() == null) {
+            throw new ValidationException("L'id del viaggio è obbligatorio.");
+        }
+        if (bloccoDto.getPosti() <= 0) {
+            throw new ValidationException("Il numero di posti deve essere almeno 1.");
+        }
+        int durata = bloccoDto.getDurataSecondi() != null ? bloccoDto.getDurataSecondi() : durataPredefinita;
+        if (durata <= 0 || durata > durataMassima) {
+            throw new ValidationException("La durata del blocco deve essere tra 1 e " + durataMassima + " secondi.");
+        }
+        postiService.riserva(bloccoDto.getIdViaggio(), bloccoDto.getPosti());
+
+        Blocco blocco = new Blocco(UUID.randomUUID().toString(), bloccoDto.getIdViaggio(), bloccoDto.getPosti(),
+                System.currentTimeMillis() + durata * 1000L);
+        BloccoPosti riga = new BloccoPosti();
+        riga.setId(blocco.id());
+        riga.setViaggioId(blocco.viaggioId());
+        riga.setPosti(blocco.posti());
+        riga.setScadenza(dataOra(blocco.scadenzaMs()));
+        bloccoPostiRepository.save(riga);
+        // Attivo solo dopo il commit: se la transazione fallisce i posti non sono mai stati tolti
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                attiva(blocco);
+            }
+        });
+        return mapToDto(blocco);
+    }
+
+    private void attiva(Blocco blocco) {
+        attivi.put(blocco.id(), blocco);
+        ruota.aggiungi(blocco, blocco.scadenzaMs());
+    }
+
+    /**
+     * Recupera un blocco ancora attivo.
+     * @param id ID del blocco.
+     * @return Il DTO del blocco.
+     * @throws NotFoundException se il blocco non esiste, è scaduto o è già stato confermato o rilasciato.
+     */
+    public BloccoPostiDto get(String id) throws NotFoundException {
+        return mapToDto(attivo(id));
+    }
+
+    private Blocco attivo(String id) throws NotFoundException {
+        Blocco blocco = attivi.get(id);
+        if (blocco == null || blocco.scadenzaMs() <= System.currentTimeMillis()) {
+            throw new NotFoundException("Blocco di posti " + id + " non trovato o scaduto.");
+        }
+        return blocco;
+    }
+
+    /**
+     * Prende i posti di un blocco per confermarli in una prenotazione, nella transazione corrente.
+     * Il blocco non è più attivo; se la transazione viene annullata torna attivo fino alla sua scadenza.
+     * @param id ID del blocco.
+     * @return Il blocco preso.
+     * @throws NotFoundException se il blocco non esiste, è scaduto o è già stato confermato o rilasciato.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BloccoPostiDto prendi(String id) throws NotFoundException {
+        Blocco blocco = attivo(id);
+        if (!attivi.remove(id, blocco)) {
+            throw new NotFoundException("Blocco di posti " + id + " non trovato o scaduto.");
+        }
+        // Registrata prima di toccare il database: se il delete o il resto della transazione falliscono il blocco torna attivo,
+        // a meno che la riga non ci fosse più
+        AtomicBoolean presoAltrove = new AtomicBoolean();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    meterRegistry.counter("gestioneviaggi.blocchi", "esito", "confermato").increment();
+                } else if (!presoAltrove.get()) {
+                    // Di nuovo nella ruota: se nel frattempo è scaduto, il prossimo tick restituisce i posti
+                    attiva(blocco);
+                }
+            }
+        });
+        // Già preso da un'altra istanza
+        if (bloccoPostiRepository.eliminaById(id) == 0) {
+            presoAltrove.set(true);
+            throw new NotFoundException("Blocco di posti " + id + " non trovato o scaduto.");
+        }
+        return mapToDto(blocco);
+    }
+
+    /**
+     * Rilascia un blocco, restituendo subito i posti al viaggio.
+     * @param id ID del blocco.
+     * @throws NotFoundException se il blocco non esiste, è scaduto o è già stato confermato o rilasciato.
+     */
+    public void rilascia(String id) throws NotFoundException {
+        Blocco blocco = attivi.remove(id);
+        if (blocco == null) {
+            throw new NotFoundException("Blocco di posti " + id + " non trovato o scaduto.");
+        }
+        restituisci(blocco, "rilasciato");
+    }
+
+    // Restituisce i posti dei blocchi scaduti
+    @Scheduled(fixedDelayString = "${gestioneviaggi.blocchi.tick-ms:1000}")
+    public void scadenze() {
+        List<Blocco> scaduti = ruota.avanza(System.currentTimeMillis());
+        for (Blocco blocco : scaduti) {
+            // Confermati e rilasciati non sono più nella mappa
+            if (attivi.remove(blocco.id(), blocco)) {
+                restituisci(blocco, "scaduto");
+            }
+        }
+    }
+
+    /**
+     * Riprende i blocchi rimasti nel database all'avvio, compresi quelli di un arresto improvviso:
+     * quelli ancora validi possono essere confermati, quelli scaduti restituiscono i posti al prossimo tick.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ripristina() {
+        int ripresi = 0;
+        for (BloccoPosti riga : bloccoPostiRepository.findAll()) {
+            Blocco blocco = daRiga(riga);
+            if (attivi.putIfAbsent(blocco.id(), blocco) == null) {
+                ruota.aggiungi(blocco, blocco.scadenzaMs());
+                ripresi++;
+            }
+        }
+        if (ripresi > 0) {
+            logger.info("Ripresi {} blocchi di posti dal database.", ripresi);
+        }
+    }
+
+    /**
+     * Riparazione manuale: restituisce i posti dei blocchi scaduti ancora presenti nel database,
+     * cioè quelli la cui restituzione è fallita o che appartenevano a un'istanza ferma.
+     * @return Il numero di blocchi restituiti.
+     */
+    public int riconcilia() {
+        int restituiti = 0;
+        for (BloccoPosti riga : bloccoPostiRepository.findByScadenzaBefore(LocalDateTime.now())) {
+            Blocco blocco = daRiga(riga);
+            attivi.remove(blocco.id());
+            if (restituisci(blocco, "riconciliato")) {
+                restituiti++;
+            }
+        }
+        logger.info("Riconciliazione dei blocchi di posti: {} blocchi restituiti.", restituiti);
+        return restituiti;
+    }
+
+    // Elimina il blocco e ne restituisce i posti nella stessa transazione; false se un altro l'ha già preso o se fallisce
+    private boolean restituisci(Blocco blocco, String esito) {
+        try {
+            boolean restituito = Boolean.TRUE.equals(transactionTemplate.execute(stato -> {
+                if (bloccoPostiRepository.eliminaById(blocco.id()) == 0) {
+                    return false;
+                }
+                listaAttesaService.restituisciPosti(blocco.viaggioId(), blocco.posti());
+                return true;
+            }));
+            if (restituito) {
+                meterRegistry.counter("gestioneviaggi.blocchi", "esito", esito).increment();
+            }
+            return restituito;
+        } catch (RuntimeException e) {
+            logger.error("Impossibile restituire {} posti del blocco {} al viaggio {}: il blocco resta nel database fino alla riconciliazione.",
+                    blocco.posti(), blocco.id(), blocco.viaggioId(), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package it.epicode.gestioneviaggi.service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import it.epicode.gestioneviaggi.dto.StatisticheCacheDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Espone le statistiche delle cache locali (viaggi e dipendenti) configurate in AppConfig.
+ */
+@Service
+public class CacheService {
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    /**
+     * Restituisce hit, miss ed evizioni di ogni cache Caffeine.
+     * @return Le statistiche, una per cache.
+     */
+    public List<StatisticheCacheDto> statistiche() {
+        List<StatisticheCacheDto> statistiche = new ArrayList<>();
+        for (String nome : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(nome);
+            if (cache instanceof TransactionAwareCacheDecorator decorator) {
+                cache = decorator.getTargetCache();
+            }
+            if (cache instanceof CaffeineCache caffeineCache) {
+                com.github.benmanes.caffeine.cache.Cache<Object, Object> nativa = caffeineCache.getNativeCache();
+                CacheStats stats = nativa.stats();
+                StatisticheCacheDto dto = new StatisticheCacheDto();
+                dto.setNome(nome);
+                dto.setDimensione(nativa.estimatedSize());
+                dto.setHit(stats.hitCount());
+                dto.setMiss(stats.missCount());
+                dto.setHitRate(stats.hitRate());
+                dto.setEvizioni(stats.evictionCount());
+                statistiche.add(dto);
+            }
+        }
+        return statistiche;
+    }
+}
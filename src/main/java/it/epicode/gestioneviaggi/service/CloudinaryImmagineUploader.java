@@ -0,0 +1,43 @@
+package it.epicode.gestioneviaggi.service;
+
+import com.cloudinary.Cloudinary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+@Component
+public class CloudinaryImmagineUploader implements ImmagineUploader {
+
+    @Autowired(required = false) // 'required = false' se Cloudinary non è sempre configurato (es. in test)
+    private Cloudinary cloudinary;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public String carica(Path file) throws IOException {
+        if (cloudinary == null) {
+            throw new IllegalStateException("Cloudinary non è configurato. Impossibile caricare l'immagine.");
+        }
+        // Istogramma della latenza dell'upload, separato per esito
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String esito = "errore";
+        try {
+            // Passando il File, Cloudinary legge l'immagine dal disco in streaming invece di tenerla tutta in memoria
+            Map uploadResult = cloudinary.uploader().upload(file.toFile(), Collections.emptyMap());
+            esito = "successo";
+            return (String) uploadResult.get("secure_url"); // Usa "secure_url" per URL HTTPS
+        } finally {
+            sample.stop(Timer.builder("gestioneviaggi.cloudinary.upload")
+                    .tag("esito", esito)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Cursore opaco per la paginazione keyset: codifica la chiave di ordinamento e l'ID
+ * dell'ultimo elemento restituito, da cui riparte la pagina successiva.
+ */
+record Cursore(String chiave, Long id) {
+
+    static final int SIZE_MASSIMA = 500;
+
+    // Decodifica il token ricevuto dal client; null se si parte dalla prima pagina
+    static Cursore decodifica(String token) throws ValidationException {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String valore = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separatore = valore.lastIndexOf('|');
+            return new Cursore(valore.substring(0, separatore), Long.valueOf(valore.substring(separatore + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ValidationException("Cursore non valido");
+        }
+    }
+
+    static void verificaSize(int size) throws ValidationException {
+        if (size < 1 || size > SIZE_MASSIMA) {
+            throw new ValidationException("La dimensione della pagina deve essere tra 1 e " + SIZE_MASSIMA);
+        }
+    }
+
+    /**
+     * Costruisce la pagina dai risultati letti con {@code size + 1} elementi:
+     * l'elemento in più indica solo che esiste una pagina successiva.
+     */
+    static <E, D> PaginaCursoreDto<D> pagina(List<E> risultati, int size, Function<E, String> chiave,
+                                             Function<E, Long> id, Function<E, D> mapper) {
+        PaginaCursoreDto<D> pagina = new PaginaCursoreDto<>();
+        List<E> contenuto = risultati.size() > size ? risultati.subList(0, size) : risultati;
+        pagina.setContenuto(contenuto.stream().map(mapper).toList());
+        pagina.setSize(contenuto.size());
+        if (risultati.size() > size) {
+            E ultimo = contenuto.get(contenuto.size() - 1);
+            pagina.setNextCursor(new Cursore(chiave.apply(ultimo), id.apply(ultimo)).codifica());
+        }
+        return pagina;
+    }
+
+    // Chiave di ordinamento per le risorse ordinate per data
+    LocalDate chiaveData() throws ValidationException {
+        try {
+            return LocalDate.parse(chiave);
+        } catch (DateTimeParseException e) {
+            throw new ValidationException("Cursore non valido");
+        }
+    }
+
+    String codifica() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((chiave + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,300 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.dto.ImportDipendentiDto;
+import it.epicode.gestioneviaggi.dto.RigaScartataDto;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Import in blocco di dipendenti da un file CSV letto in streaming.
+ * L'unicità di username ed email è verificata in memoria contro i valori già presenti,
+ * caricati con una sola query, e contro le righe già lette dal file.
+ * Le righe valide vengono salvate a blocchi, ciascuno nella propria transazione,
+ * con insert in batch JDBC: la memoria usata non dipende dalla lunghezza del file.
+ */
+@Service
+public class DipendenteImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DipendenteImportService.class);
+
+    private static final List<String> COLONNE_OBBLIGATORIE = List.of("username", "nome", "cognome", "email");
+    private static final String COLONNA_IMMAGINE = "immagineprofilourl";
+
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+
+    @Autowired
+    private DipendenteService dipendenteService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private VersioniRisorse versioniRisorse;
+
+    @Autowired
+    private Validator validator;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${gestioneviaggi.import.blocco:1000}")
+    private int dimensioneBlocco;
+
+    @Value("${gestioneviaggi.import.scarti-max:1000}")
+    private int scartiMassimi;
+
+    /**
+     * Importa i dipendenti dal CSV ricevuto. La prima riga è l'intestazione, con le colonne
+     * username, nome, cognome, email e, facoltativa, immagineProfiloUrl, in qualunque ordine.
+     * Il separatore può essere la virgola o il punto e virgola.
+     * @param csv Contenuto del file, letto riga per riga.
+     * @param inviaMail Se true accoda la mail di registrazione per ogni dipendente importato.
+     * @return Il resoconto dell'import, con gli scarti riga per riga.
+     * @throws ValidationException se l'intestazione manca o non contiene le colonne obbligatorie.
+     * @throws IOException se la lettura del file fallisce.
+     */
+    public ImportDipendentiDto importa(InputStream csv, boolean inviaMail) throws ValidationException, IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8));
+        String intestazione = reader.readLine();
+        if (intestazione == null || intestazione.isBlank()) {
+            throw new ValidationException("Il file è vuoto: manca la riga di intestazione.");
+        }
+        if (intestazione.startsWith("\uFEFF")) {
+            intestazione = intestazione.substring(1); // BOM dei file salvati da Excel
+        }
+        char separatore = intestazione.indexOf(';') >= 0 && intestazione.indexOf(',') < 0 ? ';' : ',';
+        Map<String, Integer> colonne = indiceColonne(campi(intestazione, separatore));
+
+        // Unicità: una sola query per i valori già presenti, poi solo controlli in memoria
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (DipendenteRepository.UsernameEmail esistente : dipendenteRepository.findAllUsernameEmail()) {
+            usernames.add(esistente.getUsername());
+            emails.add(esistente.getEmail());
+        }
+
+        ImportDipendentiDto report = new ImportDipendentiDto();
+        List<Dipendente> blocco = new ArrayList<>(dimensioneBlocco);
+        List<Integer> righeBlocco = new ArrayList<>(dimensioneBlocco);
+        long inizio = System.nanoTime();
+        int numeroRiga = 1;
+        String riga;
+        while ((riga = reader.readLine()) != null) {
+            numeroRiga++;
+            if (riga.isBlank()) {
+                continue;
+            }
+            report.setRighe(report.getRighe() + 1);
+
+            DipendenteDto dto;
+            try {
+                dto = leggiRiga(campi(riga, separatore), colonne);
+            } catch (ValidationException e) {
+                scarta(report, numeroRiga, e.getMessage());
+                continue;
+            }
+            Set<ConstraintViolation<DipendenteDto>> violazioni = validator.validate(dto);
+            if (!violazioni.isEmpty()) {
+                scarta(report, numeroRiga, violazioni.stream()
+                        .map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining("; ")));
+                continue;
+            }
+            if (usernames.contains(dto.getUsername())) {
+                scarta(report, numeroRiga, "Username " + dto.getUsername() + " già in uso");
+                continue;
+            }
+            if (emails.contains(dto.getEmail())) {
+                scarta(report, numeroRiga, "Email " + dto.getEmail() + " già in uso");
+                continue;
+            }
+            usernames.add(dto.getUsername());
+            emails.add(dto.getEmail());
+
+            blocco.add(mapToDipendenteEntity(dto));
+            righeBlocco.add(numeroRiga);
+            if (blocco.size() == dimensioneBlocco) {
+                salvaBlocco(blocco, righeBlocco, inviaMail, report, usernames, emails);
+            }
+        }
+        if (!blocco.isEmpty()) {
+            salvaBlocco(blocco, righeBlocco, inviaMail, report, usernames, emails);
+        }
+
+        logger.info("Import dipendenti: {} righe, {} importati, {} scartati in {} ms.", report.getRighe(),
+                report.getImportati(), report.getScartati(), (System.nanoTime() - inizio) / 1_000_000);
+        return report;
+    }
+
+    private void salvaBlocco(List<Dipendente> blocco, List<Integer> righeBlocco, boolean inviaMail,
+                             ImportDipendentiDto report, Set<String> usernames, Set<String> emails) {
+        salva(new ArrayList<>(blocco), new ArrayList<>(righeBlocco), inviaMail, report, usernames, emails);
+        blocco.clear();
+        righeBlocco.clear();
+    }
+
+    // Salva le righe in una transazione propria; flush e clear lasciano vuoto il persistence context.
+    // Se un vincolo di unicità rifiuta il blocco (un dipendente registrato nel frattempo da un'altra richiesta)
+    // le righe vengono salvate una per una, così viene scartata solo quella in conflitto.
+    private void salva(List<Dipendente> righe, List<Integer> numeriRiga, boolean inviaMail,
+                       ImportDipendentiDto report, Set<String> usernames, Set<String> emails) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // Un solo batch JDBC per blocco, invece dei 50 insert per batch usati dal resto dell'applicazione
+                entityManager.unwrap(Session.class).setJdbcBatchSize(righe.size());
+                // Flush dal repository: le violazioni arrivano qui come DataAccessException, non al commit
+                dipendenteRepository.saveAllAndFlush(righe);
+                if (inviaMail) {
+                    righe.forEach(dipendente -> dipendenteService.accodaMailRegistrazione(dipendente.getEmail()));
+                }
+                entityManager.flush();
+                entityManager.clear();
+            });
+            report.setImportati(report.getImportati() + righe.size());
+            versioniRisorse.modificataCollezione(VersioniRisorse.DIPENDENTI);
+        } catch (DataAccessException e) {
+            // La transazione è stata annullata: gli ID assegnati non esistono e vanno rigenerati
+            righe.forEach(dipendente -> dipendente.setId(null));
+            if (e instanceof DataIntegrityViolationException && righe.size() > 1) {
+                logger.warn("Import dipendenti: blocco di {} righe rifiutato da un vincolo, salvataggio riga per riga.", righe.size());
+                for (int i = 0; i < righe.size(); i++) {
+                    salva(List.of(righe.get(i)), List.of(numeriRiga.get(i)), inviaMail, report, usernames, emails);
+                }
+                return;
+            }
+            logger.warn("Import dipendenti: {} righe non salvate.", righe.size(), e);
+            String errore = righe.size() == 1 ? motivoScarto(e, righe.get(0)) : "Blocco non salvato";
+            for (int i = 0; i < righe.size(); i++) {
+                usernames.remove(righe.get(i).getUsername());
+                emails.remove(righe.get(i).getEmail());
+                scarta(report, numeriRiga.get(i), errore);
+            }
+        }
+    }
+
+    // Stesso messaggio dei controlli in memoria quando il duplicato è stato inserito durante l'import
+    private static String motivoScarto(DataAccessException e, Dipendente dipendente) {
+        String vincolo = e.getCause() instanceof ConstraintViolationException violazione ? violazione.getConstraintName() : null;
+        if (Dipendente.UK_USERNAME.equalsIgnoreCase(vincolo)) {
+            return "Username " + dipendente.getUsername() + " già in uso";
+        }
+        if (Dipendente.UK_EMAIL.equalsIgnoreCase(vincolo)) {
+            return "Email " + dipendente.getEmail() + " già in uso";
+        }
+        return "Riga non salvata";
+    }
+
+    private void scarta(ImportDipendentiDto report, int riga, String errore) {
+        report.setScartati(report.getScartati() + 1);
+        if (report.getScarti().size() < scartiMassimi) {
+            report.getScarti().add(new RigaScartataDto(riga, errore));
+        }
+    }
+
+    private Dipendente mapToDipendenteEntity(DipendenteDto dto) {
+        Dipendente dipendente = new Dipendente();
+        dipendente.setUsername(dto.getUsername());
+        dipendente.setNome(dto.getNome());
+        dipendente.setCognome(dto.getCognome());
+        dipendente.setEmail(dto.getEmail());
+        dipendente.setImmagineProfiloUrl(dto.getImmagineProfiloUrl() == null || dto.getImmagineProfiloUrl().isEmpty()
+                ? DipendenteService.immagineProfiloPredefinita(dipendente)
+                : dto.getImmagineProfiloUrl());
+        return dipendente;
+    }
+
+    private static Map<String, Integer> indiceColonne(List<String> intestazione) throws ValidationException {
+        Map<String, Integer> colonne = new HashMap<>();
+        for (int i = 0; i < intestazione.size(); i++) {
+            colonne.put(intestazione.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        for (String obbligatoria : COLONNE_OBBLIGATORIE) {
+            if (!colonne.containsKey(obbligatoria)) {
+                throw new ValidationException("Intestazione non valida: manca la colonna " + obbligatoria
+                        + " (attese: username, nome, cognome, email, immagineProfiloUrl)");
+            }
+        }
+        return colonne;
+    }
+
+    private static DipendenteDto leggiRiga(List<String> campi, Map<String, Integer> colonne) throws ValidationException {
+        if (campi.size() < COLONNE_OBBLIGATORIE.stream().mapToInt(colonne::get).max().orElse(0) + 1) {
+            throw new ValidationException("Numero di colonne insufficiente: " + campi.size());
+        }
+        DipendenteDto dto = new DipendenteDto();
+        dto.setUsername(campi.get(colonne.get("username")).trim());
+        dto.setNome(campi.get(colonne.get("nome")).trim());
+        dto.setCognome(campi.get(colonne.get("cognome")).trim());
+        dto.setEmail(campi.get(colonne.get("email")).trim());
+        Integer immagine = colonne.get(COLONNA_IMMAGINE);
+        if (immagine != null && immagine < campi.size()) {
+            dto.setImmagineProfiloUrl(campi.get(immagine).trim());
+        }
+        return dto;
+    }
+
+    /**
+     * Divide una riga CSV nei suoi campi. I campi tra virgolette possono contenere il separatore
+     * e le virgolette raddoppiate (""); i campi su più righe non sono supportati.
+     */
+    static List<String> campi(String riga, char separatore) throws ValidationException {
+        List<String> campi = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        boolean traVirgolette = false;
+        for (int i = 0; i < riga.length(); i++) {
+            char c = riga.charAt(i);
+            if (traVirgolette) {
+                if (c == '"' && i + 1 < riga.length() && riga.charAt(i + 1) == '"') {
+                    campo.append('"');
+                    i++;
+                } else if (c == '"') {
+                    traVirgolette = false;
+                } else {
+                    campo.append(c);
+                }
+            } else if (c == '"') {
+                traVirgolette = true;
+            } else if (c == separatore) {
+                campi.add(campo.toString());
+                campo.setLength(0);
+            } else {
+                campo.append(c);
+            }
+        }
+        if (traVirgolette) {
+            throw new ValidationException("Virgolette non chiuse");
+        }
+        campi.add(campo.toString());
+        return campi;
+    }
+}
@@ -1,44 +1,59 @@
 package it.epicode.gestioneviaggi.service;
 
-import com.cloudinary.Cloudinary;
 import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
+import it.epicode.gestioneviaggi.exception.ConflictException;
 import it.epicode.gestioneviaggi.exception.NotFoundException;
 import it.epicode.gestioneviaggi.exception.ValidationException;
 import it.epicode.gestioneviaggi.model.Dipendente;
 import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Pageable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender; // Mantenuto se usato altrove
-
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 import java.io.IOException;
-import java.util.Collections;
+import java.io.OutputStream;
 import java.util.List;
-import java.util.Map; // Necessario per Cloudinary
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 @Service
+@Timed(value = "gestioneviaggi.servizi", histogram = true)
 public class DipendenteService {
 
+    private static final Logger logger = LoggerFactory.getLogger(DipendenteService.class);
+
     @Autowired
     private DipendenteRepository dipendenteRepository;
 
-    @Autowired(required = false) // 'required = false' se Cloudinary non è sempre configurato (es. in test)
-    private Cloudinary cloudinary;
 
+    @Autowired
+    private MailOutboxService mailOutboxService;
+
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private VersioniRisorse versioniRisorse;
 
-     @Autowired
-     private JavaMailSender javaMailSender;
+    @PersistenceContext
+    private EntityManager entityManager;
 
     // --- Metodi Helper ---
-    private DipendenteDto mapToDipendenteDto(Dipendente dipendente) {
+    // package-private: misurato dai benchmark JMH in src/jmh
+    DipendenteDto mapToDipendenteDto(Dipendente dipendente) {
         DipendenteDto dto = new DipendenteDto();
         dto.setId(dipendente.getId());
         dto.setUsername(dipendente.getUsername());
@@ -62,41 +77,44 @@ public class DipendenteService {
         return dipendente;
     }
 
-
     // --- Operazioni CRUD ---
 
     /**
      * Corrisponde all'operazione SAVE (Crea un nuovo dipendente).
+     * La mail di registrazione viene accodata nella outbox nella stessa transazione
+     * e spedita in background solo dopo il commit.
      * @param dipendenteDto DTO contenente i dati del dipendente da salvare.
      * @return Il DTO del dipendente appena salvato.
+     * @throws ConflictException se username o email sono già in uso.
      */
 
-    public DipendenteDto save(DipendenteDto dipendenteDto) throws ValidationException {
-        // Validazione unicità username e email
-        if (dipendenteRepository.findByUsername(dipendenteDto.getUsername()).isPresent()) {
-            throw new ValidationException("Username " + dipendenteDto.getUsername() + " già in uso");
-        }
-        if (dipendenteRepository.findByEmail(dipendenteDto.getEmail()).isPresent()) {
-            throw new ValidationException("Email " + dipendenteDto.getEmail() + " già in uso");
-        }
-
+    @Transactional(rollbackFor = Exception.class)
+    public DipendenteDto save(DipendenteDto dipendenteDto) throws ConflictException {
         Dipendente dipendente = new Dipendente();
         // Mappa i campi dal DTO all'entità
         dipendente = mapToDipendenteEntity(dipendenteDto, dipendente);
         // Imposta un'immagine predefinita se non fornita
         if (dipendenteDto.getImmagineProfiloUrl() == null || dipendenteDto.getImmagineProfiloUrl().isEmpty()) {
-            dipendente.setImmagineProfiloUrl("https://ui-avatars.com/api/?name=" + dipendente.getNome() + "+" + dipendente.getCognome());
+            dipendente.setImmagineProfiloUrl(immagineProfiloPredefinita(dipendente));
         } else {
             dipendente.setImmagineProfiloUrl(dipendenteDto.getImmagineProfiloUrl());
         }
 
-        sendMail(dipendenteDto.getEmail());
-        Dipendente savedDipendente = dipendenteRepository.save(dipendente);
+        // L'unicità di username ed email è verificata dai vincoli del database al flush, senza query preventive
+        Dipendente savedDipendente;
+        try {
+            savedDipendente = dipendenteRepository.saveAndFlush(dipendente);
+        } catch (DataIntegrityViolationException e) {
+            throw conflittoUnicita(e, dipendenteDto);
+        }
+        accodaMailRegistrazione(savedDipendente.getEmail());
+        versioniRisorse.modificata(VersioniRisorse.DIPENDENTI, savedDipendente.getId());
 
         return mapToDipendenteDto(savedDipendente);
     }
 
 
+    @Transactional(readOnly = true)
     public List<DipendenteDto> get() { // Questo è il metodo che il Controller cerca!
         return dipendenteRepository.findAll().stream()
                 .map(this::mapToDipendenteDto)
@@ -110,9 +128,12 @@ public class DipendenteService {
      */
 
     public DipendenteDto get(Long id) throws NotFoundException { // Cambiato 'int' a 'Long' per l'ID
-        Dipendente dipendente = dipendenteRepository.findById(id)
-                .orElseThrow(() -> new NotFoundException("Dipendente con ID " + id + " non trovato"));
-        return mapToDipendenteDto(dipendente);
+        // Dalla cache locale; il dato letto entra in cache solo se nessuna scrittura lo ha modificato nel frattempo
+        return versioniRisorse.leggi(VersioniRisorse.DIPENDENTI, id, () -> {
+            Dipendente dipendente = dipendenteRepository.findById(id)
+                    .orElseThrow(() -> new NotFoundException("Dipendente con ID " + id + " non trovato"));
+            return mapToDipendenteDto(dipendente);
+        });
     }
 
     /**
@@ -121,11 +142,51 @@ public class DipendenteService {
      * @return Una pagina di DTO di dipendenti.
      */
 
+    @Transactional(readOnly = true)
     public Page<DipendenteDto> get(Pageable pageable) {
         return dipendenteRepository.findAll(pageable)
                 .map(this::mapToDipendenteDto);
     }
 
+    /**
+     * Recupera una pagina di dipendenti con paginazione a cursore, ordinata per cognome e ID.
+     * A differenza di {@link #get(Pageable)} non usa OFFSET e non conta il totale degli elementi.
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di elementi nella pagina.
+     * @return Una pagina di DTO di dipendenti con il cursore della pagina successiva.
+     * @throws ValidationException se il cursore o la dimensione della pagina non sono validi.
+     */
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<DipendenteDto> get(String cursor, int size) throws ValidationException {
+        Cursore.verificaSize(size);
+        Cursore cursore = Cursore.decodifica(cursor);
+        Limit limit = Limit.of(size + 1);
+        List<Dipendente> dipendenti = cursore == null
+                ? dipendenteRepository.findPrimaPagina(limit)
+                : dipendenteRepository.findPaginaDopo(cursore.chiave(), cursore.id(), limit);
+        return Cursore.pagina(dipendenti, size, Dipendente::getCognome, Dipendente::getId, this::mapToDipendenteDto);
+    }
+
+
+    /**
+     * Esporta tutti i dipendenti come NDJSON, scrivendo ogni riga appena letta dal database.
+     * Le entità vengono staccate dal persistence context una alla volta: la memoria usata resta costante.
+     * @param out Stream di output su cui scrivere.
+     * @return Il numero di dipendenti esportati.
+     * @throws IOException se la scrittura sullo stream fallisce.
+     */
+
+    @Transactional(readOnly = true)
+    public long esporta(OutputStream out) throws IOException {
+        try (Stream<Dipendente> dipendenti = dipendenteRepository.streamAll()) {
+            return ndjsonWriter.scrivi(dipendenti.map(dipendente -> {
+                entityManager.detach(dipendente);
+                return mapToDipendenteDto(dipendente);
+            }), out);
+        }
+    }
+
 
     /**
      * Corrisponde all'operazione UPDATE (Aggiorna un dipendente esistente).
@@ -133,59 +194,47 @@ public class DipendenteService {
      * @param dipendenteDto DTO contenente i nuovi dati del dipendente.
      * @return Il DTO del dipendente aggiornato.
      * @throws NotFoundException se il dipendente non esiste.
-     * @throws ValidationException se username o email sono già in uso da un altro dipendente.
+     * @throws ConflictException se username o email sono già in uso da un altro dipendente.
      */
 
-    public DipendenteDto update(Long id, DipendenteDto dipendenteDto) throws ValidationException, NotFoundException {
+    @Transactional(rollbackFor = Exception.class)
+    public DipendenteDto update(Long id, DipendenteDto dipendenteDto) throws NotFoundException, ConflictException {
         Dipendente existingDipendente = dipendenteRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Dipendente con ID " + id + " non trovato"));
 
-        // Validazione unicità username e email (se modificati)
-        if (!existingDipendente.getUsername().equals(dipendenteDto.getUsername()) && // Utilizza 'dipendenteDto'
-                dipendenteRepository.findByUsername(dipendenteDto.getUsername()).isPresent()) {
-            throw new ValidationException("Username " + dipendenteDto.getUsername() + " già in uso");
-        }
-        if (!existingDipendente.getEmail().equals(dipendenteDto.getEmail()) && // Utilizza 'dipendenteDto'
-                dipendenteRepository.findByEmail(dipendenteDto.getEmail()).isPresent()) {
-            throw new ValidationException("Email " + dipendenteDto.getEmail() + " già in uso");
-        }
-
         // Aggiorna i campi dell'entità con i dati del DTO
         existingDipendente = mapToDipendenteEntity(dipendenteDto, existingDipendente);
         // L'URL dell'immagine non viene aggiornato qui, ma tramite il metodo patch apposito
 
-        Dipendente updatedDipendente = dipendenteRepository.save(existingDipendente);
+        // Come in save(), l'unicità di username ed email è verificata dai vincoli del database
+        Dipendente updatedDipendente;
+        try {
+            updatedDipendente = dipendenteRepository.saveAndFlush(existingDipendente);
+        } catch (DataIntegrityViolationException e) {
+            throw conflittoUnicita(e, dipendenteDto);
+        }
+        // Dopo il commit: rimuove il dipendente dalla cache e cambia il suo ETag
+        versioniRisorse.modificata(VersioniRisorse.DIPENDENTI, id);
         return mapToDipendenteDto(updatedDipendente);
     }
 
     /**
-     * Corrisponde all'operazione di aggiornamento dell'immagine profilo (PATCH).
-     * Questo metodo carica l'immagine su Cloudinary e aggiorna l'URL nel dipendente.
+     * Aggiorna l'URL dell'immagine profilo dopo il caricamento su Cloudinary.
+     * Il caricamento vero e proprio avviene in background, vedi {@link UploadImmagineService}.
      * @param dipendenteId ID del dipendente.
-     * @param file File dell'immagine da caricare.
+     * @param imageUrl URL dell'immagine caricata.
      * @return Il DTO del dipendente aggiornato con il nuovo URL dell'immagine.
-     * @throws IOException se c'è un errore durante il caricamento del file.
-     * @throws ValidationException se il file è vuoto o Cloudinary non è configurato.
      * @throws NotFoundException se il dipendente non è trovato.
      */
 
-    public DipendenteDto updateImmagineProfilo(Long dipendenteId, MultipartFile file) throws IOException, ValidationException, NotFoundException { // Rinominato, cambiato 'int' a 'Long', restituisce DipendenteDto
+    @Transactional(rollbackFor = Exception.class)
+    public DipendenteDto aggiornaImmagineProfiloUrl(Long dipendenteId, String imageUrl) throws NotFoundException {
         Dipendente dipendente = dipendenteRepository.findById(dipendenteId)
                 .orElseThrow(() -> new NotFoundException("Dipendente con ID " + dipendenteId + " non trovato"));
 
-        if (file.isEmpty()) {
-            throw new ValidationException("Il file non può essere vuoto");
-        }
-        if (cloudinary == null) {
-            throw new IllegalStateException("Cloudinary non è configurato. Impossibile caricare l'immagine.");
-        }
-
-        // Carica l'immagine su Cloudinary
-        Map uploadResult = cloudinary.uploader().upload(file.getBytes(), Collections.emptyMap());
-        String imageUrl = (String) uploadResult.get("secure_url"); // Usa "secure_url" per URL HTTPS
-
         dipendente.setImmagineProfiloUrl(imageUrl);
         Dipendente updatedDipendente = dipendenteRepository.save(dipendente);
+        versioniRisorse.modificata(VersioniRisorse.DIPENDENTI, dipendenteId);
 
         return mapToDipendenteDto(updatedDipendente); // Restituisce il DTO aggiornato
     }
@@ -201,14 +250,30 @@ public class DipendenteService {
             throw new NotFoundException("Dipendente con ID " + id + " non trovato");
         }
         dipendenteRepository.deleteById(id);
+        versioniRisorse.eliminata(VersioniRisorse.DIPENDENTI, id);
+    }
+
+    // Traduce la violazione di un vincolo di unicità in un conflitto con un messaggio leggibile
+    private ConflictException conflittoUnicita(DataIntegrityViolationException e, DipendenteDto dto) {
+        String vincolo = e.getCause() instanceof ConstraintViolationException violazione ? violazione.getConstraintName() : null;
+        if (Dipendente.UK_USERNAME.equalsIgnoreCase(vincolo)) {
+            return new ConflictException("Username " + dto.getUsername() + " già in uso");
+        }
+        if (Dipendente.UK_EMAIL.equalsIgnoreCase(vincolo)) {
+            return new ConflictException("Email " + dto.getEmail() + " già in uso");
+        }
+        throw e;
+    }
+
+    // Avatar generato dalle iniziali, usato quando il dipendente non ha un'immagine profilo
+    static String immagineProfiloPredefinita(Dipendente dipendente) {
+        return "https://ui-avatars.com/api/?name=" + dipendente.getNome() + "+" + dipendente.getCognome();
     }
-    private void sendMail(String email) {
-        SimpleMailMessage message = new SimpleMailMessage();
-        message.setTo(email);
-        message.setSubject("Registrazione Servizio rest");
-        message.setText("Registrazione al servizio rest avvenuta con successo");
 
-        javaMailSender.send(message);
+    void accodaMailRegistrazione(String email) {
+        mailOutboxService.accoda(email,
+                "Registrazione Servizio rest",
+                "Registrazione al servizio rest avvenuta con successo");
     }
 
 }
\ No newline at end of file
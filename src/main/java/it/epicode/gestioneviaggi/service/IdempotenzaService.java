@@ -0,0 +1,207 @@
+package it.epicode.gestioneviaggi.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import it.epicode.gestioneviaggi.model.RispostaIdempotente;
+import it.epicode.gestioneviaggi.repository.RispostaIdempotenteRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Esegue una richiesta con header Idempotency-Key una sola volta: le ripetizioni con la stessa chiave
+ * ricevono la risposta registrata, senza rieseguire l'operazione.
+ * Le risposte stanno in memoria (Caffeine) e nella tabella risposte_idempotenti per il TTL configurato.
+ * La chiave viene prenotata nella stessa transazione dell'operazione: la risposta è registrata solo se
+ * l'operazione va a buon fine (2xx); un errore non lascia effetti e un nuovo tentativo la riesegue.
+ * Le richieste concorrenti con la stessa chiave attendono l'esito della prima: sulla stessa istanza
+ * tramite un future, tra istanze diverse sull'insert della chiave.
+ */
+@Service
+public class IdempotenzaService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String HEADER_RIPETUTA = "Idempotency-Replayed";
+
+    private static final int LUNGHEZZA_MASSIMA = 255;
+
+    @Autowired
+    private RispostaIdempotenteRepository rispostaIdempotenteRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${gestioneviaggi.idempotenza.ttl-ore:24}")
+    private long ttlOre;
+
+    @Value("${gestioneviaggi.idempotenza.memoria-max:10000}")
+    private long memoriaMassima;
+
+    @Value("${gestioneviaggi.idempotenza.attesa-ms:30000}")
+    private long attesaMassima;
+
+    private Cache<String, Risposta> memoria;
+
+    // Esecuzioni in corso su questa istanza, per chiave
+    private final ConcurrentHashMap<String, CompletableFuture<Risposta>> inCorso = new ConcurrentHashMap<>();
+
+    private record Risposta(String impronta, int status, String tipo, String corpo) {
+    }
+
+    // Esito della transazione: la risposta registrata, più quella originale se l'operazione è stata eseguita
+    private record Esecuzione(Risposta risposta, ResponseEntity<Object> originale) {
+    }
+
+    @PostConstruct
+    void inizializza() {
+        memoria = Caffeine.newBuilder()
+                .maximumSize(memoriaMassima)
+                .expireAfterWrite(Duration.ofHours(ttlOre))
+                .build();
+    }
+
+    /**
+     * Esegue l'operazione una sola volta per chiave.
+     * @param chiave Valore dell'header Idempotency-Key.
+     * @param operazione Nome dell'operazione (es. "POST /prenotazioni"), parte dell'impronta della richiesta.
+     * @param richiesta Corpo della richiesta, parte dell'impronta.
+     * @param esecuzione Operazione da eseguire; gira nella transazione in cui viene prenotata la chiave.
+     * @return La risposta dell'operazione, oppure quella registrata per la chiave con l'header Idempotency-Replayed.
+     * @throws ValidationException se la chiave non è valida o è già stata usata per una richiesta diversa.
+     * @throws ConflictException se la stessa chiave è in esecuzione da più di attesa-ms.
+     */
+    public ResponseEntity<Object> esegui(String chiave, String operazione, Object richiesta,
+                                         Supplier<ResponseEntity<Object>> esecuzione) throws ValidationException, ConflictException {
+        if (chiave.isBlank() || chiave.length() > LUNGHEZZA_MASSIMA) {
+            throw new ValidationException("L'header " + HEADER + " deve avere da 1 a " + LUNGHEZZA_MASSIMA + " caratteri.");
+        }
+        String impronta = impronta(operazione, richiesta);
+        Risposta registrata = memoria.getIfPresent(chiave);
+        if (registrata != null) {
+            return ripeti(chiave, registrata, impronta);
+        }
+
+        CompletableFuture<Risposta> futura = new CompletableFuture<>();
+        CompletableFuture<Risposta> precedente = inCorso.putIfAbsent(chiave, futura);
+        if (precedente != null) {
+            return ripeti(chiave, attendi(chiave, precedente), impronta);
+        }
+        try {
+            Esecuzione esito = transactionTemplate.execute(status -> {
+                LocalDateTime adesso = LocalDateTime.now();
+                if (rispostaIdempotenteRepository.prenota(chiave, impronta, adesso, adesso.plusHours(ttlOre)) == 0) {
+                    // Registrata da un'altra istanza (o uscita dalla memoria): l'operazione non si ripete
+                    RispostaIdempotente riga = rispostaIdempotenteRepository.findById(chiave).orElseThrow();
+                    return new Esecuzione(new Risposta(riga.getImpronta(), riga.getStatus(), riga.getTipo(), riga.getCorpo()), null);
+                }
+                ResponseEntity<Object> originale = esecuzione.get();
+                Risposta risposta = converti(impronta, originale);
+                if (originale.getStatusCode().is2xxSuccessful()) {
+                    rispostaIdempotenteRepository.completa(chiave, risposta.status(), risposta.tipo(), risposta.corpo());
+                } else {
+                    // Nessun effetto da ricordare: il rollback libera anche la chiave
+                    status.setRollbackOnly();
+                }
+                return new Esecuzione(risposta, originale);
+            });
+            if (esito.originale() == null || esito.originale().getStatusCode().is2xxSuccessful()) {
+                memoria.put(chiave, esito.risposta());
+            }
+            futura.complete(esito.risposta());
+            return esito.originale() != null ? esito.originale() : ripeti(chiave, esito.risposta(), impronta);
+        } catch (RuntimeException e) {
+            futura.completeExceptionally(e);
+            throw e;
+        } finally {
+            inCorso.remove(chiave, futura);
+        }
+    }
+
+    // Rimuove dalla tabella le risposte scadute; quelle in memoria scadono da sole
+    @Scheduled(fixedDelayString = "${gestioneviaggi.idempotenza.pulizia-ms:3600000}")
+    @Transactional
+    public void pulisci() {
+        rispostaIdempotenteRepository.deleteScadute(LocalDateTime.now());
+    }
+
+    private Risposta attendi(String chiave, CompletableFuture<Risposta> precedente) throws ConflictException {
+        try {
+            return precedente.get(attesaMassima, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ConflictException("Una richiesta con " + HEADER + " " + chiave + " è ancora in corso.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConflictException("Una richiesta con " + HEADER + " " + chiave + " è ancora in corso.");
+        } catch (ExecutionException e) {
+            // La prima esecuzione è fallita senza una risposta: stesso esito per le richieste che la attendevano
+            throw e.getCause() instanceof RuntimeException causa ? causa : new IllegalStateException(e.getCause());
+        }
+    }
+
+    private ResponseEntity<Object> ripeti(String chiave, Risposta registrata, String impronta) throws ValidationException {
+        if (!registrata.impronta().equals(impronta)) {
+            throw new ValidationException("L'header " + HEADER + " " + chiave + " è già stato usato per una richiesta diversa.");
+        }
+        meterRegistry.counter("gestioneviaggi.idempotenza.ripetute").increment();
+        return ResponseEntity.status(registrata.status())
+                .header(HEADER_RIPETUTA, "true")
+                .contentType(MediaType.parseMediaType(registrata.tipo()))
+                .body(registrata.corpo());
+    }
+
+    private Risposta converti(String impronta, ResponseEntity<Object> risposta) {
+        Object corpo = risposta.getBody();
+        if (corpo instanceof String testo) {
+            return new Risposta(impronta, risposta.getStatusCode().value(), MediaType.TEXT_PLAIN_VALUE, testo);
+        }
+        return new Risposta(impronta, risposta.getStatusCode().value(), MediaType.APPLICATION_JSON_VALUE, json(corpo));
+    }
+
+    private String impronta(String operazione, Object richiesta) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest((operazione + "\n" + json(richiesta)).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String json(Object valore) {
+        try {
+            return objectMapper.writeValueAsString(valore);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
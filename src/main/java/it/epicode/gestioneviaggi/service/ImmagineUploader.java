@@ -0,0 +1,9 @@
+package it.epicode.gestioneviaggi.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Carica un'immagine già salvata su disco e restituisce l'URL pubblico
+public interface ImmagineUploader {
+    String carica(Path file) throws IOException;
+}
@@ -0,0 +1,164 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.DestinazioneDto;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Indice in memoria delle destinazioni con viaggi in programma, per i suggerimenti durante la digitazione.
+ * Le destinazioni sono ordinate per forma normalizzata (minuscole, senza accenti, vedi {@link Viaggio#normalizza}):
+ * quelle che iniziano con un prefisso formano un intervallo contiguo, letto senza accedere al database.
+ * {@link ViaggioService} lo aggiorna a ogni creazione, modifica ed eliminazione, dopo il commit; ogni notte viene
+ * ricostruito dal database, così i viaggi passati escono dai conteggi.
+ */
+@Component
+public class IndiceDestinazioni {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceDestinazioni.class);
+
+    private static final Comparator<Suggerimento> PER_RILEVANZA = Comparator
+            .comparingInt(Suggerimento::viaggi).reversed()
+            .thenComparing(Suggerimento::chiave);
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    // Letta senza lock dai suggerimenti; le scritture sono sincronizzate su this
+    private volatile ConcurrentSkipListMap<String, Destinazione> destinazioni = new ConcurrentSkipListMap<>();
+
+    // Il nome mostrato è la prima grafia incontrata; viaggi è il numero di viaggi da oggi in poi
+    private static final class Destinazione {
+        final String chiave;
+        final String nome;
+        volatile int viaggi;
+
+        Destinazione(String chiave, String nome, int viaggi) {
+            this.chiave = chiave;
+            this.nome = nome;
+            this.viaggi = viaggi;
+        }
+    }
+
+    // Copia dei valori al momento della lettura: l'ordinamento non deve vedere i contatori cambiare
+    private record Suggerimento(String chiave, String nome, int viaggi) {
+    }
+
+    /**
+     * Ricarica l'indice dal database all'avvio e ogni notte.
+     * Le modifiche fatte durante la lettura possono andare perse fino alla ricostruzione successiva.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${gestioneviaggi.destinazioni.ricostruzione-cron:0 5 0 * * *}")
+    public void ricostruisci() {
+        ConcurrentSkipListMap<String, Destinazione> nuove = new ConcurrentSkipListMap<>();
+        for (ViaggioRepository.ConteggioDestinazione conteggio : viaggioRepository.countViaggiPerDestinazioneDal(LocalDate.now())) {
+            String chiave = Viaggio.normalizza(conteggio.getDestinazione());
+            Destinazione esistente = nuove.get(chiave);
+            int viaggi = (int) conteggio.getViaggi() + (esistente != null ? esistente.viaggi : 0);
+            nuove.put(chiave, new Destinazione(chiave, esistente != null ? esistente.nome : conteggio.getDestinazione().trim(), viaggi));
+        }
+        synchronized (this) {
+            destinazioni = nuove;
+        }
+        logger.info("Indice delle destinazioni ricostruito: {} destinazioni.", nuove.size());
+    }
+
+    /**
+     * Conta un viaggio sulla sua destinazione, se la data è da oggi in poi.
+     */
+    public void aggiungi(String destinazione, LocalDate data) {
+        dopoIlCommit(() -> conta(destinazione, data));
+    }
+
+    /**
+     * Toglie un viaggio dalla sua destinazione; la destinazione sparisce quando non ha più viaggi.
+     */
+    public void rimuovi(String destinazione, LocalDate data) {
+        dopoIlCommit(() -> scala(destinazione, data));
+    }
+
+    // Dentro una transazione la modifica ha effetto dopo il commit; se la transazione viene annullata non cambia nulla
+    private void dopoIlCommit(Runnable modifica) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    modifica.run();
+                }
+            });
+        } else {
+            modifica.run();
+        }
+    }
+
+    private synchronized void conta(String destinazione, LocalDate data) {
+        if (destinazione == null || data == null || data.isBefore(LocalDate.now())) {
+            return;
+        }
+        String chiave = Viaggio.normalizza(destinazione);
+        Destinazione esistente = destinazioni.get(chiave);
+        if (esistente != null) {
+            esistente.viaggi++;
+        } else {
+            destinazioni.put(chiave, new Destinazione(chiave, destinazione.trim(), 1));
+        }
+    }
+
+    private synchronized void scala(String destinazione, LocalDate data) {
+        if (destinazione == null || data == null || data.isBefore(LocalDate.now())) {
+            return;
+        }
+        String chiave = Viaggio.normalizza(destinazione);
+        Destinazione esistente = destinazioni.get(chiave);
+        if (esistente == null) {
+            return;
+        }
+        if (esistente.viaggi <= 1) {
+            destinazioni.remove(chiave);
+        } else {
+            esistente.viaggi--;
+        }
+    }
+
+    /**
+     * Le destinazioni che iniziano con il prefisso, senza distinzione tra maiuscole e minuscole né accenti,
+     * ordinate per numero di viaggi in programma e poi per nome.
+     * @param prefisso Il testo digitato; vuoto o null per tutte le destinazioni.
+     * @param limite Numero massimo di suggerimenti.
+     * @return Al massimo {@code limite} destinazioni con il loro numero di viaggi.
+     */
+    public List<DestinazioneDto> suggerisci(String prefisso, int limite) {
+        String chiave = prefisso == null ? "" : Viaggio.normalizza(prefisso);
+        // Le chiavi con il prefisso sono tutte minori di prefisso + il carattere massimo
+        var candidate = chiave.isEmpty()
+                ? destinazioni
+                : destinazioni.subMap(chiave, true, chiave + Character.MAX_VALUE, false);
+        // Heap dei migliori `limite`: la radice è il candidato peggiore, scartato quando ne arriva uno migliore
+        PriorityQueue<Suggerimento> migliori = new PriorityQueue<>(limite + 1, PER_RILEVANZA.reversed());
+        for (Destinazione destinazione : candidate.values()) {
+            migliori.add(new Suggerimento(destinazione.chiave, destinazione.nome, destinazione.viaggi));
+            if (migliori.size() > limite) {
+                migliori.poll();
+            }
+        }
+        List<Suggerimento> ordinati = new ArrayList<>(migliori);
+        ordinati.sort(PER_RILEVANZA);
+        return ordinati.stream().map(s -> new DestinazioneDto(s.nome(), s.viaggi())).toList();
+    }
+}
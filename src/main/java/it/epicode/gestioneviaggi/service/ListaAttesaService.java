@@ -0,0 +1,245 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneInAttesaDto;
+import it.epicode.gestioneviaggi.enumeration.StatoAttesa;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.model.Prenotazione;
+import it.epicode.gestioneviaggi.model.PrenotazioneInAttesa;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import it.epicode.gestioneviaggi.repository.PrenotazioneInAttesaRepository;
+import it.epicode.gestioneviaggi.repository.PrenotazioneRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lista d'attesa FIFO per i viaggi senza posti sufficienti.
+ * Una richiesta che non trova posti viene accodata invece di essere rifiutata; i posti restituiti
+ * da eliminazioni e modifiche passano alle richieste in coda, in ordine di arrivo, nella stessa transazione.
+ * Ogni operazione sulla coda di un viaggio (accodamento, promozione, annullamento) blocca prima la riga del viaggio:
+ * una richiesta accodata mentre si liberano posti viene vista dalla promozione, oppure trova i posti già restituiti.
+ */
+@Service
+@Timed(value = "gestioneviaggi.servizi", histogram = true)
+public class ListaAttesaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListaAttesaService.class);
+
+    @Autowired
+    private PrenotazioneInAttesaRepository prenotazioneInAttesaRepository;
+    @Autowired
+    private PrenotazioneRepository prenotazioneRepository;
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+    @Autowired
+    private PostiService postiService;
+    @Autowired
+    private MailOutboxService mailOutboxService;  // Per avvisare il dipendente della promozione
+    @Autowired
+    private StatisticheService statisticheService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Richieste promosse al massimo a ogni restituzione di posti, e dimensione delle pagine lette dalla coda
+    @Value("${gestioneviaggi.attesa.promozioni-max:50}")
+    private int promozioniMassime;
+
+    private PrenotazioneInAttesaDto mapToDto(PrenotazioneInAttesa attesa, Integer posizione) {
+        PrenotazioneInAttesaDto dto = new PrenotazioneInAttesaDto();
+        dto.setId(attesa.getId());
+        dto.setDipendenteId(attesa.getDipendente().getId());
+        dto.setIdViaggio(attesa.getViaggio().getId());
+        dto.setNumeroPosti(attesa.getNumeroPosti());
+        dto.setDataPrenotazione(attesa.getDataPrenotazione());
+        dto.setNotePreferenze(attesa.getNotePreferenze());
+        dto.setStato(attesa.getStato());
+        dto.setPosizione(posizione);
+        dto.setPrenotazioneId(attesa.getPrenotazioneId());
+        dto.setCreataIl(attesa.getCreataIl());
+        return dto;
+    }
+
+    private Integer posizione(PrenotazioneInAttesa attesa) {
+        if (attesa.getStato() != StatoAttesa.IN_ATTESA) {
+            return null;
+        }
+        return (int) prenotazioneInAttesaRepository.countDavanti(attesa.getViaggio().getId(), StatoAttesa.IN_ATTESA, attesa.getId()) + 1;
+    }
+
+    /**
+     * Blocca la riga del viaggio fino al commit della transazione corrente.
+     * @param viaggioId ID del viaggio.
+     * @throws NotFoundException se il viaggio non esiste.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void bloccaViaggio(Long viaggioId) throws NotFoundException {
+        viaggioRepository.bloccaById(viaggioId)
+                .orElseThrow(() -> new NotFoundException("Viaggio con ID " + viaggioId + " non trovato."));
+    }
+
+    /**
+     * Mette in coda una prenotazione che non ha trovato posti. Va chiamato dopo {@link #bloccaViaggio(Long)},
+     * nella stessa transazione.
+     * @param prenotazioneDto Dati della prenotazione, già validati.
+     * @return La richiesta accodata, con la sua posizione.
+     * @throws ConflictException se il dipendente ha già una prenotazione o una richiesta in attesa in quella data.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneInAttesaDto accoda(PrenotazioneDto prenotazioneDto) throws ConflictException {
+        // Stesso vincolo delle prenotazioni: una sola per dipendente e data, in coda o confermata
+        if (prenotazioneRepository.existsByDipendenteIdAndDataPrenotazione(prenotazioneDto.getDipendenteId(), prenotazioneDto.getDataPrenotazione())) {
+            throw new ConflictException("Il dipendente " + prenotazioneDto.getDipendenteId() + " ha già una prenotazione in data " + prenotazioneDto.getDataPrenotazione() + ".");
+        }
+        if (prenotazioneInAttesaRepository.existsByDipendenteIdAndDataPrenotazioneAndStato(prenotazioneDto.getDipendenteId(),
+                prenotazioneDto.getDataPrenotazione(), StatoAttesa.IN_ATTESA)) {
+            throw new ConflictException("Il dipendente " + prenotazioneDto.getDipendenteId() + " è già in lista d'attesa per la data " + prenotazioneDto.getDataPrenotazione() + ".");
+        }
+        PrenotazioneInAttesa attesa = new PrenotazioneInAttesa();
+        attesa.setViaggio(viaggioRepository.getReferenceById(prenotazioneDto.getIdViaggio()));
+        attesa.setDipendente(dipendenteRepository.getReferenceById(prenotazioneDto.getDipendenteId()));
+        attesa.setNumeroPosti(prenotazioneDto.getNumeroPosti());
+        attesa.setDataPrenotazione(prenotazioneDto.getDataPrenotazione());
+        attesa.setNotePreferenze(prenotazioneDto.getNotePreferenze());
+        attesa.setStato(StatoAttesa.IN_ATTESA);
+        attesa.setCreataIl(LocalDateTime.now());
+        attesa = prenotazioneInAttesaRepository.save(attesa);
+        meterRegistry.counter("gestioneviaggi.attesa.accodate").increment();
+        logger.info("Dipendente {} in lista d'attesa per il viaggio {} ({} posti).",
+                prenotazioneDto.getDipendenteId(), prenotazioneDto.getIdViaggio(), prenotazioneDto.getNumeroPosti());
+        return mapToDto(attesa, posizione(attesa));
+    }
+
+    /**
+     * Restituisce i posti di un viaggio passandoli prima alle richieste in lista d'attesa, in ordine di arrivo.
+     * Ogni richiesta promossa diventa una prenotazione nella transazione corrente; la coda si ferma alla prima
+     * richiesta che non trova posti, così nessuna viene scavalcata. I posti avanzati tornano al viaggio.
+     * La coda viene letta a pagine finché ci sono posti e richieste, fino a promozioni-max promozioni: le richieste
+     * annullate lungo la strada (il dipendente ha già una prenotazione in quella data) non contano.
+     * I posti liberati vengono assegnati direttamente, senza passare dal contatore: con il ledger attivo
+     * la restituzione diventa visibile solo dopo il commit.
+     * @param viaggioId ID del viaggio.
+     * @param posti Numero di posti liberati.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void restituisciPosti(Long viaggioId, int posti) {
+        viaggioRepository.bloccaById(viaggioId);
+        int liberi = posti;
+        int promosse = 0;
+        Long ultimoId = 0L;
+        coda:
+        while (promosse < promozioniMassime) {
+            List<PrenotazioneInAttesa> pagina = prenotazioneInAttesaRepository.findCodaDopo(viaggioId, StatoAttesa.IN_ATTESA,
+                    ultimoId, Limit.of(promozioniMassime - promosse));
+            if (pagina.isEmpty()) {
+                break;
+            }
+            for (PrenotazioneInAttesa attesa : pagina) {
+                ultimoId = attesa.getId();
+                Long dipendenteId = attesa.getDipendente().getId();
+                // Nel frattempo il dipendente ha prenotato un altro viaggio nella stessa data
+                if (prenotazioneRepository.existsByDipendenteIdAndDataPrenotazione(dipendenteId, attesa.getDataPrenotazione())) {
+                    attesa.setStato(StatoAttesa.ANNULLATA);
+                    continue;
+                }
+                int dalRilascio = Math.min(attesa.getNumeroPosti(), liberi);
+                if (attesa.getNumeroPosti() > dalRilascio) {
+                    try {
+                        postiService.riserva(viaggioId, attesa.getNumeroPosti() - dalRilascio);
+                    } catch (ConflictException | NotFoundException e) {
+                        break coda;
+                    }
+                }
+                liberi -= dalRilascio;
+                promuovi(attesa);
+                promosse++;
+            }
+        }
+        if (liberi > 0) {
+            postiService.rilascia(viaggioId, liberi);
+        }
+    }
+
+    private void promuovi(PrenotazioneInAttesa attesa) {
+        Prenotazione prenotazione = new Prenotazione();
+        prenotazione.setViaggio(attesa.getViaggio());
+        prenotazione.setDipendente(attesa.getDipendente());
+        prenotazione.setNumeroPosti(attesa.getNumeroPosti());
+        prenotazione.setDataPrenotazione(attesa.getDataPrenotazione());
+        prenotazione.setNotePreferenze(attesa.getNotePreferenze());
+        prenotazione.setDataRichiesta(LocalDate.now());
+        prenotazione = prenotazioneRepository.save(prenotazione);
+        statisticheService.prenotazioneAggiunta(attesa.getViaggio().getId(), attesa.getNumeroPosti());
+
+        attesa.setStato(StatoAttesa.PROMOSSA);
+        attesa.setPrenotazioneId(prenotazione.getId());
+        meterRegistry.counter("gestioneviaggi.attesa.promosse").increment();
+        logger.info("Richiesta in attesa {} promossa: prenotazione {} sul viaggio {}.",
+                attesa.getId(), prenotazione.getId(), attesa.getViaggio().getId());
+        mailOutboxService.accoda(attesa.getDipendente().getEmail(),
+                "Prenotazione confermata",
+                "Si sono liberati dei posti: la prenotazione del " + attesa.getDataPrenotazione()
+                        + " per " + attesa.getNumeroPosti() + " posti è confermata (ID " + prenotazione.getId() + ").");
+    }
+
+    /**
+     * Recupera una richiesta in lista d'attesa con la sua posizione nella coda.
+     * @param id ID della richiesta.
+     * @return Il DTO della richiesta; la posizione è valorizzata solo se è ancora in attesa.
+     * @throws NotFoundException se la richiesta non esiste.
+     */
+    @Transactional(readOnly = true)
+    public PrenotazioneInAttesaDto get(Long id) throws NotFoundException {
+        PrenotazioneInAttesa attesa = prenotazioneInAttesaRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Richiesta in lista d'attesa con ID " + id + " non trovata"));
+        return mapToDto(attesa, posizione(attesa));
+    }
+
+    /**
+     * Recupera la coda di un viaggio: le richieste ancora in attesa, in ordine di posizione.
+     * @param viaggioId ID del viaggio.
+     * @return La lista delle richieste in attesa.
+     */
+    @Transactional(readOnly = true)
+    public List<PrenotazioneInAttesaDto> getCoda(Long viaggioId) {
+        List<PrenotazioneInAttesaDto> coda = new ArrayList<>();
+        for (PrenotazioneInAttesa attesa : prenotazioneInAttesaRepository.findCoda(viaggioId, StatoAttesa.IN_ATTESA, Limit.unlimited())) {
+            coda.add(mapToDto(attesa, coda.size() + 1));
+        }
+        return coda;
+    }
+
+    /**
+     * Toglie una richiesta dalla lista d'attesa.
+     * @param id ID della richiesta.
+     * @throws NotFoundException se la richiesta non esiste.
+     * @throws ConflictException se la richiesta è già stata promossa o annullata.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void annulla(Long id) throws NotFoundException, ConflictException {
+        Long viaggioId = prenotazioneInAttesaRepository.findViaggioIdById(id)
+                .orElseThrow(() -> new NotFoundException("Richiesta in lista d'attesa con ID " + id + " non trovata"));
+        // Lo stato si legge dopo il blocco: una promozione concorrente è già conclusa
+        bloccaViaggio(viaggioId);
+        PrenotazioneInAttesa attesa = prenotazioneInAttesaRepository.findById(id).orElseThrow();
+        if (attesa.getStato() != StatoAttesa.IN_ATTESA) {
+            throw new ConflictException("La richiesta " + id + " non è più in lista d'attesa (" + attesa.getStato() + ").");
+        }
+        attesa.setStato(StatoAttesa.ANNULLATA);
+    }
+}
@@ -0,0 +1,216 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.enumeration.StatoMail;
+import it.epicode.gestioneviaggi.model.MailOutbox;
+import it.epicode.gestioneviaggi.repository.MailOutboxRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Svuota la outbox delle mail su un virtual thread dedicato.
+ * Ogni giro prende in carico un blocco di mail (stato IN_INVIO, con un commit prima dell'invio) e lo invia
+ * sulla stessa connessione SMTP: più istanze, o un giro che si sovrappone a un invio lento, non spediscono
+ * due volte la stessa mail. Le mail fallite vengono ritentate con backoff esponenziale fino al numero massimo
+ * di tentativi; quelle rimaste IN_INVIO oltre invio-max-ms (istanza terminata durante l'invio) diventano
+ * FALLITA invece di essere rispedite.
+ * Parte dopo {@link it.epicode.gestioneviaggi.repository.MigrazioniSchema}, che aggiorna il vincolo sugli stati.
+ */
+@Component
+@DependsOn("migrazioniSchema")
+public class MailOutboxDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailOutboxDispatcher.class);
+
+    @Autowired
+    private MailOutboxRepository mailOutboxRepository;
+
+    @Autowired
+    private JavaMailSender javaMailSender;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${gestioneviaggi.mail.outbox.enabled:true}")
+    private boolean attivo;
+
+    @Value("${gestioneviaggi.mail.outbox.batch-size:50}")
+    private int dimensioneBatch;
+
+    @Value("${gestioneviaggi.mail.outbox.poll-ms:2000}")
+    private long intervalloPolling;
+
+    @Value("${gestioneviaggi.mail.outbox.max-tentativi:8}")
+    private int maxTentativi;
+
+    @Value("${gestioneviaggi.mail.outbox.backoff-iniziale-ms:5000}")
+    private long backoffIniziale;
+
+    @Value("${gestioneviaggi.mail.outbox.backoff-massimo-ms:3600000}")
+    private long backoffMassimo;
+
+    @Value("${gestioneviaggi.mail.outbox.invio-max-ms:600000}")
+    private long durataMassimaInvio;
+
+    private final Semaphore segnale = new Semaphore(0);
+
+    private volatile boolean inEsecuzione;
+    private Thread thread;
+
+    @PostConstruct
+    public void avvia() {
+        if (!attivo) {
+            return;
+        }
+        inEsecuzione = true;
+        thread = Thread.ofVirtual().name("mail-outbox").start(this::ciclo);
+    }
+
+    @PreDestroy
+    public void ferma() throws InterruptedException {
+        inEsecuzione = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    // Chiamato dopo il commit di una nuova mail
+    public void sveglia() {
+        segnale.release();
+    }
+
+    private void ciclo() {
+        while (inEsecuzione) {
+            try {
+                // Se il blocco era pieno probabilmente ci sono altre mail: riparte subito
+                if (drena() < dimensioneBatch) {
+                    segnale.tryAcquire(intervalloPolling, TimeUnit.MILLISECONDS);
+                    segnale.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Errore durante lo svuotamento della outbox delle mail.", e);
+                try {
+                    Thread.sleep(intervalloPolling);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Invia il prossimo blocco di mail pronte.
+     * @return Il numero di mail elaborate (inviate o rimandate).
+     */
+    int drena() {
+        List<MailOutbox> mails = prendiInCarico();
+        if (mails.isEmpty()) {
+            return 0;
+        }
+
+        Map<SimpleMailMessage, MailOutbox> messaggi = new IdentityHashMap<>();
+        for (MailOutbox mail : mails) {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(mail.getDestinatario());
+            message.setSubject(mail.getOggetto());
+            message.setText(mail.getTesto());
+            messaggi.put(message, mail);
+        }
+
+        Map<Object, Exception> falliti = new IdentityHashMap<>();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            // JavaMailSenderImpl apre una sola connessione per tutto il blocco
+            javaMailSender.send(messaggi.keySet().toArray(new SimpleMailMessage[0]));
+        } catch (MailSendException e) {
+            falliti.putAll(e.getFailedMessages());
+            if (falliti.isEmpty()) {
+                messaggi.keySet().forEach(message -> falliti.put(message, e));
+            }
+        } catch (MailException e) {
+            messaggi.keySet().forEach(message -> falliti.put(message, e));
+        }
+        // Latenza di un invio SMTP (un blocco di mail), con l'esito del blocco
+        sample.stop(Timer.builder("gestioneviaggi.mail.invio")
+                .tag("esito", falliti.isEmpty() ? "successo" : falliti.size() < messaggi.size() ? "parziale" : "errore")
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+
+        LocalDateTime fine = LocalDateTime.now();
+        messaggi.forEach((message, mail) -> {
+            Exception errore = falliti.get(message);
+            if (errore == null) {
+                mail.setStato(StatoMail.INVIATA);
+                mail.setInviataIl(fine);
+                mail.setUltimoErrore(null);
+            } else {
+                rimanda(mail, errore, fine);
+            }
+        });
+        mailOutboxRepository.saveAll(mails);
+
+        if (!falliti.isEmpty()) {
+            logger.warn("Outbox mail: {} inviate, {} da ritentare.", mails.size() - falliti.size(), falliti.size());
+        }
+        return mails.size();
+    }
+
+    // Transazione breve: i lock delle righe durano solo fino al commit dello stato IN_INVIO, non per tutto l'invio
+    private List<MailOutbox> prendiInCarico() {
+        return transactionTemplate.execute(stato -> {
+            LocalDateTime adesso = LocalDateTime.now();
+            int interrotte = mailOutboxRepository.updateScadute(StatoMail.IN_INVIO, adesso, StatoMail.FALLITA,
+                    "Invio interrotto: la mail potrebbe essere già stata spedita");
+            if (interrotte > 0) {
+                logger.error("Outbox mail: {} mail rimaste in invio oltre {} ms segnate come fallite.", interrotte, durataMassimaInvio);
+            }
+            List<MailOutbox> mails = mailOutboxRepository.findPronteDaInviare(adesso, dimensioneBatch);
+            LocalDateTime scadenza = adesso.plusNanos(TimeUnit.MILLISECONDS.toNanos(durataMassimaInvio));
+            for (MailOutbox mail : mails) {
+                mail.setStato(StatoMail.IN_INVIO);
+                mail.setProssimoTentativo(scadenza);
+            }
+            return mails;
+        });
+    }
+
+    private void rimanda(MailOutbox mail, Exception errore, LocalDateTime adesso) {
+        mail.setTentativi(mail.getTentativi() + 1);
+        mail.setUltimoErrore(errore.getMessage());
+        if (mail.getTentativi() >= maxTentativi) {
+            mail.setStato(StatoMail.FALLITA);
+            logger.error("Mail {} a {} scartata dopo {} tentativi.", mail.getId(), mail.getDestinatario(), mail.getTentativi());
+            return;
+        }
+        long attesa = Math.min(backoffMassimo, backoffIniziale << Math.min(mail.getTentativi() - 1, 20));
+        mail.setStato(StatoMail.IN_ATTESA);
+        mail.setProssimoTentativo(adesso.plusNanos(TimeUnit.MILLISECONDS.toNanos(attesa)));
+    }
+}
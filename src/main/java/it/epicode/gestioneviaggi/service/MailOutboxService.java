@@ -0,0 +1,50 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.enumeration.StatoMail;
+import it.epicode.gestioneviaggi.model.MailOutbox;
+import it.epicode.gestioneviaggi.repository.MailOutboxRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+
+@Service
+public class MailOutboxService {
+
+    @Autowired
+    private MailOutboxRepository mailOutboxRepository;
+
+    @Autowired
+    private MailOutboxDispatcher mailOutboxDispatcher;
+
+    /**
+     * Accoda una mail nella outbox. Se esiste una transazione la mail ne fa parte:
+     * viene spedita solo se la transazione va a buon fine.
+     * @param destinatario Indirizzo del destinatario.
+     * @param oggetto Oggetto della mail.
+     * @param testo Testo della mail.
+     */
+    @Transactional
+    public void accoda(String destinatario, String oggetto, String testo) {
+        LocalDateTime adesso = LocalDateTime.now();
+        MailOutbox mail = new MailOutbox();
+        mail.setDestinatario(destinatario);
+        mail.setOggetto(oggetto);
+        mail.setTesto(testo);
+        mail.setStato(StatoMail.IN_ATTESA);
+        mail.setCreataIl(adesso);
+        mail.setProssimoTentativo(adesso);
+        mailOutboxRepository.save(mail);
+
+        // Sveglia il dispatcher dopo il commit, senza aspettare il prossimo polling
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                mailOutboxDispatcher.sveglia();
+            }
+        });
+    }
+}
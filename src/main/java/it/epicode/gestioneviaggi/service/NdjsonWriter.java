@@ -0,0 +1,56 @@
+package it.epicode.gestioneviaggi.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+
+/**
+ * Scrive una sequenza di DTO come NDJSON (un oggetto JSON per riga) man mano che arrivano,
+ * senza mai raccoglierli in una lista.
+ */
+@Component
+public class NdjsonWriter {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * @param righe Stream dei DTO da scrivere; viene consumato una sola volta.
+     * @param out Stream di output della risposta (non viene chiuso).
+     * @return Il numero di righe scritte.
+     */
+    public long scrivi(Stream<?> righe, OutputStream out) throws IOException {
+        ObjectWriter writer = objectMapper.writer()
+                .withRootValueSeparator("\n")
+                // Il flush avviene quando il buffer è pieno, non a ogni riga
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        long[] scritte = {0};
+        try (SequenceWriter sequenza = writer.writeValues(out)) {
+            righe.forEach(riga -> {
+                try {
+                    sequenza.write(riga);
+                    scritte[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (scritte[0] > 0) {
+            out.write('\n');
+        }
+        out.flush();
+        return scritte[0];
+    }
+}
@@ -0,0 +1,215 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contatori in memoria dei posti disponibili per ogni {@link it.epicode.gestioneviaggi.model.Viaggio}.
+ * Quando è attivo ({@code gestioneviaggi.posti.ledger.enabled=true}) le prenotazioni accettano o rifiutano
+ * i posti con un compare-and-set sul contatore del viaggio, senza accedere al database;
+ * le variazioni vengono scritte sulla tabella {@code viaggio} in batch, a intervalli regolari.
+ * All'avvio i contatori vengono ricostruiti dal database.
+ * <p>
+ * Il flush scrive differenze ({@code posti_disponibili = posti_disponibili + ?}), non valori assoluti:
+ * non sovrascrive le modifiche fatte da altri nel frattempo (modifica del viaggio, altre istanze).
+ * Limiti:
+ * <ul>
+ *   <li>Solo istanza singola: ogni istanza accetta le prenotazioni sul proprio contatore, quindi con più istanze
+ *   attive sugli stessi viaggi la somma delle prenotazioni può superare i posti.</li>
+ *   <li>Un arresto non pulito (crash, kill -9) perde le variazioni non ancora scritte, al massimo quelle
+ *   dell'ultimo {@code flush-ms}: la tabella resta con più posti di quelli realmente prenotati.</li>
+ * </ul>
+ */
+@Component
+public class PostiLedger {
+
+    private static final Logger logger = LoggerFactory.getLogger(PostiLedger.class);
+
+    private static final String UPDATE_POSTI = "update viaggio set posti_disponibili = posti_disponibili + ? where id = ?";
+
+    @Value("${gestioneviaggi.posti.ledger.enabled:false}")
+    private boolean attivo;
+
+    @Value("${gestioneviaggi.posti.ledger.flush-batch-size:500}")
+    private int dimensioneBatch;
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<Long, AtomicInteger> contatori = new ConcurrentHashMap<>();
+
+    // Variazione dei posti di ogni viaggio non ancora scritta sul database (negativa per le riserve).
+    // Le voci non vengono mai rimosse dal flush: un incremento concorrente finirebbe su un contatore non più in mappa
+    private final ConcurrentHashMap<Long, AtomicInteger> variazioni = new ConcurrentHashMap<>();
+
+    public boolean isAttivo() {
+        return attivo;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ricostruisci() {
+        if (!attivo) {
+            return;
+        }
+        List<ViaggioRepository.PostiViaggio> posti = viaggioRepository.findAllPostiDisponibili();
+        // putIfAbsent: i contatori caricati nel frattempo da una prenotazione restano quelli aggiornati
+        posti.forEach(p -> contatori.putIfAbsent(p.getId(), new AtomicInteger(p.getPostiDisponibili())));
+        logger.info("Ledger dei posti ricostruito per {} viaggi.", posti.size());
+    }
+
+    /**
+     * Scala i posti dal contatore del viaggio. Se la transazione corrente viene annullata,
+     * i posti vengono restituiti automaticamente.
+     * @throws NotFoundException se il viaggio non esiste.
+     * @throws ConflictException se i posti rimasti non bastano.
+     */
+    public void riserva(Long viaggioId, int posti) throws NotFoundException, ConflictException {
+        AtomicInteger contatore = contatore(viaggioId);
+        if (contatore == null) {
+            throw new NotFoundException("Viaggio con ID " + viaggioId + " non trovato.");
+        }
+        int attuali;
+        do {
+            attuali = contatore.get();
+            if (attuali < posti) {
+                throw new ConflictException("Non ci sono abbastanza posti disponibili per il viaggio selezionato. Posti rimasti: " + attuali);
+            }
+        } while (!contatore.compareAndSet(attuali, attuali - posti));
+        varia(viaggioId, -posti);
+
+        dopoCompletamento(viaggioId, posti, false);
+    }
+
+    /**
+     * Restituisce i posti al contatore del viaggio. Dentro una transazione i posti diventano
+     * prenotabili solo dopo il commit, così un rollback non può mai portare a un overbooking.
+     */
+    public void rilascia(Long viaggioId, int posti) {
+        if (!dopoCompletamento(viaggioId, posti, true)) {
+            aggiungi(viaggioId, posti);
+        }
+    }
+
+    // Registra un nuovo viaggio con i suoi posti iniziali
+    public void registra(Long viaggioId, int posti) {
+        if (attivo) {
+            contatori.put(viaggioId, new AtomicInteger(posti));
+        }
+    }
+
+    // Posti secondo il ledger, in anticipo sulla tabella di al massimo un flush; senza contatore in memoria vale il dato letto dal database
+    public int postiDisponibili(Long viaggioId, int postiDatabase) {
+        AtomicInteger contatore = attivo ? contatori.get(viaggioId) : null;
+        return contatore != null ? contatore.get() : postiDatabase;
+    }
+
+    public void rimuovi(Long viaggioId) {
+        contatori.remove(viaggioId);
+        variazioni.remove(viaggioId);
+    }
+
+    /**
+     * Scrive sul database, in batch, le variazioni dei posti accumulate dall'ultima esecuzione.
+     * Un flush alla volta: al ritorno anche le variazioni prese da un flush concorrente sono scritte.
+     */
+    @Scheduled(fixedDelayString = "${gestioneviaggi.posti.ledger.flush-ms:200}")
+    public synchronized void flush() {
+        if (!attivo) {
+            return;
+        }
+        List<Object[]> righe = new ArrayList<>();
+        variazioni.forEach((viaggioId, variazione) -> {
+            // Azzera prima di scrivere: una variazione successiva resta per il prossimo giro
+            int posti = variazione.getAndSet(0);
+            if (posti != 0) {
+                righe.add(new Object[]{posti, viaggioId});
+            }
+        });
+        if (righe.isEmpty()) {
+            return;
+        }
+        try {
+            // Tutti i blocchi in una transazione: dopo un errore nessuna differenza è stata applicata e si possono riprovare tutte
+            transactionTemplate.executeWithoutResult(stato -> {
+                for (int i = 0; i < righe.size(); i += dimensioneBatch) {
+                    jdbcTemplate.batchUpdate(UPDATE_POSTI, righe.subList(i, Math.min(i + dimensioneBatch, righe.size())));
+                }
+            });
+            logger.debug("Ledger dei posti: scritti {} viaggi.", righe.size());
+        } catch (DataAccessException | TransactionException e) {
+            logger.error("Scrittura del ledger dei posti fallita, nuovo tentativo al prossimo giro.", e);
+            righe.forEach(riga -> varia((Long) riga[1], (Integer) riga[0]));
+        }
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        flush();
+    }
+
+    private AtomicInteger contatore(Long viaggioId) {
+        AtomicInteger contatore = contatori.get(viaggioId);
+        if (contatore != null) {
+            return contatore;
+        }
+        // Viaggio non ancora in memoria (es. creato da un'altra istanza): lo carica dal database
+        return viaggioRepository.findPostiDisponibiliById(viaggioId)
+                .map(posti -> contatori.computeIfAbsent(viaggioId, id -> new AtomicInteger(posti)))
+                .orElse(null);
+    }
+
+    private void aggiungi(Long viaggioId, int posti) {
+        AtomicInteger contatore = contatore(viaggioId);
+        if (contatore != null) {
+            contatore.addAndGet(posti);
+            varia(viaggioId, posti);
+        }
+    }
+
+    private void varia(Long viaggioId, int posti) {
+        variazioni.computeIfAbsent(viaggioId, id -> new AtomicInteger()).addAndGet(posti);
+    }
+
+    // Restituisce i posti al termine della transazione: sempre se rilascio, solo in caso di rollback se riserva
+    private boolean dopoCompletamento(Long viaggioId, int posti, boolean rilascio) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (rilascio ? status == STATUS_COMMITTED : status == STATUS_ROLLED_BACK) {
+                    aggiungi(viaggioId, posti);
+                }
+            }
+        });
+        return true;
+    }
+}
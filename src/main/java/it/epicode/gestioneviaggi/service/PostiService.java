@@ -0,0 +1,71 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Punto unico per riservare e restituire i posti di un viaggio.
+ * Usa il {@link PostiLedger} in memoria se attivo, altrimenti un UPDATE condizionale sul database.
+ */
+@Service
+public class PostiService {
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    @Autowired
+    private PostiLedger postiLedger;
+
+    @Autowired
+    private VersioniRisorse versioniRisorse;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Riserva i posti sul viaggio indicato.
+     * @param viaggioId ID del viaggio.
+     * @param posti Numero di posti da riservare.
+     * @throws NotFoundException se il viaggio non esiste.
+     * @throws ConflictException se non ci sono abbastanza posti disponibili.
+     */
+    public void riserva(Long viaggioId, int posti) throws NotFoundException, ConflictException {
+        // Dopo il commit il viaggio esce dalla cache e cambia ETag, così i posti mostrati non restano vecchi
+        versioniRisorse.modificata(VersioniRisorse.VIAGGI, viaggioId);
+        try {
+            if (postiLedger.isAttivo()) {
+                postiLedger.riserva(viaggioId, posti);
+                return;
+            }
+            // Controllo e decremento avvengono nello stesso UPDATE condizionale: niente read-modify-write sul Viaggio
+            if (viaggioRepository.decrementaPostiDisponibili(viaggioId, posti) == 0) {
+                Viaggio viaggio = viaggioRepository.findById(viaggioId)
+                        .orElseThrow(() -> new NotFoundException("Viaggio con ID " + viaggioId + " non trovato."));
+                throw new ConflictException("Non ci sono abbastanza posti disponibili per il viaggio selezionato. Posti rimasti: " + viaggio.getPostiDisponibili());
+            }
+        } catch (ConflictException e) {
+            // Richieste rifiutate per posti esauriti: misura la contesa sui viaggi più richiesti
+            meterRegistry.counter("gestioneviaggi.posti.esauriti").increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Restituisce i posti al viaggio indicato.
+     * @param viaggioId ID del viaggio.
+     * @param posti Numero di posti da restituire.
+     */
+    public void rilascia(Long viaggioId, int posti) {
+        versioniRisorse.modificata(VersioniRisorse.VIAGGI, viaggioId);
+        if (postiLedger.isAttivo()) {
+            postiLedger.rilascia(viaggioId, posti);
+            return;
+        }
+        viaggioRepository.incrementaPostiDisponibili(viaggioId, posti);
+    }
+}
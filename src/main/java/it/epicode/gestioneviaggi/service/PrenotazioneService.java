@@ -3,24 +3,50 @@ package it.epicode.gestioneviaggi.service;
 import it.epicode.gestioneviaggi.model.Prenotazione;
 import it.epicode.gestioneviaggi.model.Dipendente;
 import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.dto.BloccoPostiDto;
+import it.epicode.gestioneviaggi.dto.EsitoPrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.ItinerarioDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
 import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
 import it.epicode.gestioneviaggi.repository.PrenotazioneRepository;
 import it.epicode.gestioneviaggi.repository.DipendenteRepository;
 import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.exception.ConflictException;
 import it.epicode.gestioneviaggi.exception.NotFoundException;
 import it.epicode.gestioneviaggi.exception.ValidationException;
 
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 @Service
+@Timed(value = "gestioneviaggi.servizi", histogram = true)
 public class PrenotazioneService {
 
     @Autowired
@@ -30,11 +56,34 @@ public class PrenotazioneService {
     private DipendenteRepository dipendenteRepository; // Per trovare il dipendente associato
     @Autowired
     private ViaggioRepository viaggioRepository;       // Per trovare il viaggio associato
+    @Autowired
+    private DipendenteService dipendenteService;       // Per verificare il dipendente tramite la cache
+    @Autowired
+    private PostiService postiService;                 // Per riservare e restituire i posti del viaggio
+    @Autowired
+    private ListaAttesaService listaAttesaService;     // Per passare i posti restituiti alle richieste in attesa
+    @Autowired
+    private BlocchiPostiService blocchiPostiService;   // Per confermare i posti bloccati durante il checkout
+    @Autowired
+    private StatisticheService statisticheService;     // Per aggiornare le statistiche di destinazioni e viaggi
+    @Autowired
+    private NdjsonWriter ndjsonWriter;                 // Per l'export in streaming
+    @Autowired
+    private MeterRegistry meterRegistry;               // Per contare i conflitti tra prenotazioni
+    @PersistenceContext
+    private EntityManager entityManager;               // Per gli id degli insert in batch
+
+    @Value("${gestioneviaggi.prenotazioni.batch-max:1000}")
+    private int dimensioneMassimaBatch;
+
+    // Estremi degli intervalli di date aperti, dentro l'intervallo del tipo date di Postgres
+    private static final LocalDate DATA_MINIMA = LocalDate.of(1, 1, 1);
+    private static final LocalDate DATA_MASSIMA = LocalDate.of(9999, 12, 31);
 
     // --- Metodi Helper di Mappatura ---
 
-    // Mappa un'entità Prenotazione a un DTO PrenotazioneDto
-    private PrenotazioneDto mapToPrenotazioneDto(Prenotazione prenotazione) {
+    // Mappa un'entità Prenotazione a un DTO PrenotazioneDto (package-private: misurato dai benchmark JMH in src/jmh)
+    PrenotazioneDto mapToPrenotazioneDto(Prenotazione prenotazione) {
         PrenotazioneDto dto = new PrenotazioneDto();
         dto.setId(prenotazione.getId());
         dto.setDataPrenotazione(prenotazione.getDataPrenotazione()); // Corrisponde al campo nel DTO
@@ -60,19 +109,63 @@ public class PrenotazioneService {
         return prenotazione;
     }
 
+    // Stesse validazioni di save(): restituisce il messaggio di errore, oppure null se la prenotazione è valida
+    private String verificaPrenotazione(PrenotazioneDto dto) {
+        if (dto == null || dto.getDipendenteId() == null || dto.getIdViaggio() == null || dto.getDataPrenotazione() == null) {
+            return "Dipendente, viaggio e data della prenotazione sono obbligatori.";
+        }
+        if (dto.getDataPrenotazione().isAfter(LocalDate.now())) {
+            return "La data della prenotazione non può essere nel futuro.";
+        }
+        if (dto.getNumeroPosti() <= 0) {
+            return "Il numero di posti deve essere almeno 1.";
+        }
+        return null;
+    }
+
+    private static EsitoPrenotazioneDto rifiutata(int indice, HttpStatus status, String errore) {
+        EsitoPrenotazioneDto esito = new EsitoPrenotazioneDto();
+        esito.setIndice(indice);
+        esito.setStatus(status.value());
+        esito.setErrore(errore);
+        return esito;
+    }
+
+    private static String messaggioGiaPrenotata(PrenotazioneDto dto) {
+        return "Il dipendente " + dto.getDipendenteId() + " ha già una prenotazione in data " + dto.getDataPrenotazione() + ".";
+    }
+
+    // Traduce la violazione del vincolo di unicità (dipendente, data) in un conflitto e lo conta;
+    // le altre violazioni (es. viaggio eliminato nel frattempo) restano invariate.
+    // Lo SQLState 23505 (unique_violation) basta: l'unico altro vincolo unico della tabella è la chiave primaria
+    private ConflictException conflittoPrenotazione(DataIntegrityViolationException e, PrenotazioneDto dto) {
+        if (e.getCause() instanceof ConstraintViolationException violazione && "23505".equals(violazione.getSQLState())) {
+            meterRegistry.counter("gestioneviaggi.prenotazioni.conflitti").increment();
+            return new ConflictException(messaggioGiaPrenotata(dto));
+        }
+        throw e;
+    }
+
+    // Chiave del vincolo di unicità (dipendente_id, data_prenotazione)
+    private record ChiavePrenotazione(Long dipendenteId, LocalDate data) {
+    }
+
     // --- Operazioni CRUD ---
 
     /**
      * Crea una nuova prenotazione nel sistema.
-     * Controlla la validità dei dati, la disponibilità dei posti e associa le entità correlate.
+     * Controlla la validità dei dati, riserva i posti tramite {@link PostiService}
+     * e inserisce la prenotazione nella stessa transazione.
      *
      * @param prenotazioneDto DTO contenente i dati della prenotazione da salvare.
      * @return Il DTO della prenotazione appena salvata.
-     * @throws ValidationException se i dati della prenotazione non sono validi o non ci sono posti.
+     * @throws ValidationException se i dati della prenotazione non sono validi.
      * @throws NotFoundException se il dipendente o il viaggio specificati non esistono.
+     * @throws ConflictException se non ci sono abbastanza posti disponibili.
      */
 
-    public PrenotazioneDto save(PrenotazioneDto prenotazioneDto) throws ValidationException, NotFoundException {
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto save(PrenotazioneDto prenotazioneDto) throws ValidationException, NotFoundException, ConflictException {
         // Validazioni iniziali sui dati del DTO
         if (prenotazioneDto.getDataPrenotazione().isAfter(LocalDate.now())) {
             throw new ValidationException("La data della prenotazione non può essere nel futuro.");
@@ -81,38 +174,261 @@ public class PrenotazioneService {
             throw new ValidationException("Il numero di posti deve essere almeno 1.");
         }
 
-        // Recupera le entità Dipendente e Viaggio usando gli ID dal DTO
-        Dipendente dipendente = dipendenteRepository.findById(prenotazioneDto.getDipendenteId())
-                .orElseThrow(() -> new NotFoundException("Dipendente con ID " + prenotazioneDto.getDipendenteId() + " non trovato."));
+        // Verifica che il Dipendente esista (lettura dalla cache) e usa solo un riferimento per l'associazione
+        dipendenteService.get(prenotazioneDto.getDipendenteId());
+        Dipendente dipendente = dipendenteRepository.getReferenceById(prenotazioneDto.getDipendenteId());
 
-        Viaggio viaggio = viaggioRepository.findById(prenotazioneDto.getIdViaggio())
-                .orElseThrow(() -> new NotFoundException("Viaggio con ID " + prenotazioneDto.getIdViaggio() + " non trovato."));
+        // Verifica e scala i posti disponibili in un'unica operazione (UPDATE condizionale o ledger in memoria)
+        postiService.riserva(prenotazioneDto.getIdViaggio(), prenotazioneDto.getNumeroPosti());
 
-        // Verifica la disponibilità dei posti nel viaggio
-        if (viaggio.getPostiDisponibili() < prenotazioneDto.getNumeroPosti()) {
-            throw new ValidationException("Non ci sono abbastanza posti disponibili per il viaggio selezionato. Posti rimasti: " + viaggio.getPostiDisponibili());
+        return inserisci(prenotazioneDto, dipendente);
+    }
+
+    /**
+     * Crea una nuova prenotazione oppure, se i posti non bastano, la mette in lista d'attesa
+     * invece di rifiutarla: verrà promossa quando altre prenotazioni restituiranno dei posti.
+     *
+     * @param prenotazioneDto DTO contenente i dati della prenotazione da salvare.
+     * @return L'esito: status 201 con la prenotazione creata, oppure 202 con la richiesta in attesa e la sua posizione.
+     * @throws ValidationException se i dati della prenotazione non sono validi.
+     * @throws NotFoundException se il dipendente o il viaggio specificati non esistono.
+     * @throws ConflictException se il dipendente ha già una prenotazione o una richiesta in attesa in quella data.
+     */
+
+    @Transactional(rollbackFor = Exception.class)
+    public EsitoPrenotazioneDto saveOppureAccoda(PrenotazioneDto prenotazioneDto) throws ValidationException, NotFoundException, ConflictException {
+        String errore = verificaPrenotazione(prenotazioneDto);
+        if (errore != null) {
+            throw new ValidationException(errore);
+        }
+        dipendenteService.get(prenotazioneDto.getDipendenteId());
+        Dipendente dipendente = dipendenteRepository.getReferenceById(prenotazioneDto.getDipendenteId());
+
+        // Con il viaggio bloccato una restituzione di posti concorrente vede la richiesta in coda, oppure è già conclusa
+        listaAttesaService.bloccaViaggio(prenotazioneDto.getIdViaggio());
+        EsitoPrenotazioneDto esito = new EsitoPrenotazioneDto();
+        try {
+            postiService.riserva(prenotazioneDto.getIdViaggio(), prenotazioneDto.getNumeroPosti());
+        } catch (ConflictException e) {
+            esito.setStatus(HttpStatus.ACCEPTED.value());
+            esito.setAttesa(listaAttesaService.accoda(prenotazioneDto));
+            return esito;
+        }
+        esito.setStatus(HttpStatus.CREATED.value());
+        esito.setPrenotazione(inserisci(prenotazioneDto, dipendente));
+        return esito;
+    }
+
+    /**
+     * Conferma un blocco di posti in una prenotazione. I posti sono già stati tolti al viaggio
+     * alla creazione del blocco: la conferma inserisce solo la prenotazione.
+     * Viaggio e numero di posti sono quelli del blocco; gli altri dati arrivano dal DTO.
+     *
+     * @param bloccoId ID del blocco da confermare.
+     * @param prenotazioneDto DTO con dipendente, data della prenotazione e note.
+     * @return Il DTO della prenotazione creata.
+     * @throws ValidationException se i dati della prenotazione non sono validi.
+     * @throws NotFoundException se il blocco è scaduto o inesistente, oppure il dipendente non esiste.
+     * @throws ConflictException se il dipendente ha già una prenotazione in quella data.
+     */
+
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto confermaBlocco(String bloccoId, PrenotazioneDto prenotazioneDto) throws ValidationException, NotFoundException, ConflictException {
+        BloccoPostiDto blocco = blocchiPostiService.get(bloccoId);
+        prenotazioneDto.setIdViaggio(blocco.getIdViaggio());
+        prenotazioneDto.setNumeroPosti(blocco.getPosti());
+        String errore = verificaPrenotazione(prenotazioneDto);
+        if (errore != null) {
+            throw new ValidationException(errore);
         }
+        dipendenteService.get(prenotazioneDto.getDipendenteId());
+        Dipendente dipendente = dipendenteRepository.getReferenceById(prenotazioneDto.getDipendenteId());
 
+        // Da qui il blocco non può più scadere; se l'insert fallisce torna attivo con il rollback
+        blocchiPostiService.prendi(bloccoId);
+        return inserisci(prenotazioneDto, dipendente);
+    }
+
+    // Inserisce la prenotazione dopo che i posti sono stati riservati
+    private PrenotazioneDto inserisci(PrenotazioneDto prenotazioneDto, Dipendente dipendente) throws ConflictException {
         // Crea la nuova entità Prenotazione e mappa i campi dal DTO
         Prenotazione prenotazione = new Prenotazione();
         prenotazione = mapToPrenotazioneEntity(prenotazioneDto, prenotazione);
         prenotazione.setDipendente(dipendente); // Associa il dipendente
-        prenotazione.setViaggio(viaggio);       // Associa il viaggio
-        // L'entità potrebbe avere anche `dataRichiesta` se diversa da `dataPrenotazione`,
-        // ma la logica qui è che `dataPrenotazione` è la data dell'effettiva prenotazione.
-        // Se `dataRichiesta` nell'entity è una data diversa, dovrai popolarla qui.
-        // Per ora, assumo che `dataPrenotazione` nel DTO si mappi a `dataPrenotazione` nell'entity.
-        // Se `dataRichiesta` nell'entity è la data di creazione della prenotazione, puoi impostarla:
-        // prenotazione.setDataRichiesta(LocalDate.now()); // Esempio se fosse la data di creazione
+        // Il viaggio è già stato verificato dall'update: basta un riferimento, senza ricaricarlo
+        prenotazione.setViaggio(viaggioRepository.getReferenceById(prenotazioneDto.getIdViaggio()));
+        // `dataRichiesta` è la data di creazione della prenotazione (colonna NOT NULL)
+        prenotazione.setDataRichiesta(LocalDate.now());
+
+        // Salva la prenotazione nel database: il vincolo (dipendente, data) è verificato subito, al flush
+        Prenotazione savedPrenotazione;
+        try {
+            savedPrenotazione = prenotazioneRepository.saveAndFlush(prenotazione);
+        } catch (DataIntegrityViolationException e) {
+            throw conflittoPrenotazione(e, prenotazioneDto);
+        }
+        statisticheService.prenotazioneAggiunta(prenotazioneDto.getIdViaggio(), prenotazioneDto.getNumeroPosti());
+        return mapToPrenotazioneDto(savedPrenotazione); // Restituisce il DTO della prenotazione salvata
+    }
+
+    /**
+     * Crea più prenotazioni in un'unica transazione, restituendo un esito per ciascuna.
+     * Dipendenti, viaggi e prenotazioni già esistenti vengono letti con una query per tipo,
+     * i posti vengono riservati con un solo aggiornamento per viaggio (o uno per prenotazione
+     * se non bastano per tutte) e gli insert vanno in un solo statement.
+     * Le prenotazioni rifiutate non impediscono il salvataggio delle altre, anche quando il vincolo
+     * (dipendente, data) scatta solo all'insert per una prenotazione concorrente: ne restituisce i posti.
+     *
+     * @param prenotazioniDto Lista dei DTO delle prenotazioni da salvare.
+     * @return La lista degli esiti, nello stesso ordine delle prenotazioni ricevute.
+     * @throws ValidationException se la lista è vuota o supera la dimensione massima.
+     */
+
+    @Transactional(rollbackFor = Exception.class)
+    public List<EsitoPrenotazioneDto> saveBatch(List<PrenotazioneDto> prenotazioniDto) throws ValidationException {
+        if (prenotazioniDto == null || prenotazioniDto.isEmpty()) {
+            throw new ValidationException("La lista delle prenotazioni non può essere vuota.");
+        }
+        if (prenotazioniDto.size() > dimensioneMassimaBatch) {
+            throw new ValidationException("Non si possono inviare più di " + dimensioneMassimaBatch + " prenotazioni per richiesta.");
+        }
+        EsitoPrenotazioneDto[] esiti = new EsitoPrenotazioneDto[prenotazioniDto.size()];
+
+        // Validazioni formali, senza accessi al database
+        List<Integer> valide = new ArrayList<>();
+        for (int i = 0; i < prenotazioniDto.size(); i++) {
+            String errore = verificaPrenotazione(prenotazioniDto.get(i));
+            if (errore != null) {
+                esiti[i] = rifiutata(i, HttpStatus.BAD_REQUEST, errore);
+            } else {
+                valide.add(i);
+            }
+        }
 
+        // Una query per i dipendenti, una per i viaggi e una per le prenotazioni già presenti
+        Set<Long> dipendentiIds = new HashSet<>();
+        Set<Long> viaggiIds = new HashSet<>();
+        Set<LocalDate> date = new HashSet<>();
+        for (int i : valide) {
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            dipendentiIds.add(dto.getDipendenteId());
+            viaggiIds.add(dto.getIdViaggio());
+            date.add(dto.getDataPrenotazione());
+        }
+        Set<Long> dipendentiEsistenti = new HashSet<>();
+        Set<Long> viaggiEsistenti = new HashSet<>();
+        Set<ChiavePrenotazione> giaPrenotate = new HashSet<>();
+        if (!valide.isEmpty()) {
+            dipendentiEsistenti.addAll(dipendenteRepository.findIdByIdIn(dipendentiIds));
+            viaggiEsistenti.addAll(viaggioRepository.findIdByIdIn(viaggiIds));
+            for (PrenotazioneDto esistente : prenotazioneRepository.findDtoByDipendentiAndDate(dipendentiIds, date)) {
+                giaPrenotate.add(new ChiavePrenotazione(esistente.getDipendenteId(), esistente.getDataPrenotazione()));
+            }
+        }
 
-        // Aggiorna il numero di posti disponibili nel viaggio
-        viaggio.setPostiDisponibili(viaggio.getPostiDisponibili() - prenotazioneDto.getNumeroPosti());
-        viaggioRepository.save(viaggio); // Salva il viaggio con i posti aggiornati
+        // Raggruppa per viaggio, scartando riferimenti inesistenti e duplicati (nel database o nel batch stesso)
+        Map<Long, List<Integer>> perViaggio = new LinkedHashMap<>();
+        for (int i : valide) {
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            if (!dipendentiEsistenti.contains(dto.getDipendenteId())) {
+                esiti[i] = rifiutata(i, HttpStatus.NOT_FOUND, "Dipendente con ID " + dto.getDipendenteId() + " non trovato.");
+            } else if (!viaggiEsistenti.contains(dto.getIdViaggio())) {
+                esiti[i] = rifiutata(i, HttpStatus.NOT_FOUND, "Viaggio con ID " + dto.getIdViaggio() + " non trovato.");
+            } else if (!giaPrenotate.add(new ChiavePrenotazione(dto.getDipendenteId(), dto.getDataPrenotazione()))) {
+                meterRegistry.counter("gestioneviaggi.prenotazioni.conflitti").increment();
+                esiti[i] = rifiutata(i, HttpStatus.CONFLICT, messaggioGiaPrenotata(dto));
+            } else {
+                perViaggio.computeIfAbsent(dto.getIdViaggio(), id -> new ArrayList<>()).add(i);
+            }
+        }
 
-        // Salva la prenotazione nel database
-        Prenotazione savedPrenotazione = prenotazioneRepository.save(prenotazione);
-        return mapToPrenotazioneDto(savedPrenotazione); // Restituisce il DTO della prenotazione salvata
+        // Riserva i posti: un solo aggiornamento per viaggio se bastano per tutte le sue prenotazioni,
+        // altrimenti una alla volta nell'ordine ricevuto, finché ci sono posti
+        List<Integer> accettate = new ArrayList<>();
+        for (Map.Entry<Long, List<Integer>> gruppo : perViaggio.entrySet()) {
+            Long viaggioId = gruppo.getKey();
+            int totale = gruppo.getValue().stream().mapToInt(i -> prenotazioniDto.get(i).getNumeroPosti()).sum();
+            try {
+                postiService.riserva(viaggioId, totale);
+                accettate.addAll(gruppo.getValue());
+            } catch (ConflictException | NotFoundException e) {
+                for (int i : gruppo.getValue()) {
+                    try {
+                        postiService.riserva(viaggioId, prenotazioniDto.get(i).getNumeroPosti());
+                        accettate.add(i);
+                    } catch (ConflictException ex) {
+                        esiti[i] = rifiutata(i, HttpStatus.CONFLICT, ex.getMessage());
+                    } catch (NotFoundException ex) {
+                        esiti[i] = rifiutata(i, HttpStatus.NOT_FOUND, ex.getMessage());
+                    }
+                }
+            }
+        }
+
+        // Insert in un solo statement, con gli id della sequenza pooled (nessun nextval per riga).
+        // Una prenotazione registrata da un'altra richiesta dopo la lettura iniziale non fa fallire la transazione
+        // (un flush JPA fallito la segnerebbe rollback-only): la riga viene saltata e diventa un conflitto
+        List<Prenotazione> nuove = nuovePrenotazioni(prenotazioniDto, accettate);
+        Set<Long> inserite = new HashSet<>(inserisci(nuove));
+        for (int k = 0; k < accettate.size(); k++) {
+            int i = accettate.get(k);
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            if (!inserite.contains(nuove.get(k).getId())) {
+                meterRegistry.counter("gestioneviaggi.prenotazioni.conflitti").increment();
+                esiti[i] = rifiutata(i, HttpStatus.CONFLICT, messaggioGiaPrenotata(dto));
+                postiService.rilascia(dto.getIdViaggio(), dto.getNumeroPosti()); // Annulla la riserva fatta sopra
+                continue;
+            }
+            EsitoPrenotazioneDto esito = new EsitoPrenotazioneDto();
+            esito.setIndice(i);
+            esito.setStatus(HttpStatus.CREATED.value());
+            esito.setPrenotazione(mapToPrenotazioneDto(nuove.get(k)));
+            esiti[i] = esito;
+            statisticheService.prenotazioneAggiunta(dto.getIdViaggio(), dto.getNumeroPosti());
+        }
+        return Arrays.asList(esiti);
+    }
+
+    // Nuove entità per le prenotazioni indicate, con l'id già assegnato e i riferimenti a dipendente e viaggio senza caricarli
+    private List<Prenotazione> nuovePrenotazioni(List<PrenotazioneDto> prenotazioniDto, List<Integer> indici) {
+        SharedSessionContractImplementor sessione = entityManager.unwrap(SharedSessionContractImplementor.class);
+        List<Prenotazione> nuove = new ArrayList<>(indici.size());
+        for (int i : indici) {
+            PrenotazioneDto dto = prenotazioniDto.get(i);
+            Prenotazione prenotazione = mapToPrenotazioneEntity(dto, new Prenotazione());
+            prenotazione.setDipendente(dipendenteRepository.getReferenceById(dto.getDipendenteId()));
+            prenotazione.setViaggio(viaggioRepository.getReferenceById(dto.getIdViaggio()));
+            prenotazione.setDataRichiesta(LocalDate.now());
+            // Stesso generatore (e stesso blocco di 50 id) usato da Hibernate per le entità
+            BeforeExecutionGenerator generatore = (BeforeExecutionGenerator) sessione.getEntityPersister(null, prenotazione).getGenerator();
+            prenotazione.setId((Long) generatore.generate(sessione, prenotazione, null, EventType.INSERT));
+            nuove.add(prenotazione);
+        }
+        return nuove;
+    }
+
+    // Inserisce le prenotazioni saltando quelle in conflitto sul vincolo (dipendente, data): restituisce gli id inseriti
+    private List<Long> inserisci(List<Prenotazione> nuove) {
+        if (nuove.isEmpty()) {
+            return List.of();
+        }
+        int n = nuove.size();
+        Long[] ids = new Long[n];
+        Long[] dipendentiIds = new Long[n];
+        Long[] viaggiIds = new Long[n];
+        LocalDate[] date = new LocalDate[n];
+        Integer[] posti = new Integer[n];
+        String[] note = new String[n];
+        for (int k = 0; k < n; k++) {
+            Prenotazione prenotazione = nuove.get(k);
+            ids[k] = prenotazione.getId();
+            dipendentiIds[k] = prenotazione.getDipendente().getId();
+            viaggiIds[k] = prenotazione.getViaggio().getId();
+            date[k] = prenotazione.getDataPrenotazione();
+            posti[k] = prenotazione.getNumeroPosti();
+            note[k] = prenotazione.getNotePreferenze();
+        }
+        return prenotazioneRepository.inserisciSaltandoConflitti(ids, dipendentiIds, viaggiIds, date, posti, note, LocalDate.now());
     }
 
     /**
@@ -121,10 +437,9 @@ public class PrenotazioneService {
      * @return Una lista di DTO di tutte le prenotazioni.
      */
 
+    @Transactional(readOnly = true)
     public List<PrenotazioneDto> get() {
-        return prenotazioneRepository.findAll().stream()
-                .map(this::mapToPrenotazioneDto)
-                .collect(Collectors.toList());
+        return prenotazioneRepository.findAllDto();
     }
 
     /**
@@ -135,10 +450,10 @@ public class PrenotazioneService {
      * @throws NotFoundException se la prenotazione con l'ID specificato non esiste.
      */
 
+    @Transactional(readOnly = true)
     public PrenotazioneDto get(Long id) throws NotFoundException {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
+        return prenotazioneRepository.findDtoById(id)
                 .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
-        return mapToPrenotazioneDto(prenotazione);
     }
 
     /**
@@ -148,37 +463,113 @@ public class PrenotazioneService {
      * @return Una pagina di DTO di prenotazioni.
      */
 
+    @Transactional(readOnly = true)
     public Page<PrenotazioneDto> get(Pageable pageable) {
-        return prenotazioneRepository.findAll(pageable)
-                .map(this::mapToPrenotazioneDto);
+        return prenotazioneRepository.findAllDto(pageable);
+    }
+
+    /**
+     * Recupera una pagina di prenotazioni con paginazione a cursore, ordinata per data della prenotazione e ID.
+     * A differenza di {@link #get(Pageable)} non usa OFFSET e non conta il totale degli elementi.
+     *
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di elementi nella pagina.
+     * @return Una pagina di DTO di prenotazioni con il cursore della pagina successiva.
+     * @throws ValidationException se il cursore o la dimensione della pagina non sono validi.
+     */
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<PrenotazioneDto> get(String cursor, int size) throws ValidationException {
+        Cursore.verificaSize(size);
+        Cursore cursore = Cursore.decodifica(cursor);
+        Limit limit = Limit.of(size + 1);
+        List<PrenotazioneDto> prenotazioni = cursore == null
+                ? prenotazioneRepository.findPrimaPagina(limit)
+                : prenotazioneRepository.findPaginaDopo(cursore.chiaveData(), cursore.id(), limit);
+        return Cursore.pagina(prenotazioni, size, p -> p.getDataPrenotazione().toString(), PrenotazioneDto::getId, p -> p);
+    }
+
+    /**
+     * Recupera l'itinerario di un dipendente: le sue prenotazioni con il riepilogo del viaggio,
+     * ordinate per data della prenotazione e ID, con paginazione a cursore.
+     * Ogni pagina è una sola query che scorre l'indice (dipendente_id, data_prenotazione, ...) dal cursore in poi:
+     * il costo dipende dalla dimensione della pagina, non dal numero di prenotazioni nella tabella.
+     *
+     * @param dipendenteId ID del dipendente.
+     * @param dal Prima data della prenotazione inclusa, oppure null.
+     * @param al Ultima data della prenotazione inclusa, oppure null.
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di elementi nella pagina.
+     * @return Una pagina dell'itinerario con il cursore della pagina successiva.
+     * @throws ValidationException se l'intervallo, il cursore o la dimensione della pagina non sono validi.
+     * @throws NotFoundException se il dipendente non esiste.
+     */
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<ItinerarioDto> getItinerario(Long dipendenteId, LocalDate dal, LocalDate al, String cursor, int size)
+            throws ValidationException, NotFoundException {
+        Cursore.verificaSize(size);
+        if (dal != null && al != null && dal.isAfter(al)) {
+            throw new ValidationException("La data di inizio dell'intervallo non può essere successiva alla data di fine.");
+        }
+        Cursore cursore = Cursore.decodifica(cursor);
+        LocalDate inizio = dal != null ? dal : DATA_MINIMA;
+        LocalDate fine = al != null ? al : DATA_MASSIMA;
+        // Senza cursore si parte da prima della prima prenotazione dell'intervallo
+        List<ItinerarioDto> righe = prenotazioneRepository.findItinerario(dipendenteId, inizio, fine,
+                cursore != null ? cursore.chiaveData() : inizio, cursore != null ? cursore.id() : Long.MIN_VALUE,
+                Limit.of(size + 1));
+        // Il dipendente si verifica solo se non ha prenotazioni: nel caso comune basta una query
+        if (righe.isEmpty() && cursore == null && !dipendenteRepository.existsById(dipendenteId)) {
+            throw new NotFoundException("Dipendente con ID " + dipendenteId + " non trovato");
+        }
+        return Cursore.pagina(righe, size, r -> r.getDataPrenotazione().toString(), ItinerarioDto::getIdPrenotazione, r -> r);
+    }
+
+    /**
+     * Esporta tutte le prenotazioni come NDJSON, scrivendo ogni riga appena letta dal database.
+     * Le righe sono proiettate direttamente sul DTO, senza entità nel persistence context:
+     * la memoria usata resta costante qualunque sia la dimensione della tabella.
+     *
+     * @param out Stream di output su cui scrivere.
+     * @return Il numero di prenotazioni esportate.
+     * @throws IOException se la scrittura sullo stream fallisce.
+     */
+
+    @Transactional(readOnly = true)
+    public long esporta(OutputStream out) throws IOException {
+        try (Stream<PrenotazioneDto> prenotazioni = prenotazioneRepository.streamAllDto()) {
+            return ndjsonWriter.scrivi(prenotazioni, out);
+        }
     }
 
     /**
      * Aggiorna una prenotazione esistente.
-     * Gestisce il cambiamento del numero di posti o del viaggio associato.
+     * Gestisce il cambiamento del numero di posti o del viaggio associato;
+     * i posti restituiti vanno prima alle richieste in lista d'attesa.
      *
      * @param id ID della prenotazione da aggiornare.
      * @param prenotazioneDto DTO contenente i nuovi dati della prenotazione.
      * @return Il DTO della prenotazione aggiornata.
      * @throws NotFoundException se la prenotazione, il dipendente o il viaggio non esistono.
-     * @throws ValidationException se i dati non sono validi o non ci sono abbastanza posti.
+     * @throws ValidationException se i dati non sono validi.
+     * @throws ConflictException se non ci sono abbastanza posti disponibili.
      */
 
-    public PrenotazioneDto update(Long id, PrenotazioneDto prenotazioneDto) throws NotFoundException, ValidationException {
-        // Recupera la prenotazione esistente
-        Prenotazione existingPrenotazione = prenotazioneRepository.findById(id)
+    @Transactional(rollbackFor = Exception.class)
+    public PrenotazioneDto update(Long id, PrenotazioneDto prenotazioneDto) throws NotFoundException, ValidationException, ConflictException {
+        // Recupera la prenotazione esistente, bloccandone la riga fino al commit
+        Prenotazione existingPrenotazione = prenotazioneRepository.findByIdPerAggiornamento(id)
                 .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
 
         // Salva il vecchio numero di posti e il vecchio viaggio prima delle modifiche
         int oldNumeroPosti = existingPrenotazione.getNumeroPosti();
-        Viaggio oldViaggio = existingPrenotazione.getViaggio();
-
-        // Recupera il nuovo dipendente e il nuovo viaggio (potrebbero essere gli stessi)
-        Dipendente newDipendente = dipendenteRepository.findById(prenotazioneDto.getDipendenteId())
-                .orElseThrow(() -> new NotFoundException("Dipendente con ID " + prenotazioneDto.getDipendenteId() + " non trovato."));
+        Long oldViaggioId = existingPrenotazione.getViaggio().getId();
+        Long newViaggioId = prenotazioneDto.getIdViaggio();
 
-        Viaggio newViaggio = viaggioRepository.findById(prenotazioneDto.getIdViaggio())
-                .orElseThrow(() -> new NotFoundException("Viaggio con ID " + prenotazioneDto.getIdViaggio() + " non trovato."));
+        // Verifica il nuovo dipendente (potrebbe essere lo stesso) tramite la cache
+        dipendenteService.get(prenotazioneDto.getDipendenteId());
+        Dipendente newDipendente = dipendenteRepository.getReferenceById(prenotazioneDto.getDipendenteId());
 
         // Validazioni sui dati del DTO
         if (prenotazioneDto.getDataPrenotazione().isAfter(LocalDate.now())) {
@@ -188,56 +579,61 @@ public class PrenotazioneService {
             throw new ValidationException("Il numero di posti deve essere almeno 1.");
         }
 
-        // Logica per aggiornare i posti disponibili se il viaggio cambia o il numero di posti cambia
-        if (!oldViaggio.getId().equals(newViaggio.getId())) {
-            // Il viaggio è cambiato: ripristina i posti nel vecchio viaggio e sottrai dal nuovo
-            oldViaggio.setPostiDisponibili(oldViaggio.getPostiDisponibili() + oldNumeroPosti);
-            viaggioRepository.save(oldViaggio); // Salva il ripristino per il vecchio viaggio
-
-            if (newViaggio.getPostiDisponibili() < prenotazioneDto.getNumeroPosti()) {
-                // Non ci sono posti sufficienti nel nuovo viaggio per la prenotazione
-                throw new ValidationException("Non ci sono abbastanza posti disponibili nel nuovo viaggio. Posti rimasti: " + newViaggio.getPostiDisponibili());
-            }
-            newViaggio.setPostiDisponibili(newViaggio.getPostiDisponibili() - prenotazioneDto.getNumeroPosti());
-
+        // Aggiorna i posti disponibili se il viaggio o il numero di posti cambia.
+        // In caso di errore la transazione annulla anche le variazioni già applicate.
+        if (!oldViaggioId.equals(newViaggioId)) {
+            // Il viaggio è cambiato: ripristina i posti nel vecchio viaggio (prima alla sua lista d'attesa) e sottrai dal nuovo
+            listaAttesaService.restituisciPosti(oldViaggioId, oldNumeroPosti);
+            postiService.riserva(newViaggioId, prenotazioneDto.getNumeroPosti());
+            existingPrenotazione.setViaggio(viaggioRepository.getReferenceById(newViaggioId));
         } else {
             // Il viaggio è lo stesso, gestisci solo la variazione del numero di posti
             int deltaPosti = prenotazioneDto.getNumeroPosti() - oldNumeroPosti;
-            if (newViaggio.getPostiDisponibili() < deltaPosti) {
-                throw new ValidationException("Non ci sono abbastanza posti disponibili per questa modifica. Posti rimasti: " + newViaggio.getPostiDisponibili());
+            if (deltaPosti > 0) {
+                postiService.riserva(newViaggioId, deltaPosti);
+            } else if (deltaPosti < 0) {
+                listaAttesaService.restituisciPosti(newViaggioId, -deltaPosti);
             }
-            newViaggio.setPostiDisponibili(newViaggio.getPostiDisponibili() - deltaPosti);
         }
 
-        viaggioRepository.save(newViaggio); // Salva l'aggiornamento dei posti nel nuovo/stesso viaggio
-
         // Aggiorna l'entità Prenotazione con i nuovi dati dal DTO
         existingPrenotazione = mapToPrenotazioneEntity(prenotazioneDto, existingPrenotazione);
         existingPrenotazione.setDipendente(newDipendente); // Associa il nuovo dipendente
-        existingPrenotazione.setViaggio(newViaggio);       // Associa il nuovo viaggio
 
-        Prenotazione updatedPrenotazione = prenotazioneRepository.save(existingPrenotazione);
+        Prenotazione updatedPrenotazione;
+        try {
+            updatedPrenotazione = prenotazioneRepository.saveAndFlush(existingPrenotazione);
+        } catch (DataIntegrityViolationException e) {
+            throw conflittoPrenotazione(e, prenotazioneDto);
+        }
+        if (!oldViaggioId.equals(newViaggioId) || oldNumeroPosti != prenotazioneDto.getNumeroPosti()) {
+            statisticheService.prenotazioneRimossa(oldViaggioId, oldNumeroPosti);
+            statisticheService.prenotazioneAggiunta(newViaggioId, prenotazioneDto.getNumeroPosti());
+        }
         return mapToPrenotazioneDto(updatedPrenotazione);
     }
 
     /**
      * Elimina una prenotazione esistente e ripristina i posti nel viaggio associato.
+     * I posti vanno prima alle richieste in lista d'attesa del viaggio, nella stessa transazione.
      *
      * @param id ID della prenotazione da eliminare.
      * @throws NotFoundException se la prenotazione non esiste.
      */
 
+    @Transactional(rollbackFor = Exception.class)
     public void delete(Long id) throws NotFoundException {
-        Prenotazione prenotazione = prenotazioneRepository.findById(id)
+        // Riga bloccata: una modifica concorrente non può cambiare i posti dopo averli letti
+        Prenotazione prenotazione = prenotazioneRepository.findByIdPerAggiornamento(id)
                 .orElseThrow(() -> new NotFoundException("Prenotazione con ID " + id + " non trovata"));
 
-        // Ripristina i posti disponibili nel viaggio
-        Viaggio viaggio = prenotazione.getViaggio();
-        if (viaggio != null) {
-            viaggio.setPostiDisponibili(viaggio.getPostiDisponibili() + prenotazione.getNumeroPosti());
-            viaggioRepository.save(viaggio); // Salva il viaggio con i posti ripristinati
-        }
+        // Eliminata prima della promozione: il dipendente può essere in attesa sullo stesso viaggio per la stessa data
+        prenotazioneRepository.delete(prenotazione);
 
-        prenotazioneRepository.deleteById(id);
+        // Ripristina i posti disponibili nel viaggio, passandoli prima alle richieste in lista d'attesa
+        if (prenotazione.getViaggio() != null) {
+            statisticheService.prenotazioneRimossa(prenotazione.getViaggio().getId(), prenotazione.getNumeroPosti());
+            listaAttesaService.restituisciPosti(prenotazione.getViaggio().getId(), prenotazione.getNumeroPosti());
+        }
     }
 }
\ No newline at end of file
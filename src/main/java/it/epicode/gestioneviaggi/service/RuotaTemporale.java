@@ -0,0 +1,56 @@
+package it.epicode.gestioneviaggi.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Ruota temporale (hashed timing wheel) per scadenze in O(1): ogni elemento va nello slot del tick
+ * in cui scade, e a ogni tick si esamina solo lo slot corrente. Le scadenze oltre un giro di ruota
+ * restano nello slot e vengono ignorate finché non arriva il loro tick.
+ * Gli elementi annullati prima della scadenza non vanno rimossi: chi li riceve da {@link #avanza} li ignora.
+ */
+class RuotaTemporale<T> {
+
+    private record Voce<T>(T elemento, long tick) {
+    }
+
+    private final long durataTick;
+    private final ArrayDeque<Voce<T>>[] slot;
+    private long tickCorrente;
+
+    @SuppressWarnings("unchecked")
+    RuotaTemporale(long durataTickMs, int numeroSlot, long adessoMs) {
+        this.durataTick = durataTickMs;
+        this.slot = new ArrayDeque[numeroSlot];
+        for (int i = 0; i < numeroSlot; i++) {
+            slot[i] = new ArrayDeque<>();
+        }
+        this.tickCorrente = adessoMs / durataTickMs;
+    }
+
+    // Arrotonda per eccesso: un elemento non scade mai prima della sua scadenza
+    synchronized void aggiungi(T elemento, long scadenzaMs) {
+        long tick = Math.max(tickCorrente + 1, (scadenzaMs + durataTick - 1) / durataTick);
+        slot[(int) (tick % slot.length)].add(new Voce<>(elemento, tick));
+    }
+
+    // Avanza fino all'istante indicato (anche di più tick, se in ritardo) e restituisce gli elementi scaduti
+    synchronized List<T> avanza(long adessoMs) {
+        List<T> scaduti = new ArrayList<>();
+        long ultimo = adessoMs / durataTick;
+        for (long tick = tickCorrente + 1; tick <= ultimo; tick++) {
+            Iterator<Voce<T>> voci = slot[(int) (tick % slot.length)].iterator();
+            while (voci.hasNext()) {
+                Voce<T> voce = voci.next();
+                if (voce.tick() <= tick) {
+                    voci.remove();
+                    scaduti.add(voce.elemento());
+                }
+            }
+        }
+        tickCorrente = Math.max(tickCorrente, ultimo);
+        return scaduti;
+    }
+}
@@ -0,0 +1,354 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.StatisticheDestinazioneDto;
+import it.epicode.gestioneviaggi.dto.StatisticheViaggioDto;
+import it.epicode.gestioneviaggi.dto.VerificaStatisticheDto;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.BloccoPostiRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Statistiche in memoria per i cruscotti: prenotazioni per destinazione e mese del viaggio, e riempimento
+ * di ogni viaggio. {@link PrenotazioneService}, {@link ListaAttesaService} e {@link ViaggioService} aggiornano
+ * i contatori a ogni scrittura, dopo il commit; all'avvio vengono ricostruiti con un unico conteggio dal database.
+ * Le letture scorrono solo l'intervallo richiesto delle mappe ordinate, senza leggere le prenotazioni.
+ * La capienza di un viaggio è fissata alla creazione (alla ricostruzione: posti disponibili, prenotati e bloccati).
+ * Come {@link IndiceDestinazioni} sono locali all'istanza: le scritture di altre istanze compaiono alla
+ * ricostruzione successiva, e {@link #verifica()} confronta i contatori con un riconteggio completo.
+ */
+@Service
+public class StatisticheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatisticheService.class);
+
+    private static final Comparator<ChiaveViaggio> PER_DATA = Comparator
+            .comparing(ChiaveViaggio::data)
+            .thenComparing(ChiaveViaggio::id);
+
+    private static final Comparator<ChiaveMese> PER_MESE = Comparator
+            .comparing(ChiaveMese::mese)
+            .thenComparing(ChiaveMese::destinazione);
+
+    @Autowired
+    private ViaggioRepository viaggioRepository;
+
+    @Autowired
+    private BloccoPostiRepository bloccoPostiRepository;
+
+    @Autowired
+    private PostiLedger postiLedger; // Con il ledger attivo la tabella può essere indietro di un flush
+
+    @Value("${gestioneviaggi.statistiche.differenze-max:100}")
+    private int differenzeMassime;
+
+    // Letti senza lock; le scritture sono sincronizzate su this
+    private volatile Aggregati aggregati = new Aggregati();
+
+    private record ChiaveViaggio(LocalDate data, Long id) {
+    }
+
+    // La destinazione è in forma normalizzata (vedi Viaggio#normalizza): le grafie diverse finiscono insieme
+    private record ChiaveMese(YearMonth mese, String destinazione) {
+    }
+
+    // Contatori di un viaggio: immutabili, sostituiti a ogni variazione
+    private record Occupazione(Long id, String destinazione, LocalDate data, int capienza, int prenotazioni, int posti) {
+
+        ChiaveViaggio chiave() {
+            return new ChiaveViaggio(data, id);
+        }
+
+        ChiaveMese mese() {
+            return new ChiaveMese(YearMonth.from(data), Viaggio.normalizza(destinazione));
+        }
+    }
+
+    // Totali di una destinazione in un mese; il nome mostrato è la prima grafia incontrata
+    private record Aggregato(String destinazione, int viaggi, int capienza, int prenotazioni, int posti) {
+
+        Aggregato varia(int viaggi, int capienza, int prenotazioni, int posti) {
+            return new Aggregato(destinazione, this.viaggi + viaggi, this.capienza + capienza,
+                    this.prenotazioni + prenotazioni, this.posti + posti);
+        }
+    }
+
+    // Le tre viste degli stessi contatori, sostituite insieme dalla ricostruzione
+    private static final class Aggregati {
+        final ConcurrentHashMap<Long, Occupazione> perId = new ConcurrentHashMap<>();
+        final ConcurrentSkipListMap<ChiaveViaggio, Occupazione> perData = new ConcurrentSkipListMap<>(PER_DATA);
+        final ConcurrentSkipListMap<ChiaveMese, Aggregato> perMese = new ConcurrentSkipListMap<>(PER_MESE);
+
+        void aggiungi(Occupazione occupazione) {
+            perId.put(occupazione.id(), occupazione);
+            perData.put(occupazione.chiave(), occupazione);
+            perMese.merge(occupazione.mese(),
+                    new Aggregato(occupazione.destinazione(), 1, occupazione.capienza(), occupazione.prenotazioni(), occupazione.posti()),
+                    (esistente, nuovo) -> esistente.varia(1, nuovo.capienza(), nuovo.prenotazioni(), nuovo.posti()));
+        }
+
+        Occupazione rimuovi(Long id) {
+            Occupazione occupazione = perId.remove(id);
+            if (occupazione != null) {
+                perData.remove(occupazione.chiave());
+                perMese.computeIfPresent(occupazione.mese(), (chiave, aggregato) -> aggregato.viaggi() <= 1 ? null
+                        : aggregato.varia(-1, -occupazione.capienza(), -occupazione.prenotazioni(), -occupazione.posti()));
+            }
+            return occupazione;
+        }
+
+        void varia(Long id, int prenotazioni, int posti) {
+            Occupazione occupazione = perId.get(id);
+            if (occupazione == null) {
+                // Viaggio creato da un'altra istanza o durante la ricostruzione: lo riallinea la prossima ricostruzione
+                return;
+            }
+            Occupazione variata = new Occupazione(id, occupazione.destinazione(), occupazione.data(), occupazione.capienza(),
+                    occupazione.prenotazioni() + prenotazioni, occupazione.posti() + posti);
+            perId.put(id, variata);
+            perData.put(variata.chiave(), variata);
+            perMese.computeIfPresent(variata.mese(), (chiave, aggregato) -> aggregato.varia(0, 0, prenotazioni, posti));
+        }
+    }
+
+    /**
+     * Ricarica i contatori dal database all'avvio.
+     * Le scritture fatte durante il conteggio possono andare perse fino alla ricostruzione successiva.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ricostruisci() {
+        Aggregati nuovi = conta();
+        synchronized (this) {
+            aggregati = nuovi;
+        }
+        logger.info("Statistiche ricostruite: {} viaggi, {} destinazioni per mese.", nuovi.perId.size(), nuovi.perMese.size());
+    }
+
+    // Un'unica query aggregata: una riga per viaggio con il numero di prenotazioni e di posti prenotati.
+    // I posti dei blocchi attivi sono tolti dai disponibili ma non prenotati: senza sommarli la capienza risulterebbe più bassa
+    private Aggregati conta() {
+        Aggregati conteggio = new Aggregati();
+        Map<Long, Long> bloccati = new HashMap<>();
+        for (BloccoPostiRepository.PostiBloccati riga : bloccoPostiRepository.sumPostiPerViaggio()) {
+            bloccati.put(riga.getViaggioId(), riga.getPosti());
+        }
+        for (ViaggioRepository.PrenotazioniViaggio riga : viaggioRepository.countPrenotazioniPerViaggio()) {
+            if (riga.getDestinazione() == null || riga.getData() == null) {
+                continue;
+            }
+            int posti = (int) riga.getPosti();
+            int disponibili = postiLedger.postiDisponibili(riga.getId(), riga.getPostiDisponibili());
+            conteggio.aggiungi(new Occupazione(riga.getId(), riga.getDestinazione().trim(), riga.getData(),
+                    disponibili + posti + bloccati.getOrDefault(riga.getId(), 0L).intValue(), (int) riga.getPrenotazioni(), posti));
+        }
+        return conteggio;
+    }
+
+    // --- Aggiornamenti dalle scritture ---
+
+    /**
+     * Registra un nuovo viaggio, senza prenotazioni.
+     * @param capienza I posti disponibili alla creazione.
+     */
+    public void viaggioCreato(Long id, String destinazione, LocalDate data, int capienza) {
+        if (destinazione == null || data == null) {
+            return;
+        }
+        dopoIlCommit(() -> aggregati.aggiungi(new Occupazione(id, destinazione.trim(), data, capienza, 0, 0)));
+    }
+
+    /**
+     * Sposta i contatori del viaggio sulla nuova destinazione e data.
+     */
+    public void viaggioModificato(Long id, String destinazione, LocalDate data) {
+        dopoIlCommit(() -> {
+            Occupazione occupazione = aggregati.rimuovi(id);
+            if (occupazione != null && destinazione != null && data != null) {
+                aggregati.aggiungi(new Occupazione(id, destinazione.trim(), data, occupazione.capienza(),
+                        occupazione.prenotazioni(), occupazione.posti()));
+            }
+        });
+    }
+
+    public void viaggioEliminato(Long id) {
+        dopoIlCommit(() -> aggregati.rimuovi(id));
+    }
+
+    public void prenotazioneAggiunta(Long viaggioId, int posti) {
+        dopoIlCommit(() -> aggregati.varia(viaggioId, 1, posti));
+    }
+
+    public void prenotazioneRimossa(Long viaggioId, int posti) {
+        dopoIlCommit(() -> aggregati.varia(viaggioId, -1, -posti));
+    }
+
+    // Dentro una transazione la modifica ha effetto dopo il commit; se la transazione viene annullata non cambia nulla
+    private void dopoIlCommit(Runnable modifica) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applica(modifica);
+                }
+            });
+        } else {
+            applica(modifica);
+        }
+    }
+
+    private synchronized void applica(Runnable modifica) {
+        modifica.run();
+    }
+
+    // --- Letture ---
+
+    /**
+     * Prenotazioni e riempimento per destinazione e mese della data del viaggio, ordinati per mese e destinazione.
+     * @param dal Primo mese incluso, oppure null.
+     * @param al Ultimo mese incluso, oppure null.
+     * @return Una riga per ogni destinazione con almeno un viaggio nel mese.
+     * @throws ValidationException se dal è successivo ad al.
+     */
+    public List<StatisticheDestinazioneDto> perDestinazione(YearMonth dal, YearMonth al) throws ValidationException {
+        if (dal != null && al != null && dal.isAfter(al)) {
+            throw new ValidationException("Il mese di inizio non può essere successivo al mese di fine.");
+        }
+        NavigableMap<ChiaveMese, Aggregato> mesi = aggregati.perMese;
+        if (dal != null) {
+            mesi = mesi.tailMap(new ChiaveMese(dal, ""), true);
+        }
+        if (al != null) {
+            mesi = mesi.headMap(new ChiaveMese(al.plusMonths(1), ""), false);
+        }
+        List<StatisticheDestinazioneDto> righe = new ArrayList<>();
+        mesi.forEach((chiave, aggregato) -> {
+            StatisticheDestinazioneDto dto = new StatisticheDestinazioneDto();
+            dto.setDestinazione(aggregato.destinazione());
+            dto.setMese(chiave.mese());
+            dto.setViaggi(aggregato.viaggi());
+            dto.setCapienza(aggregato.capienza());
+            dto.setPrenotazioni(aggregato.prenotazioni());
+            dto.setPostiPrenotati(aggregato.posti());
+            dto.setTassoRiempimento(tasso(aggregato.posti(), aggregato.capienza()));
+            righe.add(dto);
+        });
+        return righe;
+    }
+
+    /**
+     * Riempimento dei viaggi con data nell'intervallo, ordinati per data e ID.
+     * @param dal Prima data inclusa, oppure null.
+     * @param al Ultima data inclusa, oppure null.
+     * @return Una riga per viaggio.
+     * @throws ValidationException se dal è successiva ad al.
+     */
+    public List<StatisticheViaggioDto> perViaggio(LocalDate dal, LocalDate al) throws ValidationException {
+        if (dal != null && al != null && dal.isAfter(al)) {
+            throw new ValidationException("La data di inizio dell'intervallo non può essere successiva alla data di fine.");
+        }
+        NavigableMap<ChiaveViaggio, Occupazione> viaggi = aggregati.perData;
+        if (dal != null) {
+            viaggi = viaggi.tailMap(new ChiaveViaggio(dal, Long.MIN_VALUE), true);
+        }
+        if (al != null) {
+            viaggi = viaggi.headMap(new ChiaveViaggio(al.plusDays(1), Long.MIN_VALUE), false);
+        }
+        List<StatisticheViaggioDto> righe = new ArrayList<>();
+        for (Occupazione occupazione : viaggi.values()) {
+            StatisticheViaggioDto dto = new StatisticheViaggioDto();
+            dto.setIdViaggio(occupazione.id());
+            dto.setDestinazione(occupazione.destinazione());
+            dto.setData(occupazione.data());
+            dto.setCapienza(occupazione.capienza());
+            dto.setPrenotazioni(occupazione.prenotazioni());
+            dto.setPostiPrenotati(occupazione.posti());
+            dto.setTassoRiempimento(tasso(occupazione.posti(), occupazione.capienza()));
+            righe.add(dto);
+        }
+        return righe;
+    }
+
+    private static double tasso(int posti, int capienza) {
+        return capienza > 0 ? (double) posti / capienza : 0;
+    }
+
+    /**
+     * Confronta i contatori in memoria con un riconteggio completo dal database: viaggi, prenotazioni e posti
+     * prenotati, per viaggio e per destinazione e mese. La capienza non viene confrontata.
+     * Con scritture in corso può riportare differenze transitorie: vanno confermate da una seconda verifica.
+     * @return L'esito, con le prime differenze trovate.
+     */
+    public VerificaStatisticheDto verifica() {
+        Aggregati attesi = conta();
+        Aggregati attuali = aggregati;
+        List<String> differenze = new ArrayList<>();
+
+        Set<Long> ids = new HashSet<>(attesi.perId.keySet());
+        ids.addAll(attuali.perId.keySet());
+        for (Long id : ids) {
+            Occupazione attesa = attesi.perId.get(id);
+            Occupazione attuale = attuali.perId.get(id);
+            String elemento = "Viaggio " + id;
+            if (attuale == null) {
+                differenze.add(elemento + ": assente dalle statistiche.");
+            } else if (attesa == null) {
+                differenze.add(elemento + ": nelle statistiche ma non nel database.");
+            } else {
+                confronta(differenze, elemento, "destinazione", attuale.destinazione(), attesa.destinazione());
+                confronta(differenze, elemento, "data", attuale.data(), attesa.data());
+                confronta(differenze, elemento, "prenotazioni", attuale.prenotazioni(), attesa.prenotazioni());
+                confronta(differenze, elemento, "posti prenotati", attuale.posti(), attesa.posti());
+            }
+        }
+
+        Set<ChiaveMese> mesi = new HashSet<>(attesi.perMese.keySet());
+        mesi.addAll(attuali.perMese.keySet());
+        for (ChiaveMese mese : mesi) {
+            Aggregato atteso = attesi.perMese.getOrDefault(mese, new Aggregato(mese.destinazione(), 0, 0, 0, 0));
+            Aggregato attuale = attuali.perMese.getOrDefault(mese, new Aggregato(mese.destinazione(), 0, 0, 0, 0));
+            String elemento = "Destinazione " + mese.destinazione() + " " + mese.mese();
+            confronta(differenze, elemento, "viaggi", attuale.viaggi(), atteso.viaggi());
+            confronta(differenze, elemento, "prenotazioni", attuale.prenotazioni(), atteso.prenotazioni());
+            confronta(differenze, elemento, "posti prenotati", attuale.posti(), atteso.posti());
+        }
+
+        VerificaStatisticheDto esito = new VerificaStatisticheDto();
+        esito.setCoerente(differenze.isEmpty());
+        esito.setViaggiControllati(attesi.perId.size());
+        esito.setDifferenzeTotali(differenze.size());
+        esito.setDifferenze(List.copyOf(differenze.subList(0, Math.min(differenze.size(), differenzeMassime))));
+        if (!differenze.isEmpty()) {
+            logger.warn("Statistiche non coerenti con il database: {} differenze, la prima: {}", differenze.size(), differenze.get(0));
+        }
+        return esito;
+    }
+
+    private static void confronta(List<String> differenze, String elemento, String campo, Object inMemoria, Object nelDatabase) {
+        if (!Objects.equals(inMemoria, nelDatabase)) {
+            differenze.add(elemento + ": " + campo + " " + inMemoria + " invece di " + nelDatabase + ".");
+        }
+    }
+}
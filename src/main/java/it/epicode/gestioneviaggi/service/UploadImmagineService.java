@@ -0,0 +1,187 @@
+package it.epicode.gestioneviaggi.service;
+
+import it.epicode.gestioneviaggi.dto.UploadImmagineDto;
+import it.epicode.gestioneviaggi.enumeration.StatoUpload;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caricamento asincrono delle immagini profilo.
+ * Il file ricevuto viene spostato in un file temporaneo senza passare dalla heap,
+ * poi un pool di worker limitato lo carica su Cloudinary e aggiorna il dipendente.
+ */
+@Service
+public class UploadImmagineService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadImmagineService.class);
+
+    @Autowired
+    private DipendenteRepository dipendenteRepository;
+
+    @Autowired
+    private DipendenteService dipendenteService;
+
+    @Autowired
+    private ImmagineUploader immagineUploader;
+
+    @Value("${gestioneviaggi.upload.workers:4}")
+    private int workers;
+
+    @Value("${gestioneviaggi.upload.coda:32}")
+    private int capacitaCoda;
+
+    @Value("${gestioneviaggi.upload.conservazione-minuti:60}")
+    private long conservazioneMinuti;
+
+    private final Map<String, UploadImmagineDto> jobs = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void avvia() {
+        AtomicInteger contatore = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacitaCoda),
+                r -> new Thread(r, "upload-immagine-" + contatore.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void ferma() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Salva il file su disco e accoda il caricamento dell'immagine profilo.
+     * @param dipendenteId ID del dipendente.
+     * @param file File dell'immagine da caricare.
+     * @return Lo stato del job appena accodato.
+     * @throws NotFoundException se il dipendente non è trovato.
+     * @throws ValidationException se il file è vuoto.
+     * @throws IOException se non è possibile salvare il file temporaneo.
+     * @throws RejectedExecutionException se la coda dei caricamenti è piena.
+     */
+    public UploadImmagineDto avvia(Long dipendenteId, MultipartFile file) throws NotFoundException, ValidationException, IOException {
+        if (!dipendenteRepository.existsById(dipendenteId)) {
+            throw new NotFoundException("Dipendente con ID " + dipendenteId + " non trovato");
+        }
+        if (file.isEmpty()) {
+            throw new ValidationException("Il file non può essere vuoto");
+        }
+
+        // transferTo sposta (o copia in streaming) la parte multipart già scritta su disco da Tomcat
+        Path temporaneo = Files.createTempFile("immagine-profilo-", ".upload");
+        try {
+            file.transferTo(temporaneo);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaneo);
+            throw e;
+        }
+
+        UploadImmagineDto job = new UploadImmagineDto();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setDipendenteId(dipendenteId);
+        job.setStato(StatoUpload.IN_CODA);
+        job.setCreatoIl(LocalDateTime.now());
+        jobs.put(job.getJobId(), job);
+
+        try {
+            executor.execute(() -> carica(job, temporaneo));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            Files.deleteIfExists(temporaneo);
+            throw e;
+        }
+        return copia(job);
+    }
+
+    /**
+     * Recupera lo stato di un caricamento.
+     * @param dipendenteId ID del dipendente proprietario del job.
+     * @param jobId ID del job.
+     * @return Lo stato del job.
+     * @throws NotFoundException se il job non esiste (o è scaduto) o appartiene a un altro dipendente.
+     */
+    public UploadImmagineDto get(Long dipendenteId, String jobId) throws NotFoundException {
+        UploadImmagineDto job = jobs.get(jobId);
+        if (job == null || !job.getDipendenteId().equals(dipendenteId)) {
+            throw new NotFoundException("Caricamento " + jobId + " non trovato per il dipendente con ID " + dipendenteId);
+        }
+        return copia(job);
+    }
+
+    // Rimuove i job conclusi da più del tempo di conservazione
+    @Scheduled(fixedDelay = 60_000)
+    public void pulisci() {
+        LocalDateTime limite = LocalDateTime.now().minusMinutes(conservazioneMinuti);
+        jobs.values().removeIf(job -> job.getCompletatoIl() != null && job.getCompletatoIl().isBefore(limite));
+    }
+
+    private void carica(UploadImmagineDto job, Path temporaneo) {
+        aggiorna(job, StatoUpload.IN_CORSO, null, null);
+        try {
+            String imageUrl = immagineUploader.carica(temporaneo);
+            dipendenteService.aggiornaImmagineProfiloUrl(job.getDipendenteId(), imageUrl);
+            aggiorna(job, StatoUpload.COMPLETATO, imageUrl, null);
+        } catch (Exception e) {
+            logger.error("Caricamento dell'immagine profilo {} del dipendente {} fallito.", job.getJobId(), job.getDipendenteId(), e);
+            aggiorna(job, StatoUpload.FALLITO, null, e.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(temporaneo);
+            } catch (IOException e) {
+                logger.warn("Impossibile eliminare il file temporaneo {}.", temporaneo, e);
+            }
+        }
+    }
+
+    private void aggiorna(UploadImmagineDto job, StatoUpload stato, String imageUrl, String errore) {
+        synchronized (job) {
+            job.setStato(stato);
+            job.setImmagineProfiloUrl(imageUrl);
+            job.setErrore(errore);
+            if (stato == StatoUpload.COMPLETATO || stato == StatoUpload.FALLITO) {
+                job.setCompletatoIl(LocalDateTime.now());
+            }
+        }
+    }
+
+    // Il job viene modificato dai worker: al chiamante si restituisce sempre una copia coerente
+    private UploadImmagineDto copia(UploadImmagineDto job) {
+        synchronized (job) {
+            UploadImmagineDto copia = new UploadImmagineDto();
+            copia.setJobId(job.getJobId());
+            copia.setDipendenteId(job.getDipendenteId());
+            copia.setStato(job.getStato());
+            copia.setImmagineProfiloUrl(job.getImmagineProfiloUrl());
+            copia.setErrore(job.getErrore());
+            copia.setCreatoIl(job.getCreatoIl());
+            copia.setCompletatoIl(job.getCompletatoIl());
+            return copia;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package it.epicode.gestioneviaggi.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versioni in memoria di viaggi e dipendenti, usate come ETag forti dalle GET.
+ * Ogni scrittura assegna una nuova versione alla risorsa modificata e alla sua collezione, e rimuove
+ * la risorsa dalla cache locale, solo dopo il commit. I controller leggono la versione prima dei dati:
+ * al peggio l'ETag restituito è più vecchio del contenuto (il client rilegge), mai più nuovo.
+ * Le letture per ID passano da {@link #leggi}: il dato letto entra in cache solo se la versione non è cambiata
+ * durante la lettura, così una lettura iniziata prima di una scrittura non rimette in cache il dato vecchio
+ * dopo la rimozione (e l'ETag nuovo non resta associato al contenuto vecchio fino alla scadenza della cache).
+ * Le versioni partono dall'istante di avvio, quindi un riavvio non riusa ETag già emessi.
+ * Una risorsa riceve una versione solo alla prima lettura riuscita o alla prima scrittura, e la perde quando viene
+ * eliminata; le versioni per risorsa sono al massimo versioni-max: una versione rimossa per far posto alle altre
+ * viene riassegnata, più grande, al prossimo accesso (il client rilegge una volta).
+ * Sono locali all'istanza: con più istanze servirebbe un registro condiviso.
+ * Con la replica di lettura configurata, le collezioni ricevono una seconda versione dopo il ritardo massimo
+ * della replica: un elenco letto dalla replica ancora indietro non resta associato all'ETag nuovo.
+ */
+@Component
+public class VersioniRisorse {
+
+    // I nomi coincidono con quelli delle cache configurate in AppConfig
+    public static final String VIAGGI = "viaggi";
+    public static final String DIPENDENTI = "dipendenti";
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Value("${gestioneviaggi.replica.url:}")
+    private String urlReplica;
+
+    @Value("${gestioneviaggi.replica.ritardo-massimo-ms:5000}")
+    private long ritardoReplica;
+
+    @Value("${gestioneviaggi.cache.versioni-max:100000}")
+    private long versioniMassime;
+
+    private final AtomicLong contatore = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final Map<String, ConcurrentMap<Long, Long>> versioni = new ConcurrentHashMap<>();
+    private final Map<String, Long> versioniCollezioni = new ConcurrentHashMap<>();
+
+    /**
+     * Lettura di una risorsa per ID attraverso la cache locale.
+     * @param <T> Tipo del DTO in cache.
+     */
+    @FunctionalInterface
+    public interface Lettura<T> {
+        T leggi() throws NotFoundException;
+    }
+
+    /**
+     * Restituisce la risorsa dalla cache oppure la legge e la mette in cache, se nel frattempo non è stata modificata.
+     * Dentro una transazione il dato entra in cache solo dopo il commit, con lo stesso controllo sulla versione.
+     * @param risorsa {@link #VIAGGI} o {@link #DIPENDENTI}.
+     * @param id ID della risorsa.
+     * @param lettura Lettura dal database.
+     * @return La risorsa.
+     * @throws NotFoundException se la risorsa non esiste.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T leggi(String risorsa, Long id, Lettura<T> lettura) throws NotFoundException {
+        Cache cache = cache(risorsa);
+        Cache.ValueWrapper inCache = cache.get(id);
+        if (inCache != null) {
+            return (T) inCache.get();
+        }
+        long versione = versione(risorsa, id); // Prima dei dati, come per l'ETag
+        T valore;
+        try {
+            valore = lettura.leggi();
+        } catch (NotFoundException e) {
+            versioni(risorsa).remove(id, versione); // Nessuna versione per gli ID inesistenti
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    metti(cache, risorsa, id, versione, valore);
+                }
+            });
+        } else {
+            metti(cache, risorsa, id, versione, valore);
+        }
+        return valore;
+    }
+
+    /**
+     * ETag della singola risorsa. Una risorsa mai modificata da questa istanza riceve una versione al primo accesso.
+     * @param risorsa {@link #VIAGGI} o {@link #DIPENDENTI}.
+     * @param id ID della risorsa.
+     * @return L'ETag, già tra virgolette.
+     */
+    public String etag(String risorsa, Long id) {
+        long versione = versione(risorsa, id);
+        return "\"" + risorsa + "-" + id + "-" + versione + "\"";
+    }
+
+    /**
+     * ETag degli endpoint che restituiscono l'elenco delle risorse: cambia a ogni scrittura su una qualunque di esse.
+     * @param risorsa {@link #VIAGGI} o {@link #DIPENDENTI}.
+     * @return L'ETag, già tra virgolette.
+     */
+    public String etagCollezione(String risorsa) {
+        long versione = versioniCollezioni.computeIfAbsent(risorsa, r -> contatore.incrementAndGet());
+        return "\"" + risorsa + "-" + versione + "\"";
+    }
+
+    /**
+     * Registra la modifica di una risorsa (creazione, aggiornamento, eliminazione o variazione dei posti).
+     * Dentro una transazione ha effetto dopo il commit; se la transazione viene annullata non cambia nulla.
+     * @param risorsa {@link #VIAGGI} o {@link #DIPENDENTI}.
+     * @param id ID della risorsa modificata.
+     */
+    public void modificata(String risorsa, Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applica(risorsa, id, false);
+                }
+            });
+        } else {
+            applica(risorsa, id, false);
+        }
+    }
+
+    /**
+     * Registra l'eliminazione di una risorsa: come {@link #modificata}, ma la sua versione viene rimossa.
+     * @param risorsa {@link #VIAGGI} o {@link #DIPENDENTI}.
+     * @param id ID della risorsa eliminata.
+     */
+    public void eliminata(String risorsa, Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applica(risorsa, id, true);
+                }
+            });
+        } else {
+            applica(risorsa, id, true);
+        }
+    }
+
+    /**
+     * Registra una modifica che riguarda solo l'elenco (es. un blocco di dipendenti importati).
+     * @param risorsa {@link #VIAGGI} o {@link #DIPENDENTI}.
+     */
+    public void modificataCollezione(String risorsa) {
+        modificata(risorsa, null);
+    }
+
+    private long versione(String risorsa, Long id) {
+        return versioni(risorsa).computeIfAbsent(id, k -> contatore.incrementAndGet());
+    }
+
+    // Versioni delle singole risorse, con un numero massimo di voci (Caffeine: compute atomici come ConcurrentHashMap)
+    private ConcurrentMap<Long, Long> versioni(String risorsa) {
+        return versioni.computeIfAbsent(risorsa, r -> Caffeine.newBuilder()
+                .maximumSize(versioniMassime)
+                .<Long, Long>build()
+                .asMap());
+    }
+
+    // Mette il valore in cache solo se la versione è ancora quella letta prima dei dati.
+    // Il confronto e la put avvengono nel compute sulla versione, atomici rispetto a rimozione e nuova versione in applica
+    private void metti(Cache cache, String risorsa, Long id, long versione, Object valore) {
+        versioni(risorsa).computeIfPresent(id, (k, attuale) -> {
+            if (attuale == versione) {
+                cache.put(id, valore);
+            }
+            return attuale;
+        });
+    }
+
+    // Cache sottostante: put e rimozioni devono essere immediate, non rimandate alla fine della transazione
+    private Cache cache(String risorsa) {
+        Cache cache = cacheManager.getCache(risorsa);
+        if (cache instanceof TransactionAwareCacheDecorator decorator) {
+            cache = decorator.getTargetCache();
+        }
+        return cache;
+    }
+
+    private void applica(String risorsa, Long id, boolean eliminata) {
+        if (id != null) {
+            // Rimozione dalla cache e nuova versione (o nessuna, se eliminata) insieme: chi legge la nuova versione
+            // non trova più il dato vecchio in cache, e una lettura iniziata prima non può rimettercelo (vedi metti)
+            Cache cache = cache(risorsa);
+            versioni(risorsa).compute(id, (k, precedente) -> {
+                if (cache != null) {
+                    cache.evict(id);
+                }
+                return eliminata ? null : contatore.incrementAndGet();
+            });
+        }
+        versioniCollezioni.put(risorsa, contatore.incrementAndGet());
+        if (!urlReplica.isBlank()) {
+            taskScheduler.schedule(() -> versioniCollezioni.put(risorsa, contatore.incrementAndGet()),
+                    Instant.now().plus(Duration.ofMillis(ritardoReplica)));
+        }
+    }
+}
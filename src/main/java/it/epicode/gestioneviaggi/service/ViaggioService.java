@@ -1,46 +1,90 @@
 package it.epicode.gestioneviaggi.service;
 
 import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.dto.DestinazioneDto;
+import it.epicode.gestioneviaggi.dto.FiltroViaggiDto;
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
 import it.epicode.gestioneviaggi.dto.ViaggioDto;
 import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioSpecifications;
 import it.epicode.gestioneviaggi.exception.NotFoundException;
 import it.epicode.gestioneviaggi.exception.ValidationException;
 import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
 
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Timed(value = "gestioneviaggi.servizi", histogram = true)
 public class ViaggioService {
 
     private static final Logger logger = LoggerFactory.getLogger(ViaggioService.class);
 
+    static final int LIMITE_SUGGERIMENTI = 50;
+
     @Autowired
     private ViaggioRepository viaggioRepository;
 
+    @Autowired
+    private PostiLedger postiLedger;
+
+    @Autowired
+    private VersioniRisorse versioniRisorse;
+
+    @Autowired
+    private IndiceDestinazioni indiceDestinazioni;
+
+    @Autowired
+    private StatisticheService statisticheService;
+
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     // --- Metodi Helper per la Mappatura ---
 
     /**
      * Mappa un'entità {@link Viaggio} a un {@link ViaggioDto}.
+     * Package-private: misurato dai benchmark JMH in src/jmh.
      * @param viaggio L'entità Viaggio.
      * @return Il corrispondente ViaggioDto.
      */
-    private ViaggioDto mapToViaggioDto(Viaggio viaggio) {
+    ViaggioDto mapToViaggioDto(Viaggio viaggio) {
         ViaggioDto dto = new ViaggioDto();
         dto.setId(viaggio.getId());
         dto.setDestinazione(viaggio.getDestinazione());
         dto.setData(viaggio.getData());
         dto.setStatoViaggio(viaggio.getStatoViaggio());
+        // Con il ledger attivo la tabella può essere indietro di un flush: vale il contatore in memoria
+        dto.setPostiDisponibili(postiLedger.postiDisponibili(viaggio.getId(), viaggio.getPostiDisponibili()));
         return dto;
     }
 
@@ -82,8 +126,14 @@ public class ViaggioService {
 
         Viaggio viaggio = new Viaggio();
         viaggio = mapToViaggioEntity(viaggioDto, viaggio); // Mappa DTO all'entità
+        viaggio.setPostiDisponibili(viaggioDto.getPostiDisponibili()); // solo in creazione: poi cambiano con le prenotazioni
 
         Viaggio savedViaggio = viaggioRepository.save(viaggio);
+        postiLedger.registra(savedViaggio.getId(), savedViaggio.getPostiDisponibili());
+        indiceDestinazioni.aggiungi(savedViaggio.getDestinazione(), savedViaggio.getData());
+        statisticheService.viaggioCreato(savedViaggio.getId(), savedViaggio.getDestinazione(), savedViaggio.getData(),
+                savedViaggio.getPostiDisponibili());
+        versioniRisorse.modificata(VersioniRisorse.VIAGGI, savedViaggio.getId());
         logger.info("Viaggio creato con ID: {}", savedViaggio.getId());
         return mapToViaggioDto(savedViaggio); // Restituisce il DTO dell'entità salvata
     }
@@ -93,6 +143,7 @@ public class ViaggioService {
      * @return Una {@link List} di {@link ViaggioDto} che rappresenta tutti i piani di viaggio.
      */
 
+    @Transactional(readOnly = true)
     public List<ViaggioDto> get() {
         List<ViaggioDto> viaggi = viaggioRepository.findAll().stream()
                 .map(this::mapToViaggioDto)
@@ -109,13 +160,16 @@ public class ViaggioService {
      */
 
     public ViaggioDto get(Long id) throws NotFoundException {
-        Viaggio viaggio = viaggioRepository.findById(id)
-                .orElseThrow(() -> {
-                    logger.warn("Viaggio con ID {} non trovato.", id);
-                    return new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
-                });
-        logger.info("Viaggio con ID {} recuperato.", id);
-        return mapToViaggioDto(viaggio);
+        // Dalla cache locale; il dato letto entra in cache solo se nessuna scrittura lo ha modificato nel frattempo
+        return versioniRisorse.leggi(VersioniRisorse.VIAGGI, id, () -> {
+            Viaggio viaggio = viaggioRepository.findById(id)
+                    .orElseThrow(() -> {
+                        logger.warn("Viaggio con ID {} non trovato.", id);
+                        return new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
+                    });
+            logger.info("Viaggio con ID {} recuperato.", id);
+            return mapToViaggioDto(viaggio);
+        });
     }
 
     /**
@@ -124,6 +178,7 @@ public class ViaggioService {
      * @return Una {@link Page} di {@link ViaggioDto} che rappresenta i piani di viaggio paginati.
      */
 
+    @Transactional(readOnly = true)
     public Page<ViaggioDto> get(Pageable pageable) {
         Page<ViaggioDto> viaggiPage = viaggioRepository.findAll(pageable)
                 .map(this::mapToViaggioDto);
@@ -131,6 +186,114 @@ public class ViaggioService {
         return viaggiPage;
     }
 
+    /**
+     * Cerca i piani di viaggio per prefisso della destinazione, intervallo di date, stato e posti minimi.
+     * I filtri assenti non vengono applicati; senza ordinamento esplicito i risultati sono ordinati per data e ID.
+     * Il filtro sui posti usa il valore della tabella: con il ledger attivo può essere indietro di un flush.
+     * @param filtro I filtri della ricerca.
+     * @param pageable Oggetto {@link Pageable} per la paginazione e l'ordinamento.
+     * @return Una {@link Page} di {@link ViaggioDto} con i piani di viaggio trovati.
+     * @throws ValidationException se l'intervallo di date o i posti minimi non sono validi.
+     */
+
+    @Transactional(readOnly = true)
+    public Page<ViaggioDto> cerca(FiltroViaggiDto filtro, Pageable pageable) throws ValidationException {
+        if (filtro.getDal() != null && filtro.getAl() != null && filtro.getDal().isAfter(filtro.getAl())) {
+            throw new ValidationException("La data di inizio dell'intervallo non può essere successiva alla data di fine.");
+        }
+        if (filtro.getPostiMinimi() != null && filtro.getPostiMinimi() < 0) {
+            throw new ValidationException("I posti minimi non possono essere negativi.");
+        }
+        if (pageable.getSort().isUnsorted()) {
+            pageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("data", "id"));
+        }
+        Specification<Viaggio> specifica = Specification.allOf(
+                ViaggioSpecifications.destinazioneIniziaCon(filtro.getDestinazione()),
+                ViaggioSpecifications.dataDal(filtro.getDal()),
+                ViaggioSpecifications.dataAl(filtro.getAl()),
+                ViaggioSpecifications.stato(filtro.getStato()),
+                ViaggioSpecifications.postiAlmeno(filtro.getPostiMinimi()));
+        Page<ViaggioDto> risultati = viaggioRepository.findAll(specifica, pageable).map(this::mapToViaggioDto);
+        logger.info("Ricerca viaggi {}: {} risultati.", filtro, risultati.getTotalElements());
+        return risultati;
+    }
+
+    /**
+     * Suggerisce le destinazioni che iniziano con il prefisso digitato, con il numero di viaggi in programma.
+     * Le legge dall'{@link IndiceDestinazioni} in memoria, senza accedere al database.
+     * @param prefisso Il testo digitato, senza distinzione tra maiuscole e minuscole né accenti.
+     * @param limite Numero massimo di suggerimenti, tra 1 e {@value #LIMITE_SUGGERIMENTI}.
+     * @return Le destinazioni con più viaggi in programma, in ordine decrescente.
+     * @throws ValidationException se il limite non è valido.
+     */
+
+    public List<DestinazioneDto> suggerisciDestinazioni(String prefisso, int limite) throws ValidationException {
+        if (limite < 1 || limite > LIMITE_SUGGERIMENTI) {
+            throw new ValidationException("Il numero di suggerimenti deve essere tra 1 e " + LIMITE_SUGGERIMENTI);
+        }
+        return indiceDestinazioni.suggerisci(prefisso, limite);
+    }
+
+    /**
+     * Recupera una pagina di piani di viaggio con paginazione a cursore, ordinata per data e ID.
+     * A differenza di {@link #get(Pageable)} non usa OFFSET e non conta il totale degli elementi.
+     * @param cursor Cursore restituito dalla pagina precedente, oppure null per la prima pagina.
+     * @param size Numero massimo di elementi nella pagina.
+     * @return Una {@link PaginaCursoreDto} di {@link ViaggioDto} con il cursore della pagina successiva.
+     * @throws ValidationException se il cursore o la dimensione della pagina non sono validi.
+     */
+
+    @Transactional(readOnly = true)
+    public PaginaCursoreDto<ViaggioDto> get(String cursor, int size) throws ValidationException {
+        Cursore.verificaSize(size);
+        Cursore cursore = Cursore.decodifica(cursor);
+        Limit limit = Limit.of(size + 1);
+        List<Viaggio> viaggi = cursore == null
+                ? viaggioRepository.findPrimaPagina(limit)
+                : viaggioRepository.findPaginaDopo(cursore.chiaveData(), cursore.id(), limit);
+        return Cursore.pagina(viaggi, size, v -> v.getData().toString(), Viaggio::getId, this::mapToViaggioDto);
+    }
+
+    /**
+     * Esporta tutti i piani di viaggio come NDJSON, scrivendo ogni riga appena letta dal database.
+     * Le entità vengono staccate dal persistence context una alla volta: la memoria usata resta costante.
+     * @param out Stream di output su cui scrivere.
+     * @return Il numero di viaggi esportati.
+     * @throws IOException se la scrittura sullo stream fallisce.
+     */
+
+    @Transactional(readOnly = true)
+    public long esporta(OutputStream out) throws IOException {
+        try (Stream<Viaggio> viaggi = viaggioRepository.streamAll()) {
+            long esportati = ndjsonWriter.scrivi(viaggi.map(viaggio -> {
+                entityManager.detach(viaggio);
+                return mapToViaggioDto(viaggio);
+            }), out);
+            logger.info("Esportati {} viaggi.", esportati);
+            return esportati;
+        }
+    }
+
+    /**
+     * Valorizza la colonna di ricerca dei viaggi salvati prima della sua introduzione, a blocchi di mille.
+     * I viaggi salvati da qui in poi la ricevono dall'entità {@link Viaggio} a ogni insert e update.
+     */
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void normalizzaDestinazioni() {
+        int aggiornati = 0;
+        List<ViaggioRepository.DestinazioneViaggio> blocco;
+        while (!(blocco = viaggioRepository.findSenzaDestinazioneRicerca(Limit.of(1000))).isEmpty()) {
+            jdbcTemplate.batchUpdate("update viaggio set destinazione_ricerca = ? where id = ?", blocco.stream()
+                    .map(v -> new Object[]{Viaggio.normalizza(v.getDestinazione()), v.getId()})
+                    .toList());
+            aggiornati += blocco.size();
+        }
+        if (aggiornati > 0) {
+            logger.info("Destinazione di ricerca valorizzata per {} viaggi.", aggiornati);
+        }
+    }
+
     /**
      * Aggiorna un piano di viaggio esistente.
      * @param id L'ID del piano di viaggio da aggiornare.
@@ -140,6 +303,7 @@ public class ViaggioService {
      * @throws ValidationException se la data di viaggio aggiornata non è valida (ad esempio, si tenta di impostare un viaggio futuro nel passato).
      */
 
+    @Transactional
     public ViaggioDto update(Long id, ViaggioDto viaggioDto) throws NotFoundException, ValidationException {
         Viaggio existingViaggio = viaggioRepository.findById(id)
                 .orElseThrow(() -> {
@@ -156,9 +320,17 @@ public class ViaggioService {
         // Potresti aggiungere qui altre logiche di validazione, ad esempio se non puoi cambiare la data
         // di un viaggio già AVVIATO o COMPLETATO.
 
+        String destinazionePrecedente = existingViaggio.getDestinazione();
+        LocalDate dataPrecedente = existingViaggio.getData();
         existingViaggio = mapToViaggioEntity(viaggioDto, existingViaggio); // Mappa DTO all'entità esistente
 
+        // I posti non sono aggiornabili dall'entità (vedi Viaggio): le prenotazioni concorrenti non vengono sovrascritte
         Viaggio updatedViaggio = viaggioRepository.save(existingViaggio);
+        indiceDestinazioni.rimuovi(destinazionePrecedente, dataPrecedente);
+        indiceDestinazioni.aggiungi(updatedViaggio.getDestinazione(), updatedViaggio.getData());
+        statisticheService.viaggioModificato(id, updatedViaggio.getDestinazione(), updatedViaggio.getData());
+        // Rimuove il viaggio dalla cache e cambia il suo ETag
+        versioniRisorse.modificata(VersioniRisorse.VIAGGI, id);
         logger.info("Viaggio con ID {} aggiornato.", updatedViaggio.getId());
         return mapToViaggioDto(updatedViaggio);
     }
@@ -170,11 +342,16 @@ public class ViaggioService {
      */
 
     public void delete(Long id) throws NotFoundException {
-        if (!viaggioRepository.existsById(id)) {
-            logger.warn("Tentativo di eliminare un viaggio inesistente con ID: {}", id);
-            throw new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
-        }
+        Viaggio viaggio = viaggioRepository.findById(id)
+                .orElseThrow(() -> {
+                    logger.warn("Tentativo di eliminare un viaggio inesistente con ID: {}", id);
+                    return new NotFoundException("Piano di viaggio con ID " + id + " non trovato");
+                });
         viaggioRepository.deleteById(id);
+        postiLedger.rimuovi(id);
+        indiceDestinazioni.rimuovi(viaggio.getDestinazione(), viaggio.getData());
+        statisticheService.viaggioEliminato(id);
+        versioniRisorse.eliminata(VersioniRisorse.VIAGGI, id);
         logger.info("Viaggio con ID {} eliminato.", id);
     }
 }
\ No newline at end of file
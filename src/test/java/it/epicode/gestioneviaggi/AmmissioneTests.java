@@ -0,0 +1,138 @@
+package it.epicode.gestioneviaggi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+@SpringBootTest(properties = {
+		"gestioneviaggi.mail.outbox.enabled=false",
+		"gestioneviaggi.ammissione.max-concorrenti=1",
+		"gestioneviaggi.ammissione.coda-max=0",
+		"gestioneviaggi.ammissione.burst=2",
+		"gestioneviaggi.ammissione.token-al-secondo=0.1",
+		"gestioneviaggi.prenotazioni.batch-max=2",
+		"gestioneviaggi.ammissione.byte-per-prenotazione=200"
+})
+@AutoConfigureMockMvc
+class AmmissioneTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private MeterRegistry meterRegistry;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private DataSourceProperties dataSourceProperties;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test ammissione", 10);
+		dipendenti.addAll(datiDiProva.dipendenti("ammissione", 2));
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void oltreIlBurstDelDipendente429() throws Exception {
+		// Date diverse per non violare il vincolo (dipendente, data)
+		assertEquals(201, prenota(0, LocalDate.now()).getStatus());
+		assertEquals(201, prenota(0, LocalDate.now().minusDays(1)).getStatus());
+		MockHttpServletResponse rifiutata = prenota(0, LocalDate.now().minusDays(2));
+
+		assertEquals(429, rifiutata.getStatus());
+		// Un token ogni 10 secondi
+		long retryAfter = Long.parseLong(rifiutata.getHeader(HttpHeaders.RETRY_AFTER));
+		assertTrue(retryAfter >= 1 && retryAfter <= 10, "Retry-After " + retryAfter);
+		assertEquals(1, meterRegistry.counter("gestioneviaggi.ammissione.rifiutate", "motivo", "dipendente").count());
+		// Gli altri dipendenti hanno il proprio bucket
+		assertEquals(201, prenota(1, LocalDate.now()).getStatus());
+	}
+
+	@Test
+	void scrittureOltreIlLimiteDiConcorrenza429() throws Exception {
+		// La riga del viaggio bloccata da un'altra connessione tiene occupato l'unico posto di esecuzione
+		try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+				dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("select id from viaggio where id = " + viaggio.getId() + " for update");
+			}
+			CompletableFuture<MockHttpServletResponse> bloccata = CompletableFuture.supplyAsync(() -> {
+				try {
+					return prenota(0, LocalDate.now());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			while (meterRegistry.get("gestioneviaggi.ammissione.in_corso").gauge().value() < 1) {
+				Thread.sleep(10);
+			}
+
+			MockHttpServletResponse rifiutata = prenota(1, LocalDate.now());
+			assertEquals(429, rifiutata.getStatus());
+			assertNotNull(rifiutata.getHeader(HttpHeaders.RETRY_AFTER));
+			assertFalse(bloccata.isDone());
+
+			connection.commit();
+			assertEquals(201, bloccata.get().getStatus());
+		}
+		// Il posto liberato è di nuovo disponibile
+		assertEquals(201, prenota(1, LocalDate.now()).getStatus());
+	}
+
+	@Test
+	void corpoOltreIlBatchMassimo413() throws Exception {
+		// Al massimo 2 prenotazioni da 200 byte: il corpo viene rifiutato prima di leggerlo e senza consumare token
+		String prenotazione = "{\"dipendenteId\":" + dipendenti.get(0).getId() + ",\"idViaggio\":" + viaggio.getId()
+				+ ",\"numeroPosti\":2,\"dataPrenotazione\":\"" + LocalDate.now() + "\",\"notePreferenze\":\"" + "x".repeat(300) + "\"}";
+		MockHttpServletResponse rifiutata = mockMvc.perform(post("/prenotazioni/batch").contentType(MediaType.APPLICATION_JSON)
+						.content("[" + prenotazione + "," + prenotazione + "]"))
+				.andReturn().getResponse();
+
+		assertEquals(413, rifiutata.getStatus());
+		assertEquals(1, meterRegistry.counter("gestioneviaggi.ammissione.rifiutate", "motivo", "corpo").count());
+		assertTrue(datiDiProva.postiPrenotati(viaggio.getId()).isEmpty());
+		assertEquals(201, prenota(0, LocalDate.now()).getStatus());
+		assertEquals(201, prenota(0, LocalDate.now().minusDays(1)).getStatus());
+	}
+
+	private MockHttpServletResponse prenota(int dipendente, LocalDate data) throws Exception {
+		String corpo = "{\"dipendenteId\":" + dipendenti.get(dipendente).getId() + ",\"idViaggio\":" + viaggio.getId()
+				+ ",\"numeroPosti\":2,\"dataPrenotazione\":\"" + data + "\"}";
+		return mockMvc.perform(post("/prenotazioni").contentType(MediaType.APPLICATION_JSON).content(corpo))
+				.andReturn().getResponse();
+	}
+}
@@ -0,0 +1,243 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.BlocchiPostiService;
+import it.epicode.gestioneviaggi.service.StatisticheService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+		"gestioneviaggi.mail.outbox.enabled=false",
+		"gestioneviaggi.blocchi.tick-ms=100"
+})
+@AutoConfigureMockMvc
+class BlocchiPostiTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private BlocchiPostiService blocchiPostiService;
+	@Autowired
+	private StatisticheService statisticheService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	private Viaggio viaggio;
+	private Dipendente dipendente;
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test blocchi", 5);
+		dipendente = datiDiProva.dipendenti("blocchi", 1).get(0);
+	}
+
+	@AfterEach
+	void pulisci() {
+		jdbcTemplate.update("delete from blocchi_posti where viaggio_id = ?", viaggio.getId());
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(List.of(dipendente));
+	}
+
+	@Test
+	void ilBloccoTogliePostiELaConfermaNonLiTogliePiu() throws Exception {
+		String id = blocca(3, null);
+		assertEquals(2, postiDisponibili());
+		// Oltre i posti rimasti
+		mockMvc.perform(post("/blocchi").contentType(MediaType.APPLICATION_JSON)
+						.content("{\"idViaggio\":" + viaggio.getId() + ",\"posti\":3}"))
+				.andExpect(status().isConflict());
+
+		String prenotazione = "{\"dipendenteId\":" + dipendente.getId() + ",\"dataPrenotazione\":\"" + LocalDate.now() + "\"}";
+		mockMvc.perform(post("/blocchi/" + id + "/conferma").contentType(MediaType.APPLICATION_JSON).content(prenotazione))
+				.andExpect(status().isCreated());
+		assertEquals(2, postiDisponibili());
+		assertEquals(List.of(3), datiDiProva.postiPrenotati(viaggio.getId()));
+
+		// Un blocco confermato non esiste più
+		mockMvc.perform(get("/blocchi/" + id)).andExpect(status().isNotFound());
+		mockMvc.perform(delete("/blocchi/" + id)).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void seIlDeleteFallisceIlBloccoRestaAttivo() throws Exception {
+		String id = blocca(2, null);
+
+		// Un'altra transazione tiene la riga del blocco: il delete di prendi() scade sul lock
+		CountDownLatch rigaBloccata = new CountDownLatch(1);
+		CountDownLatch fine = new CountDownLatch(1);
+		CompletableFuture<Void> altra = CompletableFuture.runAsync(() -> transactionTemplate.executeWithoutResult(stato -> {
+			jdbcTemplate.queryForList("select id from blocchi_posti where id = ? for update", id);
+			rigaBloccata.countDown();
+			try {
+				fine.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		rigaBloccata.await();
+		try {
+			assertThrows(RuntimeException.class, () -> transactionTemplate.executeWithoutResult(stato -> {
+				jdbcTemplate.execute("set local lock_timeout = '100ms'");
+				try {
+					blocchiPostiService.prendi(id);
+				} catch (NotFoundException e) {
+					throw new IllegalStateException(e);
+				}
+			}));
+		} finally {
+			fine.countDown();
+			altra.join();
+		}
+
+		mockMvc.perform(get("/blocchi/" + id)).andExpect(status().isOk());
+		assertEquals(3, postiDisponibili());
+	}
+
+	@Test
+	void ilRilascioRestituisceIPosti() throws Exception {
+		String id = blocca(4, null);
+		assertEquals(1, postiDisponibili());
+		mockMvc.perform(get("/blocchi/" + id)).andExpect(status().isOk());
+
+		mockMvc.perform(delete("/blocchi/" + id)).andExpect(status().isNoContent());
+		assertEquals(5, postiDisponibili());
+	}
+
+	@Test
+	void allaScadenzaIPostiTornanoDisponibili() throws Exception {
+		String id = blocca(2, 1);
+		assertEquals(3, postiDisponibili());
+
+		long limite = System.currentTimeMillis() + 5000;
+		while (postiDisponibili() != 5 && System.currentTimeMillis() < limite) {
+			Thread.sleep(50);
+		}
+		assertEquals(5, postiDisponibili());
+		String prenotazione = "{\"dipendenteId\":" + dipendente.getId() + ",\"dataPrenotazione\":\"" + LocalDate.now() + "\"}";
+		mockMvc.perform(post("/blocchi/" + id + "/conferma").contentType(MediaType.APPLICATION_JSON).content(prenotazione))
+				.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void iBlocchiRestanoNelDatabaseEContanoNellaCapienza() throws Exception {
+		String id = blocca(3, null);
+		assertEquals(3, jdbcTemplate.queryForObject("select posti from blocchi_posti where id = ?", Integer.class, id));
+
+		// La ricostruzione delle statistiche conta i posti bloccati nella capienza
+		statisticheService.ricostruisci();
+		JsonNode righe = objectMapper.readTree(mockMvc.perform(get("/statistiche/viaggi")
+						.param("dal", viaggio.getData().toString()).param("al", viaggio.getData().toString()))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+		int capienza = -1;
+		for (JsonNode riga : righe) {
+			if (riga.get("idViaggio").asLong() == viaggio.getId()) {
+				capienza = riga.get("capienza").asInt();
+			}
+		}
+		assertEquals(5, capienza);
+
+		mockMvc.perform(delete("/blocchi/" + id)).andExpect(status().isNoContent());
+		assertEquals(0, righeBlocchi());
+	}
+
+	@Test
+	void dopoUnArrestoImprovvisoIBlocchiVengonoRipresi() throws Exception {
+		// Blocchi di un'istanza fermata senza chiudersi: posti tolti al viaggio e righe rimaste, ma nessuna ruota che li scada
+		String valido = bloccoRimasto(2, LocalDateTime.now().plusMinutes(5));
+		String scaduto = bloccoRimasto(1, LocalDateTime.now().minusMinutes(1));
+		assertEquals(2, postiDisponibili());
+
+		blocchiPostiService.ripristina();
+
+		// Il blocco scaduto restituisce i posti al primo tick, quello valido si può ancora confermare
+		long limite = System.currentTimeMillis() + 5000;
+		while (postiDisponibili() != 3 && System.currentTimeMillis() < limite) {
+			Thread.sleep(50);
+		}
+		assertEquals(3, postiDisponibili());
+		mockMvc.perform(get("/blocchi/" + scaduto)).andExpect(status().isNotFound());
+		String prenotazione = "{\"dipendenteId\":" + dipendente.getId() + ",\"dataPrenotazione\":\"" + LocalDate.now() + "\"}";
+		mockMvc.perform(post("/blocchi/" + valido + "/conferma").contentType(MediaType.APPLICATION_JSON).content(prenotazione))
+				.andExpect(status().isCreated());
+		assertEquals(3, postiDisponibili());
+		assertEquals(List.of(2), datiDiProva.postiPrenotati(viaggio.getId()));
+		assertEquals(0, righeBlocchi());
+	}
+
+	@Test
+	void laRiconciliazioneRestituisceIBlocchiScadutiRimasti() throws Exception {
+		// Per esempio un blocco la cui restituzione è fallita: la riga resta, ma non è più nella ruota
+		bloccoRimasto(2, LocalDateTime.now().minusMinutes(1));
+		assertEquals(3, postiDisponibili());
+
+		mockMvc.perform(post("/blocchi/riconciliazione"))
+				.andExpect(status().isOk())
+				.andExpect(content().string("1"));
+		assertEquals(5, postiDisponibili());
+		assertEquals(0, righeBlocchi());
+		mockMvc.perform(post("/blocchi/riconciliazione")).andExpect(content().string("0"));
+	}
+
+	private String bloccoRimasto(int posti, LocalDateTime scadenza) {
+		String id = UUID.randomUUID().toString();
+		jdbcTemplate.update("update viaggio set posti_disponibili = posti_disponibili - ? where id = ?", posti, viaggio.getId());
+		jdbcTemplate.update("insert into blocchi_posti (id, viaggio_id, posti, scadenza) values (?, ?, ?, ?)",
+				id, viaggio.getId(), posti, scadenza);
+		return id;
+	}
+
+	private int righeBlocchi() {
+		return jdbcTemplate.queryForObject("select count(*) from blocchi_posti where viaggio_id = ?", Integer.class, viaggio.getId());
+	}
+
+	private String blocca(int posti, Integer durataSecondi) throws Exception {
+		String corpo = "{\"idViaggio\":" + viaggio.getId() + ",\"posti\":" + posti
+				+ (durataSecondi != null ? ",\"durataSecondi\":" + durataSecondi : "") + "}";
+		String risposta = mockMvc.perform(post("/blocchi").contentType(MediaType.APPLICATION_JSON).content(corpo))
+				.andExpect(status().isCreated())
+				.andReturn().getResponse().getContentAsString();
+		JsonNode blocco = objectMapper.readTree(risposta);
+		return blocco.get("id").asText();
+	}
+
+	private int postiDisponibili() {
+		return viaggioRepository.findPostiDisponibiliById(viaggio.getId()).orElseThrow();
+	}
+}
@@ -0,0 +1,59 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.controller.FiltroStatisticheSql;
+import it.epicode.gestioneviaggi.repository.StatisticheSql;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Verifiche sul numero di statement SQL di una richiesta MockMvc, misurato da {@link FiltroStatisticheSql}.
+ * Uso: {@code mockMvc.perform(get("/viaggi/page")).andExpect(BudgetSql.alPiu(2));}
+ * Se il budget viene superato il test fallisce elencando gli statement eseguiti con le loro ripetizioni.
+ */
+final class BudgetSql {
+
+	private BudgetSql() {
+	}
+
+	// Al massimo {@code query} statement SQL per la richiesta
+	static ResultMatcher alPiu(int query) {
+		return result -> {
+			StatisticheSql.Misura misura = misura(result);
+			if (misura.getQuery() > query) {
+				fail(result.getRequest().getMethod() + " " + result.getRequest().getRequestURI() + ": " + misura
+						+ ", budget " + query + elenco(misura));
+			}
+		};
+	}
+
+	// Nessuno statement eseguito più di {@code volte} volte: un N+1 fa fallire il test anche sotto il budget
+	static ResultMatcher ripetutoAlPiu(int volte) {
+		return result -> {
+			StatisticheSql.Misura misura = misura(result);
+			if (misura.getRipetizioniMassime() > volte) {
+				fail(result.getRequest().getMethod() + " " + result.getRequest().getRequestURI()
+						+ ": statement ripetuto " + misura.getRipetizioniMassime() + " volte, massimo " + volte + elenco(misura));
+			}
+		};
+	}
+
+	// Misura SQL della richiesta eseguita
+	static StatisticheSql.Misura misura(MvcResult result) {
+		Object misura = result.getRequest().getAttribute(FiltroStatisticheSql.ATTRIBUTO_MISURA);
+		assertNotNull(misura, "Nessuna misura SQL: la richiesta non è passata da FiltroStatisticheSql");
+		return (StatisticheSql.Misura) misura;
+	}
+
+	private static String elenco(StatisticheSql.Misura misura) {
+		StringBuilder elenco = new StringBuilder();
+		for (Map.Entry<String, Integer> statement : misura.getStatement().entrySet()) {
+			elenco.append("\n  ").append(statement.getValue()).append("x ").append(statement.getKey());
+		}
+		return elenco.toString();
+	}
+}
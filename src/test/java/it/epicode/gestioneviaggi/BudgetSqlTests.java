@@ -0,0 +1,108 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.controller.FiltroStatisticheSql;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Prenotazione;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.PrenotazioneRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+		"gestioneviaggi.mail.outbox.enabled=false",
+		"gestioneviaggi.sql.header=true"
+})
+@AutoConfigureMockMvc
+class BudgetSqlTests {
+
+	private static final int PRENOTAZIONI = 30;
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private PrenotazioneRepository prenotazioneRepository;
+	@Autowired
+	private DatiDiProva datiDiProva;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test budget SQL", 100);
+		dipendenti.addAll(datiDiProva.dipendenti("budget", PRENOTAZIONI + 1));
+		List<Prenotazione> prenotazioni = new ArrayList<>();
+		for (int i = 0; i < PRENOTAZIONI; i++) {
+			Prenotazione prenotazione = new Prenotazione();
+			prenotazione.setViaggio(viaggio);
+			prenotazione.setDipendente(dipendenti.get(i));
+			prenotazione.setNumeroPosti(1);
+			prenotazione.setDataPrenotazione(LocalDate.now());
+			prenotazione.setDataRichiesta(LocalDate.now());
+			prenotazioni.add(prenotazione);
+		}
+		prenotazioneRepository.saveAll(prenotazioni);
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void lettureEntroIlBudget() throws Exception {
+		// Pagina e conteggio, senza una query per prenotazione
+		mockMvc.perform(get("/prenotazioni/page").param("size", "50"))
+				.andExpect(status().isOk())
+				.andExpect(BudgetSql.alPiu(2))
+				.andExpect(BudgetSql.ripetutoAlPiu(1));
+		mockMvc.perform(get("/prenotazioni/cursor").param("size", "50"))
+				.andExpect(status().isOk())
+				.andExpect(BudgetSql.alPiu(1));
+		mockMvc.perform(get("/viaggi/search").param("destinazione", "Test budget").param("size", "20"))
+				.andExpect(status().isOk())
+				.andExpect(BudgetSql.alPiu(2));
+	}
+
+	@Test
+	void prenotazioneEntroIlBudgetConHeader() throws Exception {
+		String corpo = "{\"dipendenteId\":" + dipendenti.get(PRENOTAZIONI).getId() + ",\"idViaggio\":" + viaggio.getId()
+				+ ",\"numeroPosti\":2,\"dataPrenotazione\":\"" + LocalDate.now() + "\"}";
+		// Dipendente, UPDATE condizionale dei posti, sequenza e insert
+		MvcResult risultato = mockMvc.perform(post("/prenotazioni").contentType(MediaType.APPLICATION_JSON).content(corpo))
+				.andExpect(status().isCreated())
+				.andExpect(BudgetSql.alPiu(4))
+				.andReturn();
+
+		String query = risultato.getResponse().getHeader(FiltroStatisticheSql.HEADER_QUERY);
+		assertNotNull(query);
+		assertNotNull(risultato.getResponse().getHeader(FiltroStatisticheSql.HEADER_TEMPO));
+		assertEquals(Integer.parseInt(query), BudgetSql.misura(risultato).getQuery());
+	}
+
+	@Test
+	void budgetSuperatoFaFallireIlTest() {
+		AssertionError errore = assertThrows(AssertionError.class, () -> mockMvc.perform(get("/prenotazioni/page"))
+				.andExpect(BudgetSql.alPiu(1)));
+		System.out.println("Budget superato:\n" + errore.getMessage());
+	}
+}
@@ -0,0 +1,70 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Viaggio e dipendenti dei test di prenotazione, con la loro pulizia.
+ * Le prenotazioni si leggono ed eliminano per id del viaggio, senza caricare quelle degli altri test.
+ * Uso: {@code viaggio = datiDiProva.viaggio("Test batch", 100); dipendenti.addAll(datiDiProva.dipendenti("batch", 50));}
+ * e in {@code @AfterEach} {@code datiDiProva.eliminaViaggio(viaggio.getId()); datiDiProva.eliminaDipendenti(dipendenti);}
+ */
+@Component
+class DatiDiProva {
+
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private DipendenteRepository dipendenteRepository;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	// Viaggio in programma tra 30 giorni
+	Viaggio viaggio(String destinazione, int posti) {
+		Viaggio viaggio = new Viaggio();
+		viaggio.setDestinazione(destinazione);
+		viaggio.setData(LocalDate.now().plusDays(30));
+		viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		viaggio.setPostiDisponibili(posti);
+		return viaggioRepository.save(viaggio);
+	}
+
+	// Dipendenti con username univoci che iniziano con `prefisso`
+	List<Dipendente> dipendenti(String prefisso, int quanti) {
+		List<Dipendente> dipendenti = new ArrayList<>();
+		for (int i = 0; i < quanti; i++) {
+			Dipendente dipendente = new Dipendente();
+			dipendente.setUsername(prefisso + "-" + i + "-" + System.nanoTime());
+			dipendente.setNome("Nome" + i);
+			dipendente.setCognome("Cognome" + i);
+			dipendente.setEmail(dipendente.getUsername() + "@example.com");
+			dipendenti.add(dipendente);
+		}
+		return dipendenteRepository.saveAll(dipendenti);
+	}
+
+	// Posti di ciascuna prenotazione del viaggio, in ordine di inserimento
+	List<Integer> postiPrenotati(Long viaggioId) {
+		return jdbcTemplate.queryForList("select numero_posti from prenotazioni where viaggio_id = ? order by id", Integer.class, viaggioId);
+	}
+
+	// Elimina il viaggio con le sue prenotazioni; la lista d'attesa segue il viaggio (on delete cascade)
+	void eliminaViaggio(Long viaggioId) {
+		jdbcTemplate.update("delete from prenotazioni where viaggio_id = ?", viaggioId);
+		viaggioRepository.deleteById(viaggioId);
+	}
+
+	void eliminaDipendenti(List<Dipendente> dipendenti) {
+		dipendenteRepository.deleteAll(dipendenti);
+	}
+}
@@ -0,0 +1,136 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.dto.ImportDipendentiDto;
+import it.epicode.gestioneviaggi.dto.RigaScartataDto;
+import it.epicode.gestioneviaggi.service.DipendenteImportService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+		"gestioneviaggi.mail.outbox.enabled=false",
+		"gestioneviaggi.import.scarti-max=3"
+})
+@AutoConfigureMockMvc
+class DipendenteImportTests {
+
+	private static final String PREFISSO = "import-";
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private DipendenteImportService dipendenteImportService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final String lotto = PREFISSO + System.nanoTime() + "-";
+
+	@AfterEach
+	void pulisci() {
+		jdbcTemplate.update("delete from dipendente where username like ?", PREFISSO + "%");
+	}
+
+	@Test
+	void righeValideEScartateNelloStessoFile() throws Exception {
+		inserisci(lotto + "esistente", lotto + "esistente@example.com");
+		String csv = "username;nome;cognome;email\n"
+				+ lotto + "a;Anna;Bianchi;" + lotto + "a@example.com\n"
+				+ lotto + "b;Bruno;\"Rossi; jr\";" + lotto + "b@example.com\n"
+				+ lotto + "c;Carla;Verdi;non-una-email\n"
+				+ "\n"
+				+ lotto + "a;Altro;Utente;" + lotto + "altro@example.com\n"
+				+ lotto + "d;Dario;Neri;" + lotto + "esistente@example.com\n";
+
+		JsonNode report = objectMapper.readTree(mockMvc.perform(post("/dipendenti/import").contentType("text/csv").content(csv))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+
+		assertEquals(5, report.get("righe").asInt());
+		assertEquals(2, report.get("importati").asInt());
+		assertEquals(3, report.get("scartati").asInt());
+		JsonNode scarti = report.get("scarti");
+		assertEquals(4, scarti.get(0).get("riga").asInt());
+		assertEquals("l'email deve avere un formato valido", scarti.get(0).get("errore").asText());
+		assertEquals(6, scarti.get(1).get("riga").asInt());
+		assertEquals("Username " + lotto + "a già in uso", scarti.get(1).get("errore").asText());
+		assertEquals(7, scarti.get(2).get("riga").asInt());
+		assertEquals("Email " + lotto + "esistente@example.com già in uso", scarti.get(2).get("errore").asText());
+		assertEquals("Rossi; jr", jdbcTemplate.queryForObject("select cognome from dipendente where username = ?", String.class, lotto + "b"));
+
+		mockMvc.perform(post("/dipendenti/import").contentType("text/csv").content("username,nome\n"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void gliScartiRiportatiSonoLimitati() throws Exception {
+		StringBuilder csv = new StringBuilder("username,nome,cognome,email\n");
+		for (int i = 0; i < 5; i++) {
+			csv.append(lotto).append(i).append(",Nome,Cognome,non-valida\n");
+		}
+		csv.append(lotto).append("valido,Nome,Cognome,").append(lotto).append("valido@example.com\n");
+
+		ImportDipendentiDto report = dipendenteImportService.importa(stream(csv.toString()), false);
+
+		assertEquals(6, report.getRighe());
+		assertEquals(1, report.getImportati());
+		assertEquals(5, report.getScartati());
+		assertEquals(List.of(2, 3, 4), report.getScarti().stream().map(RigaScartataDto::getRiga).toList());
+	}
+
+	@Test
+	void unDuplicatoRegistratoDuranteLImportScartaSoloLaSuaRiga() throws Exception {
+		String intestazione = "username,nome,cognome,email\n" + lotto + "1,Nome,Cognome," + lotto + "1@example.com\n";
+		String resto = lotto + "2,Nome,Cognome," + lotto + "2@example.com\n"
+				+ lotto + "3,Nome,Cognome," + lotto + "3@example.com\n";
+		// Il secondo pezzo del file viene letto dopo il caricamento dei valori esistenti: nel frattempo
+		// un'altra richiesta registra lo username della riga 3
+		InputStream resto2 = new ByteArrayInputStream(resto.getBytes(StandardCharsets.UTF_8)) {
+			private boolean registrato;
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				if (!registrato) {
+					registrato = true;
+					inserisci(lotto + "3", lotto + "altra@example.com");
+				}
+				return super.read(b, off, len);
+			}
+		};
+
+		ImportDipendentiDto report = dipendenteImportService.importa(new SequenceInputStream(stream(intestazione), resto2), false);
+
+		assertEquals(3, report.getRighe());
+		assertEquals(2, report.getImportati());
+		assertEquals(1, report.getScartati());
+		assertEquals(4, report.getScarti().get(0).getRiga());
+		assertEquals("Username " + lotto + "3 già in uso", report.getScarti().get(0).getErrore());
+		assertEquals(3, jdbcTemplate.queryForObject("select count(*) from dipendente where username like ?", Integer.class, lotto + "%"));
+	}
+
+	private void inserisci(String username, String email) {
+		jdbcTemplate.update("insert into dipendente (id, username, nome, cognome, email) values (nextval('dipendente_seq'), ?, 'Nome', 'Cognome', ?)",
+				username, email);
+	}
+
+	private static InputStream stream(String testo) {
+		return new ByteArrayInputStream(testo.getBytes(StandardCharsets.UTF_8));
+	}
+}
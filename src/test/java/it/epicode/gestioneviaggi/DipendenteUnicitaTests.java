@@ -0,0 +1,162 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.service.DipendenteService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Il dispatcher della outbox è spento: le mail accodate dalle registrazioni di test non devono partire
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class DipendenteUnicitaTests {
+
+	private static final int THREAD = 32;
+	private static final int ESISTENTI = 50_000;
+	private static final int REGISTRAZIONI = 2_000;
+	private static final String PREFISSO = "unicita-";
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private DipendenteService dipendenteService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@AfterEach
+	void pulisci() {
+		jdbcTemplate.update("delete from prenotazioni where dipendente_id in (select id from dipendente where username like ?)", PREFISSO + "%");
+		jdbcTemplate.update("delete from viaggio where destinazione = ?", PREFISSO + "viaggio");
+		jdbcTemplate.update("delete from mail_outbox where destinatario like ?", PREFISSO + "%");
+		jdbcTemplate.update("delete from dipendente where username like ?", PREFISSO + "%");
+	}
+
+	@Test
+	void registrazioniConcorrentiConLoStessoUsername() throws Exception {
+		String username = PREFISSO + System.nanoTime();
+		int create = registraInParallelo(i -> dipendente(username, PREFISSO + i + "-" + System.nanoTime() + "@example.com"));
+
+		assertEquals(1, create);
+		assertEquals(1, jdbcTemplate.queryForObject("select count(*) from dipendente where username = ?", Integer.class, username));
+	}
+
+	@Test
+	void registrazioniConcorrentiConLaStessaEmail() throws Exception {
+		String email = PREFISSO + System.nanoTime() + "@example.com";
+		int create = registraInParallelo(i -> dipendente(PREFISSO + i + "-" + System.nanoTime(), email));
+
+		assertEquals(1, create);
+		assertEquals(1, jdbcTemplate.queryForObject("select count(*) from dipendente where email = ?", Integer.class, email));
+	}
+
+	@Test
+	void registrazioniAlSecondoConTabellaPiena() throws Exception {
+		// Con i controlli preventivi ogni registrazione pagava due scansioni di questa tabella
+		jdbcTemplate.update("insert into dipendente (id, username, nome, cognome, email) " +
+				"select nextval('dipendente_seq'), ? || g, 'Nome', 'Cognome', ? || g || '@example.com' " +
+				"from generate_series(1, ?) g", PREFISSO + "esistente-", PREFISSO + "esistente-", ESISTENTI);
+
+		// Prima: i controlli preventivi di findByUsername/findByEmail, che senza i vincoli non avevano un indice
+		// (riprodotti con "|| ''" per non usare quello dei vincoli), su un quarto delle registrazioni
+		int preventivi = REGISTRAZIONI / 4;
+		long inizio = System.nanoTime();
+		for (int i = 0; i < preventivi; i++) {
+			String username = PREFISSO + "prima-" + i;
+			jdbcTemplate.queryForList("select id from dipendente where username || '' = ?", Long.class, username);
+			jdbcTemplate.queryForList("select id from dipendente where email || '' = ?", Long.class, username + "@example.com");
+			dipendenteService.save(dipendente(username, username + "@example.com"));
+		}
+		double secondiPrima = (System.nanoTime() - inizio) / 1_000_000_000.0;
+
+		inizio = System.nanoTime();
+		for (int i = 0; i < REGISTRAZIONI; i++) {
+			dipendenteService.save(dipendente(PREFISSO + "nuovo-" + i, PREFISSO + "nuovo-" + i + "@example.com"));
+		}
+		double secondi = (System.nanoTime() - inizio) / 1_000_000_000.0;
+		System.out.printf("Registrazioni dipendenti con %d dipendenti esistenti: %.0f/s con i controlli preventivi (%d in %.3f s), "
+						+ "%.0f/s con i vincoli (%d in %.3f s)%n", ESISTENTI, preventivi / secondiPrima, preventivi, secondiPrima,
+				REGISTRAZIONI / secondi, REGISTRAZIONI, secondi);
+
+		// Un duplicato viene comunque rifiutato con un conflitto
+		int rifiutate = 0;
+		try {
+			dipendenteService.save(dipendente(PREFISSO + "esistente-1", PREFISSO + "altra@example.com"));
+		} catch (ConflictException e) {
+			rifiutate++;
+		}
+		assertEquals(1, rifiutate);
+	}
+
+	@Test
+	void unaViolazioneNonDiUnicitaNonDiventaUnConflitto() throws Exception {
+		DipendenteDto dipendente = dipendenteService.save(dipendente(PREFISSO + System.nanoTime(), PREFISSO + System.nanoTime() + "@example.com"));
+		Long viaggioId = jdbcTemplate.queryForObject("insert into viaggio (id, destinazione, data, stato_viaggio, posti_disponibili) " +
+				"values (nextval('viaggio_seq'), ?, current_date + 30, 'IN_PROGRAMMA', 10) returning id", Long.class, PREFISSO + "viaggio");
+		jdbcTemplate.update("insert into prenotazioni (id, dipendente_id, viaggio_id, data_richiesta, data_prenotazione, numero_posti) " +
+				"values (nextval('prenotazioni_seq'), ?, ?, current_date, current_date, 1)", dipendente.getId(), viaggioId);
+
+		// Il dipendente ha una prenotazione: la chiave esterna rifiuta l'eliminazione, senza esporre il dettaglio del database
+		mockMvc.perform(delete("/dipendenti/" + dipendente.getId()))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$.message").value("Il dato non rispetta i vincoli richiesti"));
+	}
+
+	private int registraInParallelo(IntFunction<DipendenteDto> fornitore) throws Exception {
+		AtomicInteger create = new AtomicInteger();
+		AtomicInteger conflitti = new AtomicInteger();
+		CountDownLatch via = new CountDownLatch(1);
+		List<Future<?>> esiti = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(THREAD);
+		try {
+			for (int i = 0; i < THREAD; i++) {
+				DipendenteDto dto = fornitore.apply(i);
+				esiti.add(executor.submit(() -> {
+					via.await();
+					try {
+						dipendenteService.save(dto);
+						create.incrementAndGet();
+					} catch (ConflictException e) {
+						conflitti.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			via.countDown();
+			for (Future<?> esito : esiti) {
+				esito.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(THREAD, create.get() + conflitti.get());
+		return create.get();
+	}
+
+	private static DipendenteDto dipendente(String username, String email) {
+		DipendenteDto dto = new DipendenteDto();
+		dto.setUsername(username);
+		dto.setNome("Nome");
+		dto.setCognome("Cognome");
+		dto.setEmail(email);
+		return dto;
+	}
+}
@@ -0,0 +1,108 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import it.epicode.gestioneviaggi.repository.MigrazioniSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class DipendentiCursoreTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private DipendenteRepository dipendenteRepository;
+	@Autowired
+	private MigrazioniSchema migrazioniSchema;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@AfterEach
+	void pulisci() {
+		dipendenteRepository.deleteAll(dipendenti);
+	}
+
+	@Test
+	void laMigrazioneRendeObbligatorioIlCognome() {
+		Dipendente senzaCognome = salva("da togliere");
+		// Schema di prima del vincolo: colonna nullable e un cognome mancante
+		jdbcTemplate.execute("alter table dipendente alter column cognome drop not null");
+		jdbcTemplate.update("update dipendente set cognome = null where id = ?", senzaCognome.getId());
+
+		migrazioniSchema.applica();
+
+		assertEquals("", jdbcTemplate.queryForObject("select cognome from dipendente where id = ?", String.class, senzaCognome.getId()));
+		assertEquals("NO", jdbcTemplate.queryForObject("select is_nullable from information_schema.columns"
+				+ " where table_schema = current_schema() and table_name = 'dipendente' and column_name = 'cognome'", String.class));
+	}
+
+	@Test
+	void iCognomiVuotiNonVengonoSaltatiNeRipetuti() throws Exception {
+		List<Long> attesi = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			attesi.add(salva("").getId());
+		}
+
+		// Pagine da un elemento: ogni cursore cade su un cognome vuoto, che viene prima di tutti gli altri
+		List<Long> letti = new ArrayList<>();
+		String cursor = null;
+		String cognome;
+		do {
+			MockHttpServletRequestBuilder richiesta = get("/dipendenti/cursor").param("size", "1");
+			if (cursor != null) {
+				richiesta.param("cursor", cursor);
+			}
+			JsonNode pagina = objectMapper.readTree(mockMvc.perform(richiesta)
+					.andExpect(status().isOk())
+					.andReturn().getResponse().getContentAsString());
+			JsonNode dipendente = pagina.get("contenuto").get(0);
+			cognome = dipendente.get("cognome").asText();
+			if (cognome.isEmpty()) {
+				letti.add(dipendente.get("id").asLong());
+			}
+			cursor = pagina.get("nextCursor").isNull() ? null : pagina.get("nextCursor").asText();
+		} while (cursor != null && cognome.isEmpty());
+
+		assertEquals(attesi, letti.stream().filter(attesi::contains).toList());
+		assertEquals(letti.size(), letti.stream().distinct().count());
+	}
+
+	@Test
+	void ilCognomeEObbligatorio() {
+		assertThrows(DataIntegrityViolationException.class, () -> salva(null));
+	}
+
+	private Dipendente salva(String cognome) {
+		Dipendente dipendente = new Dipendente();
+		dipendente.setUsername("cursore-" + System.nanoTime());
+		dipendente.setNome("Nome");
+		dipendente.setCognome(cognome);
+		dipendente.setEmail(dipendente.getUsername() + "@example.com");
+		dipendente = dipendenteRepository.save(dipendente);
+		dipendenti.add(dipendente);
+		return dipendente;
+	}
+}
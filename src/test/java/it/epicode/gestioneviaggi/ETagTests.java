@@ -0,0 +1,127 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.service.VersioniRisorse;
+import it.epicode.gestioneviaggi.service.ViaggioService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Il dispatcher della outbox è spento: le statistiche di Hibernate sono globali e conterebbero il suo polling
+@SpringBootTest(properties = {
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"gestioneviaggi.mail.outbox.enabled=false"
+})
+@AutoConfigureMockMvc
+class ETagTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ViaggioService viaggioService;
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+	@Autowired
+	private VersioniRisorse versioniRisorse;
+	@Autowired
+	private CacheManager cacheManager;
+
+	private ViaggioDto viaggio;
+	private Statistics statistiche;
+
+	@BeforeEach
+	void prepara() throws Exception {
+		statistiche = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		ViaggioDto dto = new ViaggioDto();
+		dto.setDestinazione("Test ETag");
+		dto.setData(LocalDate.now().plusDays(30));
+		dto.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		viaggio = viaggioService.save(dto);
+	}
+
+	@AfterEach
+	void pulisci() throws Exception {
+		viaggioService.delete(viaggio.getId());
+	}
+
+	@Test
+	void viaggioNonModificatoSenzaStatementSql() throws Exception {
+		String etag = mockMvc.perform(get("/viaggi/{id}", viaggio.getId()))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		statistiche.clear();
+		mockMvc.perform(get("/viaggi/{id}", viaggio.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		assertEquals(0, statistiche.getPrepareStatementCount());
+	}
+
+	@Test
+	void elencoNonModificatoSenzaStatementSql() throws Exception {
+		String etag = mockMvc.perform(get("/viaggi"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		statistiche.clear();
+		mockMvc.perform(get("/viaggi").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		assertEquals(0, statistiche.getPrepareStatementCount());
+	}
+
+	@Test
+	void modificaCambiaETag() throws Exception {
+		String etag = mockMvc.perform(get("/viaggi/{id}", viaggio.getId()))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		String etagElenco = mockMvc.perform(get("/viaggi"))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		viaggio.setDestinazione("Test ETag modificato");
+		viaggioService.update(viaggio.getId(), viaggio);
+
+		String nuovoEtag = mockMvc.perform(get("/viaggi/{id}", viaggio.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotEquals(etag, nuovoEtag);
+		mockMvc.perform(get("/viaggi").header(HttpHeaders.IF_NONE_MATCH, etagElenco))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	void letturaConcorrenteAUnaModificaNonRestaInCache() throws Exception {
+		cacheManager.getCache(VersioniRisorse.VIAGGI).evict(viaggio.getId());
+		String etag = mockMvc.perform(get("/viaggi/{id}", viaggio.getId()))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		cacheManager.getCache(VersioniRisorse.VIAGGI).evict(viaggio.getId());
+
+		// La modifica viene registrata dopo che la lettura ha già preso dal database il dato vecchio
+		ViaggioDto letto = versioniRisorse.leggi(VersioniRisorse.VIAGGI, viaggio.getId(), () -> {
+			versioniRisorse.modificata(VersioniRisorse.VIAGGI, viaggio.getId());
+			return viaggio;
+		});
+
+		assertEquals(viaggio, letto);
+		assertNull(cacheManager.getCache(VersioniRisorse.VIAGGI).get(viaggio.getId()));
+		mockMvc.perform(get("/viaggi/{id}", viaggio.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+	}
+}
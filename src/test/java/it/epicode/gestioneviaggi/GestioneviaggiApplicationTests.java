@@ -3,7 +3,7 @@ package it.epicode.gestioneviaggi;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
 class GestioneviaggiApplicationTests {
 
 	@Test
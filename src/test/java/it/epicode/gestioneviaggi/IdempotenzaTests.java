@@ -0,0 +1,146 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.RispostaIdempotente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.RispostaIdempotenteRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.IdempotenzaService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class IdempotenzaTests {
+
+	private static final int RICHIESTE_CONCORRENTI = 8;
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private RispostaIdempotenteRepository rispostaIdempotenteRepository;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+	private final List<String> chiavi = new ArrayList<>();
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test idempotenza", 10);
+		dipendenti.addAll(datiDiProva.dipendenti("idempotenza", 2));
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(dipendenti);
+		rispostaIdempotenteRepository.deleteAllById(chiavi);
+	}
+
+	@Test
+	void laRipetizioneRestituisceLaPrimaRisposta() throws Exception {
+		String chiave = chiave();
+		MockHttpServletResponse prima = prenota(chiave, 0, 2);
+		MockHttpServletResponse ripetuta = prenota(chiave, 0, 2);
+
+		assertEquals(201, prima.getStatus());
+		assertNull(prima.getHeader(IdempotenzaService.HEADER_RIPETUTA));
+		assertEquals(201, ripetuta.getStatus());
+		assertEquals("true", ripetuta.getHeader(IdempotenzaService.HEADER_RIPETUTA));
+		assertEquals(id(prima), id(ripetuta));
+		assertEquals(1, datiDiProva.postiPrenotati(viaggio.getId()).size());
+		assertEquals(8, viaggioRepository.findPostiDisponibiliById(viaggio.getId()).orElseThrow());
+
+		// La risposta resta nel database anche quando esce dalla memoria
+		RispostaIdempotente registrata = rispostaIdempotenteRepository.findById(chiave).orElseThrow();
+		assertEquals(201, registrata.getStatus());
+		assertEquals(id(prima), objectMapper.readTree(registrata.getCorpo()).get("id").asLong());
+
+		// Stessa chiave con un corpo diverso: rifiutata senza eseguire nulla
+		assertEquals(400, prenota(chiave, 1, 2).getStatus());
+		assertEquals(1, datiDiProva.postiPrenotati(viaggio.getId()).size());
+	}
+
+	@Test
+	void gliErroriNonVengonoRegistrati() throws Exception {
+		String chiave = chiave();
+		assertEquals(409, prenota(chiave, 0, 20).getStatus());
+		assertFalse(rispostaIdempotenteRepository.existsById(chiave));
+		assertEquals(10, viaggioRepository.findPostiDisponibiliById(viaggio.getId()).orElseThrow());
+	}
+
+	@Test
+	void richiesteConcorrentiConLaStessaChiaveUnaSolaEsecuzione() throws Exception {
+		String chiave = chiave();
+		CountDownLatch partenza = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(RICHIESTE_CONCORRENTI);
+		try {
+			List<Future<MockHttpServletResponse>> risposte = new ArrayList<>();
+			for (int i = 0; i < RICHIESTE_CONCORRENTI; i++) {
+				risposte.add(executor.submit(() -> {
+					partenza.await();
+					return prenota(chiave, 1, 3);
+				}));
+			}
+			partenza.countDown();
+			Set<Long> ids = new HashSet<>();
+			for (Future<MockHttpServletResponse> risposta : risposte) {
+				assertEquals(201, risposta.get().getStatus());
+				ids.add(id(risposta.get()));
+			}
+			assertEquals(1, ids.size());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, datiDiProva.postiPrenotati(viaggio.getId()).size());
+		assertEquals(7, viaggioRepository.findPostiDisponibiliById(viaggio.getId()).orElseThrow());
+	}
+
+	private MockHttpServletResponse prenota(String chiave, int dipendente, int posti) throws Exception {
+		String corpo = "{\"dipendenteId\":" + dipendenti.get(dipendente).getId() + ",\"idViaggio\":" + viaggio.getId()
+				+ ",\"numeroPosti\":" + posti + ",\"dataPrenotazione\":\"" + LocalDate.now() + "\"}";
+		return mockMvc.perform(post("/prenotazioni").header(IdempotenzaService.HEADER, chiave)
+						.contentType(MediaType.APPLICATION_JSON).content(corpo))
+				.andReturn().getResponse();
+	}
+
+	private long id(MockHttpServletResponse risposta) throws Exception {
+		return objectMapper.readTree(risposta.getContentAsString()).get("id").asLong();
+	}
+
+	private String chiave() {
+		String chiave = UUID.randomUUID().toString();
+		chiavi.add(chiave);
+		return chiave;
+	}
+}
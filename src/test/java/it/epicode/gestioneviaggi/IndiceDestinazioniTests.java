@@ -0,0 +1,111 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.DestinazioneDto;
+import it.epicode.gestioneviaggi.service.IndiceDestinazioni;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Solo la parte in memoria dell'indice: non serve il contesto Spring né il database
+class IndiceDestinazioniTests {
+
+	private static final LocalDate DOMANI = LocalDate.now().plusDays(1);
+
+	@Test
+	void suggerimentiPerPrefissoSenzaMaiuscoleNeAccenti() {
+		IndiceDestinazioni indice = new IndiceDestinazioni();
+		indice.aggiungi("Forlì", DOMANI);
+		indice.aggiungi("forli", DOMANI);
+		indice.aggiungi("Roma", DOMANI);
+		indice.aggiungi("Roma", DOMANI.plusDays(1));
+		indice.aggiungi("Roma", DOMANI.plusDays(2));
+		indice.aggiungi("Rovigo", DOMANI);
+		indice.aggiungi("Romagna", DOMANI);
+		indice.aggiungi("Romagna", DOMANI);
+		indice.aggiungi("Rimini", LocalDate.now().minusDays(1)); // viaggio passato: non conta
+
+		assertEquals(List.of(new DestinazioneDto("Forlì", 2)), indice.suggerisci("FORLI", 10));
+		assertEquals(List.of(new DestinazioneDto("Roma", 3), new DestinazioneDto("Romagna", 2), new DestinazioneDto("Rovigo", 1)),
+				indice.suggerisci("ro", 10));
+		assertEquals(List.of(new DestinazioneDto("Roma", 3), new DestinazioneDto("Romagna", 2)), indice.suggerisci("r", 2));
+		assertTrue(indice.suggerisci("ri", 10).isEmpty());
+
+		// Modifica ed eliminazione: la destinazione sparisce con il suo ultimo viaggio
+		indice.rimuovi("Rovigo", DOMANI);
+		indice.rimuovi("Roma", DOMANI);
+		assertEquals(List.of(new DestinazioneDto("Roma", 2), new DestinazioneDto("Romagna", 2)), indice.suggerisci("ro", 10));
+	}
+
+	@Test
+	void dentroUnaTransazioneLIndiceCambiaSoloDopoIlCommit() {
+		IndiceDestinazioni indice = new IndiceDestinazioni();
+		indice.aggiungi("Roma", DOMANI);
+
+		// Transazione annullata: l'indice non cambia
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			indice.rimuovi("Roma", DOMANI);
+			indice.aggiungi("Rovigo", DOMANI);
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertEquals(List.of(new DestinazioneDto("Roma", 1)), indice.suggerisci("ro", 10));
+
+		// Transazione confermata: le modifiche arrivano con il commit
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			indice.rimuovi("Roma", DOMANI);
+			indice.aggiungi("Rovigo", DOMANI);
+			assertEquals(List.of(new DestinazioneDto("Roma", 1)), indice.suggerisci("ro", 10));
+			TransactionSynchronizationUtils.invokeAfterCommit(TransactionSynchronizationManager.getSynchronizations());
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		assertEquals(List.of(new DestinazioneDto("Rovigo", 1)), indice.suggerisci("ro", 10));
+	}
+
+	@Test
+	void latenzaDeiSuggerimenti() {
+		IndiceDestinazioni indice = new IndiceDestinazioni();
+		Random random = new Random(42);
+		int destinazioni = 20_000;
+		for (int i = 0; i < destinazioni; i++) {
+			String nome = parola(random) + " " + parola(random);
+			for (int v = random.nextInt(20); v >= 0; v--) {
+				indice.aggiungi(nome, DOMANI.plusDays(v));
+			}
+		}
+		String[] prefissi = new String[1000];
+		for (int i = 0; i < prefissi.length; i++) {
+			prefissi[i] = parola(random).substring(0, 1 + random.nextInt(3));
+		}
+		for (int i = 0; i < 5_000; i++) {
+			indice.suggerisci(prefissi[i % prefissi.length], 10); // riscaldamento
+		}
+
+		int richieste = 20_000;
+		long inizio = System.nanoTime();
+		for (int i = 0; i < richieste; i++) {
+			indice.suggerisci(prefissi[i % prefissi.length], 10);
+		}
+		double microsecondi = (System.nanoTime() - inizio) / 1_000.0 / richieste;
+		System.out.printf("Suggerimenti destinazioni: %.1f microsecondi per richiesta su %d destinazioni%n", microsecondi, destinazioni);
+		assertTrue(microsecondi < 1_000, "Latenza media " + microsecondi + " microsecondi");
+	}
+
+	private static String parola(Random random) {
+		char[] lettere = new char[4 + random.nextInt(6)];
+		for (int i = 0; i < lettere.length; i++) {
+			lettere[i] = (char) ('a' + random.nextInt(26));
+		}
+		lettere[0] = Character.toUpperCase(lettere[0]);
+		return new String(lettere);
+	}
+}
@@ -0,0 +1,142 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class ItinerarioTests {
+
+	private static final int DIPENDENTI = 2_000;
+	private static final int GIORNI = 500;
+	private static final LocalDate OGGI = LocalDate.now();
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+
+	private Viaggio viaggio;
+	private long ultimoDipendentePrecedente;
+	private long dipendenteId;
+
+	@BeforeEach
+	void prepara() {
+		viaggio = new Viaggio();
+		viaggio.setDestinazione("Test itinerario");
+		viaggio.setData(OGGI.plusDays(30));
+		viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		viaggio.setPostiDisponibili(0);
+		viaggio = viaggioRepository.save(viaggio);
+		ultimoDipendentePrecedente = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from dipendente", Long.class);
+		long suffisso = System.nanoTime();
+		jdbcTemplate.update("insert into dipendente (id, username, nome, cognome, email) " +
+				"select nextval('dipendente_seq'), 'itinerario-' || g || '-' || ?, 'Nome', 'Cognome' || g, " +
+				"'itinerario-' || g || '-' || ? || '@example.com' from generate_series(1, ?) g", suffisso, suffisso, DIPENDENTI);
+		// Un milione di prenotazioni: una al giorno per dipendente, negli ultimi GIORNI giorni
+		jdbcTemplate.update("insert into prenotazioni (id, dipendente_id, viaggio_id, data_richiesta, data_prenotazione, numero_posti) " +
+				"select nextval('prenotazioni_seq'), d.id, ?, ?::date, ?::date - g, 1 + g % 3 " +
+				"from dipendente d cross join generate_series(0, ?) g where d.id > ?",
+				viaggio.getId(), OGGI, OGGI, GIORNI - 1, ultimoDipendentePrecedente);
+		// Statistiche aggiornate e visibility map valorizzata, come su una tabella in esercizio
+		jdbcTemplate.execute("vacuum analyze prenotazioni");
+		dipendenteId = jdbcTemplate.queryForObject("select id from dipendente where id > ? order by id offset ? limit 1",
+				Long.class, ultimoDipendentePrecedente, DIPENDENTI / 2);
+	}
+
+	@AfterEach
+	void pulisci() {
+		jdbcTemplate.update("delete from prenotazioni where dipendente_id > ?", ultimoDipendentePrecedente);
+		jdbcTemplate.update("delete from dipendente where id > ?", ultimoDipendentePrecedente);
+		viaggioRepository.deleteById(viaggio.getId());
+	}
+
+	@Test
+	void paginaDellItinerarioSuUnMilioneDiPrenotazioni() throws Exception {
+		// La stessa query di PrenotazioneRepository.findItinerario, su una pagina successiva alla prima
+		String piano = String.join("\n", jdbcTemplate.queryForList("explain select p.id, p.data_prenotazione, p.numero_posti, " +
+				"v.id, v.destinazione, v.data, v.stato_viaggio from prenotazioni p left join viaggio v on v.id = p.viaggio_id " +
+				"where p.dipendente_id = " + dipendenteId + " and p.data_prenotazione between '" + OGGI.minusDays(300) +
+				"' and '" + OGGI + "' and (p.data_prenotazione, p.id) > ('" + OGGI.minusDays(200) + "', 0) " +
+				"order by p.data_prenotazione, p.id limit 21", String.class));
+		System.out.println("Piano dell'itinerario:\n" + piano);
+		assertTrue(piano.contains("Index Only Scan using idx_prenotazioni_dipendente_data"), piano);
+		assertFalse(piano.contains("Sort"), piano);
+
+		// 45 prenotazioni nell'intervallo: due pagine piene e una da 5, in ordine di data
+		LocalDate al = OGGI.minusDays(100);
+		LocalDate dal = al.minusDays(44);
+		List<LocalDate> date = new ArrayList<>();
+		String cursor = null;
+		List<Integer> dimensioni = new ArrayList<>();
+		do {
+			MockHttpServletRequestBuilder richiesta = get("/dipendenti/" + dipendenteId + "/prenotazioni")
+					.param("dal", dal.toString()).param("al", al.toString()).param("size", "20");
+			if (cursor != null) {
+				richiesta.param("cursor", cursor);
+			}
+			JsonNode pagina = objectMapper.readTree(mockMvc.perform(richiesta)
+					.andExpect(status().isOk())
+					.andExpect(BudgetSql.alPiu(1))
+					.andReturn().getResponse().getContentAsString());
+			dimensioni.add(pagina.get("size").asInt());
+			for (JsonNode riga : pagina.get("contenuto")) {
+				date.add(LocalDate.parse(riga.get("dataPrenotazione").asText()));
+				assertEquals(viaggio.getId(), riga.get("idViaggio").asLong());
+				assertEquals("Test itinerario", riga.get("destinazione").asText());
+			}
+			cursor = pagina.get("nextCursor").isNull() ? null : pagina.get("nextCursor").asText();
+		} while (cursor != null);
+		assertEquals(List.of(20, 20, 5), dimensioni);
+		assertEquals(dal, date.get(0));
+		assertEquals(al, date.get(date.size() - 1));
+		for (int i = 1; i < date.size(); i++) {
+			assertTrue(date.get(i).isAfter(date.get(i - 1)));
+		}
+
+		mockMvc.perform(get("/dipendenti/" + dipendenteId + "/prenotazioni").param("size", "50")).andExpect(status().isOk()); // riscaldamento
+		int ripetizioni = 50;
+		long inizio = System.nanoTime();
+		for (int i = 0; i < ripetizioni; i++) {
+			mockMvc.perform(get("/dipendenti/" + dipendenteId + "/prenotazioni").param("size", "50")
+					.param("dal", OGGI.minusDays(GIORNI - i).toString())).andExpect(status().isOk());
+		}
+		System.out.printf("Itinerario su %d prenotazioni: %.2f ms per pagina%n", DIPENDENTI * GIORNI,
+				(System.nanoTime() - inizio) / 1_000_000.0 / ripetizioni);
+
+		// Nello stesso test per non ripetere il caricamento delle prenotazioni
+		mockMvc.perform(get("/dipendenti/" + Long.MAX_VALUE + "/prenotazioni")).andExpect(status().isNotFound());
+		mockMvc.perform(get("/dipendenti/" + dipendenteId + "/prenotazioni")
+						.param("dal", OGGI.toString()).param("al", OGGI.minusDays(1).toString()))
+				.andExpect(status().isBadRequest());
+		// Un dipendente esistente senza prenotazioni nell'intervallo ha un itinerario vuoto
+		mockMvc.perform(get("/dipendenti/" + dipendenteId + "/prenotazioni").param("dal", OGGI.plusDays(1).toString()))
+				.andExpect(status().isOk());
+	}
+}
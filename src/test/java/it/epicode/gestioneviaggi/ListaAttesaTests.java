@@ -0,0 +1,146 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.ListaAttesaService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class ListaAttesaTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private ListaAttesaService listaAttesaService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test lista d'attesa", 5);
+		dipendenti.addAll(datiDiProva.dipendenti("attesa", 4));
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void postiRestituitiPassanoAllaCodaInOrdineDiArrivo() throws Exception {
+		long prenotazione = id(prenota(0, 5, false).andExpect(status().isCreated()));
+
+		// Senza attesa=true i posti esauriti restano un 409
+		prenota(1, 2, false).andExpect(status().isConflict());
+
+		long primo = id(prenota(1, 2, true).andExpect(status().isAccepted()).andExpect(jsonPath("$.posizione", is(1))));
+		long secondo = id(prenota(2, 3, true).andExpect(jsonPath("$.posizione", is(2))));
+		long terzo = id(prenota(3, 2, true).andExpect(jsonPath("$.posizione", is(3))));
+		// Una sola richiesta in attesa per dipendente e data
+		prenota(3, 2, true).andExpect(status().isConflict());
+
+		// Riducendo la prenotazione da 5 a 3 posti i 2 liberati vanno al primo in coda
+		mockMvc.perform(put("/prenotazioni/" + prenotazione).contentType(MediaType.APPLICATION_JSON).content(corpo(0, 3)))
+				.andExpect(status().isOk());
+		mockMvc.perform(get("/attesa/" + primo))
+				.andExpect(jsonPath("$.stato", is("PROMOSSA")))
+				.andExpect(jsonPath("$.posizione", nullValue()))
+				.andExpect(jsonPath("$.prenotazioneId", notNullValue()));
+		mockMvc.perform(get("/attesa").param("viaggio", viaggio.getId().toString()))
+				.andExpect(jsonPath("$", hasSize(2)))
+				.andExpect(jsonPath("$[0].id", is((int) secondo)))
+				.andExpect(jsonPath("$[0].posizione", is(1)));
+
+		// Eliminando la prenotazione i 3 posti vanno al secondo; il terzo non viene servito prima di lui
+		mockMvc.perform(delete("/prenotazioni/" + prenotazione)).andExpect(status().isNoContent());
+		mockMvc.perform(get("/attesa/" + secondo)).andExpect(jsonPath("$.stato", is("PROMOSSA")));
+		mockMvc.perform(get("/attesa/" + terzo)).andExpect(jsonPath("$.posizione", is(1)));
+		assertEquals(0, viaggioRepository.findPostiDisponibiliById(viaggio.getId()).orElseThrow());
+		assertEquals(2, datiDiProva.postiPrenotati(viaggio.getId()).size());
+
+		mockMvc.perform(delete("/attesa/" + terzo)).andExpect(status().isNoContent());
+		mockMvc.perform(delete("/attesa/" + terzo)).andExpect(status().isConflict());
+		mockMvc.perform(get("/attesa").param("viaggio", viaggio.getId().toString()))
+				.andExpect(jsonPath("$", hasSize(0)));
+	}
+
+	@Test
+	void leRichiesteAnnullateNonContanoNellePromozioni() throws Exception {
+		long prenotazione = id(prenota(0, 5, false).andExpect(status().isCreated()));
+		long primo = id(prenota(1, 2, true).andExpect(status().isAccepted()));
+		long secondo = id(prenota(2, 2, true).andExpect(status().isAccepted()));
+		// Il primo in coda ottiene nel frattempo una prenotazione nella stessa data
+		jdbcTemplate.update("insert into prenotazioni (id, dipendente_id, viaggio_id, data_richiesta, data_prenotazione, numero_posti) " +
+				"values (nextval('prenotazioni_seq'), ?, ?, current_date, current_date, 1)", dipendenti.get(1).getId(), viaggio.getId());
+
+		// Una sola promozione per restituzione: la richiesta annullata non deve consumarla
+		Object servizio = AopTestUtils.getTargetObject(listaAttesaService);
+		int promozioniMassime = (int) ReflectionTestUtils.getField(servizio, "promozioniMassime");
+		ReflectionTestUtils.setField(servizio, "promozioniMassime", 1);
+		try {
+			mockMvc.perform(put("/prenotazioni/" + prenotazione).contentType(MediaType.APPLICATION_JSON).content(corpo(0, 3)))
+					.andExpect(status().isOk());
+		} finally {
+			ReflectionTestUtils.setField(servizio, "promozioniMassime", promozioniMassime);
+		}
+
+		mockMvc.perform(get("/attesa/" + primo)).andExpect(jsonPath("$.stato", is("ANNULLATA")));
+		mockMvc.perform(get("/attesa/" + secondo)).andExpect(jsonPath("$.stato", is("PROMOSSA")));
+	}
+
+	private ResultActions prenota(int dipendente, int posti, boolean attesa) throws Exception {
+		return mockMvc.perform(post("/prenotazioni").param("attesa", Boolean.toString(attesa))
+				.contentType(MediaType.APPLICATION_JSON).content(corpo(dipendente, posti)));
+	}
+
+	private String corpo(int dipendente, int posti) {
+		return "{\"dipendenteId\":" + dipendenti.get(dipendente).getId() + ",\"idViaggio\":" + viaggio.getId()
+				+ ",\"numeroPosti\":" + posti + ",\"dataPrenotazione\":\"" + LocalDate.now() + "\"}";
+	}
+
+	private long id(ResultActions risultato) throws Exception {
+		JsonNode json = objectMapper.readTree(risultato.andReturn().getResponse().getContentAsString());
+		return json.get("id").asLong();
+	}
+}
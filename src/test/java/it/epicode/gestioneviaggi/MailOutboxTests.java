@@ -0,0 +1,214 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.DipendenteDto;
+import it.epicode.gestioneviaggi.enumeration.StatoMail;
+import it.epicode.gestioneviaggi.model.MailOutbox;
+import it.epicode.gestioneviaggi.repository.MailOutboxRepository;
+import it.epicode.gestioneviaggi.service.DipendenteService;
+import it.epicode.gestioneviaggi.service.MailOutboxDispatcher;
+import it.epicode.gestioneviaggi.service.MailOutboxService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Il dispatcher resta spento: i giri vengono eseguiti dal test, con un JavaMailSender che registra le mail invece di spedirle
+@SpringBootTest(properties = {
+		"gestioneviaggi.mail.outbox.enabled=false",
+		"gestioneviaggi.mail.outbox.batch-size=10",
+		"gestioneviaggi.mail.outbox.max-tentativi=2",
+		"gestioneviaggi.mail.outbox.backoff-iniziale-ms=1000"
+})
+class MailOutboxTests {
+
+	private static final String PREFISSO = "outbox-";
+
+	@Autowired
+	private MailOutboxDispatcher mailOutboxDispatcher;
+	@Autowired
+	private MailOutboxService mailOutboxService;
+	@Autowired
+	private MailOutboxRepository mailOutboxRepository;
+	@Autowired
+	private DipendenteService dipendenteService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private SmtpFinto smtp;
+
+	@TestConfiguration
+	static class Configurazione {
+
+		@Bean
+		@Primary
+		SmtpFinto smtpFinto() {
+			return new SmtpFinto();
+		}
+	}
+
+	// Registra le mail ricevute; può fallire i prossimi invii o rallentarli
+	static class SmtpFinto extends JavaMailSenderImpl {
+
+		final List<SimpleMailMessage> ricevute = Collections.synchronizedList(new ArrayList<>());
+		final AtomicInteger invioDaFallire = new AtomicInteger();
+		volatile long ritardoMs;
+
+		@Override
+		public void send(SimpleMailMessage... messaggi) {
+			if (invioDaFallire.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+				throw new MailSendException("Server SMTP non raggiungibile");
+			}
+			if (ritardoMs > 0) {
+				try {
+					Thread.sleep(ritardoMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			ricevute.addAll(List.of(messaggi));
+		}
+	}
+
+	@BeforeEach
+	void prepara() {
+		smtp.ricevute.clear();
+		smtp.invioDaFallire.set(0);
+		smtp.ritardoMs = 0;
+		// Le mail già in attesa nel database non riguardano il test: rimandate di mille anni e riportate indietro alla fine
+		jdbcTemplate.update("update mail_outbox set prossimo_tentativo = prossimo_tentativo + interval '1000 years' where stato = 'IN_ATTESA'");
+	}
+
+	@AfterEach
+	void pulisci() {
+		jdbcTemplate.update("delete from mail_outbox where destinatario like ?", PREFISSO + "%");
+		jdbcTemplate.update("delete from dipendente where username like ?", PREFISSO + "%");
+		jdbcTemplate.update("update mail_outbox set prossimo_tentativo = prossimo_tentativo - interval '1000 years'"
+				+ " where stato = 'IN_ATTESA' and prossimo_tentativo > now() + interval '500 years'");
+	}
+
+	@Test
+	void laRegistrazioneScriveLaMailCheVieneInviata() throws Exception {
+		String username = PREFISSO + System.nanoTime();
+		DipendenteDto dto = new DipendenteDto();
+		dto.setUsername(username);
+		dto.setNome("Nome");
+		dto.setCognome("Cognome");
+		dto.setEmail(username + "@example.com");
+		dipendenteService.save(dto);
+
+		MailOutbox mail = mailDi(username + "@example.com");
+		assertEquals(StatoMail.IN_ATTESA, mail.getStato());
+		assertTrue(smtp.ricevute.isEmpty());
+
+		assertEquals(1, drena());
+		assertEquals(1, smtp.ricevute.size());
+		assertEquals(username + "@example.com", smtp.ricevute.get(0).getTo()[0]);
+		assertEquals("Registrazione Servizio rest", smtp.ricevute.get(0).getSubject());
+		mail = mailDi(username + "@example.com");
+		assertEquals(StatoMail.INVIATA, mail.getStato());
+		assertNotNull(mail.getInviataIl());
+		assertEquals(0, drena());
+	}
+
+	@Test
+	void unInvioFallitoVieneRitentatoConBackoffFinoAlMassimo() throws Exception {
+		String destinatario = PREFISSO + System.nanoTime() + "@example.com";
+		mailOutboxService.accoda(destinatario, "Oggetto", "Testo");
+
+		smtp.invioDaFallire.set(1);
+		assertEquals(1, drena());
+		MailOutbox mail = mailDi(destinatario);
+		assertEquals(StatoMail.IN_ATTESA, mail.getStato());
+		assertEquals(1, mail.getTentativi());
+		assertEquals("Server SMTP non raggiungibile", mail.getUltimoErrore());
+		// Prima della fine del backoff la mail non viene ripresa
+		assertEquals(0, drena());
+
+		Thread.sleep(1200);
+		assertEquals(1, drena());
+		assertEquals(StatoMail.INVIATA, mailDi(destinatario).getStato());
+		assertEquals(1, smtp.ricevute.size());
+
+		// Con max-tentativi=2 il secondo fallimento è definitivo
+		String scartata = PREFISSO + "scartata-" + System.nanoTime() + "@example.com";
+		mailOutboxService.accoda(scartata, "Oggetto", "Testo");
+		smtp.invioDaFallire.set(2);
+		drena();
+		Thread.sleep(1200);
+		drena();
+		assertEquals(StatoMail.FALLITA, mailDi(scartata).getStato());
+		assertEquals(2, mailDi(scartata).getTentativi());
+	}
+
+	@Test
+	void giriConcorrentiNonInvianoDueVolteLaStessaMail() throws Exception {
+		int totale = 60;
+		for (int i = 0; i < totale; i++) {
+			mailOutboxService.accoda(PREFISSO + i + "-" + System.nanoTime() + "@example.com", "Oggetto", "Testo");
+		}
+		// Invii lenti: senza la presa in carico ogni giro rileggerebbe le mail degli altri ancora IN_ATTESA
+		smtp.ritardoMs = 100;
+
+		CountDownLatch via = new CountDownLatch(1);
+		List<Future<?>> esiti = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int t = 0; t < 4; t++) {
+				esiti.add(executor.submit(() -> {
+					via.await();
+					while (drena() > 0) {
+						// continua finché ci sono mail pronte
+					}
+					return null;
+				}));
+			}
+			via.countDown();
+			for (Future<?> esito : esiti) {
+				esito.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<String> destinatari = smtp.ricevute.stream().map(m -> m.getTo()[0]).toList();
+		assertEquals(totale, destinatari.size());
+		assertEquals(totale, new HashSet<>(destinatari).size());
+		assertEquals(totale, jdbcTemplate.queryForObject("select count(*) from mail_outbox where destinatario like ? and stato = 'INVIATA'",
+				Integer.class, PREFISSO + "%"));
+	}
+
+	private int drena() {
+		Integer elaborate = ReflectionTestUtils.invokeMethod(mailOutboxDispatcher, "drena");
+		return elaborate;
+	}
+
+	private MailOutbox mailDi(String destinatario) {
+		return mailOutboxRepository.findAll().stream()
+				.filter(m -> m.getDestinatario().equals(destinatario))
+				.findFirst()
+				.orElseThrow();
+	}
+}
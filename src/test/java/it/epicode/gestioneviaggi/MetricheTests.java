@@ -0,0 +1,95 @@
+package it.epicode.gestioneviaggi;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+@AutoConfigureObservability // nei test l'export delle metriche è spento: serve per avere /actuator/prometheus
+class MetricheTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private MeterRegistry meterRegistry;
+	@Autowired
+	private PrenotazioneService prenotazioneService;
+	@Autowired
+	private DatiDiProva datiDiProva;
+
+	private final List<Viaggio> viaggi = new ArrayList<>();
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@AfterEach
+	void pulisci() {
+		for (Viaggio viaggio : viaggi) {
+			datiDiProva.eliminaViaggio(viaggio.getId());
+		}
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void postiEsauritiEConflittiEspostiSuPrometheus() throws Exception {
+		Viaggio pieno = viaggio(2);
+		Viaggio libero = viaggio(10);
+		dipendenti.addAll(datiDiProva.dipendenti("metriche", 2));
+		Dipendente primo = dipendenti.get(0);
+		Dipendente secondo = dipendenti.get(1);
+		double esauriti = meterRegistry.counter("gestioneviaggi.posti.esauriti").count();
+		double conflitti = meterRegistry.counter("gestioneviaggi.prenotazioni.conflitti").count();
+
+		prenotazioneService.save(prenotazione(primo, pieno, 2));
+		// Nessun posto rimasto sul primo viaggio
+		assertThrows(ConflictException.class, () -> prenotazioneService.save(prenotazione(secondo, pieno, 1)));
+		// Stesso dipendente e stessa data su un altro viaggio: violato il vincolo (dipendente, data)
+		assertThrows(ConflictException.class, () -> prenotazioneService.save(prenotazione(primo, libero, 1)));
+
+		assertEquals(esauriti + 1, meterRegistry.counter("gestioneviaggi.posti.esauriti").count());
+		assertEquals(conflitti + 1, meterRegistry.counter("gestioneviaggi.prenotazioni.conflitti").count());
+
+		String metriche = mockMvc.perform(get("/actuator/prometheus"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString();
+		assertTrue(metriche.contains("gestioneviaggi_servizi_seconds_bucket{application=\"gestioneviaggi\",class=\"it.epicode.gestioneviaggi.service.PrenotazioneService\""), metriche);
+		assertTrue(metriche.contains("method=\"save\""), metriche);
+		assertTrue(metriche.contains("gestioneviaggi_posti_esauriti_total"), metriche);
+		assertTrue(metriche.contains("gestioneviaggi_prenotazioni_conflitti_total"), metriche);
+		assertTrue(metriche.contains("hikaricp_connections_active"), metriche);
+	}
+
+	private Viaggio viaggio(int posti) {
+		Viaggio viaggio = datiDiProva.viaggio("Test metriche", posti);
+		viaggi.add(viaggio);
+		return viaggio;
+	}
+
+	private static PrenotazioneDto prenotazione(Dipendente dipendente, Viaggio viaggio, int posti) {
+		PrenotazioneDto dto = new PrenotazioneDto();
+		dto.setDipendenteId(dipendente.getId());
+		dto.setIdViaggio(viaggio.getId());
+		dto.setNumeroPosti(posti);
+		dto.setDataPrenotazione(LocalDate.now());
+		return dto;
+	}
+}
@@ -0,0 +1,148 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.EsitoPrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.exception.NotFoundException;
+import it.epicode.gestioneviaggi.service.PostiService;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+class PrenotazioneBatchTests {
+
+	private static final int PRENOTAZIONI = 1000;
+	private static final int DIPENDENTI = 50;
+	private static final int POSTI = 2 * PRENOTAZIONI;
+
+	@Autowired
+	private PrenotazioneService prenotazioneService;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private PostiConInterferenza postiService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@TestConfiguration
+	static class Configurazione {
+
+		@Bean
+		@Primary
+		PostiConInterferenza postiConInterferenza() {
+			return new PostiConInterferenza();
+		}
+	}
+
+	// Esegue un'azione prima della prossima riserva: cade tra la lettura delle prenotazioni esistenti e gli insert
+	static class PostiConInterferenza extends PostiService {
+
+		volatile Runnable primaDellaRiserva;
+
+		@Override
+		public void riserva(Long viaggioId, int posti) throws NotFoundException, ConflictException {
+			Runnable azione = primaDellaRiserva;
+			primaDellaRiserva = null;
+			if (azione != null) {
+				azione.run();
+			}
+			super.riserva(viaggioId, posti);
+		}
+	}
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test batch", POSTI);
+		dipendenti.addAll(datiDiProva.dipendenti("batch", DIPENDENTI));
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void batchSalvaTutteLePrenotazioni() throws Exception {
+		List<EsitoPrenotazioneDto> esiti = prenotazioneService.saveBatch(prenotazioni(0));
+
+		assertEquals(PRENOTAZIONI, esiti.stream().filter(e -> e.getStatus() == 201).count());
+		assertEquals(PRENOTAZIONI, datiDiProva.postiPrenotati(viaggio.getId()).size());
+		assertEquals(POSTI - PRENOTAZIONI, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+	}
+
+	@Test
+	void batchConEsitiPerPrenotazione() throws Exception {
+		List<PrenotazioneDto> batch = new ArrayList<>(prenotazioni(0).subList(0, 3));
+		batch.add(batch.get(0));                                  // duplicato nel batch
+		PrenotazioneDto futura = prenotazioni(0).get(3);
+		futura.setDataPrenotazione(LocalDate.now().plusDays(1));
+		batch.add(futura);                                         // data non valida
+		PrenotazioneDto troppiPosti = prenotazioni(0).get(4);
+		troppiPosti.setNumeroPosti(POSTI);
+		batch.add(troppiPosti);                                    // posti insufficienti
+
+		List<EsitoPrenotazioneDto> esiti = prenotazioneService.saveBatch(batch);
+
+		assertEquals(List.of(201, 201, 201, 409, 400, 409), esiti.stream().map(EsitoPrenotazioneDto::getStatus).toList());
+		assertEquals(3, datiDiProva.postiPrenotati(viaggio.getId()).size());
+		assertEquals(POSTI - 3, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+	}
+
+	@Test
+	void unaPrenotazioneConcorrenteRifiutaSoloLaSuaRiga() throws Exception {
+		List<PrenotazioneDto> batch = new ArrayList<>(prenotazioni(0).subList(0, 3));
+		PrenotazioneDto contesa = batch.get(1);
+		// Un'altra richiesta prenota lo stesso dipendente nella stessa data dopo la lettura iniziale del batch
+		postiService.primaDellaRiserva = () -> CompletableFuture.runAsync(() -> jdbcTemplate.update(
+				"insert into prenotazioni (id, dipendente_id, viaggio_id, data_richiesta, data_prenotazione, numero_posti) " +
+						"values (nextval('prenotazioni_seq'), ?, ?, current_date, ?, 1)",
+				contesa.getDipendenteId(), viaggio.getId(), contesa.getDataPrenotazione())).join();
+
+		List<EsitoPrenotazioneDto> esiti = prenotazioneService.saveBatch(batch);
+
+		assertEquals(List.of(201, 409, 201), esiti.stream().map(EsitoPrenotazioneDto::getStatus).toList());
+		assertEquals("Il dipendente " + contesa.getDipendenteId() + " ha già una prenotazione in data " + contesa.getDataPrenotazione() + ".",
+				esiti.get(1).getErrore());
+		assertEquals(3, datiDiProva.postiPrenotati(viaggio.getId()).size());
+		// I posti della prenotazione rifiutata tornano al viaggio
+		assertEquals(POSTI - 2, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+	}
+
+	// PRENOTAZIONI prenotazioni da un posto, una per coppia (dipendente, data), a partire da `giorniIndietro` giorni fa
+	private List<PrenotazioneDto> prenotazioni(int giorniIndietro) {
+		List<PrenotazioneDto> prenotazioni = new ArrayList<>();
+		for (int i = 0; i < PRENOTAZIONI; i++) {
+			PrenotazioneDto dto = new PrenotazioneDto();
+			dto.setDipendenteId(dipendenti.get(i % DIPENDENTI).getId());
+			dto.setIdViaggio(viaggio.getId());
+			dto.setNumeroPosti(1);
+			dto.setDataPrenotazione(LocalDate.now().minusDays(giorniIndietro + i / DIPENDENTI));
+			prenotazioni.add(dto);
+		}
+		return prenotazioni;
+	}
+}
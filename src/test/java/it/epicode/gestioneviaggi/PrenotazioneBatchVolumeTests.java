@@ -0,0 +1,85 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.EsitoPrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Tempi di saveBatch contro le chiamate singole a save: fuori dalla suite predefinita, si esegue con mvn -Pvolume test.
+// Gli esiti del batch sono verificati da PrenotazioneBatchTests
+@Tag("volume")
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+class PrenotazioneBatchVolumeTests {
+
+	private static final int PRENOTAZIONI = 1000;
+	private static final int DIPENDENTI = 50;
+	private static final int POSTI = 2 * PRENOTAZIONI;
+
+	@Autowired
+	private PrenotazioneService prenotazioneService;
+	@Autowired
+	private DatiDiProva datiDiProva;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@BeforeEach
+	void prepara() {
+		viaggio = datiDiProva.viaggio("Test volume batch", POSTI);
+		dipendenti.addAll(datiDiProva.dipendenti("volume-batch", DIPENDENTI));
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggio.getId());
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void batchControChiamateSingole() throws Exception {
+		// Le due serie usano date diverse per non violare il vincolo (dipendente, data)
+		List<PrenotazioneDto> singole = prenotazioni(0);
+		List<PrenotazioneDto> batch = prenotazioni(PRENOTAZIONI / DIPENDENTI);
+
+		long inizio = System.nanoTime();
+		for (PrenotazioneDto dto : singole) {
+			prenotazioneService.save(dto);
+		}
+		double secondiSingole = (System.nanoTime() - inizio) / 1_000_000_000.0;
+
+		inizio = System.nanoTime();
+		List<EsitoPrenotazioneDto> esiti = prenotazioneService.saveBatch(batch);
+		double secondiBatch = (System.nanoTime() - inizio) / 1_000_000_000.0;
+
+		assertEquals(PRENOTAZIONI, esiti.stream().filter(e -> e.getStatus() == 201).count());
+		System.out.printf("%d prenotazioni: chiamate singole %.3f s, batch %.3f s (%.1fx)%n",
+				PRENOTAZIONI, secondiSingole, secondiBatch, secondiSingole / secondiBatch);
+	}
+
+	// PRENOTAZIONI prenotazioni da un posto, una per coppia (dipendente, data), a partire da `giorniIndietro` giorni fa
+	private List<PrenotazioneDto> prenotazioni(int giorniIndietro) {
+		List<PrenotazioneDto> prenotazioni = new ArrayList<>();
+		for (int i = 0; i < PRENOTAZIONI; i++) {
+			PrenotazioneDto dto = new PrenotazioneDto();
+			dto.setDipendenteId(dipendenti.get(i % DIPENDENTI).getId());
+			dto.setIdViaggio(viaggio.getId());
+			dto.setNumeroPosti(1);
+			dto.setDataPrenotazione(LocalDate.now().minusDays(giorniIndietro + i / DIPENDENTI));
+			prenotazioni.add(dto);
+		}
+		return prenotazioni;
+	}
+}
@@ -0,0 +1,190 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.PostiLedger;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import it.epicode.gestioneviaggi.service.ViaggioService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Solo la correttezza sotto concorrenza; le richieste al secondo si misurano in PrenotazioneConcorrenzaVolumeTests
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+class PrenotazioneConcorrenzaTests {
+
+	private static final int POSTI = 100;
+	private static final int RICHIESTE = 400;
+	private static final int POSTI_PER_RICHIESTA = 2;
+
+	@Autowired
+	private PrenotazioneService prenotazioneService;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private PostiLedger postiLedger;
+	@Autowired
+	private ViaggioService viaggioService;
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@AfterEach
+	void pulisci() {
+		ReflectionTestUtils.setField(postiLedger, "attivo", false);
+		if (viaggio != null) {
+			datiDiProva.eliminaViaggio(viaggio.getId());
+		}
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void prenotazioniConcorrentiNonSuperanoIPosti() throws Exception {
+		eseguiPrenotazioniConcorrenti();
+
+		assertEquals(0, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+	}
+
+	@Test
+	void prenotazioniConcorrentiConLedgerInMemoria() throws Exception {
+		ReflectionTestUtils.setField(postiLedger, "attivo", true);
+
+		eseguiPrenotazioniConcorrenti();
+
+		postiLedger.flush();
+		assertEquals(0, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+	}
+
+	@Test
+	void ilFlushDelLedgerNonSovrascriveIPostiScalatiDaAltri() throws Exception {
+		ReflectionTestUtils.setField(postiLedger, "attivo", true);
+		creaViaggio();
+		creaDipendenti(1);
+
+		PrenotazioneDto dto = new PrenotazioneDto();
+		dto.setDipendenteId(dipendenti.get(0).getId());
+		dto.setIdViaggio(viaggio.getId());
+		dto.setNumeroPosti(POSTI_PER_RICHIESTA);
+		dto.setDataPrenotazione(LocalDate.now());
+		prenotazioneService.save(dto);
+		// Un'altra istanza scala dei posti sulla tabella prima del flush di questa
+		jdbcTemplate.update("update viaggio set posti_disponibili = posti_disponibili - 3 where id = ?", viaggio.getId());
+
+		postiLedger.flush();
+		assertEquals(POSTI - POSTI_PER_RICHIESTA - 3, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+	}
+
+	@Test
+	void laModificaDelViaggioNonSovrascriveIPostiPrenotatiNelFrattempo() throws Exception {
+		creaViaggio();
+		creaDipendenti(1);
+
+		transactionTemplate.executeWithoutResult(stato -> {
+			// Il viaggio è letto con tutti i posti disponibili...
+			assertEquals(POSTI, viaggioRepository.findById(viaggio.getId()).orElseThrow().getPostiDisponibili());
+			// ...una prenotazione viene confermata da un'altra transazione...
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				executor.submit(() -> {
+					PrenotazioneDto dto = new PrenotazioneDto();
+					dto.setDipendenteId(dipendenti.get(0).getId());
+					dto.setIdViaggio(viaggio.getId());
+					dto.setNumeroPosti(POSTI_PER_RICHIESTA);
+					dto.setDataPrenotazione(LocalDate.now());
+					return prenotazioneService.save(dto);
+				}).get();
+				// ...e la modifica salva l'entità letta prima della prenotazione
+				ViaggioDto modifica = new ViaggioDto();
+				modifica.setDestinazione("Test concorrenza modificato");
+				modifica.setData(viaggio.getData());
+				modifica.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+				modifica.setPostiDisponibili(POSTI);
+				viaggioService.update(viaggio.getId(), modifica);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			} finally {
+				executor.shutdownNow();
+			}
+		});
+
+		Viaggio modificato = viaggioRepository.findById(viaggio.getId()).orElseThrow();
+		assertEquals("Test concorrenza modificato", modificato.getDestinazione());
+		assertEquals(POSTI - POSTI_PER_RICHIESTA, modificato.getPostiDisponibili());
+	}
+
+	private void creaViaggio() {
+		viaggio = datiDiProva.viaggio("Test concorrenza", POSTI);
+	}
+
+	private void creaDipendenti(int quanti) {
+		dipendenti.addAll(datiDiProva.dipendenti("concorrenza", quanti));
+	}
+
+	private void eseguiPrenotazioniConcorrenti() throws Exception {
+		creaViaggio();
+		creaDipendenti(RICHIESTE);
+
+		AtomicInteger accettate = new AtomicInteger();
+		AtomicInteger rifiutate = new AtomicInteger();
+		CountDownLatch via = new CountDownLatch(1);
+		List<Future<?>> esiti = new ArrayList<>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(64);
+		try {
+			for (Dipendente dipendente : dipendenti) {
+				esiti.add(executor.submit(() -> {
+					PrenotazioneDto dto = new PrenotazioneDto();
+					dto.setDipendenteId(dipendente.getId());
+					dto.setIdViaggio(viaggio.getId());
+					dto.setNumeroPosti(POSTI_PER_RICHIESTA);
+					dto.setDataPrenotazione(LocalDate.now());
+					via.await();
+					try {
+						prenotazioneService.save(dto);
+						accettate.incrementAndGet();
+					} catch (ConflictException e) {
+						rifiutate.incrementAndGet();
+					}
+					return null;
+				}));
+			}
+			via.countDown();
+			for (Future<?> esito : esiti) {
+				esito.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		int postiPrenotati = datiDiProva.postiPrenotati(viaggio.getId()).stream().mapToInt(Integer::intValue).sum();
+		assertEquals(POSTI / POSTI_PER_RICHIESTA, accettate.get());
+		assertEquals(RICHIESTE - accettate.get(), rifiutate.get());
+		assertEquals(POSTI, postiPrenotati);
+	}
+}
@@ -0,0 +1,109 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.exception.ConflictException;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.service.PostiLedger;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Richieste di prenotazione al secondo con UPDATE condizionale e con il ledger in memoria:
+// fuori dalla suite predefinita, si esegue con mvn -Pvolume test. La correttezza è verificata da PrenotazioneConcorrenzaTests
+@Tag("volume")
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+class PrenotazioneConcorrenzaVolumeTests {
+
+	private static final int POSTI = 1000;
+	private static final int RICHIESTE = 4000;
+	private static final int THREAD = 64;
+
+	@Autowired
+	private PrenotazioneService prenotazioneService;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private PostiLedger postiLedger;
+
+	private Viaggio viaggio;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@AfterEach
+	void pulisci() {
+		ReflectionTestUtils.setField(postiLedger, "attivo", false);
+		if (viaggio != null) {
+			datiDiProva.eliminaViaggio(viaggio.getId());
+		}
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void updateCondizionale() throws Exception {
+		misura("UPDATE condizionale");
+	}
+
+	@Test
+	void ledgerInMemoria() throws Exception {
+		ReflectionTestUtils.setField(postiLedger, "attivo", true);
+		misura("ledger in memoria");
+		postiLedger.flush();
+	}
+
+	private void misura(String modalita) throws Exception {
+		viaggio = datiDiProva.viaggio("Test volume concorrenza", POSTI);
+		dipendenti.addAll(datiDiProva.dipendenti("volume-concorrenza", RICHIESTE));
+
+		AtomicInteger accettate = new AtomicInteger();
+		CountDownLatch via = new CountDownLatch(1);
+		List<Future<?>> esiti = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(THREAD);
+		double secondi;
+		try {
+			for (Dipendente dipendente : dipendenti) {
+				esiti.add(executor.submit(() -> {
+					PrenotazioneDto dto = new PrenotazioneDto();
+					dto.setDipendenteId(dipendente.getId());
+					dto.setIdViaggio(viaggio.getId());
+					dto.setNumeroPosti(1);
+					dto.setDataPrenotazione(LocalDate.now());
+					via.await();
+					try {
+						prenotazioneService.save(dto);
+						accettate.incrementAndGet();
+					} catch (ConflictException e) {
+						// Posti esauriti
+					}
+					return null;
+				}));
+			}
+			long inizio = System.nanoTime();
+			via.countDown();
+			for (Future<?> esito : esiti) {
+				esito.get();
+			}
+			secondi = (System.nanoTime() - inizio) / 1_000_000_000.0;
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(POSTI, accettate.get());
+		System.out.printf("Prenotazioni concorrenti (%s): %d richieste da %d thread in %.3f s (%.0f richieste/s)%n",
+				modalita, RICHIESTE, THREAD, secondi, RICHIESTE / secondi);
+	}
+}
@@ -0,0 +1,120 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.PaginaCursoreDto;
+import it.epicode.gestioneviaggi.dto.PrenotazioneDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Prenotazione;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import it.epicode.gestioneviaggi.repository.PrenotazioneRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.PrenotazioneService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Il dispatcher della outbox è spento: le statistiche di Hibernate sono globali e conterebbero il suo polling
+@SpringBootTest(properties = {
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"gestioneviaggi.mail.outbox.enabled=false"
+})
+class PrenotazioneLetturaTests {
+
+	private static final int PRENOTAZIONI = 1000;
+	private static final int VIAGGI = 20;
+	private static final int DIPENDENTI = 50;
+
+	@Autowired
+	private PrenotazioneService prenotazioneService;
+	@Autowired
+	private PrenotazioneRepository prenotazioneRepository;
+	@Autowired
+	private DipendenteRepository dipendenteRepository;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private final List<Viaggio> viaggi = new ArrayList<>();
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+	private final List<Prenotazione> prenotazioni = new ArrayList<>();
+	private Statistics statistiche;
+
+	@BeforeEach
+	void prepara() {
+		statistiche = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+		for (int i = 0; i < VIAGGI; i++) {
+			Viaggio viaggio = new Viaggio();
+			viaggio.setDestinazione("Test letture " + i);
+			viaggio.setData(LocalDate.now().plusDays(30));
+			viaggio.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+			viaggio.setPostiDisponibili(PRENOTAZIONI);
+			viaggi.add(viaggioRepository.save(viaggio));
+		}
+		for (int i = 0; i < DIPENDENTI; i++) {
+			Dipendente dipendente = new Dipendente();
+			dipendente.setUsername("letture-" + i + "-" + System.nanoTime());
+			dipendente.setNome("Nome" + i);
+			dipendente.setCognome("Cognome" + i);
+			dipendente.setEmail(dipendente.getUsername() + "@example.com");
+			dipendenti.add(dipendenteRepository.save(dipendente));
+		}
+		// Coppie (dipendente, data) distinte per rispettare il vincolo di unicità
+		List<Prenotazione> nuove = new ArrayList<>();
+		for (int i = 0; i < PRENOTAZIONI; i++) {
+			Prenotazione prenotazione = new Prenotazione();
+			prenotazione.setDipendente(dipendenti.get(i % DIPENDENTI));
+			prenotazione.setViaggio(viaggi.get(i % VIAGGI));
+			prenotazione.setDataPrenotazione(LocalDate.now().minusDays(i / DIPENDENTI));
+			prenotazione.setDataRichiesta(LocalDate.now());
+			prenotazione.setNumeroPosti(1);
+			nuove.add(prenotazione);
+		}
+		prenotazioni.addAll(prenotazioneRepository.saveAll(nuove));
+	}
+
+	@AfterEach
+	void pulisci() {
+		prenotazioneRepository.deleteAll(prenotazioni);
+		viaggioRepository.deleteAll(viaggi);
+		dipendenteRepository.deleteAll(dipendenti);
+	}
+
+	@Test
+	void paginaDiMillePrenotazioniInDueStatement() {
+		statistiche.clear();
+
+		Page<PrenotazioneDto> pagina = prenotazioneService.get(PageRequest.of(0, PRENOTAZIONI));
+
+		assertEquals(PRENOTAZIONI, pagina.getNumberOfElements());
+		// Una select per il contenuto e una per il conteggio, indipendentemente da viaggi e dipendenti distinti
+		assertEquals(2, statistiche.getPrepareStatementCount());
+		assertEquals(0, statistiche.getEntityLoadCount());
+	}
+
+	@Test
+	void paginaACursoreInUnoStatement() throws Exception {
+		statistiche.clear();
+
+		PaginaCursoreDto<PrenotazioneDto> pagina = prenotazioneService.get(null, 500);
+
+		assertEquals(500, pagina.getSize());
+		assertEquals(1, statistiche.getPrepareStatementCount());
+		assertEquals(0, statistiche.getEntityLoadCount());
+	}
+}
@@ -0,0 +1,152 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.controller.FiltroLetturaDopoScrittura;
+import it.epicode.gestioneviaggi.dto.FiltroViaggiDto;
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.repository.DataSourceInstradato;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.ViaggioService;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// La replica è un secondo database, non replicato: ogni lettura mostra da quale dei due arriva.
+// Predefinito un database sullo stesso server; con -Dreplica.url=jdbc:postgresql://localhost:5433/... una seconda istanza
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class ReplicaTests {
+
+	private static final String URL_REPLICA = System.getProperty("replica.url", "jdbc:postgresql://localhost:5432/gestioneviaggi_replica");
+
+	@DynamicPropertySource
+	static void replica(DynamicPropertyRegistry registry) {
+		registry.add("gestioneviaggi.replica.url", () -> URL_REPLICA);
+	}
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ViaggioService viaggioService;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+	@Autowired
+	private DataSourceProperties dataSourceProperties;
+
+	private Long viaggioPrimario;
+
+	@BeforeEach
+	void prepara() throws Exception {
+		String url = dataSourceProperties.determineUrl();
+		String database = URL_REPLICA.substring(URL_REPLICA.lastIndexOf('/') + 1);
+		if (URL_REPLICA.startsWith(url.substring(0, url.lastIndexOf('/') + 1))) {
+			try (Connection connection = connetti(url);
+			     Statement statement = connection.createStatement()) {
+				if (!statement.executeQuery("select 1 from pg_database where datname = '" + database + "'").next()) {
+					statement.execute("create database " + database);
+				}
+			}
+		}
+		// Sulla replica solo la tabella letta dalla ricerca, con un viaggio che il primario non ha
+		try (Connection connection = connetti(URL_REPLICA);
+		     Statement statement = connection.createStatement()) {
+			statement.execute("create table if not exists viaggio (id bigint primary key, data date not null, " +
+					"destinazione varchar(255) not null, destinazione_ricerca varchar(255) collate \"C\", " +
+					"posti_disponibili integer not null, stato_viaggio varchar(255))");
+			statement.execute("delete from viaggio");
+			statement.execute("insert into viaggio values (1, current_date + 30, 'Test replica lettura', " +
+					"'test replica lettura', 10, 'IN_PROGRAMMA')");
+		}
+		viaggioPrimario = viaggioService.save(viaggio("Test replica scrittura")).getId();
+	}
+
+	@AfterEach
+	void pulisci() {
+		DataSourceInstradato.annullaForzatura();
+		viaggioRepository.findAll().stream()
+				.filter(v -> v.getDestinazione().startsWith("Test replica"))
+				.forEach(viaggioRepository::delete);
+	}
+
+	@Test
+	void lettureReadOnlySullaReplicaScrittureSulPrimario() throws Exception {
+		assertEquals(List.of("Test replica lettura"), destinazioni());
+
+		DataSourceInstradato.forzaPrimario();
+		assertEquals(List.of("Test replica scrittura"), destinazioni());
+		DataSourceInstradato.annullaForzatura();
+
+		// La get(id) con cache resta sul primario
+		assertEquals("Test replica scrittura", viaggioService.get(viaggioPrimario).getDestinazione());
+	}
+
+	@Test
+	void ilClienteRileggeLeProprieScrittureDalPrimario() throws Exception {
+		mockMvc.perform(get("/viaggi/search").param("destinazione", "test replica"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.content", hasSize(1)))
+				.andExpect(jsonPath("$.content[0].destinazione", is("Test replica lettura")));
+
+		Cookie scrittura = mockMvc.perform(post("/viaggi").contentType(MediaType.APPLICATION_JSON)
+						.content("{\"destinazione\":\"Test replica nuovo\",\"data\":\"" + LocalDate.now().plusDays(40)
+								+ "\",\"statoViaggio\":\"IN_PROGRAMMA\",\"postiDisponibili\":5}"))
+				.andExpect(status().isCreated())
+				.andReturn().getResponse().getCookie(FiltroLetturaDopoScrittura.COOKIE);
+		assertNotNull(scrittura);
+
+		// Con il cookie il client legge dal primario e trova il viaggio appena creato
+		mockMvc.perform(get("/viaggi/search").param("destinazione", "test replica").cookie(scrittura))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.content", hasSize(2)))
+				.andExpect(jsonPath("$.content[1].destinazione", is("Test replica nuovo")));
+		// Senza, le letture restano sulla replica
+		mockMvc.perform(get("/viaggi/search").param("destinazione", "test replica"))
+				.andExpect(jsonPath("$.content", hasSize(1)));
+	}
+
+	private List<String> destinazioni() throws Exception {
+		FiltroViaggiDto filtro = new FiltroViaggiDto();
+		filtro.setDestinazione("Test replica");
+		return viaggioService.cerca(filtro, PageRequest.of(0, 20)).getContent().stream()
+				.map(ViaggioDto::getDestinazione)
+				.toList();
+	}
+
+	private Connection connetti(String url) throws Exception {
+		return DriverManager.getConnection(url, dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword());
+	}
+
+	private static ViaggioDto viaggio(String destinazione) {
+		ViaggioDto dto = new ViaggioDto();
+		dto.setDestinazione(destinazione);
+		dto.setData(LocalDate.now().plusDays(30));
+		dto.setStatoViaggio(StatoViaggio.IN_PROGRAMMA);
+		dto.setPostiDisponibili(10);
+		return dto;
+	}
+}
@@ -0,0 +1,172 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.model.Prenotazione;
+import it.epicode.gestioneviaggi.repository.PrenotazioneRepository;
+import it.epicode.gestioneviaggi.repository.ViaggioRepository;
+import it.epicode.gestioneviaggi.service.StatisticheService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+@AutoConfigureMockMvc
+class StatisticheTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private StatisticheService statisticheService;
+	@Autowired
+	private PrenotazioneRepository prenotazioneRepository;
+	@Autowired
+	private DatiDiProva datiDiProva;
+	@Autowired
+	private ViaggioRepository viaggioRepository;
+
+	private final LocalDate data = LocalDate.now().plusDays(40);
+	private String destinazione;
+	private Long viaggioId;
+	private final List<Dipendente> dipendenti = new ArrayList<>();
+
+	@BeforeEach
+	void prepara() throws Exception {
+		// Gli altri test scrivono direttamente con i repository: si riparte da un conteggio completo
+		statisticheService.ricostruisci();
+		destinazione = "Statistiche " + System.nanoTime();
+		String viaggio = "{\"destinazione\":\"" + destinazione + "\",\"data\":\"" + data
+				+ "\",\"statoViaggio\":\"IN_PROGRAMMA\",\"postiDisponibili\":10}";
+		viaggioId = leggi(mockMvc.perform(post("/viaggi").contentType(MediaType.APPLICATION_JSON).content(viaggio))
+				.andExpect(status().isCreated())
+				.andReturn().getResponse().getContentAsString()).get("id").asLong();
+		dipendenti.addAll(datiDiProva.dipendenti("statistiche", 2));
+	}
+
+	@AfterEach
+	void pulisci() {
+		datiDiProva.eliminaViaggio(viaggioId);
+		datiDiProva.eliminaDipendenti(dipendenti);
+	}
+
+	@Test
+	void leScrittureAggiornanoIContatori() throws Exception {
+		long prima = prenota(0, 3);
+		long seconda = prenota(1, 2);
+		// Rifiutata per i posti: la transazione annullata non cambia le statistiche
+		mockMvc.perform(post("/prenotazioni").contentType(MediaType.APPLICATION_JSON).content(corpo(0, 20, LocalDate.now().minusDays(1))))
+				.andExpect(status().isConflict());
+
+		JsonNode viaggio = statisticaViaggio();
+		assertEquals(10, viaggio.get("capienza").asInt());
+		assertEquals(2, viaggio.get("prenotazioni").asInt());
+		assertEquals(5, viaggio.get("postiPrenotati").asInt());
+		assertEquals(0.5, viaggio.get("tassoRiempimento").asDouble(), 1e-9);
+		JsonNode mese = statisticaDestinazione();
+		assertEquals(1, mese.get("viaggi").asInt());
+		assertEquals(2, mese.get("prenotazioni").asInt());
+		assertEquals(5, mese.get("postiPrenotati").asInt());
+
+		mockMvc.perform(put("/prenotazioni/" + prima).contentType(MediaType.APPLICATION_JSON).content(corpo(0, 1, LocalDate.now())))
+				.andExpect(status().isOk());
+		mockMvc.perform(delete("/prenotazioni/" + seconda)).andExpect(status().isNoContent());
+
+		viaggio = statisticaViaggio();
+		assertEquals(1, viaggio.get("prenotazioni").asInt());
+		assertEquals(1, viaggio.get("postiPrenotati").asInt());
+		assertEquals(1, statisticaDestinazione().get("postiPrenotati").asInt());
+		assertTrue(leggi(mockMvc.perform(get("/statistiche/verifica")).andReturn().getResponse().getContentAsString())
+				.get("coerente").asBoolean());
+	}
+
+	@Test
+	void laVerificaTrovaLePrenotazioniScritteFuoriDaiService() throws Exception {
+		prenota(0, 2);
+		Prenotazione diretta = new Prenotazione();
+		diretta.setViaggio(viaggioRepository.getReferenceById(viaggioId));
+		diretta.setDipendente(dipendenti.get(1));
+		diretta.setNumeroPosti(4);
+		diretta.setDataPrenotazione(LocalDate.now());
+		diretta.setDataRichiesta(LocalDate.now());
+		prenotazioneRepository.save(diretta);
+
+		JsonNode verifica = leggi(mockMvc.perform(get("/statistiche/verifica")).andReturn().getResponse().getContentAsString());
+		assertFalse(verifica.get("coerente").asBoolean());
+		assertTrue(verifica.get("differenze").toString().contains("Viaggio " + viaggioId + ": prenotazioni 1 invece di 2"),
+				verifica.toString());
+
+		// La ricostruzione riallinea i contatori
+		statisticheService.ricostruisci();
+		assertEquals(6, statisticaViaggio().get("postiPrenotati").asInt());
+	}
+
+	@Test
+	void intervalloNonValido400() throws Exception {
+		mockMvc.perform(get("/statistiche/destinazioni").param("dal", "2025-06").param("al", "2025-01"))
+				.andExpect(status().isBadRequest());
+	}
+
+	private long prenota(int dipendente, int posti) throws Exception {
+		return leggi(mockMvc.perform(post("/prenotazioni").contentType(MediaType.APPLICATION_JSON)
+						.content(corpo(dipendente, posti, LocalDate.now())))
+				.andExpect(status().isCreated())
+				.andReturn().getResponse().getContentAsString()).get("id").asLong();
+	}
+
+	private String corpo(int dipendente, int posti, LocalDate dataPrenotazione) {
+		return "{\"dipendenteId\":" + dipendenti.get(dipendente).getId() + ",\"idViaggio\":" + viaggioId
+				+ ",\"numeroPosti\":" + posti + ",\"dataPrenotazione\":\"" + dataPrenotazione + "\"}";
+	}
+
+	private JsonNode statisticaViaggio() throws Exception {
+		JsonNode righe = leggi(mockMvc.perform(get("/statistiche/viaggi").param("dal", data.toString()).param("al", data.toString()))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+		for (JsonNode riga : righe) {
+			if (riga.get("idViaggio").asLong() == viaggioId) {
+				return riga;
+			}
+		}
+		throw new AssertionError("Viaggio " + viaggioId + " assente dalle statistiche: " + righe);
+	}
+
+	private JsonNode statisticaDestinazione() throws Exception {
+		String mese = YearMonth.from(data).toString();
+		JsonNode righe = leggi(mockMvc.perform(get("/statistiche/destinazioni").param("dal", mese).param("al", mese))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getContentAsString());
+		for (JsonNode riga : righe) {
+			if (riga.get("destinazione").asText().equals(destinazione)) {
+				assertEquals(mese, riga.get("mese").asText());
+				return riga;
+			}
+		}
+		throw new AssertionError("Destinazione " + destinazione + " assente dalle statistiche: " + righe);
+	}
+
+	private JsonNode leggi(String json) throws Exception {
+		return objectMapper.readTree(json);
+	}
+}
@@ -0,0 +1,277 @@
+package it.epicode.gestioneviaggi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.epicode.gestioneviaggi.model.Dipendente;
+import it.epicode.gestioneviaggi.repository.DipendenteRepository;
+import it.epicode.gestioneviaggi.service.ImmagineUploader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMultipartHttpServletRequestBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Server reale per i caricamenti da 20 MB (il multipart di MockMvc starebbe comunque in memoria); Cloudinary è sostituito da un uploader finto
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"gestioneviaggi.mail.outbox.enabled=false",
+		"gestioneviaggi.upload.workers=2",
+		"gestioneviaggi.upload.coda=4"
+})
+@AutoConfigureMockMvc
+class UploadImmagineTests {
+
+	private static final int MB = 1024 * 1024;
+
+	@LocalServerPort
+	private int porta;
+	@Autowired
+	private MockMvc mockMvc;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private DipendenteRepository dipendenteRepository;
+	@Autowired
+	private UploaderFinto uploader;
+
+	private Dipendente dipendente;
+
+	@TestConfiguration
+	static class Configurazione {
+
+		@Bean
+		@Primary
+		UploaderFinto uploaderFinto() {
+			return new UploaderFinto();
+		}
+	}
+
+	// Registra i file ricevuti e la loro dimensione senza leggerli; può fallire o restare in attesa di un via
+	static class UploaderFinto implements ImmagineUploader {
+
+		final List<Path> ricevuti = Collections.synchronizedList(new ArrayList<>());
+		final Map<Path, Long> dimensioni = new ConcurrentHashMap<>();
+		volatile CountDownLatch via = new CountDownLatch(0);
+		volatile IOException errore;
+
+		@Override
+		public String carica(Path file) throws IOException {
+			ricevuti.add(file);
+			dimensioni.put(file, Files.size(file));
+			try {
+				via.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			if (errore != null) {
+				throw errore;
+			}
+			return "https://immagini.example.com/" + file.getFileName();
+		}
+	}
+
+	@BeforeEach
+	void prepara() {
+		uploader.ricevuti.clear();
+		uploader.dimensioni.clear();
+		uploader.via = new CountDownLatch(0);
+		uploader.errore = null;
+		dipendente = new Dipendente();
+		dipendente.setUsername("upload-" + System.nanoTime());
+		dipendente.setNome("Nome");
+		dipendente.setCognome("Cognome");
+		dipendente.setEmail(dipendente.getUsername() + "@example.com");
+		dipendente = dipendenteRepository.save(dipendente);
+	}
+
+	@AfterEach
+	void pulisci() {
+		uploader.via.countDown();
+		dipendenteRepository.deleteById(dipendente.getId());
+	}
+
+	@Test
+	void ilCaricamentoAccettatoVieneCompletato() throws Exception {
+		String location = mockMvc.perform(carica("foto".getBytes()))
+				.andExpect(status().isAccepted())
+				.andExpect(header().exists("Location"))
+				.andReturn().getResponse().getHeader("Location");
+
+		JsonNode job = attendiFine(location);
+		assertEquals("COMPLETATO", job.get("stato").asText());
+		Path temporaneo = uploader.ricevuti.get(0);
+		assertEquals("https://immagini.example.com/" + temporaneo.getFileName(), job.get("immagineProfiloUrl").asText());
+		assertEquals(job.get("immagineProfiloUrl").asText(),
+				dipendenteRepository.findById(dipendente.getId()).orElseThrow().getImmagineProfiloUrl());
+		assertEquals(4L, uploader.dimensioni.get(temporaneo));
+		assertFalse(Files.exists(temporaneo));
+	}
+
+	@Test
+	void ilCaricamentoFallitoRiportaLErrore() throws Exception {
+		uploader.errore = new IOException("Cloudinary non raggiungibile");
+		String location = mockMvc.perform(carica("foto".getBytes()))
+				.andExpect(status().isAccepted())
+				.andReturn().getResponse().getHeader("Location");
+
+		JsonNode job = attendiFine(location);
+		assertEquals("FALLITO", job.get("stato").asText());
+		assertEquals("Cloudinary non raggiungibile", job.get("errore").asText());
+		assertNull(dipendenteRepository.findById(dipendente.getId()).orElseThrow().getImmagineProfiloUrl());
+		assertFalse(Files.exists(uploader.ricevuti.get(0)));
+	}
+
+	@Test
+	void conLaCodaPienaRisponde503SenzaLasciareFile() throws Exception {
+		uploader.via = new CountDownLatch(1);
+		// Due worker occupati e quattro caricamenti in coda
+		List<String> accettati = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			accettati.add(mockMvc.perform(carica("foto".getBytes()))
+					.andExpect(status().isAccepted())
+					.andReturn().getResponse().getHeader("Location"));
+			// I primi due devono essere presi dai worker, altrimenti occupano posti della coda
+			long limite = System.currentTimeMillis() + 5000;
+			while (uploader.ricevuti.size() < Math.min(i + 1, 2) && System.currentTimeMillis() < limite) {
+				Thread.sleep(10);
+			}
+		}
+		long temporanei = fileTemporanei();
+
+		mockMvc.perform(carica("foto".getBytes())).andExpect(status().isServiceUnavailable());
+		assertEquals(temporanei, fileTemporanei());
+
+		uploader.via.countDown();
+		for (String location : accettati) {
+			assertEquals("COMPLETATO", attendiFine(location).get("stato").asText());
+		}
+	}
+
+	@Test
+	void caricamentiConcorrentiDa20MbNonPassanoDallaHeap() throws Exception {
+		int concorrenti = 4;
+		long dimensione = 20L * MB;
+		Path file = Files.createTempFile("immagine-test-", ".jpg");
+		try {
+			try (FileChannel canale = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				ByteBuffer blocco = ByteBuffer.allocate(MB);
+				for (int i = 0; i < dimensione / MB; i++) {
+					blocco.clear();
+					canale.write(blocco);
+				}
+			}
+			String confine = "confine" + System.nanoTime();
+			HttpRequest richiesta = HttpRequest.newBuilder(URI.create("http://localhost:" + porta + "/dipendenti/" + dipendente.getId() + "/immagine"))
+					.header("Content-Type", "multipart/form-data; boundary=" + confine)
+					.method("PATCH", HttpRequest.BodyPublishers.concat(
+							HttpRequest.BodyPublishers.ofString("--" + confine + "\r\nContent-Disposition: form-data; name=\"file\"; "
+									+ "filename=\"foto.jpg\"\r\nContent-Type: image/jpeg\r\n\r\n"),
+							HttpRequest.BodyPublishers.ofFile(file),
+							HttpRequest.BodyPublishers.ofString("\r\n--" + confine + "--\r\n")))
+					.build();
+
+			HttpClient client = HttpClient.newHttpClient();
+			Map<Long, Long> prima = allocazioniServer();
+			List<CompletableFuture<HttpResponse<String>>> risposte = new ArrayList<>();
+			for (int i = 0; i < concorrenti; i++) {
+				risposte.add(client.sendAsync(richiesta, HttpResponse.BodyHandlers.ofString()));
+			}
+			List<String> accettati = new ArrayList<>();
+			for (CompletableFuture<HttpResponse<String>> risposta : risposte) {
+				assertEquals(202, risposta.get().statusCode(), risposta.get().body());
+				accettati.add(risposta.get().headers().firstValue("Location").orElseThrow());
+			}
+			long allocati = allocazioniServer().entrySet().stream()
+					.mapToLong(e -> e.getValue() - prima.getOrDefault(e.getKey(), 0L))
+					.sum();
+			System.out.printf("Caricamenti concorrenti: %d da %d MB, %.1f MB allocati dai thread di Tomcat%n",
+					concorrenti, dimensione / MB, allocati / (double) MB);
+			// Con il file letto in memoria la heap riceverebbe almeno una copia di ogni caricamento
+			assertTrue(allocati < dimensione, "Allocati " + allocati + " byte per " + concorrenti * dimensione + " byte caricati");
+
+			for (String location : accettati) {
+				assertEquals("COMPLETATO", attendiFine(location).get("stato").asText());
+			}
+			assertEquals(concorrenti, uploader.dimensioni.size());
+			uploader.dimensioni.values().forEach(ricevuto -> assertEquals(dimensione, ricevuto));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private MockMultipartHttpServletRequestBuilder carica(byte[] contenuto) {
+		return multipart(HttpMethod.PATCH, "/dipendenti/" + dipendente.getId() + "/immagine")
+				.file(new MockMultipartFile("file", "foto.jpg", "image/jpeg", contenuto));
+	}
+
+	// Byte allocati finora da ciascun thread di richiesta di Tomcat
+	private static Map<Long, Long> allocazioniServer() {
+		com.sun.management.ThreadMXBean thread = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Map<Long, Long> allocazioni = new HashMap<>();
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().startsWith("http-nio-") && t.getName().contains("-exec-")) {
+				allocazioni.put(t.threadId(), thread.getThreadAllocatedBytes(t.threadId()));
+			}
+		}
+		return allocazioni;
+	}
+
+	private static long fileTemporanei() throws IOException {
+		try (Stream<Path> file = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+			return file.filter(f -> f.getFileName().toString().startsWith("immagine-profilo-")).count();
+		}
+	}
+
+	private JsonNode attendiFine(String location) throws Exception {
+		long limite = System.currentTimeMillis() + 10_000;
+		while (true) {
+			JsonNode job = objectMapper.readTree(mockMvc.perform(get(location))
+					.andExpect(status().isOk())
+					.andReturn().getResponse().getContentAsString());
+			String stato = job.get("stato").asText();
+			if (stato.equals("COMPLETATO") || stato.equals("FALLITO") || System.currentTimeMillis() > limite) {
+				return job;
+			}
+			Thread.sleep(20);
+		}
+	}
+}
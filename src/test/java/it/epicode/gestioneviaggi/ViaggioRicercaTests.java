@@ -0,0 +1,108 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.FiltroViaggiDto;
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.exception.ValidationException;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.service.ViaggioService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// I filtri della ricerca su pochi viaggi con una destinazione propria; piani e tempi su un milione di viaggi in ViaggioRicercaVolumeTests
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+class ViaggioRicercaTests {
+
+	@Autowired
+	private ViaggioService viaggioService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final String prefisso = "Ricerca" + System.nanoTime() + " ";
+
+	private long romaLuglio;
+	private long romagnaLuglio;
+	private long romaPochiPosti;
+	private long romaAgosto;
+	private long romaCompletato;
+	private long milano;
+	private long forli;
+
+	@BeforeEach
+	void prepara() {
+		romaLuglio = inserisci("Roma", LocalDate.of(2030, 7, 10), StatoViaggio.IN_PROGRAMMA, 5);
+		romagnaLuglio = inserisci("Romagna", LocalDate.of(2030, 7, 20), StatoViaggio.IN_PROGRAMMA, 2);
+		romaPochiPosti = inserisci("Roma", LocalDate.of(2030, 7, 15), StatoViaggio.IN_PROGRAMMA, 1);
+		romaAgosto = inserisci("Roma", LocalDate.of(2030, 8, 1), StatoViaggio.IN_PROGRAMMA, 10);
+		romaCompletato = inserisci("Roma", LocalDate.of(2030, 7, 12), StatoViaggio.COMPLETATO, 10);
+		milano = inserisci("Milano", LocalDate.of(2030, 7, 10), StatoViaggio.IN_PROGRAMMA, 10);
+		forli = inserisci("Forlì", LocalDate.of(2031, 1, 1), StatoViaggio.COMPLETATO, 0);
+	}
+
+	@AfterEach
+	void pulisci() {
+		jdbcTemplate.update("delete from viaggio where destinazione like ?", prefisso + "%");
+	}
+
+	@Test
+	void ogniFiltroRestringeIRisultati() throws Exception {
+		LocalDate dal = LocalDate.of(2030, 7, 1);
+		LocalDate al = LocalDate.of(2030, 7, 31);
+
+		assertEquals(List.of(romaLuglio, romagnaLuglio), cerca(filtro(prefisso + "Rom", dal, al, StatoViaggio.IN_PROGRAMMA, 2)));
+		assertEquals(List.of(romaLuglio, romaCompletato, romaPochiPosti, romagnaLuglio, romaAgosto),
+				cerca(filtro(prefisso + "Rom", null, null, null, null)));
+		assertEquals(List.of(romaLuglio, milano, romaPochiPosti, romagnaLuglio, romaAgosto),
+				cerca(filtro(prefisso, null, null, StatoViaggio.IN_PROGRAMMA, null)));
+		assertEquals(List.of(romaLuglio, romaCompletato, romaPochiPosti), cerca(filtro(prefisso + "Roma", dal, LocalDate.of(2030, 7, 15), null, null)));
+		assertEquals(List.of(romaAgosto, forli), cerca(filtro(prefisso, LocalDate.of(2030, 8, 1), null, null, null)));
+		assertEquals(List.of(milano, romaCompletato, romaAgosto), cerca(filtro(prefisso, null, null, null, 10)));
+	}
+
+	@Test
+	void ilPrefissoIgnoraMaiuscoleEAccenti() throws Exception {
+		assertEquals(List.of(forli), cerca(filtro(prefisso.toUpperCase() + "FORLI", null, null, null, null)));
+		assertEquals(List.of(forli), cerca(filtro("  " + prefisso.toLowerCase() + "forlì", null, null, null, null)));
+
+		Page<ViaggioDto> pagina = viaggioService.cerca(filtro(prefisso + "forli", null, null, null, null), PageRequest.of(0, 20));
+		assertEquals("Forlì", pagina.getContent().get(0).getDestinazione().substring(prefisso.length()));
+	}
+
+	@Test
+	void filtriNonValidi() {
+		assertThrows(ValidationException.class, () -> cerca(filtro(prefisso, LocalDate.of(2030, 8, 1), LocalDate.of(2030, 7, 1), null, null)));
+		assertThrows(ValidationException.class, () -> cerca(filtro(prefisso, null, null, null, -1)));
+	}
+
+	private List<Long> cerca(FiltroViaggiDto filtro) throws Exception {
+		return viaggioService.cerca(filtro, PageRequest.of(0, 20)).getContent().stream().map(ViaggioDto::getId).toList();
+	}
+
+	private long inserisci(String citta, LocalDate data, StatoViaggio stato, int posti) {
+		return jdbcTemplate.queryForObject("insert into viaggio (id, destinazione, destinazione_ricerca, data, stato_viaggio, posti_disponibili) " +
+						"values (nextval('viaggio_seq'), ?, ?, ?, ?, ?) returning id", Long.class,
+				prefisso + citta, Viaggio.normalizza(prefisso + citta), data, stato.name(), posti);
+	}
+
+	private static FiltroViaggiDto filtro(String destinazione, LocalDate dal, LocalDate al, StatoViaggio stato, Integer postiMinimi) {
+		FiltroViaggiDto filtro = new FiltroViaggiDto();
+		filtro.setDestinazione(destinazione);
+		filtro.setDal(dal);
+		filtro.setAl(al);
+		filtro.setStato(stato);
+		filtro.setPostiMinimi(postiMinimi);
+		return filtro;
+	}
+}
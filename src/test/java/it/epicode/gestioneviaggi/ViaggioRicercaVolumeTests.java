@@ -0,0 +1,134 @@
+package it.epicode.gestioneviaggi;
+
+import it.epicode.gestioneviaggi.dto.FiltroViaggiDto;
+import it.epicode.gestioneviaggi.dto.ViaggioDto;
+import it.epicode.gestioneviaggi.enumeration.StatoViaggio;
+import it.epicode.gestioneviaggi.model.Viaggio;
+import it.epicode.gestioneviaggi.service.ViaggioService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Piani e tempi della ricerca su un milione di viaggi: fuori dalla suite predefinita, si esegue con mvn -Pvolume test.
+// I filtri sono verificati su pochi viaggi da ViaggioRicercaTests
+@Tag("volume")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "gestioneviaggi.mail.outbox.enabled=false")
+class ViaggioRicercaVolumeTests {
+
+	private static final int VIAGGI = 1_000_000;
+	private static final List<String> CITTA = List.of("Roma", "Romagna", "Milano", "Napoli", "Torino", "Palermo",
+			"Genova", "Bologna", "Firenze", "Bari", "Catania", "Venezia", "Verona", "Messina", "Padova", "Trieste",
+			"Brescia", "Parma", "Taranto", "Prato", "Modena", "Reggio Calabria", "Perugia", "Livorno", "Ravenna",
+			"Cagliari", "Foggia", "Rimini", "Salerno", "Ferrara", "Sassari", "Latina", "Monza", "Siracusa", "Pescara",
+			"Bergamo", "Forlì", "Trento", "Vicenza", "Terni", "Bolzano", "Novara", "Piacenza", "Ancona", "Andria",
+			"Udine", "Arezzo", "Cesena", "Lecce", "Cefalù");
+	private static final LocalDate INIZIO = LocalDate.of(2030, 1, 1);
+
+	@Autowired
+	private ViaggioService viaggioService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private long ultimoIdPrecedente;
+
+	// Caricati una volta sola per tutta la classe
+	@BeforeAll
+	void prepara() {
+		ultimoIdPrecedente = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from viaggio", Long.class);
+		String citta = IntStream.range(0, CITTA.size())
+				.mapToObj(i -> "(" + i + ", '" + CITTA.get(i) + "', '" + Viaggio.normalizza(CITTA.get(i)) + "')")
+				.collect(Collectors.joining(", "));
+		// Un milione di viaggi su tre anni, stati e posti distribuiti in modo deterministico
+		jdbcTemplate.update("with citta(i, nome, ricerca) as (values " + citta + ") " +
+				"insert into viaggio (id, destinazione, destinazione_ricerca, data, stato_viaggio, posti_disponibili) " +
+				"select nextval('viaggio_seq'), c.nome, c.ricerca, ?::date + (g::bigint * 7919 % 1096)::int, " +
+				"case when g % 4 = 0 then 'COMPLETATO' else 'IN_PROGRAMMA' end, g * 31 % 51 " +
+				"from generate_series(1, ?) g join citta c on c.i = g * 17 % ?", INIZIO, VIAGGI, CITTA.size());
+		// Statistiche aggiornate e visibility map valorizzata, come su una tabella in esercizio
+		jdbcTemplate.execute("vacuum analyze viaggio");
+	}
+
+	@AfterAll
+	void pulisci() {
+		jdbcTemplate.update("delete from viaggio where id > ?", ultimoIdPrecedente);
+	}
+
+	@Test
+	void ricercaConIndiciSuUnMilioneDiViaggi() throws Exception {
+		String condizioneCompleta = "destinazione_ricerca like 'rom%' and data between '2030-07-01' and '2030-07-31' " +
+				"and stato_viaggio = 'IN_PROGRAMMA' and posti_disponibili >= 2";
+		String condizioneStato = "stato_viaggio = 'IN_PROGRAMMA' and data between '2030-07-01' and '2030-07-31'";
+
+		// Le stesse condizioni generate da ViaggioSpecifications, con l'ordinamento predefinito della ricerca
+		for (String condizione : List.of(condizioneCompleta, condizioneStato, "destinazione_ricerca like 'forli%'")) {
+			String piano = piano("select * from viaggio where " + condizione + " order by data, id limit 20");
+			assertFalse(piano.contains("Seq Scan"), piano);
+			String pianoConteggio = piano("select count(*) from viaggio where " + condizione);
+			assertFalse(pianoConteggio.contains("Seq Scan"), pianoConteggio);
+		}
+		// Tutti i filtri sono condizioni dell'indice composto: Postgres sceglie un index only scan o un bitmap scan
+		// a seconda della visibility map, ma non legge righe che poi scarta
+		String pianoConteggio = piano("select count(*) from viaggio where " + condizioneCompleta);
+		System.out.println("Piano del conteggio della ricerca completa:\n" + pianoConteggio);
+		assertTrue(pianoConteggio.contains("idx_viaggio_ricerca_data"), pianoConteggio);
+		assertTrue(pianoConteggio.contains("(posti_disponibili >= 2)"), pianoConteggio);
+
+		FiltroViaggiDto completo = filtro("Rom", LocalDate.of(2030, 7, 1), LocalDate.of(2030, 7, 31), StatoViaggio.IN_PROGRAMMA, 2);
+		FiltroViaggiDto perStato = filtro(null, LocalDate.of(2030, 7, 1), LocalDate.of(2030, 7, 31), StatoViaggio.IN_PROGRAMMA, null);
+		FiltroViaggiDto conAccento = filtro("FORLI", null, null, null, null);
+		misura("prefisso, date, stato e posti", completo);
+		misura("stato e date", perStato);
+		Page<ViaggioDto> forli = misura("solo prefisso senza accento", conAccento);
+
+		assertTrue(forli.getTotalElements() > 0);
+		assertTrue(forli.getContent().stream().allMatch(v -> v.getDestinazione().equals("Forlì")));
+		Page<ViaggioDto> roma = viaggioService.cerca(completo, PageRequest.of(0, 20));
+		assertTrue(roma.getContent().stream().allMatch(v -> v.getDestinazione().startsWith("Rom")
+				&& v.getPostiDisponibili() >= 2 && v.getStatoViaggio() == StatoViaggio.IN_PROGRAMMA
+				&& v.getData().getMonthValue() == 7));
+	}
+
+	private Page<ViaggioDto> misura(String descrizione, FiltroViaggiDto filtro) throws Exception {
+		viaggioService.cerca(filtro, PageRequest.of(0, 20)); // riscaldamento
+		int ripetizioni = 50;
+		Page<ViaggioDto> pagina = null;
+		long inizio = System.nanoTime();
+		for (int i = 0; i < ripetizioni; i++) {
+			pagina = viaggioService.cerca(filtro, PageRequest.of(0, 20));
+		}
+		double millisecondi = (System.nanoTime() - inizio) / 1_000_000.0 / ripetizioni;
+		System.out.printf("Ricerca viaggi (%s) su %d viaggi: %.2f ms per pagina, %d risultati totali%n",
+				descrizione, VIAGGI, millisecondi, pagina.getTotalElements());
+		return pagina;
+	}
+
+	private String piano(String sql) {
+		return String.join("\n", jdbcTemplate.queryForList("explain " + sql, String.class));
+	}
+
+	private static FiltroViaggiDto filtro(String destinazione, LocalDate dal, LocalDate al, StatoViaggio stato, Integer postiMinimi) {
+		FiltroViaggiDto filtro = new FiltroViaggiDto();
+		filtro.setDestinazione(destinazione);
+		filtro.setDal(dal);
+		filtro.setAl(al);
+		filtro.setStato(stato);
+		filtro.setPostiMinimi(postiMinimi);
+		return filtro;
+	}
+}